@@ -0,0 +1,320 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size set of bits that can be read and updated by several threads 
+ * without locks. Each bit is updated with a compare and set of its word, 
+ * and the number of bits set is kept in a counter, so that the state of 
+ * the pieces can be checked by the tasks without waiting for the 
+ * {@link DownloadManager}.
+ * <p>
+ * The operations that read several bits, as the cardinality or a copy as 
+ * a {@link BitSet}, are not atomic with respect to concurrent updates.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class AtomicBitSet {
+	
+	private final AtomicLongArray words;
+	private final AtomicInteger cardinality = new AtomicInteger();
+	private final int size;
+	
+	/**
+	 * Creates a set with all the bits cleared
+	 * @param size int the number of bits
+	 */
+	public AtomicBitSet(int size){
+		this.size = size;
+		this.words = new AtomicLongArray((size + 63) >>> 6);
+	}
+	
+	public boolean get(int i){
+		return (this.words.get(i >>> 6) & (1L << i)) != 0;
+	}
+	
+	public void set(int i){
+		this.set(i, true);
+	}
+	
+	public void clear(int i){
+		this.set(i, false);
+	}
+	
+	public void set(int i, boolean value){
+		this.compareAndSet(i, !value, value);
+	}
+	
+	/**
+	 * Clears all the bits, a word at a time
+	 */
+	public void clear(){
+		for (int w = 0; w < this.words.length(); w++) {
+			long old = this.words.getAndSet(w, 0);
+			if(old != 0){
+				this.cardinality.addAndGet(-Long.bitCount(old));
+			}
+		}
+	}
+	
+	/**
+	 * Sets the bit to the new value only if its value is the expected one
+	 * @param i int
+	 * @param expected boolean
+	 * @param value boolean
+	 * @return boolean true if the bit had the expected value
+	 */
+	public boolean compareAndSet(int i, boolean expected, boolean value){
+		int w = i >>> 6;
+		long mask = 1L << i;
+		while(true){
+			long old = this.words.get(w);
+			if(((old & mask) != 0) != expected){
+				return false;
+			}
+			if(expected == value){
+				return true;
+			}
+			long updated = value ? (old | mask) : (old & ~mask);
+			if(this.words.compareAndSet(w, old, updated)){
+				this.cardinality.addAndGet(value ? 1 : -1);
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of bits set
+	 * @return int
+	 */
+	public int cardinality(){
+		return this.cardinality.get();
+	}
+	
+	/**
+	 * Returns the index of the first bit set from the given index, or -1
+	 * @param from int
+	 * @return int
+	 */
+	public int nextSetBit(int from){
+		if(from < 0 || from >= this.size){
+			return -1;
+		}
+		int w = from >>> 6;
+		long word = this.words.get(w) & (-1L << from);
+		while(true){
+			if(word != 0){
+				int i = (w << 6) + Long.numberOfTrailingZeros(word);
+				return (i < this.size) ? i : -1;
+			}
+			if(++w == this.words.length()){
+				return -1;
+			}
+			word = this.words.get(w);
+		}
+	}
+	
+	/**
+	 * Returns the index of the first bit cleared from the given index, 
+	 * or the size if all the bits are set
+	 * @param from int
+	 * @return int
+	 */
+	public int nextClearBit(int from){
+		if(from >= this.size){
+			return this.size;
+		}
+		int w = from >>> 6;
+		long word = ~this.words.get(w) & (-1L << from);
+		while(true){
+			if(word != 0){
+				return Math.min(this.size, (w << 6) + Long.numberOfTrailingZeros(word));
+			}
+			if(++w == this.words.length()){
+				return this.size;
+			}
+			word = ~this.words.get(w);
+		}
+	}
+	
+	/**
+	 * Returns the number of bits set in the other set that are not set in 
+	 * this one
+	 * @param other BitSet
+	 * @return int
+	 */
+	public int cardinalityNotIn(BitSet other){
+		return this.cardinalityNotIn(other, null);
+	}
+	
+	/**
+	 * Returns the number of bits set in the other set that are set neither 
+	 * in this one nor in the given one. The set bits of the other set are 
+	 * visited with nextSetBit, so nothing is allocated, and the words where 
+	 * both sets are full are skipped at once.
+	 * @param other BitSet
+	 * @param also AtomicBitSet of the same size, or null
+	 * @return int
+	 */
+	public int cardinalityNotIn(BitSet other, AtomicBitSet also){
+		int n = 0;
+		int i = other.nextSetBit(0);
+		while(i >= 0 && i < this.size){
+			int next = this.nextClearBitNotIn(also, i);
+			if(next == -1){
+				break;
+			}
+			if(next == i){
+				n++;
+				next++;
+			}
+			i = other.nextSetBit(next);
+		}
+		return n;
+	}
+	
+	/**
+	 * Returns the number of bits set in the other set that are set neither 
+	 * in this one nor in the given one, a word at a time
+	 * @param other AtomicBitSet of the same size
+	 * @param also AtomicBitSet of the same size, or null
+	 * @return int
+	 */
+	public int cardinalityNotIn(AtomicBitSet other, AtomicBitSet also){
+		int n = 0;
+		int last = Math.min(other.words.length(), this.words.length());
+		for (int w = 0; w < last; w++) {
+			long word = other.words.get(w) & ~this.words.get(w) & this.mask(w);
+			if(also != null){
+				word &= ~also.words.get(w);
+			}
+			n += Long.bitCount(word);
+		}
+		return n;
+	}
+	
+	/**
+	 * Returns the index of the first bit, from the given index, that is set 
+	 * in the other set and not in this one, or -1
+	 * @param other BitSet
+	 * @param from int
+	 * @return int
+	 */
+	public int nextSetBitNotIn(BitSet other, int from){
+		if(from < 0 || from >= this.size){
+			return -1;
+		}
+		int i = other.nextSetBit(from);
+		while(i >= 0 && i < this.size){
+			int next = this.nextClearBitNotIn(null, i);
+			if(next == i || next == -1){
+				return next;
+			}
+			i = other.nextSetBit(next);
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the index of the first bit, from the given index, that is set 
+	 * neither in this set nor in the given one, or -1
+	 * @param also AtomicBitSet of the same size, or null
+	 * @param from int
+	 * @return int
+	 */
+	private int nextClearBitNotIn(AtomicBitSet also, int from){
+		for (int w = from >>> 6; w < this.words.length(); w++) {
+			long word = ~this.words.get(w) & this.mask(w);
+			if(also != null){
+				word &= ~also.words.get(w);
+			}
+			if(w == from >>> 6){
+				word &= -1L << from;
+			}
+			if(word != 0){
+				return (w << 6) + Long.numberOfTrailingZeros(word);
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the mask of the bits of the word that are inside the set
+	 * @param w int
+	 * @return long
+	 */
+	private long mask(int w){
+		int bits = this.size - (w << 6);
+		return bits >= 64 ? -1L : (1L << bits) - 1;
+	}
+	
+	/**
+	 * Returns a copy of the bits as a {@link BitSet}
+	 * @return BitSet
+	 */
+	public BitSet toBitSet(){
+		long[] copy = new long[this.words.length()];
+		for (int w = 0; w < copy.length; w++) {
+			copy[w] = this.words.get(w);
+		}
+		return BitSet.valueOf(copy);
+	}
+	
+	public int size(){
+		return this.size;
+	}
+	
+	public String toString(){
+		return this.toBitSet().toString();
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.util.BitSet;
+
+/**
+ * Conversions between the bitfield of the wire protocol and the packed 
+ * {@link BitSet} used in memory. In the wire format the first piece is 
+ * the highest bit of the first byte, while in a BitSet the first bit is 
+ * the lowest bit of the first word, so the bytes are bit-reversed and 
+ * packed eight by eight into words, without going through a boolean array.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class Bitfield {
+	
+	private Bitfield(){
+	}
+	
+	/**
+	 * Returns the pieces of the wire bitfield
+	 * @param bitfield byte[]
+	 * @return BitSet
+	 */
+	public static BitSet fromWire(byte[] bitfield){
+		
+		long[] words = new long[(bitfield.length + 7) >>> 3];
+		for (int i = 0; i < bitfield.length; i++) {
+			long b = Integer.reverse(bitfield[i] & 0xFF) >>> 24;
+			words[i >>> 3] |= b << ((i & 7) << 3);
+		}
+		return BitSet.valueOf(words);
+	}
+	
+	/**
+	 * Returns the wire bitfield of the first nbPieces bits of the set
+	 * @param set BitSet
+	 * @param nbPieces int
+	 * @return byte[]
+	 */
+	public static byte[] toWire(BitSet set, int nbPieces){
+		
+		byte[] bitfield = new byte[(nbPieces + 7) >>> 3];
+		long[] words = set.toLongArray();
+		for (int i = 0; i < bitfield.length && (i >>> 3) < words.length; i++) {
+			int b = (int) (words[i >>> 3] >>> ((i & 7) << 3)) & 0xFF;
+			bitfield[i] = (byte) (Integer.reverse(b) >>> 24);
+		}
+		int extra = (bitfield.length << 3) - nbPieces;
+		if(extra > 0){
+			bitfield[bitfield.length - 1] &= (byte) (0xFF << extra);
+		}
+		return bitfield;
+	}
+	
+	/**
+	 * Sets or clears the bit of the piece in a wire bitfield
+	 * @param bitfield byte[]
+	 * @param piece int
+	 * @param value boolean
+	 */
+	public static void set(byte[] bitfield, int piece, boolean value){
+		if(value){
+			bitfield[piece >>> 3] |= 1 << (7 - (piece & 7));
+		}else{
+			bitfield[piece >>> 3] &= ~(1 << (7 - (piece & 7)));
+		}
+	}
+	
+	/**
+	 * Returns the bits of the wire bitfield as a string of 0 and 1
+	 * @param bitfield byte[]
+	 * @return String
+	 */
+	public static String toString(byte[] bitfield){
+		StringBuilder sb = new StringBuilder(bitfield.length << 3);
+		for (int i = 0; i < bitfield.length << 3; i++) {
+			sb.append((bitfield[i >>> 3] & (1 << (7 - (i & 7)))) != 0 ? '1' : '0');
+		}
+		return sb.toString();
+	}
+
+}
@@ -45,6 +45,11 @@
 
 package jbittorrent;
 
+/**
+ * @deprecated the bitfields are kept as {@link java.util.BitSet} and converted 
+ * from and to the wire format with {@link Bitfield}
+ */
+@Deprecated
 public class Bits {
     private boolean[] bits;
 
@@ -0,0 +1,171 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Default {@link Choker}. While downloading, the peers are sorted by their 
+ * download rate (tit-for-tat), and while seeding by their upload rate. 
+ * <p>
+ * The number of upload slots is computed from the upload capacity, as the 
+ * mainline client does: 2 slots under 9 KB/s, 3 under 15 KB/s, 4 under 42 KB/s 
+ * and the square root of 0.6 times the capacity in KB/s above. The capacity 
+ * is the one set by the user or, if it is not set, the highest total upload 
+ * rate measured. While the measured upload rate is close to the capacity, 
+ * one more slot is opened to discover if the link can upload more.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class CapacityChoker implements Choker {
+	
+	private static final float PROBE_UTILIZATION = 0.9f;
+	
+	private float configuredCapacity = 0;
+	private float measuredCapacity = 0;
+	private int minSlots = 2;
+	private int maxSlots = 50;
+	private long rechokeInterval = 10000;
+	private long optimisticInterval = 30000;
+	private Random random = new Random();
+	
+	public synchronized void sort(List<Peer> peers, boolean seeding) {
+		if(seeding){
+			Collections.sort(peers, new ULRateComparator());
+		}else{
+			Collections.sort(peers, new DLRateComparator());
+		}
+	}
+	
+	public synchronized int getUploadSlots(List<Peer> peers, boolean seeding) {
+		
+		float rate = 0;
+		for(Peer p: peers){
+			rate += p.getULRate(false);
+		}
+		if(rate > this.measuredCapacity){
+			this.measuredCapacity = rate;
+		}
+		
+		float capacity = this.getUploadCapacity();
+		if(capacity == 0){
+			return this.minSlots + 2;
+		}
+		
+		int slots = slotsForCapacity(capacity / 1024);
+		if(this.configuredCapacity == 0 && rate >= PROBE_UTILIZATION * capacity){
+			slots++;
+		}
+		return Math.max(this.minSlots, Math.min(this.maxSlots, slots));
+	}
+	
+	/**
+	 * Returns the number of upload slots for the given capacity
+	 * @param kbps float the upload capacity, in KB/s
+	 * @return int
+	 */
+	public static int slotsForCapacity(float kbps){
+		if(kbps < 9){
+			return 2;
+		}else if(kbps < 15){
+			return 3;
+		}else if(kbps < 42){
+			return 4;
+		}
+		return (int) Math.sqrt(kbps * 0.6);
+	}
+	
+	public synchronized Peer chooseOptimistic(List<Peer> candidates) {
+		if(candidates.isEmpty()){
+			return null;
+		}
+		return candidates.get(this.random.nextInt(candidates.size()));
+	}
+	
+	public synchronized float getUploadCapacity() {
+		return (this.configuredCapacity > 0) ? this.configuredCapacity : this.measuredCapacity;
+	}
+	
+	/**
+	 * Sets the upload capacity, in bytes per second. With 0, the capacity 
+	 * is the highest upload rate measured.
+	 * @param capacity float
+	 */
+	public synchronized void setUploadCapacity(float capacity){
+		this.configuredCapacity = capacity;
+	}
+	
+	/**
+	 * Sets the limits of the number of upload slots
+	 * @param min int
+	 * @param max int
+	 */
+	public synchronized void setSlotLimits(int min, int max){
+		this.minSlots = min;
+		this.maxSlots = max;
+	}
+	
+	public synchronized long getRechokeInterval() {
+		return this.rechokeInterval;
+	}
+	
+	public synchronized void setRechokeInterval(long interval){
+		this.rechokeInterval = interval;
+	}
+	
+	public synchronized long getOptimisticInterval() {
+		return this.optimisticInterval;
+	}
+	
+	public synchronized void setOptimisticInterval(long interval){
+		this.optimisticInterval = interval;
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.util.List;
+
+/**
+ * Strategy used by the {@link DownloadManager} to choose the peers that are 
+ * unchoked and authorized to download from this client. Every rechoke interval 
+ * the manager asks the choker to sort the connected peers, best first, and 
+ * unchokes the first interested peers up to the number of upload slots. 
+ * Every optimistic interval the manager asks the choker for a choked peer to 
+ * unchoke no matter its rate.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public interface Choker {
+	
+	/**
+	 * Sorts the connected peers, the peers that should be unchoked first.
+	 * @param peers List the connected peers
+	 * @param seeding boolean True if this client has all the pieces
+	 */
+	public void sort(List<Peer> peers, boolean seeding);
+	
+	/**
+	 * Returns the number of interested peers that can be unchoked.
+	 * @param peers List the connected peers, sorted by the sort method
+	 * @param seeding boolean True if this client has all the pieces
+	 * @return int
+	 */
+	public int getUploadSlots(List<Peer> peers, boolean seeding);
+	
+	/**
+	 * Returns the peer to unchoke optimistically.
+	 * @param candidates List the interested peers that are choked
+	 * @return Peer the peer, or null if no peer must be unchoked
+	 */
+	public Peer chooseOptimistic(List<Peer> candidates);
+	
+	/**
+	 * Returns the upload capacity, in bytes per second, used to compute 
+	 * the number of upload slots, or 0 if it is not known yet.
+	 * @return float
+	 */
+	public float getUploadCapacity();
+	
+	/**
+	 * Returns the time, in milliseconds, between two rechokes
+	 * @return long
+	 */
+	public long getRechokeInterval();
+	
+	/**
+	 * Returns the time, in milliseconds, between two optimistic unchokes
+	 * @return long
+	 */
+	public long getOptimisticInterval();
+
+}
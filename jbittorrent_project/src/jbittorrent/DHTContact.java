@@ -0,0 +1,159 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A node of the DHT known by this client: its id, its address and when it 
+ * was last seen.
+ *
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ */
+public class DHTContact {
+	
+	/**
+	 * Length of the compact node info: id, IPv4 address and port
+	 */
+	public static final int COMPACT_LENGTH = 26;
+	
+	private byte[] id;
+	private InetSocketAddress address;
+	private long lastSeen;
+	private int nbFailures = 0;
+	
+	public DHTContact(byte[] id, InetSocketAddress address) {
+		this.id = id;
+		this.address = address;
+		this.lastSeen = System.currentTimeMillis();
+	}
+	
+	public byte[] getID() {
+		return this.id;
+	}
+	
+	public InetSocketAddress getAddress() {
+		return this.address;
+	}
+	
+	/**
+	 * Returns the key of the contact, "ip:port" as the peers
+	 * @return String
+	 */
+	public String getKey() {
+		return getKey(this.address);
+	}
+	
+	public static String getKey(InetSocketAddress address) {
+		return address.getAddress().getHostAddress() + ":" + address.getPort();
+	}
+	
+	public synchronized long getLastSeen() {
+		return this.lastSeen;
+	}
+	
+	public synchronized int getNbFailures() {
+		return this.nbFailures;
+	}
+	
+	/**
+	 * Records a message received from the node
+	 */
+	public synchronized void seen() {
+		this.lastSeen = System.currentTimeMillis();
+		this.nbFailures = 0;
+	}
+	
+	/**
+	 * Records a query to the node that was not answered
+	 */
+	public synchronized void failed() {
+		this.nbFailures++;
+	}
+	
+	/**
+	 * Returns the compact node info of the contact
+	 * @return byte[]
+	 */
+	public byte[] toCompact() {
+		ByteBuffer bb = ByteBuffer.allocate(COMPACT_LENGTH);
+		bb.put(this.id);
+		bb.put(this.address.getAddress().getAddress());
+		bb.putShort((short) this.address.getPort());
+		return bb.array();
+	}
+	
+	/**
+	 * Parses a list of compact node infos
+	 * @param nodes byte[]
+	 * @return List of DHTContact
+	 */
+	public static List<DHTContact> fromCompact(byte[] nodes) {
+		List<DHTContact> l = new ArrayList<DHTContact>();
+		for (int i = 0; i + COMPACT_LENGTH <= nodes.length; i += COMPACT_LENGTH) {
+			byte[] id = Utils.subArray(nodes, i, 20);
+			int port = ((nodes[i + 24] & 0xFF) << 8) | (nodes[i + 25] & 0xFF);
+			try {
+				InetAddress ip = InetAddress.getByAddress(Utils.subArray(nodes, i + 20, 4));
+				if(port > 0){
+					l.add(new DHTContact(id, new InetSocketAddress(ip, port)));
+				}
+			} catch (UnknownHostException uhe) {}
+		}
+		return l;
+	}
+	
+	public String toString() {
+		return Utils.bytesToHex(this.id) + "@" + this.getKey();
+	}
+
+}
@@ -0,0 +1,803 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Node of the mainline DHT (BEP 5), a Kademlia DHT that stores the peers of 
+ * each torrent in the nodes whose ids are closest to its info hash, so that 
+ * the peers can be found without a tracker.
+ * <p>
+ * The node answers the ping, find_node, get_peers and announce_peer queries 
+ * of the other nodes, and looks up the peers of a torrent with iterative 
+ * get_peers queries, ALPHA at a time, towards the K nodes closest to the info 
+ * hash, to which it then announces itself with the tokens they returned. The 
+ * tokens given to the other nodes are a hash of their IP address and a secret 
+ * that changes every 5 minutes; the tokens of the previous secret are still 
+ * accepted. The peers announced to this node are kept for 30 minutes.
+ * <p>
+ * The KRPC messages are sent and received through a {@link DatagramListener}, 
+ * which can be the UDP socket shared with the other UDP protocols of the client.
+ *
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ */
+public class DHTNode implements DatagramHandler {
+	
+	public static final int K = RoutingTable.K;
+	public static final int ALPHA = 3;
+	
+	public static final long TOKEN_ROTATION = 5 * 60000;
+	public static final long PEER_TTL = 30 * 60000;
+	
+	/**
+	 * Maximal number of peers in a get_peers response, so that it fits in a datagram
+	 */
+	public static final int MAX_VALUES = 50;
+	
+	public static final int ERROR_GENERIC = 201;
+	public static final int ERROR_PROTOCOL = 203;
+	public static final int ERROR_METHOD = 204;
+	
+	private static Logger logger = Logger.getLogger(DHTNode.class);
+	
+	/**
+	 * Query sent to a node, waiting for its response
+	 */
+	private static class Query {
+		int transaction;
+		InetSocketAddress address;
+		byte[] nodeID;
+		long deadline;
+		Map<String, Object> response = null;
+		LinkedBlockingQueue<Query> queue;
+	}
+	
+	/**
+	 * State of an iterative lookup
+	 */
+	private static class Lookup {
+		LinkedHashSet<InetSocketAddress> peers = new LinkedHashSet<InetSocketAddress>();
+		List<DHTContact> responded = new ArrayList<DHTContact>();
+		Map<String, byte[]> tokens = new HashMap<String, byte[]>();
+	}
+	
+	private byte[] id;
+	private DatagramListener listener;
+	private boolean ownListener = false;
+	private RoutingTable table;
+	
+	private final ConcurrentHashMap<Integer, Query> pending = new ConcurrentHashMap<Integer, Query>();
+	private final AtomicInteger nextTransaction;
+	private final ConcurrentHashMap<String, Map<InetSocketAddress, Long>> storedPeers = new ConcurrentHashMap<String, Map<InetSocketAddress, Long>>();
+	
+	private Random random = new Random();
+	private byte[] secret;
+	private byte[] previousSecret;
+	private long secretTime;
+	
+	private long queryTimeout = 2000;
+	
+	private long nbQueriesSent = 0;
+	private long nbQueriesReceived = 0;
+	private long nbResponses = 0;
+	private long nbTimeouts = 0;
+	private long nbLookups = 0;
+	private long totalLookupTime = 0;
+	private long lastLookupTime = 0;
+	private long maxLookupTime = 0;
+	
+	/**
+	 * Creates a node that shares the given UDP socket of the client
+	 * @param listener DatagramListener
+	 */
+	public DHTNode(DatagramListener listener) {
+		this.id = new byte[20];
+		this.random.nextBytes(this.id);
+		this.table = new RoutingTable(this.id);
+		this.nextTransaction = new AtomicInteger(this.random.nextInt());
+		this.secret = new byte[8];
+		this.random.nextBytes(this.secret);
+		this.previousSecret = this.secret;
+		this.secretTime = System.currentTimeMillis();
+		this.listener = listener;
+		this.listener.addDatagramHandler(this);
+	}
+	
+	/**
+	 * Creates a node with its own UDP socket bound to the given port
+	 * @param port int 0 for any free port
+	 * @throws SocketException if the port cannot be bound
+	 */
+	public DHTNode(int port) throws SocketException {
+		this(new DatagramListener(port));
+		this.ownListener = true;
+		this.listener.start();
+	}
+	
+	/**
+	 * Joins the DHT through the given nodes: asks them for the nodes closest 
+	 * to the id of this node, and looks up its own id to fill the routing table
+	 * @param nodes List of addresses of nodes already in the DHT
+	 * @return The number of contacts in the routing table
+	 */
+	public int bootstrap(List<InetSocketAddress> nodes) {
+		LinkedBlockingQueue<Query> queue = new LinkedBlockingQueue<Query>();
+		int sent = 0;
+		for (InetSocketAddress address : nodes) {
+			Map<String, Object> args = new HashMap<String, Object>();
+			args.put("target", this.id);
+			if(this.sendQuery(address, null, "find_node", args, queue) != null){
+				sent++;
+			}
+		}
+		List<DHTContact> found = new ArrayList<DHTContact>();
+		for (int i = 0; i < sent; i++) {
+			Query q = this.waitResponse(queue);
+			if(q != null && q.response != null && q.response.get("nodes") instanceof byte[]){
+				found.addAll(DHTContact.fromCompact((byte[]) q.response.get("nodes")));
+			}
+		}
+		this.lookup(this.id, false, found);
+		logger.info("DHT bootstrap: " + this.table.size() + " contacts");
+		return this.table.size();
+	}
+	
+	/**
+	 * Sends a ping to a node
+	 * @param address InetSocketAddress
+	 * @return true if the node answered
+	 */
+	public boolean ping(InetSocketAddress address) {
+		LinkedBlockingQueue<Query> queue = new LinkedBlockingQueue<Query>();
+		if(this.sendQuery(address, null, "ping", new HashMap<String, Object>(), queue) == null){
+			return false;
+		}
+		Query q = this.waitResponse(queue);
+		return q != null && q.response != null;
+	}
+	
+	/**
+	 * Looks up the peers of a torrent in the DHT
+	 * @param infoHash byte[]
+	 * @return List of the addresses of the peers found
+	 */
+	public List<InetSocketAddress> getPeers(byte[] infoHash) {
+		return new ArrayList<InetSocketAddress>(this.lookup(infoHash, true, null).peers);
+	}
+	
+	/**
+	 * Looks up the peers of a torrent in the DHT and announces this client as 
+	 * a peer of the torrent to the K closest nodes to its info hash
+	 * @param infoHash byte[]
+	 * @param port int the port of the client for the peer connections
+	 * @return List of the addresses of the peers found
+	 */
+	public List<InetSocketAddress> announce(byte[] infoHash, int port) {
+		Lookup lookup = this.lookup(infoHash, true, null);
+		LinkedBlockingQueue<Query> queue = new LinkedBlockingQueue<Query>();
+		int sent = 0;
+		for (DHTContact c : lookup.responded) {
+			byte[] token = lookup.tokens.get(c.getKey());
+			if(token == null){
+				continue;
+			}
+			Map<String, Object> args = new HashMap<String, Object>();
+			args.put("info_hash", infoHash);
+			args.put("port", Integer.valueOf(port));
+			args.put("token", token);
+			if(this.sendQuery(c.getAddress(), c.getID(), "announce_peer", args, queue) != null){
+				sent++;
+			}
+			if(sent >= K){
+				break;
+			}
+		}
+		for (int i = 0; i < sent; i++) {
+			this.waitResponse(queue);
+		}
+		return new ArrayList<InetSocketAddress>(lookup.peers);
+	}
+	
+	/**
+	 * Iterative lookup of the K nodes closest to the target, with find_node 
+	 * or get_peers queries. At most ALPHA queries are in flight, always to the 
+	 * closest nodes not queried yet, and the lookup ends when the K closest 
+	 * nodes known have answered or failed.
+	 * @param target byte[]
+	 * @param getPeers boolean
+	 * @param extra List of contacts to start with, besides the routing table
+	 * @return Lookup
+	 */
+	private Lookup lookup(byte[] target, boolean getPeers, List<DHTContact> extra) {
+		long start = System.currentTimeMillis();
+		Lookup lookup = new Lookup();
+		LinkedBlockingQueue<Query> queue = new LinkedBlockingQueue<Query>();
+		List<DHTContact> candidates = this.table.closest(target, K);
+		if(extra != null){
+			candidates.addAll(extra);
+		}
+		Set<String> seen = new HashSet<String>();
+		for (Iterator<DHTContact> it = candidates.iterator(); it.hasNext(); ) {
+			DHTContact c = it.next();
+			if(!seen.add(c.getKey()) || Utils.bytesCompare(c.getID(), this.id)){
+				it.remove();
+			}
+		}
+		Collections.sort(candidates, RoutingTable.distanceComparator(target));
+		Set<String> queried = new HashSet<String>();
+		Set<String> failed = new HashSet<String>();
+		Map<Integer, Query> inFlight = new HashMap<Integer, Query>();
+		
+		while(true){
+			int considered = 0;
+			for (DHTContact c : candidates) {
+				if(considered >= K || inFlight.size() >= ALPHA){
+					break;
+				}
+				if(failed.contains(c.getKey())){
+					continue;
+				}
+				considered++;
+				if(queried.add(c.getKey())){
+					Map<String, Object> args = new HashMap<String, Object>();
+					args.put(getPeers ? "info_hash" : "target", target);
+					Query q = this.sendQuery(c.getAddress(), c.getID(), getPeers ? "get_peers" : "find_node", args, queue);
+					if(q != null){
+						inFlight.put(q.transaction, q);
+					} else {
+						failed.add(c.getKey());
+					}
+				}
+			}
+			if(inFlight.isEmpty()){
+				break;
+			}
+			
+			long deadline = Long.MAX_VALUE;
+			for (Query q : inFlight.values()) {
+				deadline = Math.min(deadline, q.deadline);
+			}
+			Query q = null;
+			try {
+				q = queue.poll(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ie) {
+				break;
+			}
+			if(q == null){
+				long now = System.currentTimeMillis();
+				for (Iterator<Query> it = inFlight.values().iterator(); it.hasNext(); ) {
+					Query expired = it.next();
+					if(expired.deadline <= now){
+						it.remove();
+						this.expire(expired);
+						failed.add(DHTContact.getKey(expired.address));
+					}
+				}
+				continue;
+			}
+			inFlight.remove(q.transaction);
+			if(q.response == null){
+				failed.add(DHTContact.getKey(q.address));
+				continue;
+			}
+			
+			lookup.responded.add(new DHTContact(q.nodeID, q.address));
+			if(q.response.get("token") instanceof byte[]){
+				lookup.tokens.put(DHTContact.getKey(q.address), (byte[]) q.response.get("token"));
+			}
+			if(q.response.get("values") instanceof List){
+				for (Object value : (List<?>) q.response.get("values")) {
+					InetSocketAddress peer = value instanceof byte[] ? fromCompactPeer((byte[]) value) : null;
+					if(peer != null){
+						lookup.peers.add(peer);
+					}
+				}
+			}
+			if(q.response.get("nodes") instanceof byte[]){
+				boolean added = false;
+				for (DHTContact c : DHTContact.fromCompact((byte[]) q.response.get("nodes"))) {
+					if(!Utils.bytesCompare(c.getID(), this.id) && seen.add(c.getKey())){
+						candidates.add(c);
+						added = true;
+					}
+				}
+				if(added){
+					Collections.sort(candidates, RoutingTable.distanceComparator(target));
+				}
+			}
+		}
+		
+		Collections.sort(lookup.responded, RoutingTable.distanceComparator(target));
+		long time = System.currentTimeMillis() - start;
+		synchronized (this) {
+			this.nbLookups++;
+			this.totalLookupTime += time;
+			this.lastLookupTime = time;
+			this.maxLookupTime = Math.max(this.maxLookupTime, time);
+		}
+		return lookup;
+	}
+	
+	/**
+	 * Sends a query to a node
+	 * @param address InetSocketAddress
+	 * @param nodeID byte[] the id of the node, or null if it is not known
+	 * @param method String
+	 * @param args Map the arguments of the query, besides the id
+	 * @param queue LinkedBlockingQueue where the query is put when it is answered
+	 * @return The query, or null if it could not be sent
+	 */
+	private Query sendQuery(InetSocketAddress address, byte[] nodeID, String method, 
+			Map<String, Object> args, LinkedBlockingQueue<Query> queue) {
+		Query q = new Query();
+		q.address = address;
+		q.nodeID = nodeID;
+		q.queue = queue;
+		do {
+			q.transaction = this.nextTransaction.getAndIncrement() & 0xFFFF;
+		} while(this.pending.putIfAbsent(q.transaction, q) != null);
+		
+		args.put("id", this.id);
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("t", new byte[]{(byte) (q.transaction >> 8), (byte) q.transaction});
+		m.put("y", "q");
+		m.put("q", method);
+		m.put("a", args);
+		q.deadline = System.currentTimeMillis() + this.queryTimeout;
+		try {
+			this.listener.send(BEncoder.encode(m), address);
+		} catch (IOException ioe) {
+			this.pending.remove(q.transaction);
+			return null;
+		}
+		synchronized (this) {
+			this.nbQueriesSent++;
+		}
+		return q;
+	}
+	
+	/**
+	 * Waits for the next response of the queue, or the timeout of a query
+	 * @param queue LinkedBlockingQueue
+	 * @return The query answered, or null if no query was answered in time
+	 */
+	private Query waitResponse(LinkedBlockingQueue<Query> queue) {
+		try {
+			Query q = queue.poll(this.queryTimeout, TimeUnit.MILLISECONDS);
+			if(q != null){
+				return q;
+			}
+		} catch (InterruptedException ie) {}
+		long now = System.currentTimeMillis();
+		for (Query q : this.pending.values()) {
+			if(q.queue == queue && q.deadline <= now){
+				this.expire(q);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Forgets a query that was not answered in time
+	 * @param q Query
+	 */
+	private void expire(Query q) {
+		if(this.pending.remove(q.transaction, q)){
+			this.table.failed(q.nodeID);
+			synchronized (this) {
+				this.nbTimeouts++;
+			}
+		}
+	}
+	
+	/**
+	 * Handles the KRPC messages, which are bencoded dictionaries
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean datagramReceived(byte[] data, InetSocketAddress source) {
+		if(data.length == 0 || data[0] != 'd'){
+			return false;
+		}
+		Map<String, Object> m;
+		try {
+			m = BDecoder.decode(data);
+		} catch (Exception e) {
+			return true;
+		}
+		if(m == null || !(m.get("y") instanceof byte[]) || !(m.get("t") instanceof byte[]) 
+				|| ((byte[]) m.get("y")).length != 1){
+			return true;
+		}
+		byte[] transaction = (byte[]) m.get("t");
+		switch(((byte[]) m.get("y"))[0]){
+		case 'q':
+			this.handleQuery(m, transaction, source);
+			break;
+		case 'r':
+			this.handleResponse(transaction, source, m.get("r") instanceof Map ? (Map<String, Object>) m.get("r") : null);
+			break;
+		case 'e':
+			this.handleResponse(transaction, source, null);
+			break;
+		}
+		return true;
+	}
+	
+	private void handleResponse(byte[] transaction, InetSocketAddress source, Map<String, Object> r) {
+		if(transaction.length != 2){
+			return;
+		}
+		int t = ((transaction[0] & 0xFF) << 8) | (transaction[1] & 0xFF);
+		Query q = this.pending.get(t);
+		if(q == null || !q.address.equals(source) || !this.pending.remove(t, q)){
+			return;
+		}
+		if(r != null && r.get("id") instanceof byte[] && ((byte[]) r.get("id")).length == 20){
+			q.nodeID = (byte[]) r.get("id");
+			q.response = r;
+			this.table.seen(new DHTContact(q.nodeID, source));
+			synchronized (this) {
+				this.nbResponses++;
+			}
+		}
+		q.queue.add(q);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void handleQuery(Map<String, Object> m, byte[] transaction, InetSocketAddress source) {
+		synchronized (this) {
+			this.nbQueriesReceived++;
+		}
+		Map<String, Object> a = m.get("a") instanceof Map ? (Map<String, Object>) m.get("a") : null;
+		if(!(m.get("q") instanceof byte[]) || a == null || !(a.get("id") instanceof byte[]) 
+				|| ((byte[]) a.get("id")).length != 20){
+			this.sendError(transaction, source, ERROR_PROTOCOL, "Invalid query");
+			return;
+		}
+		this.table.seen(new DHTContact((byte[]) a.get("id"), source));
+		
+		String method = new String((byte[]) m.get("q"));
+		Map<String, Object> r = new HashMap<String, Object>();
+		r.put("id", this.id);
+		if(method.equals("ping")){
+			// Only the id
+		} else if(method.equals("find_node")){
+			byte[] target = getHash(a, "target");
+			if(target == null){
+				this.sendError(transaction, source, ERROR_PROTOCOL, "Invalid target");
+				return;
+			}
+			r.put("nodes", this.getCompactNodes(target));
+		} else if(method.equals("get_peers")){
+			byte[] infoHash = getHash(a, "info_hash");
+			if(infoHash == null){
+				this.sendError(transaction, source, ERROR_PROTOCOL, "Invalid info_hash");
+				return;
+			}
+			r.put("token", this.getToken(source.getAddress(), false));
+			List<byte[]> values = this.getStoredPeers(infoHash);
+			if(values.size() > 0){
+				r.put("values", values);
+			}
+			r.put("nodes", this.getCompactNodes(infoHash));
+		} else if(method.equals("announce_peer")){
+			byte[] infoHash = getHash(a, "info_hash");
+			byte[] token = a.get("token") instanceof byte[] ? (byte[]) a.get("token") : null;
+			if(infoHash == null || !(a.get("port") instanceof Long) || token == null){
+				this.sendError(transaction, source, ERROR_PROTOCOL, "Invalid announce");
+				return;
+			}
+			if(!Utils.bytesCompare(token, this.getToken(source.getAddress(), false)) 
+					&& !Utils.bytesCompare(token, this.getToken(source.getAddress(), true))){
+				this.sendError(transaction, source, ERROR_PROTOCOL, "Bad token");
+				return;
+			}
+			int port = ((Long) a.get("port")).intValue();
+			if(a.get("implied_port") instanceof Long && ((Long) a.get("implied_port")).intValue() == 1){
+				port = source.getPort();
+			}
+			this.storePeer(infoHash, new InetSocketAddress(source.getAddress(), port));
+		} else {
+			this.sendError(transaction, source, ERROR_METHOD, "Method Unknown");
+			return;
+		}
+		Map<String, Object> response = new HashMap<String, Object>();
+		response.put("t", transaction);
+		response.put("y", "r");
+		response.put("r", r);
+		this.send(response, source);
+	}
+	
+	private void sendError(byte[] transaction, InetSocketAddress destination, int code, String message) {
+		List<Object> e = new ArrayList<Object>();
+		e.add(Integer.valueOf(code));
+		e.add(message);
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("t", transaction);
+		m.put("y", "e");
+		m.put("e", e);
+		this.send(m, destination);
+	}
+	
+	private void send(Map<String, Object> m, InetSocketAddress destination) {
+		try {
+			this.listener.send(BEncoder.encode(m), destination);
+		} catch (IOException ioe) {
+			logger.debug("DHT message to " + destination + " not sent: " + ioe.getMessage());
+		}
+	}
+	
+	private static byte[] getHash(Map<String, Object> a, String key) {
+		Object hash = a.get(key);
+		return hash instanceof byte[] && ((byte[]) hash).length == 20 ? (byte[]) hash : null;
+	}
+	
+	private byte[] getCompactNodes(byte[] target) {
+		List<DHTContact> closest = this.table.closest(target, K);
+		byte[] nodes = new byte[closest.size() * DHTContact.COMPACT_LENGTH];
+		int i = 0;
+		for (DHTContact c : closest) {
+			if(c.getAddress().getAddress().getAddress().length == 4){
+				System.arraycopy(c.toCompact(), 0, nodes, i, DHTContact.COMPACT_LENGTH);
+				i += DHTContact.COMPACT_LENGTH;
+			}
+		}
+		return i == nodes.length ? nodes : Utils.subArray(nodes, 0, i);
+	}
+	
+	/**
+	 * Returns the token for the given address, with the current or the previous secret
+	 * @param ip InetAddress
+	 * @param previous boolean
+	 * @return byte[]
+	 */
+	private synchronized byte[] getToken(InetAddress ip, boolean previous) {
+		long now = System.currentTimeMillis();
+		if(now - this.secretTime > TOKEN_ROTATION){
+			this.previousSecret = this.secret;
+			this.secret = new byte[8];
+			this.random.nextBytes(this.secret);
+			this.secretTime = now;
+		}
+		byte[] hash = Utils.hash(Utils.concat(previous ? this.previousSecret : this.secret, ip.getAddress()));
+		return Utils.subArray(hash, 0, 8);
+	}
+	
+	private void storePeer(byte[] infoHash, InetSocketAddress peer) {
+		String key = Utils.bytesToHex(infoHash);
+		Map<InetSocketAddress, Long> peers = this.storedPeers.get(key);
+		if(peers == null){
+			this.storedPeers.putIfAbsent(key, Collections.synchronizedMap(new LinkedHashMap<InetSocketAddress, Long>()));
+			peers = this.storedPeers.get(key);
+		}
+		synchronized (peers) {
+			peers.remove(peer);
+			peers.put(peer, Long.valueOf(System.currentTimeMillis()));
+		}
+	}
+	
+	/**
+	 * Returns the compact infos of the most recent peers announced for the 
+	 * torrent, and forgets the peers that expired
+	 * @param infoHash byte[]
+	 * @return List of byte[]
+	 */
+	private List<byte[]> getStoredPeers(byte[] infoHash) {
+		List<byte[]> values = new ArrayList<byte[]>();
+		Map<InetSocketAddress, Long> peers = this.storedPeers.get(Utils.bytesToHex(infoHash));
+		if(peers == null){
+			return values;
+		}
+		long now = System.currentTimeMillis();
+		synchronized (peers) {
+			for (Iterator<Map.Entry<InetSocketAddress, Long>> it = peers.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<InetSocketAddress, Long> e = it.next();
+				if(now - e.getValue().longValue() > PEER_TTL){
+					it.remove();
+				}
+			}
+			List<InetSocketAddress> l = new ArrayList<InetSocketAddress>(peers.keySet());
+			for (int i = l.size() - 1; i >= 0 && values.size() < MAX_VALUES; i--) {
+				byte[] ip = l.get(i).getAddress().getAddress();
+				if(ip.length == 4){
+					values.add(Utils.concat(ip, new byte[]{(byte) (l.get(i).getPort() >> 8), (byte) l.get(i).getPort()}));
+				}
+			}
+		}
+		return values;
+	}
+	
+	private static InetSocketAddress fromCompactPeer(byte[] value) {
+		if(value.length != 6){
+			return null;
+		}
+		int port = ((value[4] & 0xFF) << 8) | (value[5] & 0xFF);
+		try {
+			return port > 0 ? new InetSocketAddress(InetAddress.getByAddress(Utils.subArray(value, 0, 4)), port) : null;
+		} catch (UnknownHostException uhe) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Stops handling the DHT messages, and closes the UDP socket if it is 
+	 * not shared
+	 */
+	public void close() {
+		this.listener.removeDatagramHandler(this);
+		if(this.ownListener){
+			this.listener.close();
+		}
+	}
+	
+	public byte[] getID() {
+		return this.id;
+	}
+	
+	public RoutingTable getRoutingTable() {
+		return this.table;
+	}
+	
+	public DatagramListener getDatagramListener() {
+		return this.listener;
+	}
+	
+	/**
+	 * Returns the address on which the node receives the DHT messages
+	 * @param ip InetAddress the address of this host
+	 * @return InetSocketAddress
+	 */
+	public InetSocketAddress getAddress(InetAddress ip) {
+		return new InetSocketAddress(ip, this.listener.getLocalPort());
+	}
+	
+	/**
+	 * Sets the time a query waits for its response, in ms (2 s by default)
+	 * @param timeout long
+	 */
+	public synchronized void setQueryTimeout(long timeout) {
+		this.queryTimeout = timeout;
+	}
+	
+	public synchronized long getQueryTimeout() {
+		return this.queryTimeout;
+	}
+	
+	/**
+	 * Returns the number of contacts in the routing table
+	 * @return int
+	 */
+	public int getRoutingTableSize() {
+		return this.table.size();
+	}
+	
+	/**
+	 * Returns the number of peers stored for the other nodes, all torrents included
+	 * @return int
+	 */
+	public int getNbStoredPeers() {
+		int nb = 0;
+		for (Map<InetSocketAddress, Long> peers : this.storedPeers.values()) {
+			nb += peers.size();
+		}
+		return nb;
+	}
+	
+	public synchronized long getNbQueriesSent() {
+		return this.nbQueriesSent;
+	}
+	
+	public synchronized long getNbQueriesReceived() {
+		return this.nbQueriesReceived;
+	}
+	
+	public synchronized long getNbResponses() {
+		return this.nbResponses;
+	}
+	
+	/**
+	 * Returns the number of queries sent that were not answered in time
+	 * @return long
+	 */
+	public synchronized long getNbTimeouts() {
+		return this.nbTimeouts;
+	}
+	
+	public synchronized long getNbLookups() {
+		return this.nbLookups;
+	}
+	
+	/**
+	 * Returns the average time of the lookups, in ms
+	 * @return long
+	 */
+	public synchronized long getAverageLookupLatency() {
+		return this.nbLookups == 0 ? 0 : this.totalLookupTime / this.nbLookups;
+	}
+	
+	public synchronized long getLastLookupLatency() {
+		return this.lastLookupTime;
+	}
+	
+	public synchronized long getMaxLookupLatency() {
+		return this.maxLookupTime;
+	}
+	
+	/**
+	 * Returns a summary of the state of the node, for the logs
+	 * @return String
+	 */
+	public synchronized String getStats() {
+		return "routing table: " + this.table.size() + " contacts in " + this.table.getNbBuckets() + " buckets"
+				+ " - lookups: " + this.nbLookups + " (average " + this.getAverageLookupLatency() + " ms, max " 
+				+ this.maxLookupTime + " ms) - queries sent: " + this.nbQueriesSent + ", received: " 
+				+ this.nbQueriesReceived + ", timeouts: " + this.nbTimeouts + " - stored peers: " + this.getNbStoredPeers();
+	}
+
+}
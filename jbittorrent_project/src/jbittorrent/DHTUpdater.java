@@ -0,0 +1,203 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import javax.swing.event.EventListenerList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Thread that regularly looks up the peers of a torrent in the DHT and 
+ * announces the client in it, as the {@link PeerUpdater} does with the 
+ * tracker. The peers found are sent to the same {@link PeerUpdateListener}s, 
+ * so the download goes on while the tracker is down.
+ *
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ */
+public class DHTUpdater extends Thread {
+	
+	private static Logger logger = Logger.getLogger(DHTUpdater.class);
+	
+	private DHTNode dht;
+	private TorrentFile torrent;
+	private int listeningPort;
+	private String ipAddress = null;
+	private List<InetSocketAddress> bootstrapNodes;
+	
+	/**
+	 * Time between the announces, in s
+	 */
+	private int interval = 15 * 60;
+	
+	/**
+	 * Time before the next announce when no peer was found, in s
+	 */
+	private int retryInterval = 30;
+	
+	private boolean end = false;
+	private final Object wait = new Object();
+	
+	private final EventListenerList listeners = new EventListenerList();
+	
+	/**
+	 * @param dht DHTNode
+	 * @param torrent TorrentFile
+	 * @param listeningPort int the port of the client for the peer connections
+	 * @param bootstrapNodes List of nodes to join the DHT through, or null if the node has already joined it
+	 */
+	public DHTUpdater(DHTNode dht, TorrentFile torrent, int listeningPort, List<InetSocketAddress> bootstrapNodes) {
+		super("DHTUpdater");
+		this.dht = dht;
+		this.torrent = torrent;
+		this.listeningPort = listeningPort;
+		this.bootstrapNodes = bootstrapNodes;
+		this.setDaemon(true);
+	}
+	
+	public void run() {
+		if(this.bootstrapNodes != null && this.bootstrapNodes.size() > 0){
+			this.dht.bootstrap(this.bootstrapNodes);
+		}
+		while(!this.end){
+			List<InetSocketAddress> found = this.dht.announce(this.torrent.info_hash_as_binary, this.listeningPort);
+			LinkedHashMap<String, Peer> l = new LinkedHashMap<String, Peer>();
+			for (InetSocketAddress address : found) {
+				Peer peer = new Peer();
+				peer.setIP(address.getAddress().getHostAddress());
+				peer.setPort(address.getPort());
+				peer.setListeningPort(address.getPort());
+				if(this.ipAddress == null || !this.ipAddress.equals(peer.getIP()) || this.listeningPort != peer.getPort()){
+					l.put(peer.toString(), peer);
+				}
+			}
+			logger.info("DHT lookup: " + l.size() + " peers in " + this.dht.getLastLookupLatency() + " ms");
+			if(l.size() > 0 && !this.end){
+				this.fireUpdatePeerList(l);
+			}
+			try {
+				synchronized (this.wait) {
+					if(!this.end){
+						this.wait.wait((l.size() > 0 ? this.interval : this.retryInterval) * 1000L);
+					}
+				}
+			} catch (InterruptedException ie) {}
+		}
+	}
+	
+	/**
+	 * Stops the updates
+	 */
+	public void end() {
+		synchronized (this.wait) {
+			this.end = true;
+			this.wait.notifyAll();
+		}
+	}
+	
+	public boolean isEnd() {
+		return this.end;
+	}
+	
+	/**
+	 * Sets the time between the announces, in s (15 minutes by default)
+	 * @param interval int
+	 */
+	public void setInterval(int interval) {
+		this.interval = interval;
+	}
+	
+	public int getInterval() {
+		return this.interval;
+	}
+	
+	/**
+	 * Sets the time before the next announce when no peer was found, in s (30 s by default)
+	 * @param retryInterval int
+	 */
+	public void setRetryInterval(int retryInterval) {
+		this.retryInterval = retryInterval;
+	}
+	
+	public int getRetryInterval() {
+		return this.retryInterval;
+	}
+	
+	public String getIpAddress() {
+		return this.ipAddress;
+	}
+	
+	public void setIpAddress(String ipAddress) {
+		this.ipAddress = ipAddress;
+	}
+	
+	public DHTNode getDHTNode() {
+		return this.dht;
+	}
+	
+	public void addPeerUpdateListener(PeerUpdateListener listener) {
+		this.listeners.add(PeerUpdateListener.class, listener);
+	}
+	
+	public void removePeerUpdateListener(PeerUpdateListener listener) {
+		this.listeners.remove(PeerUpdateListener.class, listener);
+	}
+	
+	public PeerUpdateListener[] getPeerUpdateListeners() {
+		return this.listeners.getListeners(PeerUpdateListener.class);
+	}
+	
+	protected void fireUpdatePeerList(LinkedHashMap<String, Peer> l) {
+		for (PeerUpdateListener listener : this.getPeerUpdateListeners()) {
+			listener.updatePeerList(l);
+		}
+	}
+
+}
@@ -58,10 +58,13 @@ import java.util.BitSet;
 public interface DTListener extends EventListener{
 	
 	public void receivePieceBlock(String peerID);
+	public void blockRequested(String peerID, int piece, int begin, int length);
+	public void blockReceived(String peerID, int piece, int begin, int length);
     public void pieceCompleted(String peerID, int pieceNB, boolean complete, DownloadTask dt);
     public void pieceRequestActive(int pieceNB, boolean requested);
     public void taskCompleted(DownloadTask dt, int reason);
     public void peerAvailability(String id, BitSet hasPiece);
+    public void peerHave(String id, int pieceNB);
     public void peerReady(String id);
     public void peerRequest(String peerID, int piece, int begin, int length, DownloadTask dt);
     public void addActiveTask(String id, DownloadTask dt);
@@ -0,0 +1,204 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Thread that owns the UDP socket of the client and hands every datagram 
+ * received to the {@link DatagramHandler}s registered, so that the UDP 
+ * protocols (the DHT, ...) share a single socket. By default it is bound to 
+ * the same port number as the {@link ConnectionListener}, as the peers expect.
+ *
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ */
+public class DatagramListener extends Thread {
+	
+	private static Logger logger = Logger.getLogger(DatagramListener.class);
+	
+	private static final int MAX_PACKET_SIZE = 65507;
+	
+	private DatagramSocket socket;
+	private final CopyOnWriteArrayList<DatagramHandler> handlers = new CopyOnWriteArrayList<DatagramHandler>();
+	private volatile NetworkEmulator emulator = null;
+	
+	private long nbReceived = 0;
+	private long nbSent = 0;
+	private long nbUnhandled = 0;
+	
+	/**
+	 * Creates the listener bound to the given port, or to any free port if it is 0
+	 * @param port int
+	 * @throws SocketException if the port cannot be bound
+	 */
+	public DatagramListener(int port) throws SocketException {
+		this(new DatagramSocket(port));
+	}
+	
+	/**
+	 * Creates the listener for an already bound socket
+	 * @param socket DatagramSocket
+	 */
+	public DatagramListener(DatagramSocket socket) {
+		super("DatagramListener " + socket.getLocalPort());
+		this.socket = socket;
+		this.setDaemon(true);
+	}
+	
+	public void addDatagramHandler(DatagramHandler handler) {
+		this.handlers.add(handler);
+	}
+	
+	public void removeDatagramHandler(DatagramHandler handler) {
+		this.handlers.remove(handler);
+	}
+	
+	/**
+	 * Sends the datagrams through the given emulated network, for the tests
+	 * @param emulator NetworkEmulator, or null to send them directly
+	 */
+	public void setNetworkEmulator(NetworkEmulator emulator) {
+		this.emulator = emulator;
+	}
+	
+	public NetworkEmulator getNetworkEmulator() {
+		return this.emulator;
+	}
+	
+	/**
+	 * Sends a datagram from the socket of the client
+	 * @param data byte[]
+	 * @param destination InetSocketAddress
+	 * @throws IOException
+	 */
+	public void send(byte[] data, InetSocketAddress destination) throws IOException {
+		NetworkEmulator emulator = this.emulator;
+		if(emulator != null){
+			emulator.send(this, data, destination);
+		}else{
+			this.sendNow(data, destination);
+		}
+	}
+	
+	void sendNow(byte[] data, InetSocketAddress destination) throws IOException {
+		this.socket.send(new DatagramPacket(data, data.length, destination));
+		synchronized (this) {
+			this.nbSent++;
+		}
+	}
+	
+	public void run() {
+		byte[] buffer = new byte[MAX_PACKET_SIZE];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while (!this.socket.isClosed()) {
+			try {
+				packet.setLength(buffer.length);
+				this.socket.receive(packet);
+			} catch (IOException ioe) {
+				if(!this.socket.isClosed()){
+					logger.warn("Error receiving datagram: " + ioe.getMessage());
+				}
+				continue;
+			}
+			byte[] data = new byte[packet.getLength()];
+			System.arraycopy(buffer, 0, data, 0, data.length);
+			InetSocketAddress source = (InetSocketAddress) packet.getSocketAddress();
+			boolean handled = false;
+			for (DatagramHandler handler : this.handlers) {
+				try {
+					if(handler.datagramReceived(data, source)){
+						handled = true;
+						break;
+					}
+				} catch (Exception e) {
+					logger.error("Error handling datagram from " + source + ": " + e);
+				}
+			}
+			synchronized (this) {
+				this.nbReceived++;
+				if(!handled){
+					this.nbUnhandled++;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Closes the socket, which ends the thread
+	 */
+	public void close() {
+		this.socket.close();
+	}
+	
+	public int getLocalPort() {
+		return this.socket.getLocalPort();
+	}
+	
+	public synchronized long getNbReceived() {
+		return this.nbReceived;
+	}
+	
+	public synchronized long getNbSent() {
+		return this.nbSent;
+	}
+	
+	/**
+	 * Returns the number of datagrams received that no handler accepted
+	 * @return long
+	 */
+	public synchronized long getNbUnhandled() {
+		return this.nbUnhandled;
+	}
+
+}
@@ -49,22 +49,33 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -80,12 +91,21 @@ import org.apache.log4j.Logger;
  */
 public class DownloadManager extends Thread implements DTListener, PeerUpdateListener, ConListenerInterface{
 	
+	/**
+	 * Priorities of the files of the torrent. The skipped files are not 
+	 * downloaded nor preallocated, only the pieces shared with other files are saved.
+	 */
+	public static final int PRIORITY_SKIP = 0;
+	public static final int PRIORITY_LOW = 1;
+	public static final int PRIORITY_NORMAL = 2;
+	public static final int PRIORITY_HIGH = 3;
+	
 	private int blockSize = PeerProtocol.BLOCK_SIZE;
 	
 	private DownloadManagerListener downloadManagerListener = null;
 	
 	private long lastTimeSendPieceBlock = -1;
-	private long lastTimeReceivePieceBlock = -1;
+	private volatile long lastTimeReceivePieceBlock = -1;
 	private long initTimeStartedProtocol = -1;
 	
 	private static Logger logger = Logger.getLogger(DownloadManager.class);
@@ -93,7 +113,7 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
 	private int intervalUpdateListPeers = 60;
 	
 	private float thresholdEndGameTest = -1;
-	private Piece downloadEndGamePiece = null;
+	private int nbCancelSent = 0;
 	
 	//For logs
 	private boolean saveInformationPieceTransfer = false;
@@ -115,29 +135,149 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
     private long length = 0;
     private long left = 0;
     private Piece[] pieceList;
-    private BitSet isComplete;
-    private BitSet isActiveRequests;
-    private BitSet isRequested;
-    private BitSet isPieceSent;
+    private AtomicBitSet isComplete;
+    private byte[] bitfield;
+    private AtomicBitSet isActiveRequests;
+    private AtomicBitSet isRequested;
+    private AtomicBitSet isPieceSent;
+    private AtomicBitSet isPriority;
     private int nbPieces;
     private RandomAccessFile[] output_files;
+    private File[] output_paths;
+    private long[] fileOffsets;
+    private int[] filePriority;
+    private int[] piecePriority;
+    private boolean strictPieceOwnership = false;
+    private AtomicBitSet isPartial;
+    /**
+     * Pieces partial or requested and not complete, kept up to date at every 
+     * change of the state of a piece so that they are not counted at every pick
+     */
+    private AtomicBitSet inProgress;
+    private AtomicInteger nbPiecesInProgress = new AtomicInteger();
+    /*
+     * Locks of the changes of state of the pieces, one for several pieces, 
+     * so that the pieces are not notified to the pickers one at a time
+     */
+    private Object[] pieceLocks;
+    /*
+     * Last state of each piece given to the pickers, which are only told 
+     * when the state changes
+     */
+    private AtomicBitSet notifiedComplete;
+    private AtomicBitSet notifiedActive;
+    private Set<String> activePeers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private float partialPiecesFactor = 1.5f;
+    private AtomicBitSet isWanted;
+    private boolean wantedCompleteReported = false;
+    /**
+     * Number of pieces wanted and not complete, and number of their blocks neither 
+     * received nor requested, kept up to date by the pieces, so that the End Game 
+     * test does not scan the pieces
+     */
+    private AtomicInteger nbWantedPending = new AtomicInteger();
+    private AtomicInteger nbUnrequestedBlocks = new AtomicInteger();
 
-    private PeerUpdater pu = null;
+    private volatile PeerUpdater pu = null;
     private ConnectionListener cl = null;
+    
+    private DatagramListener udp = null;
+    private DHTNode dht = null;
+    private DHTUpdater dhtUpdater = null;
+    private boolean ownDHT = false;
+    private UTPManager utp = null;
+    private List<WebSeed> webSeeds = new ArrayList<WebSeed>();
 
     private List<Peer> unchokeList = new LinkedList<Peer>();
 
-    private LinkedHashMap<String, Peer> peerList = new LinkedHashMap<String, Peer>();
-    private LinkedHashMap<String, Peer> peerIdTrackerList = new LinkedHashMap<String, Peer>();
-    private LinkedHashMap<String, Peer> peerIPListeningPortList = new LinkedHashMap<String, Peer>();
-    private TreeMap<String, DownloadTask> task = new TreeMap<String, DownloadTask>();
-    private LinkedHashMap<String, BitSet> peerAvailabilies = new LinkedHashMap<String, BitSet>();
+    private ConcurrentHashMap<String, Peer> peerList = new ConcurrentHashMap<String, Peer>();
+    private ConcurrentHashMap<String, Peer> peerIdTrackerList = new ConcurrentHashMap<String, Peer>();
+    private ConcurrentHashMap<String, Peer> peerIPListeningPortList = new ConcurrentHashMap<String, Peer>();
+    private ConcurrentSkipListMap<String, DownloadTask> task = new ConcurrentSkipListMap<String, DownloadTask>();
+    private ConcurrentHashMap<String, BitSet> peerAvailabilies = new ConcurrentHashMap<String, BitSet>();
+    /**
+     * Blocks requested to each peer, by piece, used to send the cancellation 
+     * messages when a block is received from another peer.
+     */
+    private HashMap<Integer, LinkedHashMap<String, BitSet>> blockRequests = new HashMap<Integer, LinkedHashMap<String, BitSet>>();
+    private PieceAvailability pieceAvailability;
+    private volatile PiecePicker piecePicker;
+    private volatile PiecePicker endGamePiecePicker;
+    private volatile StreamingWindow streamingWindow = null;
+    private long[] pieceStartTime;
+    private long stuckPieceTimeout = 30000;
+    /**
+     * Pieces being downloaded by slow peers and by peers that are not slow, rebuilt 
+     * when the speed classes are measured and updated when a piece is given to a task
+     */
+    private AtomicBitSet slowPieces;
+    private AtomicBitSet fastPieces;
 
+    /**
+     * Lock of the choking state: the peers unchoked and the choked peers that 
+     * are candidates to the optimistic unchoke. The rechoke is done under this 
+     * lock, not under the lock of this manager.
+     */
+    private final Object chokeLock = new Object();
     private LinkedHashMap<String, Peer> unchoken = new LinkedHashMap<String,Peer>();
     private long lastUnchoking = 0;
-    private short optimisticUnchoke = 3;
+    private long lastOptimisticUnchoke = 0;
+    private volatile Choker choker = new CapacityChoker();
+    private volatile Choker seedingChoker;
+    
+    private volatile EventLoop eventLoop = null;
+    
+    private boolean haveSuppression = true;
+    private volatile boolean lazyBitfield = false;
+    private long haveCoalesceWindow = 100;
+    private ConcurrentHashMap<String, ConcurrentLinkedQueue<Integer>> pendingHaves = new ConcurrentHashMap<String, ConcurrentLinkedQueue<Integer>>();
+    private AtomicLong nbHaveSent = new AtomicLong();
+    private AtomicLong nbHaveSuppressed = new AtomicLong();
+    
+    /**
+     * Maximum number of complete pieces hidden from the bitfield with the lazy bitfield
+     */
+    private static final int LAZY_BITFIELD_PIECES = 8;
+    
+    /**
+     * Number of locks of the changes of state of the pieces, a power of 2
+     */
+    private static final int PIECE_LOCK_STRIPES = 64;
+    
+    /**
+     * Interval, in milliseconds, of the periodic rechoke and peer exchange
+     */
+    private static final long REFRESH_INTERVAL = 1000;
+    
+    private boolean peerExchange = true;
+    private long peerExchangeInterval = 60000;
+    private long lastPeerExchange = 0;
+    private ConcurrentLinkedQueue<String> pexCandidates = new ConcurrentLinkedQueue<String>();
+    private AtomicLong nbPexSent = new AtomicLong();
+    private AtomicLong nbPexReceived = new AtomicLong();
+    private AtomicLong nbPexPeers = new AtomicLong();
+    
+    private int allowedFastSetSize = FastExtension.ALLOWED_FAST_SET_SIZE;
+    private AtomicLong nbRejectsSent = new AtomicLong();
+    private AtomicLong nbRejectsReceived = new AtomicLong();
+    private AtomicLong nbAllowedFastServed = new AtomicLong();
+    private AtomicLong nbSuggestsSent = new AtomicLong();
+    private AtomicLong nbSuggestedPieces = new AtomicLong();
+    
+    /*
+     * Last complete pieces read from the files, by order of access. The requests 
+     * of the other blocks of a piece do not read the whole piece again.
+     */
+    private LinkedHashMap<Integer, byte[]> readCache = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true);
+    private int readCacheSize = 4 * 1024 * 1024;
+    private int readCacheBytes = 0;
+    private AtomicLong nbReadCacheHits = new AtomicLong();
+    private AtomicLong nbReadCacheMisses = new AtomicLong();
+    
+    private volatile boolean superSeeding = false;
+    private volatile SuperSeedOffers superSeedOffers;
     private String savePath;
-    private boolean runBlockUntil;
+    private volatile boolean runBlockUntil;
     
     
     /**
@@ -221,6 +361,31 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
     	this.initialization();
     }
     
+    /**
+     * Creates a new manager in accord to the given torrent, 
+     * using the client ID provided and the path where is saved the downloaded file, 
+     * with the given priority for each file of the torrent 
+     * ({@link #PRIORITY_SKIP}, {@link #PRIORITY_LOW}, {@link #PRIORITY_NORMAL} 
+     * or {@link #PRIORITY_HIGH}). The skipped files are not preallocated.
+     * @param torrent TorrentFile
+     * @param clientID byte[]
+     * @param savePath String
+     * @param filePriorities int[]
+     */
+    public DownloadManager(TorrentFile torrent, final byte[] clientID, String savePath, int[] filePriorities) {
+    	
+    	this.torrent = torrent;
+    	this.savePath = savePath;
+    	this.clientID = clientID;
+        
+    	this.blockSize = PeerProtocol.BLOCK_SIZE;
+    	this.intervalUpdateListPeers = 170;
+    	this.thresholdEndGameTest = -1;
+    	this.filePriority = filePriorities.clone();
+    	
+    	this.initialization();
+    }
+    
     /**
      * Saves the information of pieces, sent or obtained, from different peers of the swarm.
      * This information will be showed by logs.
@@ -235,21 +400,61 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
     	
     	this.runBlockUntil = false;
     	
-        this.peerList = new LinkedHashMap<String, Peer>();
-        this.peerIdTrackerList = new LinkedHashMap<String, Peer>();
-        this.peerIPListeningPortList = new LinkedHashMap<String, Peer>();
-        this.task = new TreeMap<String, DownloadTask>();
-        this.peerAvailabilies = new LinkedHashMap<String, BitSet>();
+        this.peerList = new ConcurrentHashMap<String, Peer>();
+        this.peerIdTrackerList = new ConcurrentHashMap<String, Peer>();
+        this.peerIPListeningPortList = new ConcurrentHashMap<String, Peer>();
+        this.task = new ConcurrentSkipListMap<String, DownloadTask>();
+        this.peerAvailabilies = new ConcurrentHashMap<String, BitSet>();
         
         this.nbPieces = torrent.piece_hash_values_as_binary.size();
         this.pieceList = new Piece[this.nbPieces];
         this.nbOfFiles = this.torrent.length.size();
 
-        this.isComplete = new BitSet(nbPieces);
-        this.isActiveRequests = new BitSet(nbPieces);
-        this.isRequested = new BitSet(nbPieces);
-        this.isPieceSent = new BitSet(nbPieces);
+        this.isComplete = new AtomicBitSet(nbPieces);
+        this.bitfield = new byte[(nbPieces + 7) >>> 3];
+        this.isActiveRequests = new AtomicBitSet(nbPieces);
+        this.isRequested = new AtomicBitSet(nbPieces);
+        this.isPieceSent = new AtomicBitSet(nbPieces);
+        this.isPriority = new AtomicBitSet(nbPieces);
+        this.isPartial = new AtomicBitSet(nbPieces);
+        this.inProgress = new AtomicBitSet(nbPieces);
+        this.nbPiecesInProgress = new AtomicInteger();
+        this.pieceLocks = new Object[PIECE_LOCK_STRIPES];
+        for (int i = 0; i < PIECE_LOCK_STRIPES; i++) {
+        	this.pieceLocks[i] = new Object();
+        }
+        this.notifiedComplete = new AtomicBitSet(nbPieces);
+        this.notifiedActive = new AtomicBitSet(nbPieces);
+        this.slowPieces = new AtomicBitSet(nbPieces);
+        this.superSeedOffers = new SuperSeedOffers(nbPieces);
+        this.fastPieces = new AtomicBitSet(nbPieces);
+        this.pieceStartTime = new long[nbPieces];
+        this.isWanted = new AtomicBitSet(nbPieces);
+        for (int i = 0; i < nbPieces; i++) {
+        	this.isWanted.set(i);
+        }
+        this.nbWantedPending = new AtomicInteger();
+        this.nbUnrequestedBlocks = new AtomicInteger();
+        
+        if(this.filePriority == null || this.filePriority.length != this.nbOfFiles){
+        	this.filePriority = new int[this.nbOfFiles];
+        	Arrays.fill(this.filePriority, PRIORITY_NORMAL);
+        }
+        this.fileOffsets = new long[this.nbOfFiles];
+        for (int i = 1; i < this.nbOfFiles; i++) {
+        	this.fileOffsets[i] = this.fileOffsets[i - 1] + this.torrent.length.get(i - 1).longValue();
+        }
+        this.piecePriority = new int[this.nbPieces];
+        Arrays.fill(this.piecePriority, PRIORITY_NORMAL);
+        
+        this.pieceAvailability = new PieceAvailability(this.nbPieces);
+        this.piecePicker = null;
+        this.endGamePiecePicker = null;
+        this.setPiecePicker(new RarestFirstPiecePicker());
+        this.setEndGamePiecePicker(new EndGamePiecePicker());
+        this.seedingChoker = new RoundRobinSeedingChoker(this);
         this.output_files = new RandomAccessFile[this.nbOfFiles];
+        this.output_paths = new File[this.nbOfFiles];
 
         this.length = this.torrent.total_length;
         this.left = this.length;
@@ -304,11 +509,13 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
                                      intValue(), this.blockSize, (byte[]) torrent.
                                      piece_hash_values_as_binary.get(i), tm);
             
+            this.updatePiecePriority(i);
             
             if (this.testComplete(i)) {
                 this.setComplete(i, true);
                 this.left -= this.pieceList[i].getLength();
             }
+            this.updatePendingCount(i);
             
         }
         
@@ -318,6 +525,7 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
         float totaldl = (float) (((float) (100.0)) * ((float) (this.isComplete.cardinality())) / ((float) (this.nbPieces)));
         logger.info("Num Pieces in cache: " + this.isComplete.cardinality() + " of " + this.nbPieces + " - " + totaldl + "%" );
         this.lastUnchoking = System.currentTimeMillis();
+        this.lastOptimisticUnchoke = this.lastUnchoking;
         
     }
     
@@ -332,19 +540,42 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
     }
     
     /**
-     * Periodically call the unchokePeers method. This is an infinite loop.
-     * User have to exit with Ctrl+C, which is not good... Todo is change this
-     * method...
+     * Periodically call the rechokeIfDue method, every second, and the 
+     * flushHaves method, at the end of each HAVE coalescing window. This is 
+     * an infinite loop. User have to exit with Ctrl+C, which is not good... 
+     * Todo is change this method...
      */
     public void blockUntilCompletion() {
         byte[] b = new byte[0];
 
-        
+        long nextRefresh = System.currentTimeMillis() + REFRESH_INTERVAL;
+        long nextFlush = nextRefresh;
         while (runBlockUntil) {
             try {
                 synchronized (b) {
-                    b.wait(10000);
-                    this.unchokePeers();
+                	long wait = Math.min(nextRefresh, nextFlush) - System.currentTimeMillis();
+                	if(wait > 0){
+                		b.wait(wait);
+                	}
+                    
+                    long now = System.currentTimeMillis();
+                    if(now >= nextFlush){
+                    	long window = this.getHaveCoalesceWindow();
+                    	nextFlush = now + ((window > 0) ? window : REFRESH_INTERVAL);
+                    	this.runPeriodic(new Runnable() {
+							public void run() {
+								DownloadManager.this.flushHaves();
+							}
+						});
+                    }
+                    if(now >= nextRefresh){
+                    	nextRefresh = now + REFRESH_INTERVAL;
+                    	this.runPeriodic(new Runnable() {
+							public void run() {
+								DownloadManager.this.rechokeIfDue();
+							}
+						});
+                    }
                     b.notifyAll();
                 }
             } catch (Exception e) {
@@ -381,6 +612,7 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
         	logger.info("INIT LOG TORRENT_DOWNLOAD_CLIENT");
     		logger.info("TORRENT_DOWNLOAD COMPLETED ... " + duration + " (" + task_duration + " milliseconds)" );
     		logger.info("(Init Time: " + this.initTime + ") - (End Time: " + this.endTime + ")");
+    		logger.info("Cancel messages sent in End Game: " + this.nbCancelSent);
     		
     		float total;
     		for(Peer p: this.peerLogsPiecesTransferred.values()){
@@ -419,12 +651,100 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
 			}
 		}
 		logger.info("END LOG TORRENT_DOWNLOAD_SEED");
+		
+		StreamingWindow sw = this.streamingWindow;
+		if(sw != null){
+			logger.info("INIT LOG TORRENT_STREAMING");
+			logger.info("Time to first byte: " + sw.getTimeToFirstByte() + " milliseconds");
+			logger.info("Stalls: " + sw.getNbStalls() + " (" + sw.getStallTime() + " milliseconds, stall rate " + sw.getStallRate() + ")");
+			logger.info("END LOG TORRENT_STREAMING");
+		}
+		
+		EventLoop loop = this.eventLoop;
+		if(loop != null){
+			logger.info("INIT LOG TORRENT_EVENT_LOOP");
+			logger.info("Events: " + loop.getNbEvents() + " - Queue latency: average " + loop.getAverageLatency() 
+					+ " us, max " + loop.getMaxLatency() + " us - Max queued events: " + loop.getMaxPending());
+			logger.info("END LOG TORRENT_EVENT_LOOP");
+		}
+		
+		logger.info("HAVE messages sent: " + this.getNbHaveSent() + " - suppressed: " + this.getNbHaveSuppressed());
+		logger.info("PEX messages sent: " + this.getNbPexSent() + " - received: " + this.getNbPexReceived() 
+				+ " - new peers: " + this.getNbPexPeers());
+		logger.info("Fast extension: rejects sent " + this.getNbRejectsSent() + " - rejects received " + this.getNbRejectsReceived() 
+				+ " - allowed fast blocks served " + this.getNbAllowedFastServed() + " - suggests sent " + this.getNbSuggestsSent() 
+				+ " - suggested pieces downloaded " + this.getNbSuggestedPieces());
+		logger.info("Read cache: hits " + this.getNbReadCacheHits() + " - misses " + this.getNbReadCacheMisses());
+		
+		DHTNode node = this.dht;
+		if(node != null){
+			logger.info("DHT: " + node.getStats());
+		}
+		for (WebSeed ws : this.getWebSeeds()) {
+			logger.info("Web seed " + ws.getURL() + ": " + ws.getNbBytes() + " bytes - requests " + ws.getNbRequests() 
+					+ " - connections " + ws.getNbConnections() + " - errors " + ws.getNbErrors());
+		}
+		UTPManager utpManager = this.utp;
+		if(utpManager != null){
+			logger.info("uTP: connections opened " + utpManager.getNbConnectionsOpened() + " - accepted " 
+					+ utpManager.getNbConnectionsAccepted() + " - open " + utpManager.getNbConnections());
+		}
+    	
+    }
+    
+    /**
+     * Enables or disables the event loop. With the event loop, the callbacks of 
+     * the tasks are posted to a queue and run by a single thread, as well as the 
+     * periodic rechokes, instead of being run by the thread of each peer. It must 
+     * be set before the connections with the peers are created.
+     * @param enabled boolean
+     */
+    public synchronized void setEventLoop(boolean enabled) {
     	
+    	if(enabled && this.eventLoop == null){
+    		this.eventLoop = new EventLoop(this, "EventLoop-" + this.torrent.info_hash_as_hex);
+    		this.eventLoop.start();
+    	}else if(!enabled && this.eventLoop != null){
+    		this.eventLoop.end();
+    		this.eventLoop = null;
+    	}
+    }
+    
+    /**
+     * Returns the event loop, or null if the callbacks are run by the threads of the peers
+     * @return {@link EventLoop}
+     */
+    public EventLoop getEventLoop() {
+    	return this.eventLoop;
     }
     
+    /**
+     * Returns the listener of the new tasks: the event loop if it is enabled, 
+     * this manager otherwise
+     * @return {@link DTListener}
+     */
+    private synchronized DTListener getTaskListener() {
+    	return (this.eventLoop != null) ? this.eventLoop : this;
+    }
+    
+    
+    /**
+     * Runs the periodic task in the event loop if it is enabled, or in the 
+     * calling thread otherwise
+     * @param r Runnable
+     */
+    private void runPeriodic(Runnable r) {
+    	EventLoop loop = this.eventLoop;
+    	if(loop != null){
+    		loop.post(r);
+    	}else{
+    		r.run();
+    	}
+    }
     
     public void stopBlockUntilCompletion(){
     	runBlockUntil = false;
+    	this.setEventLoop(false);
     }
     
     public void stopAndClearActiveTask(){
@@ -436,6 +756,7 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
         		}
         		this.task.clear();
         	}
+        	this.activePeers.clear();
         }catch(NullPointerException ex){
     		logger.error("stopAndClearActiveTask exception: " + ex);
     	}catch(Exception e){
@@ -463,7 +784,212 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
      * Stop the tracker updates
      */
     public void stopTrackerUpdate() {
-        this.pu.end();
+        if(this.pu != null)
+        	this.pu.end();
+    }
+    
+    /**
+     * Returns true if the tracker updates have been stopped. The torrent may be 
+     * downloaded from web seeds only, without tracker: then they never end.
+     * @return boolean
+     */
+    private boolean isTrackerUpdateEnd() {
+    	PeerUpdater updater = this.pu;
+    	return updater != null && updater.isEnd();
+    }
+
+    /**
+     * Joins the DHT (BEP 5) and starts looking up the peers of the torrent in it, 
+     * besides the tracker. The DHT node uses the UDP socket of the client, bound 
+     * to the same port as the ConnectionListener, so startListening must be 
+     * called first.
+     * @param bootstrapNodes List of addresses of nodes already in the DHT
+     * @return True if the DHT is started, false if the UDP socket cannot be bound
+     */
+    public boolean startDHT(List<InetSocketAddress> bootstrapNodes) {
+        if (!this.openDatagramListener()) {
+            return false;
+        }
+        this.startDHT(new DHTNode(this.udp), bootstrapNodes);
+        this.ownDHT = true;
+        return true;
+    }
+
+    /**
+     * Starts looking up the peers of the torrent with a DHT node shared with 
+     * other torrents of the client
+     * @param node DHTNode
+     * @param bootstrapNodes List of addresses of nodes to join the DHT through, 
+     * or null if the node has already joined it
+     */
+    public void startDHT(DHTNode node, List<InetSocketAddress> bootstrapNodes) {
+        this.dht = node;
+        this.dhtUpdater = new DHTUpdater(node, this.torrent, this.cl.getConnectedPort(), bootstrapNodes);
+        this.dhtUpdater.addPeerUpdateListener(this);
+        this.dhtUpdater.setIpAddress(this.cl.getIPaddress());
+        this.dhtUpdater.start();
+    }
+
+    /**
+     * Stops the DHT lookups, and closes the DHT node if it was created by startDHT
+     */
+    public void stopDHT() {
+        if (this.dhtUpdater != null) {
+            this.dhtUpdater.end();
+            this.dhtUpdater = null;
+        }
+        if (this.ownDHT) {
+            this.dht.close();
+            this.ownDHT = false;
+        }
+        this.dht = null;
+        this.closeDatagramListener();
+    }
+
+    public DHTNode getDHT() {
+        return this.dht;
+    }
+
+    /**
+     * Returns the UDP socket of the client, created by startDHT or startUTP
+     * @return DatagramListener
+     */
+    public DatagramListener getDatagramListener() {
+        return this.udp;
+    }
+
+    /**
+     * Creates the UDP socket of the client, bound to the same port as the 
+     * ConnectionListener, if the DHT or uTP have not created it yet
+     * @return True if the socket is open
+     */
+    private boolean openDatagramListener() {
+        if (this.udp != null) {
+            return true;
+        }
+        try {
+            this.udp = new DatagramListener(this.cl.getConnectedPort());
+        } catch (SocketException se) {
+            logger.warn("Could not create the UDP socket: " + se.getMessage());
+            return false;
+        }
+        this.udp.start();
+        return true;
+    }
+
+    /**
+     * Closes the UDP socket of the client once neither the DHT nor uTP use it
+     */
+    private void closeDatagramListener() {
+        if (this.udp != null && !this.ownDHT && this.utp == null) {
+            this.udp.close();
+            this.udp = null;
+        }
+    }
+
+    /**
+     * Enables uTP (BEP 29) for this torrent: the connections with the peers are 
+     * first tried over uTP, on the UDP socket of the client, and over TCP if the 
+     * peer does not answer, and the peers can connect over uTP too. The 
+     * congestion control of uTP (LEDBAT) yields to the other traffic of the 
+     * link. startListening must be called first.
+     * @return True if uTP is started, false if the UDP socket cannot be bound
+     */
+    public boolean startUTP() {
+        if (this.utp != null) {
+            return true;
+        }
+        if (!this.openDatagramListener()) {
+            return false;
+        }
+        this.utp = new UTPManager(this.udp);
+        this.utp.addConListenerInterface(this);
+        this.utp.start();
+        return true;
+    }
+
+    /**
+     * Disables uTP: the connections are made over TCP only, and the uTP 
+     * connections open are closed
+     */
+    public void stopUTP() {
+        if (this.utp != null) {
+            this.utp.close();
+            this.utp = null;
+        }
+        this.closeDatagramListener();
+    }
+
+    /**
+     * Returns the uTP endpoint of the torrent, or null if uTP is not enabled
+     * @return UTPManager
+     */
+    public UTPManager getUTPManager() {
+        return this.utp;
+    }
+
+    /**
+     * Starts downloading from the HTTP web seeds of the url-list of the torrent 
+     * (BEP 19), besides the peers
+     */
+    public void startWebSeeds() {
+        for (String url : this.torrent.urlList) {
+            this.addWebSeed(url);
+        }
+    }
+
+    /**
+     * Adds an HTTP web seed to download the pieces from. It takes part in the 
+     * choice of the pieces as a peer that has all of them.
+     * @param url String the URL of the file, or of the directory for a multiple 
+     * files torrent, as in the url-list
+     * @return WebSeed
+     */
+    public synchronized WebSeed addWebSeed(String url) {
+        WebSeed ws = new WebSeed(this, this.torrent, url);
+        BitSet all = new BitSet(this.nbPieces);
+        all.set(0, this.nbPieces);
+        this.peerAvailabilies.put(ws.getID(), all);
+        this.webSeeds.add(ws);
+        ws.start();
+        return ws;
+    }
+
+    /**
+     * Stops downloading from the web seeds
+     */
+    public synchronized void stopWebSeeds() {
+        for (WebSeed ws : this.webSeeds) {
+            ws.end();
+            this.peerAvailabilies.remove(ws.getID());
+        }
+        this.webSeeds.clear();
+    }
+
+    public synchronized List<WebSeed> getWebSeeds() {
+        return new ArrayList<WebSeed>(this.webSeeds);
+    }
+
+    /**
+     * Called by a web seed that can request more blocks: chooses the piece to 
+     * download as for a peer that has all the pieces.
+     * @param id String the identifier of the web seed
+     * @return int the index of the piece, or -1 if there is not any to download
+     */
+    int webSeedReady(String id) {
+        if (!this.runBlockUntil || this.isWantedComplete()) {
+            return -1;
+        }
+        float totaldl = ((float) (100.0)) * ((float) (this.isComplete.cardinality())) / ((float) (this.nbPieces));
+        return this.choosePiece2Download(id, this.isEndGame(totaldl));
+    }
+
+    /**
+     * Called by a web seed that has failed, to forget its block requests
+     * @param id String the identifier of the web seed
+     */
+    void webSeedReleased(String id) {
+        this.removeBlockRequests(id);
     }
 
     /**
@@ -490,7 +1016,8 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
     public void closeTempFiles() {
         for (int i = 0; i < this.output_files.length; i++)
             try {
-                this.output_files[i].close();
+            	if(this.output_files[i] != null)
+            		this.output_files[i].close();
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -536,9 +1063,20 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
         		temp = f;
         	}
         	//logger.info(" checkTemp Files PATH TEMPFILE: "+temp.getAbsolutePath());
+        	this.output_paths[i] = temp;
+        	
+        	/*
+        	 * The skipped files are opened when a piece shared with 
+        	 * a wanted file has to be saved.
+        	 */
+        	if(this.filePriority[i] == PRIORITY_SKIP && !temp.exists()){
+        		continue;
+        	}
             try {
                 this.output_files[i] = new RandomAccessFile(temp, "rw");
-                this.output_files[i].setLength((Integer)this.torrent.length.get(i).intValue());
+                if(this.filePriority[i] != PRIORITY_SKIP){
+                	this.output_files[i].setLength((Integer)this.torrent.length.get(i).intValue());
+                }
             } catch (IOException ioe) {
             	logger.error("Could not create temp files: " + ioe);
                 ioe.printStackTrace();
@@ -546,12 +1084,32 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
         }
         return 0;
     }
+    
+    /**
+     * Returns the file opened for reading and writing, opening it if 
+     * it was not opened because it is skipped. A skipped file is not 
+     * preallocated, only the written pieces take space in the disk.
+     * @param file int
+     * @return RandomAccessFile
+     * @throws IOException
+     */
+    private synchronized RandomAccessFile getOutputFile(int file) throws IOException {
+    	
+    	if(this.output_files[file] == null){
+    		File parent = this.output_paths[file].getParentFile();
+    		if(parent != null && !parent.exists()){
+    			parent.mkdirs();
+    		}
+    		this.output_files[file] = new RandomAccessFile(this.output_paths[file], "rw");
+    	}
+    	return this.output_files[file];
+    }
 
     /**
      * Save a piece in the corresponding file(s)
      * @param piece int
      */
-    public synchronized void savePiece(int piece) {
+    public void savePiece(int piece) {
     	
         //int remaining = this.pieceList[piece].getLength();
         byte[] data = this.pieceList[piece].data();
@@ -566,12 +1124,15 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
                                 ((Integer) (this.pieceList[piece].
                                             getFileAndOffset().
                                             get(file))).intValue();
-                this.output_files[file.intValue()].seek(((Integer)
-                        (this.pieceList[piece].getFileAndOffset().get(file))).
-                        intValue());
-                this.output_files[file.intValue()].write(data,
-                        data.length - remainingData,
-                        (remaining < remainingData) ? remaining : remainingData);
+                RandomAccessFile raf = this.getOutputFile(file.intValue());
+                synchronized (raf) {
+                	raf.seek(((Integer)
+                            (this.pieceList[piece].getFileAndOffset().get(file))).
+                            intValue());
+                    raf.write(data,
+                            data.length - remainingData,
+                            (remaining < remainingData) ? remaining : remainingData);
+				}
                 remainingData -= remaining;
             } catch (IOException ioe) {
                 System.err.println(ioe.getMessage());
@@ -589,34 +1150,32 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
     public synchronized void save() {
         synchronized (this) {
         	try{
-        		synchronized (this.isComplete) {
-                    byte[] data = new byte[0];
-                    for (int i = 0; i < this.nbPieces; i++) {
-                        if (this.pieceList[i] == null) {
+                byte[] data = new byte[0];
+                for (int i = 0; i < this.nbPieces; i++) {
+                    if (this.pieceList[i] == null) {
 
-                        } else {
-                            data = Utils.concat(data, this.pieceList[i].data());
-                        }
+                    } else {
+                        data = Utils.concat(data, this.pieceList[i].data());
                     }
-                    String saveAs = savePath;//Constants.SAVEPATH;
-                    int offset = 0;
-                    if (this.nbOfFiles > 1)
-                        saveAs += this.torrent.saveAs + "/";
-                    for (int i = 0; i < this.nbOfFiles; i++) {
-                        try {
-                            new File(saveAs).mkdirs();
-                            FileOutputStream fos = new FileOutputStream(saveAs +
-                                    ((String) (this.torrent.name.get(i))));
-                            fos.write(Utils.subArray(data, offset,
-                                                     ((Integer) (this.torrent.
-                                    length.get(i).intValue()))));
-                            fos.flush();
-                            fos.close();
-                            offset += ((Integer) (this.torrent.length.get(i).intValue()));
-                        } catch (IOException ioe) {
-                            ioe.printStackTrace();
-                            System.err.println("Error when saving the file " + ((String) (this.torrent.name.get(i))));
-                        }
+                }
+                String saveAs = savePath;//Constants.SAVEPATH;
+                int offset = 0;
+                if (this.nbOfFiles > 1)
+                    saveAs += this.torrent.saveAs + "/";
+                for (int i = 0; i < this.nbOfFiles; i++) {
+                    try {
+                        new File(saveAs).mkdirs();
+                        FileOutputStream fos = new FileOutputStream(saveAs +
+                                ((String) (this.torrent.name.get(i))));
+                        fos.write(Utils.subArray(data, offset,
+                                                 ((Integer) (this.torrent.
+                                length.get(i).intValue()))));
+                        fos.flush();
+                        fos.close();
+                        offset += ((Integer) (this.torrent.length.get(i).intValue()));
+                    } catch (IOException ioe) {
+                        ioe.printStackTrace();
+                        System.err.println("Error when saving the file " + ((String) (this.torrent.name.get(i))));
                     }
                 }
         		
@@ -633,10 +1192,8 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
      * Check if the current download is complete
      * @return boolean
      */
-    public synchronized boolean isComplete() {
-        synchronized (this.isComplete) {
-            return (this.isComplete.cardinality() == this.nbPieces);
-        }
+    public boolean isComplete() {
+        return (this.isComplete.cardinality() == this.nbPieces);
     }
 
     /**
@@ -679,10 +1236,8 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
      * @param piece The piece index
      * @return boolean
      */
-    public synchronized boolean isPieceComplete(int piece) {
-        synchronized (this.isComplete) {
-            return this.isComplete.get(piece);
-        }
+    public boolean isPieceComplete(int piece) {
+        return this.isComplete.get(piece);
     }
 
     /**
@@ -690,10 +1245,16 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
      * @param piece The piece index
      * @return boolean
      */
-    public synchronized boolean isPieceSent(int piece) {
-        synchronized (this.isPieceSent) {
-            return this.isPieceSent.get(piece);
-        }
+    public boolean isPieceSent(int piece) {
+        return this.isPieceSent.get(piece);
+    }
+    
+    /**
+     * Returns a copy of the pieces sent, at least in part, to the peers
+     * @return BitSet
+     */
+    public BitSet getSentPieces() {
+        return this.isPieceSent.toBitSet();
     }
     
     /**
@@ -702,10 +1263,8 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
      * @param piece The piece index
      * @return boolean
      */
-    public synchronized boolean isPieceActiveRequest(int piece) {
-        synchronized (this.isActiveRequests) {
-            return this.isActiveRequests.get(piece);
-        }
+    public boolean isPieceActiveRequest(int piece) {
+        return this.isActiveRequests.get(piece);
     }
     
     /**
@@ -713,10 +1272,8 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
      * @param piece
      * @return boolean
      */
-    public synchronized boolean isPieceRequested(int piece) {
-        synchronized (this.isRequested) {
-            return this.isRequested.get(piece);
-        }
+    public boolean isPieceRequested(int piece) {
+        return this.isRequested.get(piece);
     }
     
     
@@ -726,9 +1283,18 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
      * @param is True if the piece is now complete, false otherwise
      */
     public synchronized void setComplete(int piece, boolean is) {
-        synchronized (this.isComplete) {
-            this.isComplete.set(piece, is);
+        if(!is){
+        	synchronized (this.readCache) {
+        		byte[] data = this.readCache.remove(piece);
+        		if(data != null){
+        			this.readCacheBytes -= data.length;
+        		}
+			}
         }
+        this.isComplete.set(piece, is);
+        this.updatePendingCount(piece);
+        this.updateBitField(piece, is);
+        this.firePieceStateChanged(piece);
     }
 
     /**
@@ -736,322 +1302,1842 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
      * @param piece int The index of the piece.
      * @param is boolean True if the piece is being requested, false if otherwise.
      */
-    public synchronized void setActiveRequest(int piece, boolean is) {
-        synchronized (this.isActiveRequests) {
-            this.isActiveRequests.set(piece, is);
-        }
+    public void setActiveRequest(int piece, boolean is) {
+    	if(is && !this.isActiveRequests.get(piece)){
+    		this.pieceStartTime[piece] = System.currentTimeMillis();
+    	}
+        this.isActiveRequests.set(piece, is);
+        this.firePieceStateChanged(piece);
     }
     
     /**
-     * Mark a piece as requested or not according to the parameters
-     * @param piece The index of the piece to be updated
-     * @param is True if the piece is now requested, false otherwise
+     * Informs the piece pickers of the current state of the piece. The state is 
+     * read and notified under the lock of the piece, so that the last 
+     * notification of a piece always carries its last state. The pickers are 
+     * not told when the state is the one they already have.
+     * @param piece int The index of the piece.
      */
-    public synchronized void setRequested(int piece, boolean is) {
-        synchronized (this.isRequested) {
-            this.isRequested.set(piece, is);
-        }
+    private void firePieceStateChanged(int piece) {
+    	
+    	synchronized (this.pieceLocks[piece & (PIECE_LOCK_STRIPES - 1)]) {
+    		boolean complete = this.isComplete.get(piece);
+        	boolean active = this.isActiveRequests.get(piece);
+        	
+        	this.updateInProgress(piece);
+        	
+        	if(complete == this.notifiedComplete.get(piece) && active == this.notifiedActive.get(piece)){
+        		return;
+        	}
+        	this.notifiedComplete.set(piece, complete);
+        	this.notifiedActive.set(piece, active);
+        	
+        	PiecePicker picker = this.piecePicker;
+        	if(picker != null){
+        		picker.pieceStateChanged(piece, complete, active);
+        	}
+        	picker = this.endGamePiecePicker;
+        	if(picker != null){
+        		picker.pieceStateChanged(piece, complete, active);
+        	}
+		}
     }
     
     /**
-     * Mark a piece as requested or not according to the parameters
-     * @param piece The index of the piece to be updated
-     * @param is True if the piece is now requested, false otherwise
+     * Sets the strategy used to choose the pieces to request to the peers. 
+     * By default it is the {@link RarestFirstPiecePicker}.
+     * @param picker {@link PiecePicker}
      */
-
-    public synchronized void setSent(int piece, boolean is) {
-        synchronized (this.isPieceSent) {
-            this.isPieceSent.set(piece, is);
-        }
+    public synchronized void setPiecePicker(PiecePicker picker) {
+    	
+    	if(this.piecePicker != null){
+    		this.pieceAvailability.removePiecePicker(this.piecePicker);
+    	}
+    	this.piecePicker = picker;
+    	this.initPiecePicker(picker);
     }
-
+    
+    public synchronized PiecePicker getPiecePicker() {
+    	return this.piecePicker;
+    }
+    
     /**
-     * Returns a String representing the piece being requested by peers.
-     * Used only for pretty-printing.
-     * @return String
+     * Sets the strategy used to choose the pieces to request to the peers 
+     * when the End Game mode is active. By default it is the {@link EndGamePiecePicker}.
+     * @param picker {@link PiecePicker}
      */
-    public synchronized String requestedBits() {
-        String s = "";
-        synchronized (this.isActiveRequests) {
-            for (int i = 0; i < this.nbPieces; i++)
-                s += this.isActiveRequests.get(i) ? 1 : 0;
-        }
-        return s;
+    public synchronized void setEndGamePiecePicker(PiecePicker picker) {
+    	
+    	if(this.endGamePiecePicker != null){
+    		this.pieceAvailability.removePiecePicker(this.endGamePiecePicker);
+    	}
+    	this.endGamePiecePicker = picker;
+    	this.initPiecePicker(picker);
     }
-
+    
+    public synchronized PiecePicker getEndGamePiecePicker() {
+    	return this.endGamePiecePicker;
+    }
+    
+    private void initPiecePicker(PiecePicker picker) {
+    	
+    	picker.init(this.nbPieces);
+    	for (int i = 0; i < this.nbPieces; i++) {
+    		synchronized (this.pieceLocks[i & (PIECE_LOCK_STRIPES - 1)]) {
+    			boolean complete = this.isComplete.get(i);
+    			boolean active = this.isActiveRequests.get(i);
+    			this.notifiedComplete.set(i, complete);
+    			this.notifiedActive.set(i, active);
+    			picker.pieceStateChanged(i, complete, active);
+			}
+    		if(this.piecePriority[i] != PRIORITY_NORMAL){
+    			picker.piecePriorityChanged(i, this.piecePriority[i]);
+    		}
+    	}
+    	this.pieceAvailability.addPiecePicker(picker);
+    }
+    
     /**
-     * Returns the index of the piece that can be downloaded by the peer 
-     * with the identifier specified by the parameter. By default Rarest First Strategy 
-     * is applied, that is to say, it is given priority to pieces less common 
-     * (it is chosen the piece that the number of peers which they have 
-     * is lower than the rest of the pieces). If the parameter endGamStrategy is true, 
-     * will give priority to more common pieces.
-     * @param id String the identifier of the peer, at which will be requested the piece. 
-     * @param endGameStrategy boolean
-     * @return int the index of the piece to request.
+     * Computes the priority of the piece, the highest priority of the files 
+     * that contain part of the piece, and informs the piece pickers if it has changed.
+     * @param piece int
      */
-    private synchronized int choosePiece2Download(String id, boolean endGameStrategy) {
-        
-    	ArrayList<Integer> possible = new ArrayList<Integer>(this.nbPieces);
-        int index = 0;
-    	synchronized (this.isComplete) {
-            for (int i = 0; i < this.nbPieces; i++) {
-                if ((!this.isPieceActiveRequest(i) || 
-                		(this.isComplete.cardinality() > this.nbPieces - 3) || endGameStrategy) && 
-                		(!this.isPieceComplete(i)) && this.peerAvailabilies.get(id) != null) {
-                    if (this.peerAvailabilies.get(id).get(i))
-                        possible.add(i);
-                }
-            }
-        }
+    @SuppressWarnings("unchecked")
+	private synchronized void updatePiecePriority(int piece) {
     	
+    	int priority = PRIORITY_SKIP;
+    	for (Integer file: (Set<Integer>) this.pieceList[piece].getFileAndOffset().keySet()) {
+    		priority = Math.max(priority, this.filePriority[file.intValue()]);
+    	}
+    	
+    	if(priority != this.piecePriority[piece]){
+    		this.piecePriority[piece] = priority;
+    		this.isWanted.set(piece, priority != PRIORITY_SKIP);
+    		this.updatePendingCount(piece);
+    		if(this.piecePicker != null){
+        		this.piecePicker.piecePriorityChanged(piece, priority);
+        	}
+        	if(this.endGamePiecePicker != null){
+        		this.endGamePiecePicker.piecePriorityChanged(piece, priority);
+        	}
+    	}
+    }
+    
+    /**
+     * Changes the priority of a file of the torrent. If the file was skipped, 
+     * it is preallocated. The pieces with higher priority receive a higher 
+     * part of the bandwidth, and the pieces that only belong to skipped files 
+     * are not requested.
+     * @param file int the index of the file in the torrent
+     * @param priority int {@link #PRIORITY_SKIP}, {@link #PRIORITY_LOW}, 
+     * {@link #PRIORITY_NORMAL} or {@link #PRIORITY_HIGH}
+     */
+    public synchronized void setFilePriority(int file, int priority) {
+    	
+    	if(priority < PRIORITY_SKIP || priority > PRIORITY_HIGH){
+    		throw new IllegalArgumentException("Unknown priority: " + priority);
+    	}
+    	if(this.filePriority[file] == priority){
+    		return;
+    	}
+    	this.filePriority[file] = priority;
+    	
+    	long fileLength = this.torrent.length.get(file).longValue();
+    	if(priority != PRIORITY_SKIP){
+    		try {
+    			RandomAccessFile raf = this.getOutputFile(file);
+    			if(raf.length() < fileLength){
+    				raf.setLength(fileLength);
+    			}
+			} catch (IOException ioe) {
+				logger.error("Could not create temp file: " + ioe);
+			}
+    	}
+    	
+    	int first = (int) (this.fileOffsets[file] / this.torrent.pieceLength);
+    	int last = (int) ((this.fileOffsets[file] + Math.max(fileLength, 1) - 1) / this.torrent.pieceLength);
+    	for (int i = first; i <= Math.min(last, this.nbPieces - 1); i++) {
+    		this.updatePiecePriority(i);
+    	}
+    	
+    	if(!this.isWantedComplete()){
+    		this.wantedCompleteReported = false;
+    	}
+    }
+    
+    public synchronized int getFilePriority(int file) {
+    	return this.filePriority[file];
+    }
+    
+    /**
+     * Returns the priority of the piece, the highest priority of the files 
+     * that contain part of the piece.
+     * @param piece int
+     * @return int
+     */
+    public synchronized int getPiecePriority(int piece) {
+    	return this.piecePriority[piece];
+    }
+    
+    /**
+     * Check if all the pieces of the files that are not skipped are complete
+     * @return boolean
+     */
+    public boolean isWantedComplete() {
+		return this.nbWantedPending.get() == 0;
+    }
+    
+    /**
+     * Returns the percentage of the pieces of the files that are not 
+     * skipped that are complete.
+     * @return float
+     */
+    public synchronized float getWantedCompleted() {
+    	
+    	int wanted = this.isWanted.cardinality();
+    	if(wanted == 0){
+    		return 100.00f;
+    	}
+		return ((float) (100.0)) * ((float) (wanted - this.nbWantedNotComplete())) / ((float) (wanted));
+    }
+    
+    /**
+     * Returns the number of wanted pieces that are not complete.
+     * @return int
+     */
+    private int nbWantedNotComplete() {
+    	return this.nbWantedPending.get();
+    }
+    
+    /**
+     * Counts the piece, and its blocks neither received nor requested, while it 
+     * is wanted and not complete. The state is read under the lock of the piece, 
+     * so that the last of two concurrent changes counts the piece right.
+     * @param piece int
+     */
+    private void updatePendingCount(int piece) {
+    	Piece p = this.pieceList[piece];
+    	if(p == null){
+    		return;
+    	}
+    	synchronized (p) {
+    		boolean pending = this.isWanted.get(piece) && !this.isComplete.get(piece);
+    		if(p.setUnrequestedCounter(pending ? this.nbUnrequestedBlocks : null) != pending){
+    			this.nbWantedPending.addAndGet(pending ? 1 : -1);
+    		}
+		}
+    }
+    
+    /**
+     * Mark a piece as requested or not according to the parameters
+     * @param piece The index of the piece to be updated
+     * @param is True if the piece is now requested, false otherwise
+     */
+    public void setRequested(int piece, boolean is) {
+        this.isRequested.set(piece, is);
+    }
+    
+    /**
+     * Mark a piece as requested or not according to the parameters
+     * @param piece The index of the piece to be updated
+     * @param is True if the piece is now requested, false otherwise
+     */
+
+    public void setSent(int piece, boolean is) {
+        this.isPieceSent.set(piece, is);
+    }
+
+    /**
+     * Returns a String representing the piece being requested by peers.
+     * Used only for pretty-printing.
+     * @return String
+     */
+    public synchronized String requestedBits() {
+        String s = "";
+        for (int i = 0; i < this.nbPieces; i++)
+            s += this.isActiveRequests.get(i) ? 1 : 0;
+        return s;
+    }
+
+    /**
+     * Returns the index of the piece that can be downloaded by the peer 
+     * with the identifier specified by the parameter. By default Rarest First Strategy 
+     * is applied, that is to say, it is given priority to pieces less common 
+     * (it is chosen the piece that the number of peers which they have 
+     * is lower than the rest of the pieces). If the parameter endGamStrategy is true, 
+     * will give priority to more common pieces.
+     * <p>
+     * The choice is delegated to the {@link PiecePicker} of this manager, 
+     * or to the End Game picker when the End Game mode is active or 
+     * only the last pieces remain.
+     * <p>
+     * The selection takes no lock: the piece chosen is taken with takePiece, 
+     * and when another peer has claimed it meanwhile the next one is chosen.
+     * @param id String the identifier of the peer, at which will be requested the piece. 
+     * @param endGameStrategy boolean
+     * @return int the index of the piece to request.
+     */
+    private int choosePiece2Download(String id, boolean endGameStrategy) {
+        
+    	BitSet has = this.peerAvailabilies.get(id);
+    	if(has == null){
+    		return -1;
+    	}
+    	
+    	/*
+    	 * The slow peers help the other slow peers, and don't receive the urgent pieces
+    	 */
+    	boolean slow = !this.isFastPeer(this.peerList.get(id));
+    	int index = -1;
+    	if(slow && !endGameStrategy && !this.strictPieceOwnership){
+    		index = this.chooseSlowSharedPiece(has);
+    	}
+    	if(index == -1 && !slow){
+    		index = this.choosePriorityPiece(has);
+    	}
+    	if(index == -1 && !endGameStrategy 
+    			&& this.getNbPiecesInProgress() > this.partialPiecesFactor * Math.max(1, this.getNbActivePeers())){
+    		index = this.choosePartialPiece(has);
+    	}
+    	if(index != -1){
+    		return index;
+    	}
+    	
+    	StreamingWindow sw = this.streamingWindow;
+    	if(sw != null && slow){
+    		has = sw.outsideWindow(has);
+    	}
+    	
+    	PiecePicker picker;
+		if(endGameStrategy || this.isComplete.cardinality() > this.nbPieces - 3){
+			picker = this.endGamePiecePicker;
+		}else{
+			picker = this.piecePicker;
+		}
+		
+		/*
+		 * The pickers only know if a piece is complete or requested, the pieces 
+		 * whose blocks are all taken, or claimed by another peer since the picker 
+		 * was informed, are discarded here
+		 */
+		boolean share = (picker == this.endGamePiecePicker);
+		BitSet candidates = has;
+		index = picker.pickPiece(candidates);
+		while(index != -1 && !(this.isRequestable(index, endGameStrategy) && this.takePiece(index, share))){
+			if(candidates == has){
+				candidates = (BitSet) has.clone();
+			}
+			candidates.clear(index);
+			index = picker.pickPiece(candidates);
+		}
+    	
+    	if(index == -1 && !endGameStrategy && !this.strictPieceOwnership){
+    		index = this.chooseSharedPiece(has);
+    	}
+    	
+    	return index;
+    }
+    
+    /**
+     * Marks the piece as being downloaded. A piece that nobody downloads is 
+     * claimed with compareAndSet, so two peers choosing at the same time never 
+     * both get it; a piece already being downloaded is only taken if it can be 
+     * shared with the other peers.
+     * @param piece int
+     * @param share boolean true if the piece can be downloaded with other peers
+     * @return boolean true if the piece is taken
+     */
+    private boolean takePiece(int piece, boolean share){
+    	
+    	if(this.isActiveRequests.compareAndSet(piece, false, true)){
+    		this.pieceStartTime[piece] = System.currentTimeMillis();
+    		this.setRequested(piece, true);
+    		this.firePieceStateChanged(piece);
+    		return true;
+    	}
+    	if(share){
+    		this.setRequested(piece, true);
+    	}
+    	return share;
+    }
+    
+    /**
+     * Returns the index of the first piece of the streaming window that can be 
+     * downloaded by the peer, or -1 if there is not any. If the piece is already 
+     * being downloaded by another peer (its deadline is close), the task is informed 
+     * to send the cancellation messages when the piece is completed by the other peer.
+     * @param id String the identifier of the peer
+     * @param dt {@link DownloadTask} the task of the peer
+     * @return int the index of the piece to request.
+     */
+    private int chooseStreamingPiece(String id, DownloadTask dt) {
+    	
+    	BitSet has = this.peerAvailabilies.get(id);
+    	StreamingWindow sw = this.streamingWindow;
+    	if(has == null || sw == null){
+    		return -1;
+    	}
+    	
+    	int index;
+		index = sw.pickPiece(has, this.isComplete, this.isActiveRequests, this.isFastPeer(dt.peer));
+    	
+    	if(index != -1 && !this.takePiece(index, false)){
+    		if(!this.isRequestable(index, true)){
+    			return -1;
+    		}
+    		logger.info(id + " Streaming duplicate request of piece " + index);
+    		dt.setStartedEndGame(this.pieceList[index]);
+    	}
+    	
+    	return index;
+    }
+    
+    /**
+     * Returns true if a task can download the piece: it is not being verified and 
+     * it has blocks not requested yet or, if the blocks requested to other peers 
+     * are requested again (End Game mode), blocks not received yet. Otherwise the 
+     * task would leave the piece as soon as it gets it.
+     * @param piece int
+     * @param endGame boolean
+     * @return boolean
+     */
+    private boolean isRequestable(int piece, boolean endGame){
+    	
+    	Piece p = this.pieceList[piece];
+    	if(p.isVerifying()){
+    		return false;
+    	}
+    	return endGame ? !p.isFull() : p.hasUnrequestedBlocks();
+    }
+    
+    /**
+     * Returns the piece, between the pieces that are being downloaded by other peers, 
+     * with free blocks and more blocks not received yet, that the peer has, so that several peers 
+     * download different blocks of the same piece. Returns -1 if there is not any.
+     * @param has BitSet the pieces of the peer
+     * @return int
+     */
+    private int chooseSharedPiece(BitSet has){
+    	
+    	int index = -1;
+    	int missing = 0;
+		for (int i = this.isActiveRequests.nextSetBit(0); i >= 0; i = this.isActiveRequests.nextSetBit(i + 1)) {
+    		if(has.get(i) && !this.isComplete.get(i) && this.pieceList[i].hasUnrequestedBlocks()){
+    			int n = this.pieceList[i].getNbMissingBlocks();
+    			if(n > missing){
+    				index = i;
+    				missing = n;
+    			}
+    		}
+    	}
+    	if(index != -1){
+    		this.takePiece(index, true);
+    	}
+    	return index;
+    }
+    
+    /**
+     * Returns a piece already started that the peer has and that has blocks 
+     * not requested: first the pieces that nobody is downloading, then, if the 
+     * pieces can be shared, the pieces that other peers are downloading. 
+     * Returns -1 if there is not any.
+     * @param has BitSet the pieces of the peer
+     * @return int
+     */
+    private int choosePartialPiece(BitSet has){
+    	
+		for (int i = this.isPartial.nextSetBit(0); i >= 0; i = this.isPartial.nextSetBit(i + 1)) {
+    		if(has.get(i) && !this.isComplete.get(i) && !this.isActiveRequests.get(i) 
+    				&& this.pieceList[i].hasUnrequestedBlocks() && this.takePiece(i, false)){
+    			return i;
+    		}
+    	}
+    	if(this.strictPieceOwnership){
+    		return -1;
+    	}
+    	return this.chooseSharedPiece(has);
+    }
+    
+    /**
+     * Returns the number of pieces started and not complete: the pieces that are 
+     * being downloaded and the pieces with blocks received.
+     * @return int
+     */
+    public int getNbPiecesInProgress(){
+    	return this.nbPiecesInProgress.get();
+    }
+    
+    /**
+     * Updates the count of pieces in progress after a change of the state of the piece.
+     * @param piece int
+     */
+    private void updateInProgress(int piece){
+    	
+    	synchronized (this.pieceLocks[piece & (PIECE_LOCK_STRIPES - 1)]) {
+    		boolean in = (this.isPartial.get(piece) || this.isActiveRequests.get(piece)) && !this.isComplete.get(piece);
+    		if(this.inProgress.compareAndSet(piece, !in, in)){
+    			this.nbPiecesInProgress.addAndGet(in ? 1 : -1);
+    		}
+		}
+    }
+    
+    /**
+     * Returns the number of bytes of the pieces not complete that are kept in memory.
+     * @return long
+     */
+    public long getBytesInProgress(){
+    	
+    	long bytes = 0;
+    	for (int i = this.isPartial.nextSetBit(0); i >= 0; i = this.isPartial.nextSetBit(i + 1)) {
+    		bytes += this.pieceList[i].getReceivedBytes();
+    	}
+    	return bytes;
+    }
+    
+    /**
+     * Returns the number of peers that are not choking this client.
+     * @return int
+     */
+    private int getNbActivePeers(){
+    	return this.activePeers.size();
+    }
+    
+    /**
+     * Received when a peer chokes or unchokes this client, to keep the number 
+     * of peers that are not choking this client.
+     * @param peerID String
+     * @param choking boolean
+     */
+    void peerChoking(String peerID, boolean choking){
+    	
+    	if(choking){
+    		this.activePeers.remove(peerID);
+    	}else{
+    		this.activePeers.add(peerID);
+    	}
+    }
+    
+    /**
+     * Sets the limit of pieces in progress, relative to the number of peers that 
+     * are not choking this client. Over this limit, the pieces already started are 
+     * preferred to new pieces, to bound the memory used by the received blocks and 
+     * to announce the pieces to the swarm sooner. By default it is 1.5.
+     * @param factor float
+     */
+    public synchronized void setPartialPiecesFactor(float factor){
+    	this.partialPiecesFactor = factor;
+    }
+    
+    public synchronized float getPartialPiecesFactor(){
+    	return this.partialPiecesFactor;
+    }
+    
+    /**
+     * Returns the offset of the next block of the piece to request, or -1 if 
+     * the piece is complete or all its blocks are requested. It is called by the 
+     * tasks for every block, so it only locks the piece.
+     * @param piece {@link Piece}
+     * @param pending Collection the blocks that the task is waiting for
+     * @param endGame boolean True if the blocks requested to other peers can be requested again
+     * @return int
+     */
+    public int nextBlock(Piece piece, Collection<Integer> pending, boolean endGame){
+    	
+		if(this.isComplete.get(piece.getIndex())){
+			return -1;
+		}
+    	return piece.nextBlock(pending, endGame);
+    }
+    
+    /**
+     * If true, a piece is downloaded by only one peer, except in End Game mode, 
+     * so that a piece that fails the hash check can be attributed to a peer. 
+     * By default several peers can download different blocks of the same piece.
+     * @param strict boolean
+     */
+    public synchronized void setStrictPieceOwnership(boolean strict){
+    	this.strictPieceOwnership = strict;
+    }
+    
+    public synchronized boolean isStrictPieceOwnership(){
+    	return this.strictPieceOwnership;
+    }
+    
+    /**
+     * Returns the first piece, with raised priority, that the peer has and that 
+     * is not complete nor being requested, or -1 if there is not any.
+     * @param has BitSet the pieces of the peer
+     * @return int
+     */
+    private int choosePriorityPiece(BitSet has){
+    	
+		for (int i = this.isPriority.nextSetBit(0); i >= 0; i = this.isPriority.nextSetBit(i + 1)) {
+    		if(has.get(i) && !this.isComplete.get(i) && !this.isActiveRequests.get(i) && this.isRequestable(i, false) 
+    				&& this.takePiece(i, false)){
+    			return i;
+    		}
+    	}
+    	return -1;
+    }
+    
+    /**
+     * Raises the priority of the pieces between first and last (both included) 
+     * that are not complete yet. These pieces are requested before the 
+     * pieces chosen by the {@link PiecePicker}, until they are completed.
+     * @param first int
+     * @param last int
+     */
+    public synchronized void prioritizePieces(int first, int last){
+    	
+    	last = Math.min(last, this.nbPieces - 1);
+		for (int i = Math.max(first, 0); i <= last; i++) {
+    		if(!this.isComplete.get(i)){
+    			this.isPriority.set(i);
+    		}
+    	}
+    }
+    
+    /**
+     * Blocks the current thread until the piece is downloaded and verified. 
+     * The priority of the piece is raised while waiting.
+     * @param piece int
+     * @throws InterruptedException
+     */
+    public void waitForPiece(int piece) throws InterruptedException {
+    	
+    	while(!this.isPieceComplete(piece)){
+    		this.prioritizePieces(piece, piece);
+    		synchronized (this.isComplete) {
+    			if(!this.isPieceComplete(piece)){
+    				this.isComplete.wait(1000);
+    			}
+			}
+    	}
+    }
+    
+    /**
+     * Reads data of a file of the torrent from the disk. The caller has to make sure 
+     * that the pieces that contain this data are complete.
+     * @param file int the index of the file in the torrent
+     * @param position long the position in the file
+     * @param b byte[] the buffer into which the data is read
+     * @param off int
+     * @param len int
+     * @return int the number of bytes read, or -1 if the end of the file has been reached
+     * @throws IOException
+     */
+    public int readFile(int file, long position, byte[] b, int off, int len) throws IOException {
+    	
+    	RandomAccessFile raf = this.getOutputFile(file);
+    	synchronized (raf) {
+    		raf.seek(position);
+    		return raf.read(b, off, len);
+		}
+    }
+    
+    /**
+     * Returns true if the peer is not in the slow speed class.
+     * @param p {@link Peer}
+     * @return boolean
+     */
+    private boolean isFastPeer(Peer p){
+    	return p == null || p.getSpeedClass() != Peer.SPEED_SLOW;
+    }
+    
+    /**
+     * Measures the download rate of the peers and classifies them according to 
+     * the median of the rates of the peers that are not choking this client: 
+     * fast from the median, slow under the half of the median, medium otherwise.
+     */
+    private void updateSpeedClasses(){
+    	
+    	List<Float> rates = new LinkedList<Float>();
+    	synchronized (this.task) {
+    		for(DownloadTask dt: this.task.values()){
+    			float rate = dt.peer.measureDLRate();
+    			if(!dt.peer.isChoking()){
+    				rates.add(rate);
+    			}
+    		}
+    		
+    		float median = 0;
+    		if(!rates.isEmpty()){
+    			Collections.sort(rates);
+        		median = rates.get(rates.size() / 2).floatValue();
+    		}
+    		
+    		this.slowPieces.clear();
+    		this.fastPieces.clear();
+    		for(DownloadTask dt: this.task.values()){
+    			float rate = dt.peer.getMeasuredDLRate();
+    			if(median == 0 || rate >= median){
+    				dt.peer.setSpeedClass(Peer.SPEED_FAST);
+    			}else if(rate < median / 2){
+    				dt.peer.setSpeedClass(Peer.SPEED_SLOW);
+    			}else{
+    				dt.peer.setSpeedClass(Peer.SPEED_MEDIUM);
+    			}
+    			this.pieceTaken(dt.getIndexDownloadPiece(), dt);
+    		}
+		}
+    }
+    
+    /**
+     * Records that the task downloads the piece, as a slow peer or not.
+     * @param piece int the index of the piece, or -1
+     * @param dt {@link DownloadTask}
+     */
+    private void pieceTaken(int piece, DownloadTask dt){
+    	
+    	if(piece == -1){
+    		return;
+    	}
+    	if(dt.peer.getSpeedClass() == Peer.SPEED_SLOW){
+    		this.slowPieces.set(piece);
+    	}else{
+    		this.fastPieces.set(piece);
+    	}
+    }
+    
+    /**
+     * Returns true if the piece is still being downloaded by slow peers. The pieces 
+     * that are complete or that nobody downloads any more are forgotten.
+     * @param piece int
+     * @return boolean
+     */
+    private boolean isSlowPiece(int piece){
+    	
+    	if(this.isComplete.get(piece) || this.pieceList[piece].getNbDownloaders() == 0){
+    		this.slowPieces.clear(piece);
+    		this.fastPieces.clear(piece);
+    		return false;
+    	}
+    	return true;
+    }
+    
+    /**
+     * Returns a piece that other slow peers are downloading, that the peer has 
+     * and that has blocks not requested, or -1 if there is not any.
+     * @param has BitSet the pieces of the peer
+     * @return int
+     */
+    private int chooseSlowSharedPiece(BitSet has){
+    	
+    	for (int i = this.slowPieces.nextSetBit(0); i >= 0; i = this.slowPieces.nextSetBit(i + 1)) {
+    		if(this.isSlowPiece(i) && has.get(i) && this.pieceList[i].hasUnrequestedBlocks() && this.takePiece(i, true)){
+    			return i;
+    		}
+    	}
+    	return -1;
+    }
+    
+    /**
+     * Returns a piece that the peer has, that is being downloaded only by slow peers 
+     * from more than the stuck piece timeout, or -1 if there is not any. The peer 
+     * requests the blocks of the piece that are not received yet, as in End Game mode, 
+     * so that the requests of the slow peers are cancelled when the blocks arrive.
+     * @param id String the identifier of the peer
+     * @param dt {@link DownloadTask} the task of the peer
+     * @return int
+     */
+    private int chooseStuckPiece(String id, DownloadTask dt){
+    	
+    	BitSet has = this.peerAvailabilies.get(id);
+    	if(has == null || !this.isFastPeer(dt.peer)){
+    		return -1;
+    	}
+    	
+    	long now = System.currentTimeMillis();
+    	for (int i = this.slowPieces.nextSetBit(0); i >= 0; i = this.slowPieces.nextSetBit(i + 1)) {
+    		if(this.fastPieces.get(i) || !this.isSlowPiece(i) || !has.get(i) 
+    				|| now - this.pieceStartTime[i] < this.stuckPieceTimeout || !this.isRequestable(i, true)){
+    			continue;
+    		}
+    		logger.info(id + " Piece " + i + " stuck on slow peers, requested to a faster peer");
+    		this.pieceStartTime[i] = now;
+    		dt.setStartedEndGame(this.pieceList[i]);
+    		return i;
+    	}
+    	return -1;
+    }
+    
+    /**
+     * Fast extension: returns the first piece of the allowed fast set of the peer 
+     * that it has and that is wanted, not complete nor being requested, or -1 if 
+     * there is not any.
+     * @param id String the identifier of the peer
+     * @param dt {@link DownloadTask} the task of the peer
+     * @return int the index of the piece to request.
+     */
+    private int chooseAllowedFastPiece(String id, DownloadTask dt){
     	
-    	if(possible.size() > 0){
-    		
+    	int index = this.chooseFastPiece(this.peerAvailabilies.get(id), dt.peer.getAllowedFast());
+    	if(index != -1){
+    		logger.info(id + " Piece " + index + " requested while choked (allowed fast)");
+    	}
+    	return index;
+    }
+    
+    /**
+     * Fast extension: returns the first piece suggested by the peer that it has 
+     * and that is wanted, not complete nor being requested, or -1 if there is 
+     * not any. The piece is not suggested any more.
+     * @param id String the identifier of the peer
+     * @param dt {@link DownloadTask} the task of the peer
+     * @return int the index of the piece to request.
+     */
+    private int chooseSuggestedPiece(String id, DownloadTask dt){
+    	
+    	int index = this.chooseFastPiece(this.peerAvailabilies.get(id), dt.peer.getSuggested());
+    	if(index != -1){
+    		dt.peer.removeSuggested(index);
+    		this.nbSuggestedPieces.incrementAndGet();
+    	}
+    	return index;
+    }
+    
+    private int chooseFastPiece(BitSet has, BitSet pieces){
+    	
+    	if(has == null){
+    		return -1;
+    	}
+    	for (int i = pieces.nextSetBit(0); i >= 0; i = pieces.nextSetBit(i + 1)) {
+    		if(has.get(i) && this.isWanted.get(i) && !this.isComplete.get(i) && !this.isActiveRequests.get(i) 
+    				&& this.pieceList[i].hasUnrequestedBlocks() && this.takePiece(i, false)){
+    			return i;
+    		}
+    	}
+    	return -1;
+    }
+    
+    /**
+     * Sets the time, in milliseconds, after which a piece that is being downloaded 
+     * only by slow peers is also requested to a faster peer. By default 30 seconds.
+     * @param timeout long
+     */
+    public synchronized void setStuckPieceTimeout(long timeout){
+    	this.stuckPieceTimeout = timeout;
+    }
+    
+    public synchronized long getStuckPieceTimeout(){
+    	return this.stuckPieceTimeout;
+    }
+    
+    /**
+     * Activates or deactivates the streaming mode. In streaming mode, the pieces 
+     * of a window after the playback position are downloaded in order, requested 
+     * to the fastest peers, and the rest of the pieces are chosen by the 
+     * {@link PiecePicker}.
+     * @param streaming boolean
+     */
+    public synchronized void setStreamingMode(boolean streaming){
+    	
+    	if(streaming && this.streamingWindow == null){
+    		this.streamingWindow = new StreamingWindow(this.nbPieces, this.torrent.pieceLength);
+    		// The cursor piece may already be available: the first byte is there at once
+    		if(this.isComplete.get(0)){
+    			this.streamingWindow.pieceCompleted(0);
+    		}
+    	}else if(!streaming){
+    		this.streamingWindow = null;
+    	}
+    }
+    
+    public synchronized boolean isStreamingMode(){
+    	return this.streamingWindow != null;
+    }
+    
+    /**
+     * Returns the streaming window, with its parameters and the metrics 
+     * of the playback, or null if the streaming mode is not active.
+     * @return {@link StreamingWindow}
+     */
+    public synchronized StreamingWindow getStreamingWindow(){
+    	return this.streamingWindow;
+    }
+    
+    /**
+     * Moves the playback position of the streaming mode.
+     * @param offset long the position in bytes from the beginning of the torrent.
+     */
+    public synchronized void setPlaybackPosition(long offset){
+    	
+    	if(this.streamingWindow != null){
+			this.streamingWindow.setCursor(offset, this.isComplete);
+    	}
+    }
+
+    /**
+     * Removes a task and peer after the task sends a completion message.
+     * Completion can be caused by an error (bad request, ...) or simply by the
+     * end of the connection
+     * @param dt {@link DownloadTask}
+     * @param reason Reason of the completion
+     */
+    public void taskCompleted(DownloadTask dt, int reason) {
+    	
+    	if(this.runBlockUntil){
     		
-    		if(this.peerAvailabilies.size() > 1 && !endGameStrategy){
-    			
-    			Collections.shuffle(possible);
-    			try{
-    				Collections.sort(possible, new RarestFirstComparator(this.peerAvailabilies));
-    			}catch(Exception e){
-    				logger.warn("Collections Sort RaresFirstCompartator: " + e);
-    			}
-    			
-    			index = possible.get(0);
-    			this.setActiveRequest(index, true);
-    			this.setRequested(index, true);
-    			return index;
-       			 
-            }else if(this.peerAvailabilies.size() > 1 && endGameStrategy){
-            	
-            	Collections.shuffle(possible);
-            	try{
-            		Collections.sort(possible, new PopularFirstComparator(this.peerAvailabilies));
-    			}catch(Exception e){
-    				logger.warn("Collections Sort PopularFirstComparator: " + e);
-    			}
-            	index = possible.get(0);
-    			this.setActiveRequest(index, true);
-    			this.setRequested(index, true);
-    			return index;
-           	 
+    		String reasonString = "";
+            switch (reason) {
+            case DownloadTask.CONNECTION_REFUSED:
+            	reasonString = "Connection refused by host ";
+                break;
+            case DownloadTask.MALFORMED_MESSAGE:
+            	reasonString = "Malformed message from ";
+                break;
+            case DownloadTask.UNKNOWN_HOST:
+            	reasonString = "Connection could not be established to ";
+            	break;
+            case DownloadTask.BAD_HANDSHAKE:
+            	reasonString = "Wrong file id ";
+            	break;
+            case DownloadTask.CONNECTION_ALREADY_EXIST:
+            	reasonString = "Connection Already Exist ";
+            	break;
+            }
+            
+            
+            String ipLp="";
+            if(dt.peer.getListeningPort() != -1 && dt.peer.getPort() != dt.peer.getListeningPort()){
+            	ipLp = " / " + dt.peer.getListeningPort();
+            }
+            
+            if(dt.peer.getIDTracker() != null){
+            	logger.warn("Remove (" + dt.getIdTask() + ipLp + " / " + dt.peer.getIDTracker() + ") of peerAvailabilies/peerList/task, reason: "+reasonString);
             }else{
-           	 
-           	 	Random r = new Random(System.currentTimeMillis());
-                index = possible.get(r.nextInt(possible.size()));
-                this.setActiveRequest(index, true);
-                this.setRequested(index, true);
-                return (index);
-                
+            	logger.warn("Remove (" + dt.getIdTask() + ipLp + " ) of peerAvailabilies/peerList/task, reason: "+reasonString);
+            }
+            
+            
+            this.peerAvailabilies.remove(dt.peer.toString());
+            this.pieceAvailability.peerRemoved(dt.peer.toString());
+            this.removeBlockRequests(dt.peer.toString());
+            this.superSeedOffers.removePeer(dt.peer.toString());
+            this.pendingHaves.remove(dt.peer.toString());
+        	this.peerList.remove(dt.peer.toString());
+        	// Only the entries of this task: another connection with the same peer may be kept instead
+        	if(dt.peer.getIDTracker()!=null){
+        		synchronized (this.peerIdTrackerList) {
+    				this.peerIdTrackerList.remove(dt.peer.getIDTracker(), dt.peer);
+    				if(dt.peer.getListeningPort()!=-1){
+    					ipLp = (dt.peer.getIP() + ":" + dt.peer.getListeningPort());
+	    				this.peerIPListeningPortList.remove(ipLp, dt.peer);
+    	        	}
+    			}
+        	}
+        	
+        	synchronized (this.task) {
+        		this.task.remove(dt.peer.toString(), dt);
+        	}
+        	this.activePeers.remove(dt.peer.toString());
+    		
+    	}
+    	
+    }
+    
+    /**
+     * Save the last time, when receives a new piece.
+     */
+    public void receivePieceBlock(String peerID){
+    	this.lastTimeReceivePieceBlock = System.currentTimeMillis();
+    	
+    }
+    
+    /**
+     * Received when a task requests a block to its peer. The request is kept 
+     * until the block is received, in case the block has to be cancelled.
+     * @param peerID String
+     * @param piece int
+     * @param begin int
+     * @param length int
+     */
+    public void blockRequested(String peerID, int piece, int begin, int length){
+    	
+    	synchronized (this.blockRequests) {
+    		LinkedHashMap<String, BitSet> requests = this.blockRequests.get(piece);
+        	if(requests == null){
+        		requests = new LinkedHashMap<String, BitSet>();
+        		this.blockRequests.put(piece, requests);
+        	}
+        	BitSet blocks = requests.get(peerID);
+        	if(blocks == null){
+        		blocks = new BitSet(this.pieceList[piece].getNbBlocks());
+        		requests.put(peerID, blocks);
+        	}
+        	blocks.set(begin / this.pieceList[piece].getBlockSize());
+		}
+    }
+    
+    /**
+     * Received when a task receives a block. If the block was also requested to 
+     * other peers (End Game mode), a cancellation message is sent to them at once, 
+     * and their tasks are told once the lock of the requests is released, so that 
+     * they leave the piece if they are not waiting for other blocks.
+     * @param peerID String
+     * @param piece int
+     * @param begin int
+     * @param length int
+     */
+    public void blockReceived(String peerID, int piece, int begin, int length){
+    	
+    	if(!this.isPieceComplete(piece) && this.isPartial.compareAndSet(piece, false, true)){
+    		this.updateInProgress(piece);
+    	}
+    	
+    	List<DownloadTask> cancelled = null;
+    	synchronized (this.blockRequests) {
+    		LinkedHashMap<String, BitSet> requests = this.blockRequests.get(piece);
+        	if(requests == null){
+        		return;
+        	}
+        	
+        	int block = begin / this.pieceList[piece].getBlockSize();
+        	for(Map.Entry<String, BitSet> e: requests.entrySet()){
+        		
+        		if(!e.getValue().get(block)){
+        			continue;
+        		}
+        		e.getValue().clear(block);
+        		
+        		if(!e.getKey().equals(peerID)){
+        			DownloadTask dt = this.task.get(e.getKey());
+        			if(dt != null && dt.ms != null){
+        				dt.ms.addMessageToQueue(new Message_PP(PeerProtocol.CANCEL, 
+        						Utils.concat(Utils.intToByteArray(piece), Utils.concat(Utils.intToByteArray(begin), Utils.intToByteArray(length))), 2));
+        				this.nbCancelSent++;
+        				if(cancelled == null){
+        					cancelled = new ArrayList<DownloadTask>();
+        				}
+        				cancelled.add(dt);
+        			}
+        		}
+        	}
+		}
+    	
+    	if(cancelled != null){
+    		for(DownloadTask dt: cancelled){
+    			dt.blockCancelled();
+    		}
+    	}
+    }
+    
+    /**
+     * Received when a peer that supports the fast extension rejects a block 
+     * requested by a task. The request is forgotten, so that no cancellation 
+     * message is sent for it.
+     * @param peerID String
+     * @param piece int
+     * @param begin int
+     */
+    public void blockRejected(String peerID, int piece, int begin){
+    	
+    	this.nbRejectsReceived.incrementAndGet();
+    	
+    	synchronized (this.blockRequests) {
+    		LinkedHashMap<String, BitSet> requests = this.blockRequests.get(piece);
+        	if(requests == null){
+        		return;
+        	}
+        	BitSet blocks = requests.get(peerID);
+        	if(blocks != null){
+        		blocks.clear(begin / this.pieceList[piece].getBlockSize());
+        	}
+		}
+    }
+    
+    /**
+     * Rejects a request of a peer that supports the fast extension
+     * @param dt {@link DownloadTask} the task of the peer
+     * @param piece int
+     * @param begin int
+     * @param length int
+     */
+    public void rejectRequest(DownloadTask dt, int piece, int begin, int length){
+    	
+    	if(dt != null && dt.ms != null){
+    		dt.ms.addMessageToQueue(FastExtension.reject(piece, begin, length));
+    		this.nbRejectsSent.incrementAndGet();
+    	}
+    }
+    
+    /**
+     * Removes the blocks requested to the peer.
+     * @param peerID String
+     */
+    private void removeBlockRequests(String peerID){
+    	
+    	synchronized (this.blockRequests) {
+    		for(Iterator<LinkedHashMap<String, BitSet>> it = this.blockRequests.values().iterator(); it.hasNext(); ){
+        		LinkedHashMap<String, BitSet> requests = it.next();
+        		requests.remove(peerID);
+        		if(requests.isEmpty()){
+        			it.remove();
+        		}
+        	}
+		}
+    }
+    
+    /**
+     * Returns true if the End Game mode has to be used: all the blocks that 
+     * remain belong to pieces that are being downloaded, so that the idle peers 
+     * can only help requesting the same blocks. If thresholdEndGameTest is not -1, 
+     * the End Game mode is also used from this percentage of download. 
+     * The test reads the counters kept by the pieces, it does not scan them.
+     * @param totaldl float the percentage of download
+     * @return boolean
+     */
+    private boolean isEndGame(float totaldl){
+    	
+    	if(this.isWantedComplete()){
+    		return false;
+    	}
+    	if(this.thresholdEndGameTest != -1 && totaldl > this.thresholdEndGameTest){
+    		return true;
+    	}
+    	
+    	if(this.strictPieceOwnership){
+    		// Wanted pieces neither complete nor requested
+    		return this.isComplete.cardinalityNotIn(this.isWanted, this.isActiveRequests) == 0;
+    	}
+    	
+    	/*
+    	 * If the pieces can be shared, the End Game mode begins when all the blocks 
+    	 * of the wanted pieces are received or requested
+    	 */
+    	return this.nbUnrequestedBlocks.get() == 0;
+    }
+    
+    /**
+     * Returns the number of blocks that are not received yet of the 
+     * pieces that are being downloaded.
+     * @return int
+     */
+    public int getNbRemainingActiveBlocks(){
+    	
+    	int n = 0;
+    	for (int i = this.isActiveRequests.nextSetBit(0); i >= 0; i = this.isActiveRequests.nextSetBit(i + 1)) {
+    		if(!this.isComplete.get(i)){
+    			n += this.pieceList[i].getNbMissingBlocks();
+    		}
+    	}
+    	return n;
+    }
+    
+    /**
+     * Returns the number of cancellation messages sent because the 
+     * block was received from another peer.
+     * @return int
+     */
+    public int getNbCancelSent(){
+    	synchronized (this.blockRequests) {
+    		return this.nbCancelSent;
+		}
+    }
+    
+    /**
+     * Received when a piece has been fully downloaded by a task. The piece might
+     * have been corrupted, in which case the manager will request it again later.
+     * If it has been successfully downloaded and verified, the piece status is
+     * set to 'complete', a 'HAVE' message is sent to all connected peers and the
+     * piece is saved into the corresponding file(s)
+     * The method does not hold the lock of this manager: the state of the 
+     * piece is kept in atomic bit sets, and the piece is completed only once.
+     * @param peerID String
+     * @param i int
+     * @param complete boolean
+     */
+    public void pieceCompleted(String peerID, int i, boolean complete, DownloadTask dt) {
+    	
+        this.isActiveRequests.clear(i);
+    	this.isPartial.clear(i);
+    	this.firePieceStateChanged(i);
+      
+        if (complete && this.isComplete.compareAndSet(i, false, true)) {
+        	
+        	this.updatePendingCount(i);
+        	PeerUpdater updater = this.pu;
+            if(updater != null)
+            	updater.updateParameters(this.torrent.pieceLength, 0, "");
+            
+        	this.updateBitField(i, complete);
+        	this.firePieceStateChanged(i);
+        	StreamingWindow sw = this.streamingWindow;
+        	if(sw != null){
+        		sw.pieceCompleted(i);
+        	}
+        	this.isPriority.clear(i);
+        	synchronized (this.blockRequests) {
+        		this.blockRequests.remove(i);
+			}
+        	
+        	float totaldl = (float) (((float) (100.0)) * ((float) (this.isComplete.cardinality())) / ((float) (this.nbPieces)));
+        	
+        	String ipLp="";
+        	if(dt != null && dt.peer.getListeningPort() != -1 && dt.peer.getPort() != dt.peer.getListeningPort()){
+            	ipLp = " / " + dt.peer.getListeningPort();
+            }
+        	
+        	if(dt == null){
+        		// Downloaded from a web seed
+        		logger.info(i + " Completed by " + peerID + " - (Total dl = " + totaldl +"% )");
+        	}else if(dt.peer.getIDTracker()!=null){
+        		logger.info(i + " Completed by Peer ID (" + dt.getIdTask() + ipLp + " / " + dt.peer.getIDTracker() + ") - (Total dl = " + totaldl +"% )");
+        	}else{
+        		logger.info(i + " Completed by Peer ID (" + dt.getIdTask() + ipLp + " ) - (Total dl = " + totaldl +"% )");
+        	}
+        	
+        	if(this.saveInformationPieceTransfer && dt != null){
+        		
+        		synchronized (this.peerLogsPiecesTransferred) {
+        			int nDownload, nSent;
+            		String key = dt.peer.getIDTracker() + dt.peer.getIP();
+            		if(this.peerLogsPiecesTransferred.containsKey(key)){
+            			nDownload = this.peerLogsPiecesTransferred.get(key).getNumPiecesDownloadedByThis() + 1;
+            			nSent = this.peerLogsPiecesTransferred.get(key).getNumPiecesSentToThis();
+            		}else{
+            			nDownload = dt.peer.getNumPiecesDownloadedByThis() + 1;
+            			nSent = dt.peer.getNumPiecesSentToThis();
+            		}
+            		dt.peer.setNumPiecesDownloadedByThis(nDownload);
+            		dt.peer.setNumPiecesSentToThis(nSent);
+            		this.peerLogsPiecesTransferred.put(key, dt.peer);
+				}
+        	}
+        	
+            
+            try{ 
+            	for(DownloadTask selectDT: this.task.values()){
+            		try {
+            			this.queueHave(selectDT, i);
+            		} catch (NullPointerException npe) {}
+            	}
+            }catch(NullPointerException ex){
+            	logger.error("pieceCompleted " +i + "/"+ peerID + " exception: " + ex);
+            }catch(Exception e){
+            	logger.error("pieceCompleted " +i + "/"+ peerID + " exception: " + e);
+	
             }
-       	
-       }
-       
-       return -1;
             
+            this.savePiece(i);
+            synchronized (this.isComplete) {
+            	this.isComplete.notifyAll();
+			}
+            this.getPieceBlock(i, 0, Math.min(15000, this.pieceList[i].getLength()));
+            
+            this.downloadCompleted();
             
+        } else {
+            //this.pieceList[i].data = new byte[0];
+        }
+        
     }
 
     /**
-     * Removes a task and peer after the task sends a completion message.
-     * Completion can be caused by an error (bad request, ...) or simply by the
-     * end of the connection
-     * @param dt {@link DownloadTask}
-     * @param reason Reason of the completion
+     * Reports the end of the download, or of the download of the wanted 
+     * files, once all the corresponding pieces are complete.
      */
-    public synchronized void taskCompleted(DownloadTask dt, int reason) {
+    private synchronized void downloadCompleted() {
     	
-    	if(this.runBlockUntil){
+    	if (this.isComplete.cardinality() == this.nbPieces) {
     		
-    		String reasonString = "";
-            switch (reason) {
-            case DownloadTask.CONNECTION_REFUSED:
-            	reasonString = "Connection refused by host ";
-                break;
-            case DownloadTask.MALFORMED_MESSAGE:
-            	reasonString = "Malformed message from ";
-                break;
-            case DownloadTask.UNKNOWN_HOST:
-            	reasonString = "Connection could not be established to ";
-            	break;
-            case DownloadTask.BAD_HANDSHAKE:
-            	reasonString = "Wrong file id ";
-            	break;
-            case DownloadTask.CONNECTION_ALREADY_EXIST:
-            	reasonString = "Connection Already Exist ";
-            	break;
-            }
-            
+    		if(this.task_duration > 0){
+    			// Already reported by the task that completed another last piece
+    			return;
+    		}
+    		
+            long  endTimeEndedProtocol = System.currentTimeMillis();
+            this.task_duration = Math.max(1, endTimeEndedProtocol - this.initTimeStartedProtocol);
             
-            String ipLp="";
-            if(dt.peer.getListeningPort() != -1 && dt.peer.getPort() != dt.peer.getListeningPort()){
-            	ipLp = " / " + dt.peer.getListeningPort();
+            if(this.initTime == null){
+            	DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+                Calendar calendar = Calendar.getInstance();
+                calendar.setTimeInMillis(this.initTimeStartedProtocol);
+                this.initTime = dateFormat.format(calendar.getTime());
+                calendar.setTimeInMillis(endTimeEndedProtocol);
+                this.endTime = dateFormat.format(calendar.getTime());
             }
-            
-            if(dt.peer.getIDTracker() != null){
-            	logger.warn("Remove (" + dt.getIdTask() + ipLp + " / " + dt.peer.getIDTracker() + ") of peerAvailabilies/peerList/task, reason: "+reasonString);
-            }else{
-            	logger.warn("Remove (" + dt.getIdTask() + ipLp + " ) of peerAvailabilies/peerList/task, reason: "+reasonString);
+    		
+            if(this.downloadManagerListener != null) {
+            	if(!this.wantedCompleteReported){
+            		this.downloadManagerListener.downloadComplete();
+            	}
+            	PeerUpdater updater = this.pu;
+                if(updater != null)
+                	updater.completed(); 
             }
+            this.wantedCompleteReported = true;
+            this.notify();
             
-            
-            this.peerAvailabilies.remove(dt.peer.toString());
-        	this.peerList.remove(dt.peer.toString());
-        	if(dt.peer.getIDTracker()!=null){
-        		synchronized (this.peerIdTrackerList) {
-    				this.peerIdTrackerList.remove(dt.peer.getIDTracker());
-    				if(dt.peer.getListeningPort()!=-1){
-    					ipLp = (dt.peer.getIP() + ":" + dt.peer.getListeningPort());
-	    				this.peerIPListeningPortList.remove(ipLp);
-    	        	}
-    			}
-        	}
+        }else if(!this.wantedCompleteReported && this.nbWantedNotComplete() == 0){
         	
-        	synchronized (this.task) {
-        		this.task.remove(dt.peer.toString());
-        	}
+        	logger.info("Wanted files completed ... " + this.isWanted.cardinality() + " of " + this.nbPieces + " pieces");
+        	this.wantedCompleteReported = true;
+        	if(this.downloadManagerListener != null) {
+                this.downloadManagerListener.downloadComplete();
+            }
+        }
+    }
+
+    /**
+     * Set the status of the piece to requested or not
+     * @param i int
+     * @param requested boolean
+     */
+    public void pieceRequestActive(int i, boolean requested) {
+    	if(!requested && this.pieceList[i].getNbDownloaders() > 0){
+    		return;
+    	}
+        this.isActiveRequests.set(i, requested);
+        this.firePieceStateChanged(i);
+    }
+
+    
+    /**
+     * Calls the unchokePeers method when the rechoke interval of the choker 
+     * has elapsed, and the optimisticUnchoke method when its own interval 
+     * has elapsed.
+     */
+    private void rechokeIfDue() {
+    	
+    	synchronized (this.chokeLock) {
+    		long now = System.currentTimeMillis();
+    		Choker c = this.getActiveChoker();
+    		if(now - this.lastUnchoking >= c.getRechokeInterval()){
+    			this.unchokePeers();
+    		}
+    		if(now - this.lastOptimisticUnchoke >= c.getOptimisticInterval() 
+    				&& !this.isTrackerUpdateEnd() && this.runBlockUntil){
+    			this.lastOptimisticUnchoke = now;
+    			this.optimisticUnchoke();
+    		}
+		}
+    	if(this.superSeeding){
+    		for(DownloadTask dt: this.task.values()){
+    			this.offerSuperSeedPiece(dt);
+    		}
+    	}
+    	this.exchangePeersIfDue();
+    }
+    
+    /**
+     * Returns the extended handshake (BEP 10) sent to the peers that announce 
+     * the extension protocol, with the extensions supported and the listening port
+     * @return Message_PP
+     */
+    public Message_PP getExtendedHandshake() {
+    	return ExtensionProtocol.handshake(this.cl != null ? this.cl.getConnectedPort() : -1);
+    }
+    
+    /**
+     * Called by a task when it receives an extended message (BEP 10). The 
+     * extended handshake gives the extensions of the peer and its listening 
+     * port. The peers added in a PEX message are kept to be connected by 
+     * exchangePeersIfDue, from the thread of the manager.
+     * @param dt {@link DownloadTask}
+     * @param id int the extended message id
+     * @param m Map the content of the message
+     */
+    public void extendedMessageReceived(DownloadTask dt, int id, Map<String, Object> m) {
+    	
+    	if(m == null){
+    		return;
+    	}
+    	Peer peer = dt.peer;
+    	if(id == ExtensionProtocol.HANDSHAKE){
+    		peer.setExtensions(ExtensionProtocol.getExtensions(m));
+    		if(m.get("p") instanceof Long && peer.getListeningPort() == -1){
+    			int port = ((Long) m.get("p")).intValue();
+    			if(port > 0 && port < 65536){
+    				peer.setListeningPort(port);
+    				this.peerIPListeningPortList.putIfAbsent(peer.getIP() + ":" + port, peer);
+    			}
+    		}
+    	} else if(id == ExtensionProtocol.UT_PEX && this.peerExchange){
+    		this.nbPexReceived.incrementAndGet();
+    		List<String> added = ExtensionProtocol.getAdded(m);
+    		for (int i = 0; i < added.size() && i < ExtensionProtocol.MAX_PEX_PEERS; i++) {
+    			this.pexCandidates.add(added.get(i));
+    		}
+    	}
+    }
+    
+    /**
+     * Peer exchange (BEP 11). Connects to the peers received from the other 
+     * peers that are not known yet and, every minute, sends to each peer that 
+     * supports ut_pex the connected peers added and dropped since the last 
+     * message sent to it.
+     */
+    private void exchangePeersIfDue() {
+    	
+    	String self = (this.cl != null ? this.cl.getIPaddress() : null) + ":" + (this.cl != null ? this.cl.getConnectedPort() : -1);
+    	if(!this.pexCandidates.isEmpty()){
+    		LinkedHashMap<String, Peer> l = new LinkedHashMap<String, Peer>();
+    		String key;
+    		while((key = this.pexCandidates.poll()) != null){
+    			if(!key.equals(self) && !this.peerIPListeningPortList.containsKey(key) 
+    					&& !this.task.containsKey(key) && !l.containsKey(key)){
+    				int sep = key.lastIndexOf(':');
+    				int port = Integer.parseInt(key.substring(sep + 1));
+    				Peer p = new Peer();
+    				p.setIP(key.substring(0, sep));
+    				p.setPort(port);
+    				p.setListeningPort(port);
+    				l.put(key, p);
+    			}
+    		}
+    		if(l.size() > 0){
+    			this.nbPexPeers.addAndGet(l.size());
+    			this.updatePeerList(l);
+    		}
+    	}
+    	
+    	long now = System.currentTimeMillis();
+    	if(!this.peerExchange || now - this.lastPeerExchange < this.peerExchangeInterval){
+    		return;
+    	}
+    	this.lastPeerExchange = now;
+    	
+    	LinkedHashSet<String> connected = new LinkedHashSet<String>();
+    	for(DownloadTask dt: this.task.values()){
+    		if(dt.isHandshakeDone() && dt.peer.getListeningPort() > 0){
+    			connected.add(dt.peer.getIP() + ":" + dt.peer.getListeningPort());
+    		}
+    	}
+    	for(DownloadTask dt: this.task.values()){
+    		int id = dt.peer.getExtensionID(ExtensionProtocol.UT_PEX_NAME);
+    		if(id == 0 || dt.ms == null || !dt.isHandshakeDone()){
+    			continue;
+    		}
+    		String own = dt.peer.getIP() + ":" + dt.peer.getListeningPort();
+    		Set<String> sent = dt.peer.getPexSent();
+    		List<String> added = new ArrayList<String>();
+    		List<String> dropped = new ArrayList<String>();
+    		for(String key: connected){
+    			if(added.size() < ExtensionProtocol.MAX_PEX_PEERS && !key.equals(own) && !sent.contains(key)){
+    				added.add(key);
+    			}
+    		}
+    		for(String key: sent){
+    			if(dropped.size() < ExtensionProtocol.MAX_PEX_PEERS && !connected.contains(key)){
+    				dropped.add(key);
+    			}
+    		}
+    		if(added.isEmpty() && dropped.isEmpty()){
+    			continue;
+    		}
+    		sent.addAll(added);
+    		sent.removeAll(dropped);
+    		dt.ms.addMessageToQueue(ExtensionProtocol.pex(id, added, dropped));
+    		this.nbPexSent.incrementAndGet();
+    	}
+    }
+    
+    /**
+     * Announces the piece to the peer of the task with a HAVE message, unless 
+     * the peer already has the piece and the suppression is enabled. With a 
+     * coalescing window, the HAVE messages are kept and sent together by flushHaves.
+     * @param dt {@link DownloadTask}
+     * @param piece int
+     */
+    private void queueHave(DownloadTask dt, int piece) {
+    	
+    	if(this.haveSuppression && dt.peer.getHasPiece().get(piece)){
+    		this.nbHaveSuppressed.incrementAndGet();
+    		return;
+    	}
+    	
+    	if(this.haveCoalesceWindow <= 0 && dt.isHandshakeDone()){
+    		if(dt.ms != null){
+    			dt.ms.addMessageToQueue(new Message_PP(PeerProtocol.HAVE, Utils.intToByteArray(piece), 1));
+    			this.nbHaveSent.incrementAndGet();
+    		}
+    		return;
+    	}
+    	
+    	this.getPendingHaves(dt.peer.toString()).add(piece);
+    }
+    
+    /**
+     * Returns the HAVE messages kept for the peer, in a queue that the tasks 
+     * completing pieces fill without waiting for each other.
+     * @param peerID String
+     * @return ConcurrentLinkedQueue<Integer>
+     */
+    private ConcurrentLinkedQueue<Integer> getPendingHaves(String peerID) {
+    	
+    	ConcurrentLinkedQueue<Integer> pending = this.pendingHaves.get(peerID);
+    	if(pending == null){
+    		ConcurrentLinkedQueue<Integer> created = new ConcurrentLinkedQueue<Integer>();
+    		pending = this.pendingHaves.putIfAbsent(peerID, created);
+    		if(pending == null){
+    			pending = created;
+    		}
+    	}
+    	return pending;
+    }
+    
+    /**
+     * Sends the HAVE messages kept for each peer in a single write, once the 
+     * bitfield has been sent to the peer. The pieces the peer has obtained 
+     * in the meantime are not announced.
+     */
+    private void flushHaves() {
+    	
+    	Iterator<Map.Entry<String, ConcurrentLinkedQueue<Integer>>> it = this.pendingHaves.entrySet().iterator();
+    	while(it.hasNext()){
+    		Map.Entry<String, ConcurrentLinkedQueue<Integer>> e = it.next();
+    		DownloadTask dt = this.task.get(e.getKey());
+    		if(dt == null){
+    			if(!this.peerList.containsKey(e.getKey())){
+    				it.remove();
+    			}
+    			continue;
+    		}
+    		if(dt.ms == null || !dt.isHandshakeDone()){
+    			continue;
+    		}
+    		
+    		// The queue is emptied, not removed, so that no piece queued meanwhile is lost
+    		LinkedList<Message_PP> haves = new LinkedList<Message_PP>();
+    		Integer piece;
+    		while((piece = e.getValue().poll()) != null){
+    			if(this.haveSuppression && dt.peer.getHasPiece().get(piece.intValue())){
+    				this.nbHaveSuppressed.incrementAndGet();
+    			}else{
+    				haves.add(new Message_PP(PeerProtocol.HAVE, Utils.intToByteArray(piece.intValue()), 1));
+    			}
+    		}
     		
+    		if(haves.size() == 1){
+    			dt.ms.addMessageToQueue(haves.getFirst());
+    		}else if(haves.size() > 1){
+    			dt.ms.addMessageToQueue(new Message_Batch(PeerProtocol.HAVE, haves, 1));
+    		}
+    		this.nbHaveSent.addAndGet(haves.size());
+    	}
+    }
+    
+    /**
+     * Enables or disables the suppression of the HAVE messages to the peers 
+     * that already have the piece. Enabled by default.
+     * @param suppression boolean
+     */
+    public synchronized void setHaveSuppression(boolean suppression) {
+    	this.haveSuppression = suppression;
+    }
+    
+    public synchronized boolean isHaveSuppression() {
+    	return this.haveSuppression;
+    }
+    
+    /**
+     * Sets the time, in milliseconds, during which the completed pieces are 
+     * gathered before being announced to each peer in a single write. 
+     * With 0, each piece is announced when it is completed. By default 100 milliseconds.
+     * @param window long
+     */
+    public synchronized void setHaveCoalesceWindow(long window) {
+    	this.haveCoalesceWindow = window;
+    }
+    
+    public synchronized long getHaveCoalesceWindow() {
+    	return this.haveCoalesceWindow;
+    }
+    
+    /**
+     * Enables or disables the lazy bitfield: some random complete pieces are 
+     * left out of the bitfield sent to a new peer, and announced afterwards 
+     * with HAVE messages.
+     * @param lazy boolean
+     */
+    public synchronized void setLazyBitfield(boolean lazy) {
+    	this.lazyBitfield = lazy;
+    }
+    
+    public synchronized boolean isLazyBitfield() {
+    	return this.lazyBitfield;
+    }
+    
+    /**
+     * Returns the number of HAVE messages sent to the peers
+     * @return long
+     */
+    public long getNbHaveSent() {
+    	return this.nbHaveSent.get();
+    }
+    
+    /**
+     * Returns the number of HAVE messages not sent because the peer already had the piece
+     * @return long
+     */
+    public long getNbHaveSuppressed() {
+    	return this.nbHaveSuppressed.get();
+    }
+    
+    /**
+     * Enables or disables the peer exchange (BEP 11) with the peers that 
+     * support it. Enabled by default.
+     * @param peerExchange boolean
+     */
+    public synchronized void setPeerExchange(boolean peerExchange) {
+    	this.peerExchange = peerExchange;
+    }
+    
+    public synchronized boolean isPeerExchange() {
+    	return this.peerExchange;
+    }
+    
+    /**
+     * Sets the time between the PEX messages sent to each peer, in milliseconds. 
+     * By default 1 minute, the minimum allowed by the BEP 11.
+     * @param interval long
+     */
+    public synchronized void setPeerExchangeInterval(long interval) {
+    	this.peerExchangeInterval = interval;
+    }
+    
+    public synchronized long getPeerExchangeInterval() {
+    	return this.peerExchangeInterval;
+    }
+    
+    /**
+     * Returns the number of PEX messages sent
+     * @return long
+     */
+    public long getNbPexSent() {
+    	return this.nbPexSent.get();
+    }
+    
+    /**
+     * Returns the number of PEX messages received
+     * @return long
+     */
+    public long getNbPexReceived() {
+    	return this.nbPexReceived.get();
+    }
+    
+    /**
+     * Returns the number of new peers learned from the PEX messages
+     * @return long
+     */
+    public long getNbPexPeers() {
+    	return this.nbPexPeers.get();
+    }
+    
+    /**
+     * Sets the number of pieces of the allowed fast set (BEP 6) given to the 
+     * peers that have fewer pieces. By default 10, 0 disables the allowed fast set.
+     * @param size int
+     */
+    public synchronized void setAllowedFastSetSize(int size) {
+    	this.allowedFastSetSize = size;
+    }
+    
+    public synchronized int getAllowedFastSetSize() {
+    	return this.allowedFastSetSize;
+    }
+    
+    /**
+     * Returns the number of requests rejected (fast extension)
+     * @return long
+     */
+    public long getNbRejectsSent() {
+    	return this.nbRejectsSent.get();
+    }
+    
+    /**
+     * Returns the number of requests of this client rejected by the peers (fast extension)
+     * @return long
+     */
+    public long getNbRejectsReceived() {
+    	return this.nbRejectsReceived.get();
+    }
+    
+    /**
+     * Returns the number of blocks sent to choked peers, from their allowed fast set
+     * @return long
+     */
+    public long getNbAllowedFastServed() {
+    	return this.nbAllowedFastServed.get();
+    }
+    
+    /**
+     * Returns the number of Suggest Piece messages sent
+     * @return long
+     */
+    public long getNbSuggestsSent() {
+    	return this.nbSuggestsSent.get();
+    }
+    
+    /**
+     * Returns the number of pieces requested because a peer suggested them
+     * @return long
+     */
+    public long getNbSuggestedPieces() {
+    	return this.nbSuggestedPieces.get();
+    }
+    
+    /**
+     * Sets the size, in bytes, of the read cache of the complete pieces. 
+     * By default 4 MB, 0 disables the cache.
+     * @param size int
+     */
+    public void setReadCacheSize(int size) {
+    	synchronized (this.readCache) {
+    		this.readCacheSize = size;
+    		if(size <= 0){
+    			this.readCache.clear();
+    			this.readCacheBytes = 0;
+    		}
+		}
+    }
+    
+    public int getReadCacheSize() {
+    	synchronized (this.readCache) {
+    		return this.readCacheSize;
+		}
+    }
+    
+    public long getNbReadCacheHits() {
+    	return this.nbReadCacheHits.get();
+    }
+    
+    public long getNbReadCacheMisses() {
+    	return this.nbReadCacheMisses.get();
+    }
+    
+    /**
+     * Returns the number of pieces of the torrent
+     * @return int
+     */
+    public int getNbPieces() {
+    	return this.nbPieces;
+    }
+    
+    /**
+     * Enables or disables the super-seeding mode, only possible when this client 
+     * has all the pieces. In this mode the peers receive an empty bitfield, and 
+     * each peer is offered, with a HAVE message, a single piece that has not been 
+     * sent to other peers. The peer is offered a new piece only when another peer 
+     * announces the piece offered before, that is, when the piece has propagated 
+     * through the swarm. When the mode is disabled, the pieces not offered yet are 
+     * announced to the peers.
+     * @param superSeeding boolean
+     */
+    public synchronized void setSuperSeeding(boolean superSeeding) {
+    	
+    	if(superSeeding && !this.isComplete()){
+    		logger.warn("Super-seeding is only possible when all the pieces are complete");
+    		return;
+    	}
+    	if(!this.superSeeding && superSeeding){
+    		SuperSeedOffers offers = new SuperSeedOffers(this.nbPieces);
+    		for (int i = 0; i < this.nbPieces; i++) {
+    			offers.setSeen(i, this.pieceAvailability.getAvailability(i) + (this.isPieceSent(i) ? 1 : 0));
+    		}
+    		this.superSeedOffers = offers;
+    	}
+    	if(this.superSeeding && !superSeeding){
+    		this.superSeeding = false;
+    		for(DownloadTask dt: this.task.values()){
+    			BitSet advertised = this.superSeedOffers.getAdvertised(dt.peer.toString());
+    			for (int i = advertised.nextClearBit(0); dt.ms != null && i < this.nbPieces; i = advertised.nextClearBit(i + 1)) {
+    				dt.ms.addMessageToQueue(new Message_PP(PeerProtocol.HAVE, Utils.intToByteArray(i), 1));
+    			}
+    		}
+    		this.superSeedOffers = new SuperSeedOffers(this.nbPieces);
     	}
+    	this.superSeeding = superSeeding;
+    }
+    
+    public boolean isSuperSeeding() {
+    	return this.superSeeding;
+    }
+    
+    /**
+     * In super-seeding mode, offers a piece to the peer if it has not a pending 
+     * offer: the piece seen by less peers that the peer does not have, taken 
+     * from the queue of the {@link SuperSeedOffers}.
+     * @param dt {@link DownloadTask}
+     */
+    private void offerSuperSeedPiece(DownloadTask dt) {
     	
+    	if(dt == null || dt.ms == null || !dt.isHandshakeDone()){
+    		return;
+    	}
+    	String id = dt.peer.toString();
+    	int piece = this.superSeedOffers.offer(id, dt.peer.getHasPiece());
+    	if(piece != -1){
+    		logger.info(id + " Super-seeding offers piece " + piece);
+    		this.setSent(piece, true);
+    		dt.ms.addMessageToQueue(new Message_PP(PeerProtocol.HAVE, Utils.intToByteArray(piece), 1));
+    	}
     }
     
     /**
-     * Save the last time, when receives a new piece.
+     * Sets the strategy used to choose the peers that are unchoked. 
+     * By default it is the {@link CapacityChoker}.
+     * @param choker {@link Choker}
      */
-    public synchronized void receivePieceBlock(String peerID){
-    	this.lastTimeReceivePieceBlock = System.currentTimeMillis();
-    	
+    public synchronized void setChoker(Choker choker) {
+    	this.choker = choker;
+    }
+    
+    public synchronized Choker getChoker() {
+    	return this.choker;
     }
     
     /**
-     * Received when a piece has been fully downloaded by a task. The piece might
-     * have been corrupted, in which case the manager will request it again later.
-     * If it has been successfully downloaded and verified, the piece status is
-     * set to 'complete', a 'HAVE' message is sent to all connected peers and the
-     * piece is saved into the corresponding file(s)
-     * @param peerID String
-     * @param i int
-     * @param complete boolean
+     * Sets the strategy used to choose the peers that are unchoked when this 
+     * client has all the pieces. By default it is the {@link RoundRobinSeedingChoker}. 
+     * With null, the choker set with setChoker is used also while seeding.
+     * @param choker {@link Choker}
      */
-    public synchronized void pieceCompleted(String peerID, int i, boolean complete, DownloadTask dt) {
-    	
-    	synchronized (this.isActiveRequests) {
-            this.isActiveRequests.clear(i);
-        }
-      
-        if (complete && !this.isPieceComplete(i)) {
-        	
-            pu.updateParameters(this.torrent.pieceLength, 0, "");
-            
-            synchronized (this.isComplete) {
-            	
-            	this.isComplete.set(i, complete);
-            	
-            	float totaldl = (float) (((float) (100.0)) * ((float) (this.isComplete.cardinality())) / ((float) (this.nbPieces)));
-            	
-            	String ipLp="";
-            	if(dt.peer.getListeningPort() != -1 && dt.peer.getPort() != dt.peer.getListeningPort()){
-                	ipLp = " / " + dt.peer.getListeningPort();
-                }
-            	
-            	if(dt.peer.getIDTracker()!=null){
-            		logger.info(i + " Completed by Peer ID (" + dt.getIdTask() + ipLp + " / " + dt.peer.getIDTracker() + ") - (Total dl = " + totaldl +"% )");
-            	}else{
-            		logger.info(i + " Completed by Peer ID (" + dt.getIdTask() + ipLp + " ) - (Total dl = " + totaldl +"% )");
-            	}
-            	
-            	if(this.saveInformationPieceTransfer){
-            		
-            		int nDownload, nSent;
-            		String key = dt.peer.getIDTracker() + dt.peer.getIP();
-            		if(this.peerLogsPiecesTransferred.containsKey(key)){
-            			nDownload = this.peerLogsPiecesTransferred.get(key).getNumPiecesDownloadedByThis() + 1;
-            			nSent = this.peerLogsPiecesTransferred.get(key).getNumPiecesSentToThis();
-            		}else{
-            			nDownload = dt.peer.getNumPiecesDownloadedByThis() + 1;
-            			nSent = dt.peer.getNumPiecesSentToThis();
-            		}
-            		dt.peer.setNumPiecesDownloadedByThis(nDownload);
-            		dt.peer.setNumPiecesSentToThis(nSent);
-            		this.peerLogsPiecesTransferred.put(key, dt.peer);
-            	}
-            	
-            }
-            
-            try{ 
-            	synchronized (this.task) {
-                	for(DownloadTask selectDT: this.task.values()){
-                    	try {
-                    		if(selectDT.ms != null)
-                    			selectDT.ms.addMessageToQueue(new Message_PP(PeerProtocol.HAVE,Utils.intToByteArray(i), 1));
-                    	} catch (NullPointerException npe) {}
-                    }
-                }
-            }catch(NullPointerException ex){
-            	logger.error("pieceCompleted " +i + "/"+ peerID + " exception: " + ex);
-            }catch(Exception e){
-            	logger.error("pieceCompleted " +i + "/"+ peerID + " exception: " + e);
-	
-            }
-            
-            this.savePiece(i);
-            this.getPieceBlock(i, 0, 15000);
-            
-            
-            synchronized (this.isComplete) {
-            	
-            	if (this.isComplete.cardinality() == this.nbPieces) {
-            		
-                    long  endTimeEndedProtocol = System.currentTimeMillis();
-                    this.task_duration = endTimeEndedProtocol - this.initTimeStartedProtocol;
-                    
-                    if(this.initTime == null){
-                    	DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-                        Calendar calendar = Calendar.getInstance();
-                        calendar.setTimeInMillis(this.initTimeStartedProtocol);
-                        this.initTime = dateFormat.format(calendar.getTime());
-                        calendar.setTimeInMillis(endTimeEndedProtocol);
-                        this.endTime = dateFormat.format(calendar.getTime());
-                    }
-            		
-                    if(this.downloadManagerListener != null) {
-                        this.downloadManagerListener.downloadComplete();
-                        this.pu.completed(); 
-                    }
-                    this.notify();
-                }
-            }
-            
-            
-        } else {
-            //this.pieceList[i].data = new byte[0];
-        }
-        
+    public synchronized void setSeedingChoker(Choker choker) {
+    	this.seedingChoker = choker;
     }
-
+    
+    public synchronized Choker getSeedingChoker() {
+    	return this.seedingChoker;
+    }
+    
     /**
-     * Set the status of the piece to requested or not
-     * @param i int
-     * @param requested boolean
+     * Returns the choker used in the current state of the download. It does not 
+     * take the lock of this manager, the rechoke calls it holding the task map.
+     * @return {@link Choker}
      */
-    public synchronized void pieceRequestActive(int i, boolean requested) {
-        this.isActiveRequests.set(i, requested);
+    private Choker getActiveChoker() {
+    	if(this.seedingChoker != null && this.isComplete()){
+    		return this.seedingChoker;
+    	}
+    	return this.choker;
+    }
+    
+    /**
+     * Returns the fraction of the upload capacity that is being used, 
+     * or 0 if the capacity is not known yet.
+     * @return float
+     */
+    public float getUploadUtilization() {
+    	float capacity = this.getActiveChoker().getUploadCapacity();
+    	if(capacity <= 0){
+    		return 0;
+    	}
+    	return this.getULRate() * 1024 / capacity;
     }
-
     
     /**
      * Choose which of the connected peers should be unchoked and authorized to
-     * upload from this client. A peer gets unchoked if it is not interested, or
-     * if it is interested and has one of the 5 highest download rate among the
-     * interested peers. Every 3 times this method is called, calls the
-     * optimisticUnchoke method, which unchoke a peer no matter its download rate,
-     * in a try to find a better source.
+     * upload from this client. The {@link Choker} sorts the peers and gives the 
+     * number of upload slots. A peer gets unchoked if it is not interested, or
+     * if it is interested and is one of the first peers up to the number of slots.
+     * The optimistic unchokes, which unchoke a peer no matter its rate in a try 
+     * to find a better source, are done by the rechokeIfDue method.
      * Checks not interested peers to send a message NOT_INTERESTED and peers 
      * of interest to send a message INTERESTED.
      * 
      */
-	private synchronized void unchokePeers() {
+	private void unchokePeers() {
     	
     	logger.info("UnchokePeers ... ");
     	
@@ -1059,7 +3145,7 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
     	String ips = "";
     	String downloaders = "";
     	
-    	if(!this.pu.isEnd() && this.runBlockUntil){
+    	if(!this.isTrackerUpdateEnd() && this.runBlockUntil){
     		
     		try{ 
     			synchronized (this.task) {
@@ -1074,11 +3160,9 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
                     this.unchoken.clear();
                     LinkedList<Peer> l = new LinkedList<Peer>(this.peerList.values());
                     
-                    if(!this.isComplete()){	//logger.info("UNCHOKE PEERS SORT COMPARATOR - DL_RATE");
-                    	Collections.sort(l, new DLRateComparator());
-    	            }else {	//logger.info("UNCHOKE PEERS SORT COMPARATOR - UL_RATE");
-                    	Collections.sort(l, new ULRateComparator());
-                    }
+                    Choker c = this.getActiveChoker();
+                    c.sort(l, this.isComplete());
+                    int slots = c.getUploadSlots(l, this.isComplete());
                     
                     LinkedList<DownloadTask> listInterestingHavePiece = new LinkedList<DownloadTask>();
                     DownloadTask dt;
@@ -1089,19 +3173,16 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
                         dt = this.task.get(p.toString());
                         
                         int nPieceInterest = 0;
-                        synchronized (this.isComplete) {
-                        	 if(!this.isComplete() && this.peerAvailabilies!=null && !this.peerAvailabilies.isEmpty() && this.peerAvailabilies.containsKey(p.toString())){
-                             	BitSet interest = (BitSet) (this.peerAvailabilies.get(p.toString()).clone());
-                             	interest.andNot(this.isComplete);
-                             	nPieceInterest = interest.cardinality();
-                             }
-    					}
+                    	 if(!this.isComplete() && this.peerAvailabilies!=null && !this.peerAvailabilies.isEmpty() && this.peerAvailabilies.containsKey(p.toString())){
+                         	nPieceInterest = this.isComplete.cardinalityNotIn(this.peerAvailabilies.get(p.toString()));
+                         }
                         //UnInteresting
                     	if(nPieceInterest == 0 && dt!=null && dt.peer.isInteresting()){
                     			if(dt.ms != null){
                     				dt.ms.addMessageToQueue(new Message_PP(PeerProtocol.NOT_INTERESTED, 2));
                                     dt.peer.setInteresting(false);
                                     dt.peer.setChoking(true);
+                                    this.peerChoking(dt.peer.toString(), true);
                     			}
                     	}else if(nPieceInterest > 0 && dt!=null && !dt.peer.isInteresting()) {
                     	//Interesting
@@ -1113,9 +3194,9 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
                         	ips = ips + " - ( "+p.toString()+" / "+ nPieceInterest +" - ";
                         	
                         	 if(!this.isComplete() && dt != null){
-                             	ips = ips + "dlRate: " + dt.peer.getDLRate(false) / (1024 * 10) + " ko/s" + ")";
+                             	ips = ips + "dlRate: " + dt.peer.getDLRate(false) / 1024 + " ko/s" + ")";
                              }else if(dt != null){
-                            	 ips = ips + "ulRate: " + dt.peer.getULRate(false) / (1024 * 10) + " ko/s" + ")";
+                            	 ips = ips + "ulRate: " + dt.peer.getULRate(false) / 1024 + " ko/s" + ")";
                              }
                         	
                         }else{
@@ -1124,7 +3205,7 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
                         
                         if(dt != null){
                         	
-                        	if (nbDownloaders < 5 && dt != null) {
+                        	if (nbDownloaders < slots && dt != null) {
                             	
                                 if (!dt.peer.isInterested()) {
                                 	
@@ -1190,11 +3271,12 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
                     logger.info("UNCHOKEPEERS FUNCTION - listPeers "+this.peerList.values().size()+": "+ips);
                     logger.info("nbNotInterested: "+nbNotInterested);
                 	logger.info("nbInterestedAndNotChoked: "+nbInterestedAndNotChoked);
-                    logger.info("nbDownloaders: "+nbDownloaders);
+                    logger.info("nbDownloaders: "+nbDownloaders+" of "+slots+" slots, upload utilization: "+this.getUploadUtilization());
                     if(downloaders != ""){
                     	logger.info("Downloaders: "+downloaders);
                     }
                 	logger.info("nbChoked: "+nbChoked);
+                	logger.info("Pieces in progress: " + this.getNbPiecesInProgress() + " (" + this.getBytesInProgress() + " bytes)");
                 	
                     if(!listInterestingHavePiece.isEmpty()){
                     	logger.info("UnchokePeers execute PeerAvailability num peers ... "+listInterestingHavePiece.size());
@@ -1207,10 +3289,7 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
                 }
         		
                 this.lastUnchoking = System.currentTimeMillis();
-                if (this.optimisticUnchoke-- == 0) {
-                    this.optimisticUnchoke();
-                    this.optimisticUnchoke = 3;
-                }
+                this.updateSpeedClasses();
     			
     			
             }catch(NullPointerException ex){
@@ -1229,9 +3308,7 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
     	
     	int nPieceInterest = 0;
     	if(!this.isComplete() && this.peerAvailabilies!=null && !this.peerAvailabilies.isEmpty() && this.peerAvailabilies.containsKey(dt.peer.toString())){
-			BitSet interest = (BitSet) (this.peerAvailabilies.get(dt.peer.toString()).clone());
-         	interest.andNot(this.isComplete);
-         	nPieceInterest = interest.cardinality();
+			nPieceInterest = this.isComplete.cardinalityNotIn(this.peerAvailabilies.get(dt.peer.toString()));
          }
     	
     	return nPieceInterest;
@@ -1242,7 +3319,7 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
      * in order that this pass to be unchocked.  In this way, makes the peers 
      * that at the start dont have pieces to share, can obtain its first pieces.
      */
-    private synchronized void optimisticUnchoke() {
+    private void optimisticUnchoke() {
     	
     	logger.info("Optimistically unchoken...");
     	
@@ -1289,14 +3366,16 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
         				logger.info(dtCandidate.getIdTask() + " is Candidate with " + nPieceInterestFromCandidate + " pieces interest");
         			}*/
         			
-        			while(dtCandidate == null && !listCandidatePeers.isEmpty()){
-        				Random r = new Random(System.currentTimeMillis());
-        				dtCandidate = listCandidatePeers.get(r.nextInt(listCandidatePeers.size()));
-                		this.unchokeList.remove(dtCandidate.peer);
-                		if(dtCandidate.ms == null){
-                			listCandidatePeers.remove(dtCandidate);
-                			dtCandidate = null;
-                		}
+        			LinkedList<Peer> candidatePeers = new LinkedList<Peer>();
+        			for(DownloadTask c: listCandidatePeers){
+        				if(c.ms != null){
+        					candidatePeers.add(c.peer);
+        				}
+        			}
+        			Peer chosen = this.getActiveChoker().chooseOptimistic(candidatePeers);
+        			if(chosen != null){
+        				dtCandidate = this.task.get(chosen.toString());
+        				this.unchokeList.remove(chosen);
         			}
         			
                    
@@ -1332,113 +3411,100 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
      * 
      * @param peerID String (peer.IP:peer.Port)
      */
-    public synchronized void peerReady(String peerID) {
+    public void peerReady(String peerID) {
     	
-    	synchronized (this) {
+    	if(this.runBlockUntil){
     		
-    		if(this.runBlockUntil){
+    		try{
+        		
+    			/*
+    			 * There is no lock for the selection: a piece that nobody downloads 
+    			 * is claimed with compareAndSet on the active requests (takePiece)
+    			 */
+    			boolean complete = this.isComplete();
     			
-    			try{
+    			int piece2request = -1;
+    			DownloadTask dt = this.task.get(peerID);
             		
-            		synchronized (this.task) {
-            			
-            			if (System.currentTimeMillis() - this.lastUnchoking > 10000)
-            	            this.unchokePeers();
-            			
-            	    	DownloadTask dt = null;
-            	    	int piece2request = -1;
-            			
+            		if(dt != null){
+                    	
+                    	float totaldl = ((float) (((float) (100.0)) *((float) (this.isComplete.cardinality())) /((float) (this.nbPieces))));
+                    	
+                    	if(dt.peer.isChoking()){
+                    		/*
+                    		 * Fast extension: while the peer chokes this client, only 
+                    		 * the pieces of its allowed fast set are requested
+                    		 */
+                    		piece2request = this.chooseAllowedFastPiece(peerID, dt);
+                    		if(piece2request == -1){
+                    			return;
+                    		}
+                    	}
+                    	
+                    	if(piece2request == -1 && this.streamingWindow != null && !complete){
+                    		piece2request = this.chooseStreamingPiece(peerID, dt);
+                    	}
+                    	
+                    	if(piece2request == -1 && !complete){
+                    		piece2request = this.chooseStuckPiece(peerID, dt);
+                    	}
+                    	
+                    	if(piece2request == -1 && !complete){
+                    		piece2request = this.chooseSuggestedPiece(peerID, dt);
+                    	}
+                    	
+                    	if(piece2request == -1 && this.isEndGame(totaldl)){
+                    		
+                    		/*
+                    		 * End Game mode: the peer requests the blocks, not received yet, of a piece 
+                    		 * that is being downloaded by other peers. The first block that arrives 
+                    		 * cancels the requests of the same block to the other peers.
+                    		 */
+                    		piece2request = this.choosePiece2Download(peerID, true);
+                    		if(piece2request != -1){
+                    			logger.info(peerID + " End Game peerReady ... piece " + piece2request + ", remaining blocks: " + this.getNbRemainingActiveBlocks());
+                    			dt.setStartedEndGame(this.pieceList[piece2request]);
+                    		}else{
+                    			dt.setStartedEndGame(null);
+                    		}
+                    		
+                        }else if(piece2request == -1){
+                        	piece2request = this.choosePiece2Download(peerID, false);
+                        }
+                    	
                 		
-                		if(this.task.containsKey(peerID)){
-                			
-                        	dt = this.task.get(peerID);
+                		if (piece2request != -1 && !dt.isDownloadPiece()){
+                    		
+                        	dt.requestPiece(this.pieceList[piece2request]);
+                        	this.pieceTaken(piece2request, dt);
                         	
-                        	float totaldl = ((float) (((float) (100.0)) *((float) (this.isComplete.cardinality())) /((float) (this.nbPieces))));
+                        	if(dt!=null && !dt.peer.isInteresting() && dt.ms != null) {
+                            	//logger.info("peerReady Send INTERESTED: " + dt.peer.toString());
+                            	dt.ms.addMessageToQueue(new Message_PP(PeerProtocol.INTERESTED, 2));
+                            	dt.peer.setInteresting(true);
+                        	}
                         	
-                        	if(!this.isComplete() && ( (this.thresholdEndGameTest != -1 && totaldl > this.thresholdEndGameTest) 
-                            		|| (this.isRequested.cardinality() == this.nbPieces) )){
-                        		
-                            	logger.info(peerID + " End Game peerReady ... isRequested.cardinality: " + this.isRequested.cardinality() + "/" + this.nbPieces);
-                            	
-                            	if(this.downloadEndGamePiece != null && !this.isPieceComplete(this.downloadEndGamePiece.getIndex())
-                            			&& this.peerAvailabilies.get(peerID).get(this.downloadEndGamePiece.getIndex())){
-                            		
-                            		
-                            		//logger.info(peerID + " downloadEndGamePiece: " + this.downloadEndGamePiece.getIndex());
-                            		
-                            		piece2request = this.downloadEndGamePiece.getIndex();
-                            		dt.setStartedEndGame(this.downloadEndGamePiece);
-                            		
-                            	}else if(this.downloadEndGamePiece == null || (this.downloadEndGamePiece != null && this.isPieceComplete(this.downloadEndGamePiece.getIndex()))){
-
-                            		if(this.downloadEndGamePiece != null){
-                            			for(DownloadTask dwt: this.task.values()){
-                                    		if(!dwt.peer.toString().equals(dt.peer.toString())){
-                                    			if(dwt.getIndexDownloadPiece() == this.downloadEndGamePiece.getIndex()){
-                                        			//logger.info(dwt.peer.toString() + " pushMessageCancelPieceEndGameStrategy ..." + this.downloadEndGamePiece.getIndex());
-                                    				dwt.mr.pushMessageCancelPieceEndGameStrategy(this.downloadEndGamePiece.getIndex());
-                                    			}
-                            				}
-                                        }
-                            		}
-                            		
-                            		this.downloadEndGamePiece = null;
-                            		piece2request = this.choosePiece2Download(peerID, true);
-                            		
-                            		if(piece2request != -1){
-                            			this.downloadEndGamePiece = this.pieceList[piece2request];
-                            			//logger.info(peerID + " downloadEndGamePiece: " + this.downloadEndGamePiece.getIndex());
-                                		dt.setStartedEndGame(this.downloadEndGamePiece);
-                            		}else{
-                            			//logger.info(peerID + " downloadEndGamePiece: null");
-                            			dt.setStartedEndGame(this.downloadEndGamePiece);
-                            		}
-                            		
-                            	}else{
-                            			
-                            		dt.setStartedEndGame(null);
-                            		piece2request = this.choosePiece2Download(peerID, false);
-                        			//logger.info(peerID + " choosePiece2DownloadEndGamePiece: " + piece2request);
-                            	}
-                            	
-                            }else{
-                            	piece2request = this.choosePiece2Download(peerID, false);
-                            }
+                        }else if(piece2request == -1){
+                        	
+                        	if(dt!=null && dt.peer.isInteresting() && dt.ms != null){
+                        		//logger.info("peerReady Send NOT_INTERESTED: " + dt.peer.toString());
+                        		dt.ms.addMessageToQueue(new Message_PP(PeerProtocol.NOT_INTERESTED, 2));
+                        		dt.peer.setInteresting(false);
+                        		dt.peer.setChoking(true);
+                        		this.peerChoking(peerID, true);
+                        	}
                         	
-                    		
-                    		if (piece2request != -1 && !dt.isDownloadPiece()){
-                        		
-                            	dt.requestPiece(this.pieceList[piece2request]);
-                            	
-                            	if(dt!=null && !dt.peer.isInteresting() && dt.ms != null) {
-                                	//logger.info("peerReady Send INTERESTED: " + dt.peer.toString());
-                                	dt.ms.addMessageToQueue(new Message_PP(PeerProtocol.INTERESTED, 2));
-                                	dt.peer.setInteresting(true);
-                            	}
-                            	
-                            }else if(piece2request == -1){
-                            	
-                            	if(dt!=null && dt.peer.isInteresting() && dt.ms != null){
-                            		//logger.info("peerReady Send NOT_INTERESTED: " + dt.peer.toString());
-                            		dt.ms.addMessageToQueue(new Message_PP(PeerProtocol.NOT_INTERESTED, 2));
-                            		dt.peer.setInteresting(false);
-                            		dt.peer.setChoking(true);
-                            	}
-                            	
-                            }
                         }
-                	}
-            		
-            	}catch(NullPointerException ex){
-            		logger.error("PeerReady " + peerID + " exception: " + ex);
-            		ex.printStackTrace();
-            	}catch(Exception e){
-            		logger.error("PeerReady " + peerID + " exception: " + e);
-            		e.printStackTrace();
-            	}
-    			
-    		}
-    		
+                    }
+        		
+        	}catch(NullPointerException ex){
+        		logger.error("PeerReady " + peerID + " exception: " + ex);
+        		ex.printStackTrace();
+        	}catch(Exception e){
+        		logger.error("PeerReady " + peerID + " exception: " + e);
+        		e.printStackTrace();
+        	}
+			
 		}
     	
     }
@@ -1453,31 +3519,55 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
      * @param length int
      * @param dt {@link DownloadTask}
      */
-    public synchronized void peerRequest(String peerID, int piece, int begin, int length, DownloadTask dt) {
+    public void peerRequest(String peerID, int piece, int begin, int length, DownloadTask dt) {
+    	
+    	if(this.superSeeding){
+    		if(!this.superSeedOffers.isAdvertised(peerID, piece)){
+    			logger.warn(peerID + " Super-seeding ignores request of piece not offered " + piece);
+    			if(dt != null && dt.peer.isFastExtension()){
+    				this.rejectRequest(dt, piece, begin, length);
+    			}
+    			return;
+    		}
+    	}
+    	
+    	if (!this.isPieceComplete(piece) && this.runBlockUntil && dt != null && dt.peer.isFastExtension()) {
+    		// Fast extension: the request is rejected, the connection is kept
+    		this.rejectRequest(dt, piece, begin, length);
+    		return;
+    	}
     	
         if (this.isPieceComplete(piece) && this.runBlockUntil) {
         	
         	this.setSent(piece, true);
         	
+        	if(dt != null && dt.peer.isChoked()){
+        		this.nbAllowedFastServed.incrementAndGet();
+        	}
+        	
+        	boolean cached = this.isPieceCached(piece);
+        	
         	//logger.info("Send (" + piece + ", begin:" + begin + ") to: " + dt.getIdTask());
         	
         	
         	if(this.saveInformationPieceTransfer){
-        		
-        		this.numPieceSent++;
-        		
-        		int nSent, nDownload;
-        		String key = dt.peer.getIDTracker() + dt.peer.getIP();
-        		if(this.peerLogsPiecesTransferred.containsKey(key)){
-        			nSent = this.peerLogsPiecesTransferred.get(key).getNumPiecesSentToThis() + 1;
-        			nDownload = this.peerLogsPiecesTransferred.get(key).getNumPiecesDownloadedByThis();
-        		}else{
-        			nSent = dt.peer.getNumPiecesSentToThis() + 1;
-        			nDownload = dt.peer.getNumPiecesDownloadedByThis();
-        		}
-        		dt.peer.setNumPiecesSentToThis(nSent);
-        		dt.peer.setNumPiecesDownloadedByThis(nDownload);
-        		this.peerLogsPiecesTransferred.put(key, dt.peer);
+        		synchronized (this.peerLogsPiecesTransferred) {
+        			
+        			this.numPieceSent++;
+            		
+            		int nSent, nDownload;
+            		String key = dt.peer.getIDTracker() + dt.peer.getIP();
+            		if(this.peerLogsPiecesTransferred.containsKey(key)){
+            			nSent = this.peerLogsPiecesTransferred.get(key).getNumPiecesSentToThis() + 1;
+            			nDownload = this.peerLogsPiecesTransferred.get(key).getNumPiecesDownloadedByThis();
+            		}else{
+            			nSent = dt.peer.getNumPiecesSentToThis() + 1;
+            			nDownload = dt.peer.getNumPiecesDownloadedByThis();
+            		}
+            		dt.peer.setNumPiecesSentToThis(nSent);
+            		dt.peer.setNumPiecesDownloadedByThis(nDownload);
+            		this.peerLogsPiecesTransferred.put(key, dt.peer);
+				}
         	}
     		
         	this.setLastTimeSendPieceBlock(System.currentTimeMillis());
@@ -1488,7 +3578,12 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
                 dt.peer.setULRate(length);
             }
             
-            this.pu.updateParameters(0, length, "");
+            if (!cached && this.isPieceCached(piece)) {
+            	this.suggestPiece(piece, peerID);
+            }
+            
+            if(this.pu != null)
+            	this.pu.updateParameters(0, length, "");
             
         } else {
             try {
@@ -1497,15 +3592,20 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
                 dt.end();
             } catch (Exception e) {}
             this.task.remove(peerID);
+            this.activePeers.remove(peerID);
             if(dt.peer.getIDTracker()!=null){
-            	this.peerIdTrackerList.remove(dt.peer.getIDTracker());
+            	this.peerIdTrackerList.remove(dt.peer.getIDTracker(), dt.peer);
         	}
             if(dt.peer.getListeningPort()!=-1){
             	String ipLp = (dt.peer.getIP() + ":" + dt.peer.getListeningPort());
-				this.peerIPListeningPortList.remove(ipLp);
+				this.peerIPListeningPortList.remove(ipLp, dt.peer);
         	}
             this.peerList.remove(peerID);
-            this.unchoken.remove(peerID);
+            synchronized (this.chokeLock) {
+            	this.unchoken.remove(peerID);
+			}
+            this.peerAvailabilies.remove(peerID);
+            this.pieceAvailability.peerRemoved(peerID);
         }
 
     }
@@ -1516,7 +3616,7 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
      * @return byte[]
      */
     @SuppressWarnings("rawtypes")
-	public synchronized byte[] getPieceFromFiles(int piece) {
+	public byte[] getPieceFromFiles(int piece) {
         byte[] data = new byte[this.pieceList[piece].getLength()];
         int remainingData = data.length;
         for (Iterator it = this.pieceList[piece].getFileAndOffset().keySet().
@@ -1529,12 +3629,17 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
                                 ((Integer) (this.pieceList[piece].
                                             getFileAndOffset().
                                             get(file))).intValue();
-                this.output_files[file.intValue()].seek(((Integer)
-                        (this.pieceList[piece].getFileAndOffset().get(file))).
-                        intValue());
-                this.output_files[file.intValue()].read(data,
-                        data.length - remainingData,
-                        (remaining < remainingData) ? remaining : remainingData);
+                RandomAccessFile raf = this.output_files[file.intValue()];
+                if(raf != null){
+                	synchronized (raf) {
+                		raf.seek(((Integer)
+                                (this.pieceList[piece].getFileAndOffset().get(file))).
+                                intValue());
+                    	raf.read(data,
+                                data.length - remainingData,
+                                (remaining < remainingData) ? remaining : remainingData);
+					}
+                }
                 remainingData -= remaining;
             } catch (IOException ioe) {
                 System.err.println(ioe.getMessage());
@@ -1546,44 +3651,155 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
     
 
     /**
-     * Get a piece block from the existing file(s)
+     * Get a piece block from the existing file(s). The piece is kept in the 
+     * read cache, with the last pieces read.
      * @param piece int
      * @param begin int
      * @param length int
      * @return byte[]
      */
-    public synchronized byte[] getPieceBlock(int piece, int begin, int length) {
+    public byte[] getPieceBlock(int piece, int begin, int length) {
+    	
+    	byte[] data;
+    	synchronized (this.readCache) {
+    		data = this.readCache.get(piece);
+		}
+    	if(data != null){
+    		this.nbReadCacheHits.incrementAndGet();
+    		return Utils.subArray(data, begin, length);
+    	}
+    	this.nbReadCacheMisses.incrementAndGet();
+    	
+    	data = this.getPieceFromFiles(piece);
     	
-    	return Utils.subArray(this.getPieceFromFiles(piece), begin, length);
+    	synchronized (this.readCache) {
+    		if(data.length <= this.readCacheSize){
+    			byte[] old = this.readCache.put(piece, data);
+    			this.readCacheBytes += data.length - (old == null ? 0 : old.length);
+    			for(Iterator<byte[]> it = this.readCache.values().iterator(); it.hasNext() && this.readCacheBytes > this.readCacheSize; ){
+    				this.readCacheBytes -= it.next().length;
+    				it.remove();
+    			}
+    		}
+		}
+    	return Utils.subArray(data, begin, length);
     		
     }
+    
+    /**
+     * Checks whether a piece is in the read cache
+     * @param piece int
+     * @return boolean
+     */
+    private boolean isPieceCached(int piece) {
+    	synchronized (this.readCache) {
+    		return this.readCache.containsKey(piece);
+		}
+    }
+    
+    /**
+     * Fast extension: suggests a piece that has just been loaded in the read cache 
+     * to the unchoked and interested peers that do not have it yet, so that they 
+     * request it while it is in the cache.
+     * @param piece int
+     * @param peerID String the peer that requested the piece
+     */
+    private void suggestPiece(int piece, String peerID) {
+    	
+    	if(this.superSeeding){
+    		return;
+    	}
+    	for(DownloadTask dt: this.task.values()){
+    		if(dt.ms != null && dt.peer.isFastExtension() && !dt.peer.isChoked() && dt.peer.isInterested() 
+    				&& !dt.peer.toString().equals(peerID) && !dt.peer.getHasPiece().get(piece) && dt.peer.setSuggestSent(piece)){
+    			dt.ms.addMessageToQueue(FastExtension.suggest(piece));
+    			this.nbSuggestsSent.incrementAndGet();
+    		}
+    	}
+    }
 
     /**
      * Update the piece availabilities for a given peer
      * @param peerID String
      * @param has BitSet
      */
-    public synchronized void peerAvailability(String peerID, BitSet has) {
+    public void peerAvailability(String peerID, BitSet has) {
     	
     	if(!this.peerAvailabilies.containsKey(peerID)){
     		logger.info("Add peer in peerAvailability list " + peerID);
     	}
     	
     	this.peerAvailabilies.put(peerID, has);
-    	BitSet interest = (BitSet) (has.clone());
-    	interest.andNot(this.isComplete);
+    	this.pieceAvailability.peerBitfield(peerID, has);
+    	boolean interest = this.isComplete.nextSetBitNotIn(has, 0) != -1;
         
-    	synchronized (this.task) {
-    		if(this.task.containsKey(peerID)){
-        		
-        		DownloadTask dt = this.task.get(peerID);
-    			
-    			if (interest.cardinality() > 0 && !dt.peer.isInteresting() && dt.ms != null) {
+    	DownloadTask dt = this.task.get(peerID);
+    	if(dt != null){
+    		synchronized (dt.peer) {
+    			if (interest && !dt.peer.isInteresting() && dt.ms != null) {
     				//logger.info("Send INTERESTED: "+dt.peer.toString());
     				dt.ms.addMessageToQueue(new Message_PP(PeerProtocol.INTERESTED, 2));
     				dt.peer.setInteresting(true);
     			}
-        	}
+			}
+    		this.sendAllowedFast(dt, has);
+    	}
+    }
+    
+    /**
+     * Fast extension: sends to a peer that has few pieces the pieces of its 
+     * allowed fast set that this client has, so that it can download them 
+     * before it is unchoked. The set is only sent once to each peer.
+     * @param dt {@link DownloadTask} the task of the peer
+     * @param has BitSet the pieces of the peer
+     */
+    private void sendAllowedFast(DownloadTask dt, BitSet has) {
+    	
+    	int k = this.allowedFastSetSize;
+    	if(k <= 0 || this.superSeeding || !dt.peer.isFastExtension() || dt.ms == null 
+    			|| has.cardinality() >= k || dt.peer.hasAllowedFastSent()){
+    		return;
+    	}
+    	for(Integer piece: FastExtension.allowedFastSet(dt.peer.getIP(), this.torrent.info_hash_as_binary, this.nbPieces, k)){
+    		if(this.isPieceComplete(piece.intValue()) && !has.get(piece.intValue())){
+    			dt.peer.setAllowedFastSent(piece.intValue());
+    			dt.ms.addMessageToQueue(FastExtension.allowedFast(piece.intValue()));
+    		}
+    	}
+    }
+    
+    /**
+     * Update the piece availabilities for a given peer that announces 
+     * a new piece (HAVE message). Only the counter of this piece is updated.
+     * @param peerID String
+     * @param piece int
+     */
+    public void peerHave(String peerID, int piece) {
+    	
+    	DownloadTask dt = this.task.get(peerID);
+    	
+    	if(dt != null && this.peerAvailabilies.putIfAbsent(peerID, dt.peer.getHasPiece()) == null){
+    		logger.info("Add peer in peerAvailability list " + peerID);
+    	}
+    	
+    	this.pieceAvailability.peerHave(peerID, piece);
+    	
+    	if(this.superSeeding){
+    		/*
+    		 * The piece offered to other peers has propagated: they can receive a new piece
+    		 */
+    		for(String id: this.superSeedOffers.pieceAnnounced(peerID, piece)){
+    			this.offerSuperSeedPiece(this.task.get(id));
+    		}
+    	}
+    	
+    	if (dt != null && !this.isPieceComplete(piece) && this.isWanted.get(piece)) {
+    		synchronized (dt.peer) {
+    			if(!dt.peer.isInteresting() && dt.ms != null){
+    				dt.ms.addMessageToQueue(new Message_PP(PeerProtocol.INTERESTED, 2));
+    				dt.peer.setInteresting(true);
+    			}
+			}
     	}
     }
 
@@ -1593,14 +3809,14 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
      */
     public synchronized void connect(Peer p) {
     	
-    	byte[] bitField = this.getBitField();
+    	byte[] bitField = this.getAdvertisedBitField(p.toString());
     	
     	synchronized (this.task) {
     		if (!this.task.containsKey(p.toString())) {
             	logger.info("Connect new ... "+p.toString());
             	DownloadTask dt = new DownloadTask(p, this.torrent.info_hash_as_binary, this.clientID, true, bitField);
             	dt.setDownloadManager(this);
-                dt.addDTListener(this);
+                dt.addDTListener(this.getTaskListener());
                 dt.start();
             }
     	}
@@ -1611,6 +3827,12 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
      * @param p {@link Peer}
      */
     public synchronized void disconnect(Peer p) {
+        this.peerAvailabilies.remove(p.toString());
+        this.pieceAvailability.peerRemoved(p.toString());
+        this.removeBlockRequests(p.toString());
+        this.superSeedOffers.removePeer(p.toString());
+        this.pendingHaves.remove(p.toString());
+        this.activePeers.remove(p.toString());
         DownloadTask dt = task.remove(p.toString());
         if (dt != null) {
             dt.end();
@@ -1660,21 +3882,48 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
 	}
     
 	/**
-	 * Checks if the identifier of the peer in the tracker corresponds 
-	 * to a previously established connection.
-	 * @param idTracker String
-	 * @param peer {@link Peer}
-	 * @return boolean
+	 * Checks if the identifier of the peer received in the handshake corresponds 
+	 * to a previously established connection, and registers it otherwise.
+	 * <p>
+	 * If both clients connect to each other at the same time, each one has an 
+	 * incoming and an outgoing connection with the other. Both clients keep the 
+	 * connection opened by the peer with the lowest identifier, and the other 
+	 * one is closed.
+	 * @param peerID byte[]
+	 * @param dt {@link DownloadTask} the task of the new connection
+	 * @return boolean true if the new connection has to be closed
 	 */
-    public synchronized boolean peerConnectionAlreadyExists(String idTracker, Peer peer){
+    public synchronized boolean peerConnectionAlreadyExists(byte[] peerID, DownloadTask dt){
+    	
+    	String idTracker = new String(peerID);
+    	Peer peer = dt.peer;
     	
     	synchronized (this.peerIdTrackerList) {
     		
     		boolean exist = false;
+    		Peer p = this.peerIdTrackerList.get(idTracker);
+    		
+    		if(p != null && p.getIP().equals(peer.getIP())){
+    			DownloadTask existing = this.task.get(p.toString());
+    			if(existing == null || existing.peer != p){
+    				// The previous connection is already closed
+    				p = null;
+    			}else if(existing.isIncoming() != dt.isIncoming()){
+    				byte[] newInitiator = dt.isIncoming() ? peerID : this.clientID;
+    				byte[] oldInitiator = existing.isIncoming() ? peerID : this.clientID;
+    				if(Utils.bytesCompareTo(newInitiator, oldInitiator) < 0){
+    					logger.info("Simultaneous connections with the same peer: keeps " + dt.getIdTask() + ", closes " + existing.getIdTask());
+    					if(peer.getListeningPort() == -1){
+    						peer.setListeningPort(p.getListeningPort());
+    					}
+    					existing.replace();
+    					p = null;
+    				}
+    			}
+    		}
     		
-    		if(this.peerIdTrackerList.containsKey(idTracker) && this.peerIdTrackerList.get(idTracker).getIP().equals(peer.getIP())){
+    		if(p != null){
         		exist = true;
-        		Peer p = this.peerIdTrackerList.get(idTracker);
         		if(peer.getListeningPort() != -1 && p.getListeningPort() == -1){
         			p.setListeningPort(peer.getListeningPort());
         		}
@@ -1732,9 +3981,9 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
             
             if (!this.task.containsKey(idPeerConnection)) {
             	
-            	DownloadTask dt = new DownloadTask(this.peerList.get(idPeerConnection), this.torrent.info_hash_as_binary, this.clientID, true, this.getBitField(), s);
+            	DownloadTask dt = new DownloadTask(this.peerList.get(idPeerConnection), this.torrent.info_hash_as_binary, this.clientID, true, this.getAdvertisedBitField(idPeerConnection), s);
             	dt.setDownloadManager(this);
-            	dt.addDTListener(this);
+            	dt.addDTListener(this.getTaskListener());
             	
             	if(!this.peerList.containsKey(idPeerConnection)){
             		this.peerList.put(dt.peer.toString(), dt.peer);
@@ -1763,17 +4012,58 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
     }
 
     /**
-     * Compute the bitfield byte array from the isComplete BitSet
+     * Returns a copy of the bitfield of the complete pieces, in the wire format. 
+     * The bitfield is updated each time a piece is completed, so it is not 
+     * rebuilt for each new connection.
      * @return byte[]
      */
     public byte[] getBitField() {
-        int l = (int) Math.ceil((double)this.nbPieces / 8.0);
-        byte[] bitfield = new byte[l];
-        for (int i = 0; i < this.nbPieces; i++)
-            if (this.isComplete.get(i)) {
-                bitfield[i / 8] |= 1 << (7 - i % 8);
-            }
-        return bitfield;
+        synchronized (this.bitfield) {
+        	return this.bitfield.clone();
+        }
+    }
+    
+    private void updateBitField(int piece, boolean complete) {
+        synchronized (this.bitfield) {
+        	Bitfield.set(this.bitfield, piece, complete);
+        }
+    }
+    
+    /**
+     * Returns the bitfield sent to a new peer: empty in super-seeding mode, 
+     * the bitfield of the complete pieces otherwise. With the lazy bitfield, 
+     * some complete pieces are left out and kept to be announced with HAVE messages.
+     * @param peerID String
+     * @return byte[]
+     */
+    private byte[] getAdvertisedBitField(String peerID) {
+    	if(this.superSeeding){
+    		return new byte[(int) Math.ceil((double)this.nbPieces / 8.0)];
+    	}
+    	byte[] bitField = this.getBitField();
+    	int complete = this.isComplete.cardinality();
+    	if(this.lazyBitfield && complete > 0){
+    		Random r = new Random();
+    		LinkedList<Integer> hidden = new LinkedList<Integer>();
+    		for (int n = 0; n < Math.min(LAZY_BITFIELD_PIECES, complete); n++) {
+    			int piece = this.isComplete.nextSetBit(r.nextInt(this.nbPieces));
+    			if(piece == -1){
+    				piece = this.isComplete.nextSetBit(0);
+    			}
+    			if(!hidden.contains(piece)){
+    				hidden.add(piece);
+    				Bitfield.set(bitField, piece, false);
+    			}
+    		}
+    		// The HAVE messages already queued for the peer are kept
+    		ConcurrentLinkedQueue<Integer> pending = this.getPendingHaves(peerID);
+    		for(Integer piece: hidden){
+    			if(!pending.contains(piece)){
+    				pending.add(piece);
+    			}
+    		}
+    	}
+    	return bitField;
     }
 
     public float getCompleted() {
@@ -1786,6 +4076,10 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
         }
     }
 
+    /**
+     * Returns the sum of the download rates of the peers, in KB/s
+     * @return float
+     */
     public float getDLRate() {
         try {
             float rate = 0.00f;
@@ -1793,16 +4087,18 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
 
             for (Iterator<Peer> it = l.iterator(); it.hasNext(); ) {
                 Peer p = it.next();
-                if (p.getDLRate(false) > 0)
-                    rate = /*rate +*/ p.getDLRate(false);
-
+                rate = rate + p.getDLRate(false);
             }
-            return rate / (1024 * 10);
+            return rate / 1024;
         } catch (Exception e) {
             return 0.00f;
         }
     }
 
+    /**
+     * Returns the sum of the upload rates of the peers, in KB/s
+     * @return float
+     */
     public float getULRate() {
         try {
             float rate = 0.00f;
@@ -1810,11 +4106,9 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
 
             for (Iterator<Peer> it = l.iterator(); it.hasNext(); ) {
                 Peer p = it.next();
-                if (p.getULRate(false) > 0)
-                    rate = rate + p.getULRate(true);
-
+                rate = rate + p.getULRate(false);
             }
-            return rate / (1024 * 10);
+            return rate / 1024;
         } catch (Exception e) {
             return 0.00f;
         }
@@ -1823,6 +4117,14 @@ public class DownloadManager extends Thread implements DTListener, PeerUpdateLis
 	public TorrentFile getTorrentFile(){
 		return this.torrent;
 	}
+	
+	/**
+	 * Returns the counters of the number of peers that have each piece.
+	 * @return {@link PieceAvailability}
+	 */
+	public PieceAvailability getPieceAvailability(){
+		return this.pieceAvailability;
+	}
 
 	public DownloadManagerListener getDownloadManagerListener() {
 		return downloadManagerListener;
@@ -79,6 +79,11 @@ public class DownloadTask extends Thread implements IncomingListener,
     public static final int TIMEOUT = 5;
     public static final int CONNECTION_ALREADY_EXIST = 6;
 
+    /**
+     * Time to wait for the answer of the peer to a uTP connection, before trying TCP
+     */
+    private static final int UTP_CONNECT_TIMEOUT = 3000;
+
     @SuppressWarnings("static-access")
 	private int state = this.IDLE;
     private boolean run = true;
@@ -87,16 +92,24 @@ public class DownloadTask extends Thread implements IncomingListener,
     public Peer peer;
 
     private final boolean initiate;
+    /*
+     * True if the connection was opened by the remote peer
+     */
+    private final boolean incoming;
+    /*
+     * True if the connection is closed because another connection with 
+     * the same peer is kept instead
+     */
+    private volatile boolean replaced = false;
     public byte[] bitfield = null;
     private boolean isDownloading = false;
 
     private boolean isStartedEndGame = false;
     private Piece downloadEndGamePiece = null;
-    private LinkedList<Message_PP> pendingCancelMessageToSend;
     private LinkedList<Message_PP> cancelMessageReceiver;
     
     private Piece downloadPiece = null;
-    private int offset = 0;
+    private boolean moreBlocks = false;
 
     private final EventListenerList listeners = new EventListenerList();
 
@@ -139,7 +152,6 @@ public class DownloadTask extends Thread implements IncomingListener,
      */
     public DownloadTask(Peer p, byte[] fileID, byte[] myID, boolean init, byte[] bitfield, Socket s) {
     	
-    	this.pendingCancelMessageToSend = new LinkedList<Message_PP>();
     	this.isStartedEndGame = false;
     	this.downloadEndGamePiece = null;
     	this.cancelMessageReceiver = new LinkedList<Message_PP>();
@@ -148,6 +160,7 @@ public class DownloadTask extends Thread implements IncomingListener,
         this.fileID = fileID;
         this.myID = myID;
         this.initiate = init;
+        this.incoming = (s != null);
         this.bitfield = bitfield;
         
         String peerIP = null;
@@ -226,6 +239,19 @@ public class DownloadTask extends Thread implements IncomingListener,
     	
     	logger.info(this.idTask + " InitConnection...");
     	
+        UTPManager utp = this.downloadManager != null ? this.downloadManager.getUTPManager() : null;
+        if (this.peerConnection == null && utp != null) {
+        	try {
+        		this.peerConnection = utp.connect(new InetSocketAddress(this.peer.getIP(), this.portSocket), UTP_CONNECT_TIMEOUT);
+        		logger.info("New uTP Socket: "+this.peer.getIP()+":"+ this.portSocket);
+        		this.os = this.peerConnection.getOutputStream();
+        		this.is = this.peerConnection.getInputStream();
+        		this.peer.setConnected(true);
+        	} catch (IOException ioe) {
+        		logger.info(this.idTask + " uTP connection failed, trying TCP: " + ioe.getMessage());
+        	}
+        }
+        
         if (this.peerConnection == null) {
         	
         	logger.info("New Socket: "+this.peer.getIP()+":"+ this.portSocket);
@@ -285,9 +311,22 @@ public class DownloadTask extends Thread implements IncomingListener,
      */
     private synchronized void clear() {
         if (downloadPiece != null) {
+        	/*
+        	 * The blocks requested and not received can be requested to other peers
+        	 */
+        	for (Integer begin: this.pendingRequest) {
+        		downloadPiece.releaseBlock(begin.intValue());
+        	}
+        	downloadPiece.removeDownloader();
             this.firePieceRequested(downloadPiece.getIndex(), false);
+            if (this.downloadEndGamePiece == downloadPiece) {
+            	this.downloadEndGamePiece = null;
+            	this.isStartedEndGame = false;
+            }
             downloadPiece = null;
         }
+        this.pendingRequest.clear();
+        this.moreBlocks = false;
     }
 
     /**
@@ -299,19 +338,43 @@ public class DownloadTask extends Thread implements IncomingListener,
     }
 
     /**
-     * Request a peer to the peer
+     * Request a peer to the peer. When the piece is given by the event loop 
+     * of the manager, the READY_2_DL state has already returned, so the 
+     * change to the DOWNLOADING state is posted back to the task.
      * @param p The piece to be requested to the peer
      */
     @SuppressWarnings("static-access")
-	public synchronized void requestPiece(Piece p) {
+	public synchronized void requestPiece(final Piece p) {
         synchronized (this) {
             if (this.state == this.READY_2_DL){
                 this.downloadPiece = p;
+                this.downloadPiece.addDownloader();
+                this.moreBlocks = true;
             	//this.changeState(this.DOWNLOADING);
+                
+                EventLoop loop = (this.downloadManager != null) ? this.downloadManager.getEventLoop() : null;
+                if (loop != null && loop.isLoopThread()) {
+                	loop.post(new Runnable() {
+        				public void run() {
+        					DownloadTask.this.startDownloading(p);
+        				}
+        			});
+                }
             }
                 
         }
     }
+    
+    /**
+     * Enters the DOWNLOADING state if the piece given by the event loop is 
+     * still the piece of the task and the task has not moved on meanwhile
+     * @param p Piece
+     */
+    private synchronized void startDownloading(Piece p) {
+    	if (this.downloadPiece == p && this.state == READY_2_DL) {
+    		this.changeState(DOWNLOADING);
+    	}
+    }
 
     /**
      * Returns the total amount of bytes downloaded by this task so far
@@ -333,7 +396,7 @@ public class DownloadTask extends Thread implements IncomingListener,
 	public synchronized void connectionClosed() {
     	logger.warn("connectionClosed (Connection Refused)... " + this.idTask);
         this.clear();
-        this.fireTaskCompleted(this, this.CONNECTION_REFUSED);
+        this.fireTaskCompleted(this, this.replaced ? CONNECTION_ALREADY_EXIST : CONNECTION_REFUSED);
     }
 
     /**
@@ -367,7 +430,7 @@ public class DownloadTask extends Thread implements IncomingListener,
     	if(this.run){
     		
     		if (m == null) {
-                this.fireTaskCompleted(this, this.MALFORMED_MESSAGE);
+                this.fireTaskCompleted(this, this.replaced ? CONNECTION_ALREADY_EXIST : MALFORMED_MESSAGE);
                 return;
             }
     		
@@ -376,17 +439,31 @@ public class DownloadTask extends Thread implements IncomingListener,
             if (m.getType() == PeerProtocol.HANDSHAKE) {
                 Message_HS hs = (Message_HS) m;
                 
-                boolean alreadyExist = this.downloadManager.peerConnectionAlreadyExists(new String(hs.getPeerID()), this.peer);
+                // Check that the requested file is the one this client is sharing, and that the peer is not this client
+                boolean valid = Utils.bytesCompare(hs.getFileID(), this.fileID) && this.ms != null 
+                		&& !Utils.bytesCompare(hs.getPeerID(), this.myID);
+                boolean alreadyExist = valid && this.downloadManager.peerConnectionAlreadyExists(hs.getPeerID(), this);
                 
-                // Check that the requested file is the one this client is sharing
-                if (Utils.bytesCompare(hs.getFileID(), this.fileID) && this.ms != null
-                		&& !alreadyExist && !this.myID.equals(new String(hs.getPeerID()))) {
+                if (valid && !alreadyExist) {
                     if (!initiate) { // If not already done, send handshake message
                         this.ms.addMessageToQueue(new Message_HS(this.fileID, this.myID));
                     }
 
                     this.peer.setIDTracker(new String(hs.getPeerID()));
-                    this.ms.addMessageToQueue(new Message_PP(PeerProtocol.BITFIELD,this.bitfield));
+                    
+                    // Have All or Have None instead of the bitfield, if both clients support the fast extension (BEP 6)
+                    this.peer.setFastExtension(FastExtension.isSupported(hs.getReserved()));
+                    if (this.peer.isFastExtension() && this.downloadManager != null) {
+                    	this.ms.addMessageToQueue(FastExtension.bitfield(this.bitfield, this.downloadManager.getNbPieces()));
+                    } else {
+                    	this.ms.addMessageToQueue(new Message_PP(PeerProtocol.BITFIELD,this.bitfield));
+                    }
+                    
+                    // Extended handshake, if both clients support the extension protocol (BEP 10)
+                    this.peer.setExtensionProtocol(ExtensionProtocol.isSupported(hs.getReserved()));
+                    if (this.peer.isExtensionProtocol() && this.downloadManager != null) {
+                    	this.ms.addMessageToQueue(this.downloadManager.getExtendedHandshake());
+                    }
                     this.creationTime = System.currentTimeMillis();
                     this.changeState(this.WAIT_BFORHAVE);
                     
@@ -420,10 +497,18 @@ public class DownloadTask extends Thread implements IncomingListener,
                      */
                 	
                 	this.peer.setChoking(true);
+                	if (this.downloadManager != null) {
+                		this.downloadManager.peerChoking(this.peer.toString(), true);
+                	}
                 	
                     this.isDownloading = false;
                     
-                    if (this.downloadPiece != null) {
+                    if (this.downloadPiece != null && this.peer.isFastExtension() && this.pendingRequest.size() > 0) {
+                    	/*
+                    	 * Fast extension: the choke does not cancel the pending requests, 
+                    	 * the peer sends the blocks or rejects them
+                    	 */
+                    } else if (this.downloadPiece != null) {
                         this.changeState(this.READY_2_DL);
                     } 
 
@@ -438,6 +523,9 @@ public class DownloadTask extends Thread implements IncomingListener,
                      */
                 	
                 	this.peer.setChoking(false);
+                	if (this.downloadManager != null) {
+                		this.downloadManager.peerChoking(this.peer.toString(), false);
+                	}
                 	
                 	if (this.downloadPiece == null) {
                         this.changeState(this.READY_2_DL);
@@ -476,10 +564,14 @@ public class DownloadTask extends Thread implements IncomingListener,
                      * 
                      */
                 	
-                    this.peer.setHasPiece(Utils.byteArrayToInt(message.
-                            getPayload()), true);
-                    this.firePeerAvailability(this.peer.toString(),
-                                              this.peer.getHasPiece());
+                	pieceIndexMessage = Utils.byteArrayToInt(message.getPayload());
+                    this.peer.setHasPiece(pieceIndexMessage, true);
+                    this.firePeerHave(this.peer.toString(), pieceIndexMessage);
+                    
+                    // An idle task that is already unchoked gets no UNCHOKE message: it looks for a piece again
+                    if (!this.peer.isChoking() && this.downloadPiece == null && this.state > WAIT_BFORHAVE) {
+                    	this.changeState(READY_2_DL);
+                    }
                     break;
 
                 case PeerProtocol.BITFIELD:
@@ -492,6 +584,21 @@ public class DownloadTask extends Thread implements IncomingListener,
                                               this.peer.getHasPiece());
                     this.changeState(this.WAIT_UNCHOKE);
                     break;
+                    
+                case PeerProtocol.HAVE_ALL:
+                case PeerProtocol.HAVE_NONE:
+                	/*
+                	 * Fast extension: the peer has all the pieces or none of them, 
+                	 * instead of sending the bitfield
+                	 */
+                	this.peer.setHasPiece(new byte[0]);
+                	if (message.getType() == PeerProtocol.HAVE_ALL && this.downloadManager != null) {
+                		this.peer.setHasAll(this.downloadManager.getNbPieces());
+                	}
+                    this.firePeerAvailability(this.peer.toString(),
+                                              this.peer.getHasPiece());
+                    this.changeState(WAIT_UNCHOKE);
+                    break;
 
                 case PeerProtocol.REQUEST:
                     /*
@@ -529,7 +636,17 @@ public class DownloadTask extends Thread implements IncomingListener,
                     
                     }else if(this.peer.isChoked() && mCancelDelete == null){
                     	
-                    	if(this.peer.getNumSendChoke() < 3){
+                    	if(this.peer.isFastExtension()){
+                    		/*
+                    		 * Fast extension: the pieces of the allowed fast set are served 
+                    		 * while the peer is choked, the other requests are rejected
+                    		 */
+                    		if(this.peer.isAllowedFastSent(pieceIndexMessage)){
+                    			this.firePeerRequest(this.peer.toString(),pieceIndexMessage, beginBlockMessage, lengthBlockMessage);
+                    		}else if(this.downloadManager != null){
+                    			this.downloadManager.rejectRequest(this, pieceIndexMessage, beginBlockMessage, lengthBlockMessage);
+                    		}
+                    	}else if(this.peer.getNumSendChoke() < 3){
                     		ms.addMessageToQueue(new Message_PP(PeerProtocol.CHOKE));
                     		this.peer.setNumSendChoke(this.peer.getNumSendChoke()+1);
                     	}else{
@@ -558,30 +675,15 @@ public class DownloadTask extends Thread implements IncomingListener,
                      */
                 	this.fireReceivedMessagePPPiece();
                 	
-                	/*
-                	 * Eliminating potential cancellation messages EndGame mode.
-                	 */
-                	if(!this.pendingCancelMessageToSend.isEmpty()){
-                		
-                    	Message_PP mCancel = null;
-                    	for(Message_PP mC: this.pendingCancelMessageToSend){
-                    		
-                    		pieceIndexCancel = Utils.byteArrayToInt(Utils.subArray(mC.getPayload(),0, 4));
-                    		beginBlockCancel = Utils.byteArrayToInt(Utils.subArray(mC.getPayload(), 4, 4));
-                    		if(pieceIndexMessage == pieceIndexCancel && beginBlockMessage == beginBlockCancel){
-                    			mCancel = mC;
-                    			break;
-                    		}
-                    	}
-                    	if(mCancel != null){
-                    		this.pendingCancelMessageToSend.remove(mCancel);
-                    	}
-                    	
-                    }
-                	
                 	if(this.downloadPiece != null && this.downloadPiece.getIndex() == pieceIndexMessage){
                 		
                 		this.downloadPiece.setBlock(beginBlockMessage, data);
+                		
+                		/*
+                		 * The manager sends the cancellation messages to the other peers 
+                		 * to which the block was requested (End Game mode).
+                		 */
+                		this.fireBlockReceived(pieceIndexMessage, beginBlockMessage, data.length);
                         
                         this.peer.setDLRate(data.length);
                         this.pendingRequest.remove(new Integer(beginBlockMessage));
@@ -609,52 +711,74 @@ public class DownloadTask extends Thread implements IncomingListener,
                     // TODO: Still to implement the port message. Not used here
                     break;
                     
-                case PeerProtocol.REFRESH_ENDGAME_STRATEGY:
+                case PeerProtocol.EXTENDED:
                 	/*
-                	 * It is an internal message that doesnt belong to the bittorrent protocol.  
-                	 * The task has been advised of the currently selected pieces, was already 
-                	 * downloaded by another task.  Therefore has to restart 
-                	 * the process of selection of piece.
+                	 * Extension protocol (BEP 10): the first byte is the extended message id, 
+                	 * 0 for the extended handshake and the ids this client gave in its 
+                	 * handshake for the others.
                 	 */
+                	if (message.getPayload() != null && message.getPayload().length > 0 && this.downloadManager != null) {
+                		this.downloadManager.extendedMessageReceived(this, message.getPayload()[0] & 0xFF, 
+                				ExtensionProtocol.decode(message.getPayload()));
+                	}
+                	break;
                 	
-                	if (this.downloadPiece == null && !this.peer.isChoked()) {
-                        this.changeState(this.READY_2_DL);
-                    } else if(!this.peer.isChoked()){
-                        this.changeState(this.DOWNLOADING);
-                    }
+                case PeerProtocol.SUGGEST_PIECE:
+                	/*
+                	 * Fast extension: the peer advises to download a piece, usually one 
+                	 * that is in its cache. The manager prefers the suggested pieces.
+                	 */
+                	this.peer.addSuggested(Utils.byteArrayToInt(message.getPayload()));
+                	break;
                 	
+                case PeerProtocol.ALLOWED_FAST:
+                	/*
+                	 * Fast extension: the piece can be downloaded while the peer chokes 
+                	 * this client. If the task is idle, it starts downloading at once.
+                	 */
+                	pieceIndexMessage = Utils.byteArrayToInt(message.getPayload());
+                	this.peer.addAllowedFast(pieceIndexMessage);
+                	if (this.peer.isChoking() && this.downloadPiece == null && this.state > WAIT_BFORHAVE) {
+                		this.changeState(READY_2_DL);
+                	}
                 	break;
-                    
-                case PeerProtocol.CAMCEL_PIECE_ENDGAME_STRATEGY:
+                	
+                case PeerProtocol.REJECT_REQUEST:
                 	/*
-                	 * It is an internal message that does not belong to the bittorrent protocol. 
-                	 * The task has been advised of the currently selected piece is already been downloaded 
-                	 * by another peer.
-                	 * Send cancellation messages blocks that had pending with the peer and resume the process 
-                	 * of selection of piece.
+                	 * Fast extension: the peer will not send the block. It can be requested 
+                	 * to other peers at once, and this piece is not requested to this peer 
+                	 * any more while it chokes this client.
                 	 */
                 	pieceIndexMessage = Utils.byteArrayToInt(Utils.subArray(message.getPayload(),0, 4));
+                	beginBlockMessage = Utils.byteArrayToInt(Utils.subArray(message.getPayload(), 4, 4));
                 	
-                	this.cancelPieceEndGameStrategy(pieceIndexMessage);
-                	this.firePieceRequested(pieceIndexMessage, false);
+                	if (this.downloadManager != null) {
+                		this.downloadManager.blockRejected(this.peer.toString(), pieceIndexMessage, beginBlockMessage);
+                	}
                 	
-                	if(downloadEndGamePiece != null  && downloadEndGamePiece.getIndex() == pieceIndexMessage ){
-						
-                		this.downloadEndGamePiece = null;
-                		this.isStartedEndGame = false;
+                	if (this.downloadPiece != null && this.downloadPiece.getIndex() == pieceIndexMessage 
+                			&& this.pendingRequest.remove(Integer.valueOf(beginBlockMessage))) {
+                		
+                		this.downloadPiece.releaseBlock(beginBlockMessage);
+                		this.peer.removeAllowedFast(pieceIndexMessage);
+                		this.moreBlocks = false;
                 		
-                		if(this.pendingRequest.size()!=0){
-                			
-                			this.pendingRequest.clear();
-                    		offset = 0;
-                    		this.clear();
-        		    		
-        		    		if(!this.peer.isChoked()) {
-                                this.changeState(this.READY_2_DL);
-                            }
+                		if (this.pendingRequest.size() == 0) {
+                			this.isDownloading = false;
+                			this.clear();
+                			this.changeState(READY_2_DL);
                 		}
-					}
-                	
+                	}
+                	break;
+                    
+                case PeerProtocol.REFRESH_ENDGAME_STRATEGY:
+                	/*
+                	 * It is an internal message that doesnt belong to the bittorrent protocol.  
+                	 * The task has left its piece, or blocks that it was waiting for have been 
+                	 * received from other peers and cancelled. Therefore has to restart 
+                	 * the process of selection of piece, or to go on with its piece.
+                	 */
+                	this.refresh();
                 	break;
                 }
                 message = null;
@@ -683,7 +807,8 @@ public class DownloadTask extends Thread implements IncomingListener,
              * If only sending 1 request an waiting, it is a loss of time and
              * bandwidth because of the RTT to the remote peer
              */
-            if (this.pendingRequest.size() < 5 && offset < downloadPiece.getLength()){
+        	this.skipReceivedBlocks();
+            if ((this.pendingRequest.size() < 5 && this.moreBlocks) || this.pendingRequest.size() == 0){
                 this.changeState(this.DOWNLOADING);
             }
             
@@ -694,7 +819,12 @@ public class DownloadTask extends Thread implements IncomingListener,
              * Advertise the DownloadManager that this task is ready to download
              */
         	
-        	if(!this.peer.isChoking()){
+        	if(!this.peer.isChoking() || this.peer.hasAllowedFast()){
+        		
+        		// Fast extension: while choked, only the pieces of the allowed fast set are downloaded
+        		if(this.downloadPiece != null && !this.canRequest())
+        			this.clear();
+        		
         		this.firePeerReady(this.peer.toString());
         		
         		if(this.downloadPiece != null)
@@ -702,8 +832,6 @@ public class DownloadTask extends Thread implements IncomingListener,
         		
         	}else{
         		
-        		this.pendingRequest.clear();
-        		offset = 0;
         		this.clear();
         	}
         	
@@ -712,74 +840,145 @@ public class DownloadTask extends Thread implements IncomingListener,
         case DOWNLOADING:
         	
             /**
-             * If offset is bigger than the piece length and the pending request size
-             * is 0, then we have downloaded all the piece blocks and we can verify
-             * the integrity of the data
+             * The next block to request is given by the manager, several tasks can 
+             * download different blocks of the same piece. If there are not more blocks 
+             * to request and the pending request size is 0, the task leaves the piece. 
+             * If all the blocks of the piece have been received, the task that obtains 
+             * the verification claim verifies the integrity of the data.
              */
         	
-        	if (offset >= downloadPiece.getLength()) {
-        		        		
-                if (this.pendingRequest.size() == 0) {
-                	
-                    int p = downloadPiece.getIndex();
-                    offset = 0;
-                    
-                    if (downloadPiece.verify()) {
+        	this.skipReceivedBlocks();
+        	
+        	if (downloadPiece == null) {
+        		break;
+        	}
+        	
+        	int offset = -1;
+        	if (this.moreBlocks && this.canRequest() && this.ms != null) {
+        		offset = this.downloadManager.nextBlock(downloadPiece, this.pendingRequest, 
+        				this.isStartedEndGame && this.downloadEndGamePiece == downloadPiece);
+        		if (offset == -1)
+        			this.moreBlocks = false;
+        	}
+        	
+        	if (offset != -1) {
+        		
+    			byte[] pieceIndex = Utils.intToByteArray(downloadPiece.getIndex());
+                byte[] begin = Utils.intToByteArray(offset);
+
+                int length = downloadPiece.getLength() - offset;
+                if (length >= PeerProtocol.BLOCK_SIZE)
+                    length = PeerProtocol.BLOCK_SIZE;
+                
+                ms.addMessageToQueue(new Message_PP(PeerProtocol.REQUEST, Utils.concat(pieceIndex, Utils.concat(begin, Utils.intToByteArray(length))), 2));
+                
+                /*
+                 * The manager keeps the requested blocks, to send the messages of cancellation 
+                 * when a block is received from other peer (End Game mode).
+                 */
+                this.fireBlockRequested(downloadPiece.getIndex(), offset, length);
+                
+                if(this.updateTime == 0)
+                    this.updateTime = System.currentTimeMillis();
+                
+                this.pendingRequest.add(new Integer(offset));
+                this.isDownloading = true;
+                this.changeState(WAIT_BLOCK);
+                
+        	} else if (this.pendingRequest.size() == 0) {
+            	
+                int p = downloadPiece.getIndex();
+                
+                if (downloadPiece.claimVerification()) {
+                	if (downloadPiece.verify()) {
                         this.firePieceCompleted(p, true);
                     } else {
+                    	downloadPiece.clearData();
                         this.firePieceCompleted(p, false);
                     }
                     
                     this.clear();
                     this.changeState(READY_2_DL);
                     
-                }else if(this.peer.isChoking()){
-                	this.pendingRequest.clear();
-                	offset = 0;
-            		this.clear();
+                } else {
+                	
+                	/*
+                	 * Another task verifies the piece, or its blocks are requested to other 
+                	 * peers. The task stays idle and asks for a new piece later, instead of 
+                	 * asking now and maybe being given the same piece again.
+                	 */
+                	this.clear();
+                	this.postReady();
                 }
                 
-            } else if (downloadPiece != null && this.ms != null) {
-
-            	if(!this.peer.isChoking()) {
-        			
-        			byte[] pieceIndex = Utils.intToByteArray(downloadPiece.getIndex());
-                    byte[] begin = Utils.intToByteArray(offset);
-
-                    int length = downloadPiece.getLength() - offset;
-                    if (length >= PeerProtocol.BLOCK_SIZE)
-                        length = PeerProtocol.BLOCK_SIZE;
-                    
-                    ms.addMessageToQueue(new Message_PP(PeerProtocol.REQUEST, Utils.concat(pieceIndex, Utils.concat(begin, Utils.intToByteArray(length))), 2));
-                    
-                    /*
-                     * If the EndGame mode is active, are saved the messages of cancellation 
-                     * of the blocks that are being requested.
-                     */
-                    if(this.isStartedEndGame && this.downloadEndGamePiece != null && this.downloadPiece.getIndex() == this.downloadEndGamePiece.getIndex()){
-                		this.pendingCancelMessageToSend.add(new Message_PP(PeerProtocol.CANCEL, Utils.concat(pieceIndex, Utils.concat(begin, Utils.intToByteArray(length))), 2));
-                    }
-                    
-                    if(this.updateTime == 0)
-                        this.updateTime = System.currentTimeMillis();
-                    
-                    this.pendingRequest.add(new Integer(offset));
-                    offset += PeerProtocol.BLOCK_SIZE;
-                    this.isDownloading = true;
-                    this.changeState(this.WAIT_BLOCK);
-                    
-        		}else{
-        			this.pendingRequest.clear();
-        			offset = 0;
-            		this.clear();
-        		}
-            	
+            } else if (!this.canRequest() && !this.peer.isFastExtension()) {
+        		this.clear();
             }
         	
             break;
         }
     }
 
+    /**
+     * Restarts the selection of piece after the current message has been processed: 
+     * posted to the event loop if it is enabled, or as an internal message of the receiver. 
+     * It does not take the lock of the task, as other tasks call it through blockCancelled.
+     */
+    private void postReady() {
+    	
+    	EventLoop loop = (this.downloadManager != null) ? this.downloadManager.getEventLoop() : null;
+    	MessageReceiver receiver = this.mr;
+    	if (loop != null) {
+    		loop.post(new Runnable() {
+				public void run() {
+					DownloadTask.this.refresh();
+				}
+			});
+    	} else if (receiver != null) {
+    		receiver.pushMessageRefreshEndGameStrategy();
+    	}
+    }
+    
+    /**
+     * A block requested to the peer has been received from another peer, and the 
+     * manager has sent its cancellation. After the current message, the received 
+     * blocks are removed from the pending requests, and the task leaves the piece 
+     * if it is not waiting for other blocks.
+     */
+    public void blockCancelled() {
+    	this.postReady();
+    }
+    
+    /**
+     * Restarts the selection of piece if the task is idle, or goes on with its piece
+     */
+    private synchronized void refresh() {
+    	if (this.downloadPiece == null) {
+    		this.restartSelection();
+    	} else if (this.state > WAIT_BFORHAVE && this.ms != null) {
+    		this.changeState(DOWNLOADING);
+    	}
+    }
+    
+    /**
+     * Enters the READY_2_DL state if the task is still idle
+     */
+    private synchronized void restartSelection() {
+    	if (this.downloadPiece == null && this.state > WAIT_BFORHAVE && this.ms != null) {
+    		this.changeState(READY_2_DL);
+    	}
+    }
+
+    /**
+     * Checks whether the blocks of the current piece can be requested: the peer 
+     * does not choke this client, or the piece is in its allowed fast set
+     * @return boolean
+     */
+    private synchronized boolean canRequest() {
+    	return !this.peer.isChoking() 
+    			|| (this.downloadPiece != null && this.peer.isAllowedFast(this.downloadPiece.getIndex()));
+    }
+
     public synchronized void addDTListener(DTListener listener) {
         listeners.add(DTListener.class, listener);
     }
@@ -816,6 +1015,30 @@ public class DownloadTask extends Thread implements IncomingListener,
         }
     }
     
+    /**
+     * Fired to inform that a block of the piece has been requested to the peer
+     * @param piece int
+     * @param begin int
+     * @param length int
+     */
+    private synchronized void fireBlockRequested(int piece, int begin, int length) {
+    	for (DTListener listener : getDTListeners()) {
+    		listener.blockRequested(this.peer.toString(), piece, begin, length);
+    	}
+    }
+    
+    /**
+     * Fired to inform that a block of the piece has been received from the peer
+     * @param piece int
+     * @param begin int
+     * @param length int
+     */
+    private synchronized void fireBlockReceived(int piece, int begin, int length) {
+    	for (DTListener listener : getDTListeners()) {
+    		listener.blockReceived(this.peer.toString(), piece, begin, length);
+    	}
+    }
+    
     /**
      * Fired to inform that have received a block of peer
      */
@@ -873,6 +1096,17 @@ public class DownloadTask extends Thread implements IncomingListener,
         }
     }
 
+    /**
+     * Fired to inform that the peer has a new piece
+     * @param id String
+     * @param piece int
+     */
+    private synchronized void firePeerHave(String id, int piece) {
+        for (DTListener listener : getDTListeners()) {
+            listener.peerHave(id, piece);
+        }
+    }
+
     /**
      * Fired to inform that this task has completed the handshake and is now
      * ready to communicate with the remote peer
@@ -885,6 +1119,34 @@ public class DownloadTask extends Thread implements IncomingListener,
         }
     }
     
+    /**
+     * Returns true if the connection was opened by the remote peer, 
+     * false if it was opened by this client
+     * @return boolean
+     */
+    public boolean isIncoming(){
+    	return this.incoming;
+    }
+    
+    /**
+     * Closes the connection because another connection with the same peer is 
+     * kept instead. Only the socket is closed here, without taking the lock of 
+     * this task: the task ends in its own thread, when the receiver finds the 
+     * connection closed, and is removed as a connection that already exists.
+     */
+    public void replace(){
+    	
+    	this.replaced = true;
+    	Socket s = this.peerConnection;
+    	if(s != null){
+    		try {
+				s.close();
+			} catch (IOException e) {
+				logger.warn(this.idTask + " Error closing the replaced connection: " + e);
+			}
+    	}
+    }
+    
     public void end(){
     	this.clear();
     	if(this.run){
@@ -1059,64 +1321,40 @@ public class DownloadTask extends Thread implements IncomingListener,
 	}
 	
 	/**
-	 * Sends the messages of cancellation of blocks that have been solicited.  
-	 * These blocks are of the piece that belongs to index that is passed by parameter. 
-	 * @param indexEndGamePiece Index of the selected piece, when End Game mode was activated. 
+	 * Returns true if the handshake is done and the bitfield has been sent to the peer
+	 * @return boolean
 	 */
-	public synchronized void cancelPieceEndGameStrategy(int indexEndGamePiece){
+	public boolean isHandshakeDone(){
+		return this.state >= WAIT_BFORHAVE;
+	}
+	
+	/**
+	 * Removes from the pending requests the blocks of the current piece that have 
+	 * already been received (by this or by other tasks that download the same piece).
+	 */
+	private synchronized void skipReceivedBlocks(){
 		
-		//synchronized (this.pendingCancelMessageToSend) {
-			if(!this.pendingCancelMessageToSend.isEmpty()){
-				LinkedList<Message_PP> listCancel = new LinkedList<Message_PP>();
-				int pieceIndex;
-				for(Message_PP m: this.pendingCancelMessageToSend){
-					pieceIndex = Utils.byteArrayToInt(Utils.subArray(m.getPayload(),0, 4));
-					if(indexEndGamePiece == pieceIndex){
-						//logger.info(this.idTask + " Send message Cancel (" + Utils.byteArrayToInt(Utils.subArray(m.getPayload(),0, 4)) + ", " + Utils.byteArrayToInt(Utils.subArray(m.getPayload(),4, 4)) + ")");
-						ms.addMessageToQueue(m);
-					}else{
-						listCancel.add(m);
-					}
-				}
-				this.pendingCancelMessageToSend = listCancel;
+		if(this.downloadPiece == null){
+			return;
+		}
+		for (Iterator<Integer> it = this.pendingRequest.iterator(); it.hasNext(); ) {
+			if(this.downloadPiece.hasBlock(it.next().intValue())){
+				it.remove();
 			}
-		//}
-		
+		}
 	}
 	
-
 	/**
-	 * Establishes a new piece for the End Game mode.  If it already there was 
-	 * a selected piece for the End Game mode, it will send the messages of 
-	 * cancellation of the solicited blocks that still is waited to receive.
+	 * Establishes a new piece for the End Game mode. The piece can be downloaded 
+	 * at the same time by other tasks, only the blocks that are not received yet 
+	 * are requested.
 	 * @param downloadEndGamePiece {@link Piece}: selected piece for the 
 	 * End Game mode.  If the value is equal to NULL disables the End Game mode.
 	 */
 	public synchronized void setStartedEndGame(Piece downloadEndGamePiece) {
-
-		try{
-			int currentIndexEndGamePiece = -1;
-			if(this.downloadEndGamePiece != null){
-				currentIndexEndGamePiece = this.downloadEndGamePiece.getIndex();
-			}
-			
-			this.downloadEndGamePiece = downloadEndGamePiece;
-			if(this.downloadEndGamePiece != null){
-				this.isStartedEndGame = true;
-			}else{
-				this.isStartedEndGame = false;
-			}
-			
-			if(currentIndexEndGamePiece != -1 && ( downloadEndGamePiece == null || (downloadEndGamePiece.getIndex() != currentIndexEndGamePiece) ) ){
-				this.cancelPieceEndGameStrategy(currentIndexEndGamePiece);
-			}
-		}catch(NullPointerException ex){
-    		logger.error("setStartedEndGame exception: " + ex);
-    	}catch(Exception e){
-    		logger.error("setStartedEndGame exception: " + e);
-    		e.printStackTrace();
-    	}
 		
+		this.downloadEndGamePiece = downloadEndGamePiece;
+		this.isStartedEndGame = (downloadEndGamePiece != null);
 	}
 
 	public DownloadManager getDownloadManager() {
@@ -0,0 +1,101 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.util.BitSet;
+
+/**
+ * Piece selection used in the End Game mode: chooses, between all the pieces 
+ * that are not complete, including the pieces that are being requested to 
+ * other peers, the piece that the higher number of peers have. The priority 
+ * of the pieces is not considered, except to discard the skipped pieces.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class EndGamePiecePicker implements PiecePicker {
+	
+	private PieceBuckets candidates;
+	private BitSet complete;
+	private BitSet skipped;
+
+	public synchronized void init(int nbPieces) {
+		this.candidates = new PieceBuckets(nbPieces);
+		this.complete = new BitSet(nbPieces);
+		this.skipped = new BitSet(nbPieces);
+		for (int i = 0; i < nbPieces; i++) {
+			this.candidates.add(i);
+		}
+	}
+
+	public synchronized void availabilityChanged(int piece, int availability) {
+		this.candidates.setAvailability(piece, availability);
+	}
+
+	public synchronized void pieceStateChanged(int piece, boolean complete, boolean active) {
+		this.complete.set(piece, complete);
+		this.update(piece);
+	}
+	
+	public synchronized void piecePriorityChanged(int piece, int priority) {
+		this.skipped.set(piece, priority == DownloadManager.PRIORITY_SKIP);
+		this.update(piece);
+	}
+	
+	private void update(int piece) {
+		if(!this.complete.get(piece) && !this.skipped.get(piece)){
+			this.candidates.add(piece);
+		}else{
+			this.candidates.remove(piece);
+		}
+	}
+
+	public synchronized int pickPiece(BitSet peerHas) {
+		return this.candidates.firstPopular(peerHas);
+	}
+
+}
@@ -0,0 +1,296 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+/**
+ * {@link DTListener} that, instead of running the callbacks of the tasks 
+ * on the thread of each peer, posts them to a lock-free queue. A single 
+ * thread takes the events in the order they were posted and delivers them 
+ * to the target listener, usually the {@link DownloadManager}, so that the 
+ * piece selection, the choking and the bookkeeping are done by one thread 
+ * and the decisions do not depend on the scheduling of the peer threads.
+ * <p>
+ * The loop measures the time the events wait in the queue before being 
+ * delivered.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class EventLoop extends Thread implements DTListener {
+	
+	private static Logger logger = Logger.getLogger(EventLoop.class);
+	
+	/**
+	 * Maximum time, in milliseconds, the loop waits for an event
+	 */
+	private static final long IDLE_WAIT = 100;
+	
+	private final DTListener target;
+	private final ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<Event>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private volatile boolean running = true;
+	private volatile boolean idle = false;
+	
+	private volatile long nbEvents = 0;
+	private volatile long totalLatency = 0;
+	private volatile long maxLatency = 0;
+	private volatile int maxPending = 0;
+	
+	/**
+	 * Creates an event loop that delivers the events to the target
+	 * @param target {@link DTListener}
+	 * @param name String the name of the thread
+	 */
+	public EventLoop(DTListener target, String name){
+		super(name);
+		this.target = target;
+		this.setDaemon(true);
+	}
+	
+	public void run() {
+		
+		while(this.running){
+			Event e = this.queue.poll();
+			if(e == null){
+				this.idle = true;
+				if(this.queue.isEmpty()){
+					LockSupport.parkNanos(this, IDLE_WAIT * 1000000);
+				}
+				this.idle = false;
+				continue;
+			}
+			
+			this.pending.decrementAndGet();
+			long latency = System.nanoTime() - e.posted;
+			this.nbEvents++;
+			this.totalLatency += latency;
+			if(latency > this.maxLatency){
+				this.maxLatency = latency;
+			}
+			
+			try{
+				e.dispatch();
+			}catch(Exception ex){
+				logger.error(this.getName() + " event exception: " + ex);
+			}
+		}
+	}
+	
+	/**
+	 * Stops the loop. The events not delivered yet are discarded.
+	 */
+	public void end(){
+		this.running = false;
+		LockSupport.unpark(this);
+	}
+	
+	/**
+	 * Posts a task to be run by the thread of the loop
+	 * @param r Runnable
+	 */
+	public void post(final Runnable r){
+		this.post(new Event() {
+			void dispatch() {
+				r.run();
+			}
+		});
+	}
+	
+	private void post(Event e){
+		e.posted = System.nanoTime();
+		this.queue.offer(e);
+		int n = this.pending.incrementAndGet();
+		if(n > this.maxPending){
+			this.maxPending = n;
+		}
+		if(this.idle){
+			LockSupport.unpark(this);
+		}
+	}
+	
+	/**
+	 * Returns true if the caller is the thread of the loop
+	 * @return boolean
+	 */
+	public boolean isLoopThread(){
+		return Thread.currentThread() == this;
+	}
+	
+	public long getNbEvents(){
+		return this.nbEvents;
+	}
+	
+	/**
+	 * Returns the average time, in microseconds, the events waited in the queue
+	 * @return float
+	 */
+	public float getAverageLatency(){
+		long n = this.nbEvents;
+		return (n == 0) ? 0 : ((float) this.totalLatency) / n / 1000;
+	}
+	
+	/**
+	 * Returns the maximum time, in microseconds, an event waited in the queue
+	 * @return float
+	 */
+	public float getMaxLatency(){
+		return ((float) this.maxLatency) / 1000;
+	}
+	
+	/**
+	 * Returns the number of events waiting in the queue
+	 * @return int
+	 */
+	public int getNbPending(){
+		return this.pending.get();
+	}
+	
+	public int getMaxPending(){
+		return this.maxPending;
+	}
+	
+	public void receivePieceBlock(final String peerID) {
+		this.post(new Event() {
+			void dispatch() {
+				target.receivePieceBlock(peerID);
+			}
+		});
+	}
+	
+	public void blockRequested(final String peerID, final int piece, final int begin, final int length) {
+		this.post(new Event() {
+			void dispatch() {
+				target.blockRequested(peerID, piece, begin, length);
+			}
+		});
+	}
+	
+	public void blockReceived(final String peerID, final int piece, final int begin, final int length) {
+		this.post(new Event() {
+			void dispatch() {
+				target.blockReceived(peerID, piece, begin, length);
+			}
+		});
+	}
+	
+	public void pieceCompleted(final String peerID, final int pieceNB, final boolean complete, final DownloadTask dt) {
+		this.post(new Event() {
+			void dispatch() {
+				target.pieceCompleted(peerID, pieceNB, complete, dt);
+			}
+		});
+	}
+	
+	public void pieceRequestActive(final int pieceNB, final boolean requested) {
+		this.post(new Event() {
+			void dispatch() {
+				target.pieceRequestActive(pieceNB, requested);
+			}
+		});
+	}
+	
+	public void taskCompleted(final DownloadTask dt, final int reason) {
+		this.post(new Event() {
+			void dispatch() {
+				target.taskCompleted(dt, reason);
+			}
+		});
+	}
+	
+	public void peerAvailability(final String id, final BitSet hasPiece) {
+		this.post(new Event() {
+			void dispatch() {
+				target.peerAvailability(id, hasPiece);
+			}
+		});
+	}
+	
+	public void peerHave(final String id, final int pieceNB) {
+		this.post(new Event() {
+			void dispatch() {
+				target.peerHave(id, pieceNB);
+			}
+		});
+	}
+	
+	public void peerReady(final String id) {
+		this.post(new Event() {
+			void dispatch() {
+				target.peerReady(id);
+			}
+		});
+	}
+	
+	public void peerRequest(final String peerID, final int piece, final int begin, final int length, final DownloadTask dt) {
+		this.post(new Event() {
+			void dispatch() {
+				target.peerRequest(peerID, piece, begin, length, dt);
+			}
+		});
+	}
+	
+	public void addActiveTask(final String id, final DownloadTask dt) {
+		this.post(new Event() {
+			void dispatch() {
+				target.addActiveTask(id, dt);
+			}
+		});
+	}
+	
+	private static abstract class Event {
+		long posted;
+		abstract void dispatch();
+	}
+
+}
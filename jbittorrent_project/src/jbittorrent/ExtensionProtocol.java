@@ -0,0 +1,248 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Messages of the extension protocol (BEP 10) and of the peer exchange (BEP 11).
+ * <p>
+ * The peers that set the bit 0x10 of the sixth reserved byte of the handshake 
+ * exchange an extended handshake, a bencoded dictionary whose key m gives the 
+ * id with which each peer wants to receive the messages of each extension. 
+ * The extended messages have the id 20, followed by the id of the extension 
+ * (0 for the extended handshake) and a bencoded dictionary.
+ *
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ */
+public class ExtensionProtocol {
+	
+	/**
+	 * Extended message id of the extended handshake
+	 */
+	public static final int HANDSHAKE = 0;
+	
+	/**
+	 * Extended message id with which this client receives the PEX messages
+	 */
+	public static final int UT_PEX = 1;
+	public static final String UT_PEX_NAME = "ut_pex";
+	
+	/**
+	 * Maximal number of added or dropped peers in a PEX message
+	 */
+	public static final int MAX_PEX_PEERS = 50;
+	
+	public static final String VERSION = "jbittorrent 0.1";
+	
+	/**
+	 * Checks whether the reserved bytes of a handshake announce the extension protocol
+	 * @param reserved byte[]
+	 * @return boolean
+	 */
+	public static boolean isSupported(byte[] reserved) {
+		return reserved != null && reserved.length == 8 && (reserved[5] & 0x10) != 0;
+	}
+	
+	/**
+	 * Returns the reserved bytes of the handshake of this client
+	 * @return byte[]
+	 */
+	public static byte[] getReserved() {
+		return new byte[]{0, 0, 0, 0, 0, 0x10, 0, 0};
+	}
+	
+	/**
+	 * Creates the extended handshake of this client
+	 * @param listeningPort int the port of the client for the peer connections, or -1 if unknown
+	 * @return Message_PP
+	 */
+	public static Message_PP handshake(int listeningPort) {
+		Map<String, Object> extensions = new HashMap<String, Object>();
+		extensions.put(UT_PEX_NAME, Integer.valueOf(UT_PEX));
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("m", extensions);
+		m.put("v", VERSION);
+		if(listeningPort > 0){
+			m.put("p", Integer.valueOf(listeningPort));
+		}
+		return message(HANDSHAKE, m);
+	}
+	
+	/**
+	 * Creates an extended message
+	 * @param id int the extended message id given by the peer
+	 * @param m Map the content of the message
+	 * @return Message_PP
+	 */
+	public static Message_PP message(int id, Map<String, Object> m) {
+		try {
+			return new Message_PP(PeerProtocol.EXTENDED, Utils.concat(new byte[]{(byte) id}, BEncoder.encode(m)), 1);
+		} catch (IOException ioe) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Decodes the dictionary of an extended message
+	 * @param payload byte[] the payload of the message, starting with the extended message id
+	 * @return Map, or null if the message is not valid
+	 */
+	public static Map<String, Object> decode(byte[] payload) {
+		if(payload == null || payload.length < 2){
+			return null;
+		}
+		try {
+			return BDecoder.decode(Utils.subArray(payload, 1, payload.length - 1));
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the extensions of an extended handshake, with the extended 
+	 * message ids with which the peer receives them. The extensions disabled 
+	 * (id 0) are left out.
+	 * @param m Map the extended handshake
+	 * @return Map of extension names and ids
+	 */
+	public static Map<String, Integer> getExtensions(Map<String, Object> m) {
+		Map<String, Integer> extensions = new HashMap<String, Integer>();
+		if(m != null && m.get("m") instanceof Map){
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) m.get("m")).entrySet()) {
+				if(e.getValue() instanceof Long && ((Long) e.getValue()).intValue() > 0){
+					extensions.put(e.getKey().toString(), Integer.valueOf(((Long) e.getValue()).intValue()));
+				}
+			}
+		}
+		return extensions;
+	}
+	
+	/**
+	 * Creates a PEX message
+	 * @param id int the extended message id of ut_pex given by the peer
+	 * @param added Collection of "ip:port" of the peers connected since the last message
+	 * @param dropped Collection of "ip:port" of the peers disconnected since the last message
+	 * @return Message_PP
+	 */
+	public static Message_PP pex(int id, Collection<String> added, Collection<String> dropped) {
+		Map<String, Object> m = new HashMap<String, Object>();
+		byte[] compact = toCompact(added);
+		m.put("added", compact);
+		m.put("added.f", new byte[compact.length / 6]);
+		m.put("dropped", toCompact(dropped));
+		return message(id, m);
+	}
+	
+	/**
+	 * Returns the peers added in a PEX message
+	 * @param m Map the PEX message
+	 * @return List of "ip:port"
+	 */
+	public static List<String> getAdded(Map<String, Object> m) {
+		return m != null && m.get("added") instanceof byte[] ? fromCompact((byte[]) m.get("added")) : new ArrayList<String>();
+	}
+	
+	/**
+	 * Returns the peers dropped in a PEX message
+	 * @param m Map the PEX message
+	 * @return List of "ip:port"
+	 */
+	public static List<String> getDropped(Map<String, Object> m) {
+		return m != null && m.get("dropped") instanceof byte[] ? fromCompact((byte[]) m.get("dropped")) : new ArrayList<String>();
+	}
+	
+	/**
+	 * Returns the compact format (4 bytes of IPv4 address and 2 of port) of 
+	 * the given peers. The peers that are not "a.b.c.d:port" are left out.
+	 * @param peers Collection of "ip:port"
+	 * @return byte[]
+	 */
+	public static byte[] toCompact(Collection<String> peers) {
+		byte[] compact = new byte[peers.size() * 6];
+		int n = 0;
+		for (String peer : peers) {
+			String[] parts = peer.split("[.:]");
+			if(parts.length != 5){
+				continue;
+			}
+			try {
+				for (int i = 0; i < 4; i++) {
+					compact[n + i] = (byte) Integer.parseInt(parts[i]);
+				}
+				int port = Integer.parseInt(parts[4]);
+				compact[n + 4] = (byte) (port >> 8);
+				compact[n + 5] = (byte) port;
+				n += 6;
+			} catch (NumberFormatException nfe) {}
+		}
+		return n == compact.length ? compact : Utils.subArray(compact, 0, n);
+	}
+	
+	/**
+	 * Parses a list of peers in compact format
+	 * @param compact byte[]
+	 * @return List of "ip:port"
+	 */
+	public static List<String> fromCompact(byte[] compact) {
+		List<String> peers = new ArrayList<String>();
+		for (int i = 0; i + 6 <= compact.length; i += 6) {
+			int port = ((compact[i + 4] & 0xFF) << 8) | (compact[i + 5] & 0xFF);
+			if(port > 0){
+				peers.add(Utils.byteToUnsignedInt(compact[i]) + "." + Utils.byteToUnsignedInt(compact[i + 1]) + "." 
+						+ Utils.byteToUnsignedInt(compact[i + 2]) + "." + Utils.byteToUnsignedInt(compact[i + 3]) + ":" + port);
+			}
+		}
+		return peers;
+	}
+
+}
@@ -0,0 +1,174 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+package jbittorrent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Messages of the fast extension (BEP 6).
+ * <p>
+ * The peers that set the bit 0x04 of the last reserved byte of the handshake 
+ * can replace the bitfield by Have All or Have None, must answer the requests 
+ * that they will not serve with Reject Request (a choke does not cancel the 
+ * pending requests any more), can allow the download of a few pieces while the 
+ * peer is choked (Allowed Fast) and can advise the download of a piece (Suggest Piece).
+ *
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ */
+public class FastExtension {
+	
+	/**
+	 * Number of pieces of the allowed fast set given to a peer
+	 */
+	public static final int ALLOWED_FAST_SET_SIZE = 10;
+	
+	/**
+	 * Checks whether the reserved bytes of a handshake announce the fast extension
+	 * @param reserved byte[]
+	 * @return boolean
+	 */
+	public static boolean isSupported(byte[] reserved) {
+		return reserved != null && reserved.length == 8 && (reserved[7] & 0x04) != 0;
+	}
+	
+	/**
+	 * Sets the bit of the fast extension in the reserved bytes of a handshake
+	 * @param reserved byte[]
+	 * @return byte[] the same reserved bytes
+	 */
+	public static byte[] getReserved(byte[] reserved) {
+		reserved[7] |= 0x04;
+		return reserved;
+	}
+	
+	/**
+	 * Returns the message that announces the pieces of the bitfield: Have All 
+	 * if all the pieces are set, Have None if none is set, the bitfield otherwise
+	 * @param bitfield byte[] the wire bitfield
+	 * @param nbPieces int
+	 * @return Message_PP
+	 */
+	public static Message_PP bitfield(byte[] bitfield, int nbPieces) {
+		int cardinality = Bitfield.fromWire(bitfield).cardinality();
+		if(cardinality == 0){
+			return new Message_PP(PeerProtocol.HAVE_NONE);
+		}else if(cardinality == nbPieces){
+			return new Message_PP(PeerProtocol.HAVE_ALL);
+		}
+		return new Message_PP(PeerProtocol.BITFIELD, bitfield);
+	}
+	
+	/**
+	 * Creates a Suggest Piece message
+	 * @param piece int
+	 * @return Message_PP
+	 */
+	public static Message_PP suggest(int piece) {
+		return new Message_PP(PeerProtocol.SUGGEST_PIECE, Utils.intToByteArray(piece));
+	}
+	
+	/**
+	 * Creates an Allowed Fast message
+	 * @param piece int
+	 * @return Message_PP
+	 */
+	public static Message_PP allowedFast(int piece) {
+		return new Message_PP(PeerProtocol.ALLOWED_FAST, Utils.intToByteArray(piece));
+	}
+	
+	/**
+	 * Creates the Reject Request message of a request
+	 * @param piece int
+	 * @param begin int
+	 * @param length int
+	 * @return Message_PP
+	 */
+	public static Message_PP reject(int piece, int begin, int length) {
+		return new Message_PP(PeerProtocol.REJECT_REQUEST, Utils.concat(Utils.intToByteArray(piece), 
+				Utils.concat(Utils.intToByteArray(begin), Utils.intToByteArray(length))), 2);
+	}
+	
+	/**
+	 * Computes the canonical allowed fast set of a peer: the pieces are taken 
+	 * from the successive SHA-1 of its /24 network and the info hash, so 
+	 * that the peers of a same network receive the same set.
+	 * @param ip String the IPv4 address of the peer
+	 * @param infoHash byte[]
+	 * @param nbPieces int
+	 * @param k int the size of the set
+	 * @return List of piece indexes, empty if the address is not IPv4
+	 */
+	public static List<Integer> allowedFastSet(String ip, byte[] infoHash, int nbPieces, int k) {
+		List<Integer> set = new ArrayList<Integer>();
+		String[] parts = ip == null ? new String[0] : ip.split("\\.");
+		if(parts.length != 4){
+			return set;
+		}
+		byte[] x = new byte[4];
+		try {
+			for (int i = 0; i < 3; i++) {
+				x[i] = (byte) Integer.parseInt(parts[i]);
+			}
+		} catch (NumberFormatException nfe) {
+			return set;
+		}
+		x = Utils.concat(x, infoHash);
+		k = Math.min(k, nbPieces);
+		while(set.size() < k){
+			x = Utils.hash(x);
+			for (int i = 0; i < 5 && set.size() < k; i++) {
+				long y = Utils.unsignedIntToLong(Utils.subArray(x, i * 4, 4));
+				Integer index = Integer.valueOf((int) (y % nbPieces));
+				if(!set.contains(index)){
+					set.add(index);
+				}
+			}
+		}
+		return set;
+	}
+
+}
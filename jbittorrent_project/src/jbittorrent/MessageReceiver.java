@@ -46,7 +46,8 @@
 package jbittorrent;
 
 import java.io.*;
-import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.swing.event.EventListenerList;
 
@@ -72,8 +73,7 @@ public class MessageReceiver extends Thread {
     private boolean hsOK = false;
     private final EventListenerList listeners = new EventListenerList();
     
-    private LinkedList<Message_PP> refreshEndGameStrategy;
-    private LinkedList<Message_PP> cancelPieceEndGameStrategy;
+    private Queue<Message_PP> refreshEndGameStrategy;
 
     /**
      * Create a new Message receiver for a given peer
@@ -85,8 +85,7 @@ public class MessageReceiver extends Thread {
         //this.setName("MR_" + id);
         this.is = is;
         this.dis = new DataInputStream(is);
-        this.refreshEndGameStrategy = new LinkedList<Message_PP>();
-        this.cancelPieceEndGameStrategy = new LinkedList<Message_PP>();
+        this.refreshEndGameStrategy = new ConcurrentLinkedQueue<Message_PP>();
     }
 
     /**
@@ -176,21 +175,6 @@ public class MessageReceiver extends Thread {
     	this.refreshEndGameStrategy.add(mess);
     }
     
-    /**
-     * Introduces a new message: CAMCEL_PIECE_ENDGAME_STRATEGY message.
-     * <p> It is an internal message that doesnt belong to the bittorrent protocol.  
-     * The task is informed that the selected piece is already downloaded by another task.  
-     * Will have to send the cancelation messages, of those blocks that have been solicited 
-     * and are waiting receive. 
-     * @param indexPiece int Index of piece
-     */
-    public void pushMessageCancelPieceEndGameStrategy(int indexPiece){
-    	Message_PP mess = new Message_PP();
-    	mess.setData(PeerProtocol.CAMCEL_PIECE_ENDGAME_STRATEGY, Utils.intToByteArray(indexPiece));
-    	this.cancelPieceEndGameStrategy.add(mess);
-    }
-    
-
     /**
      * Reads data from the inputstream, creates new messages according to the
      * received data and fires MessageReceived method of the listeners with the
@@ -232,18 +216,10 @@ public class MessageReceiver extends Thread {
                     }
                 } else {
                 	
-                	if(!this.refreshEndGameStrategy.isEmpty()){
-                		for(Message_PP m: this.refreshEndGameStrategy){
-                			this.fireMessageReceived(m);
-                		}
-                		this.refreshEndGameStrategy.clear();
-                	}
-                	
-                	if(!this.cancelPieceEndGameStrategy.isEmpty()){
-                		for(Message_PP m: this.cancelPieceEndGameStrategy){
-                			this.fireMessageReceived(m);
-                		}
-                		this.cancelPieceEndGameStrategy.clear();
+                	// Pushed by other threads too, when a block requested to the peer is cancelled
+                	Message_PP refresh;
+                	while((refresh = this.refreshEndGameStrategy.poll()) != null){
+                		this.fireMessageReceived(refresh);
                 	}
                 	
                 	
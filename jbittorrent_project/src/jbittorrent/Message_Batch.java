@@ -0,0 +1,96 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.util.List;
+
+/**
+ * Several peer protocol messages that are written to the remote peer 
+ * at once, in a single write of the {@link MessageSender}.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ */
+public class Message_Batch extends Message {
+	
+	private final List<Message_PP> messages;
+	
+	/**
+	 * Creates a batch of messages of the given type
+	 * @param type int the type of the messages
+	 * @param messages List
+	 * @param priority int
+	 */
+	public Message_Batch(int type, List<Message_PP> messages, int priority){
+		super(type, priority);
+		this.messages = messages;
+	}
+	
+	public List<Message_PP> getMessages(){
+		return this.messages;
+	}
+	
+	public byte[] generate() {
+		byte[][] parts = new byte[this.messages.size()][];
+		int length = 0;
+		for (int i = 0; i < parts.length; i++) {
+			parts[i] = this.messages.get(i).generate();
+			length += parts[i].length;
+		}
+		byte[] data = new byte[length];
+		int offset = 0;
+		for (byte[] part: parts) {
+			System.arraycopy(part, 0, data, offset, part.length);
+			offset += part.length;
+		}
+		return data;
+	}
+	
+	public String toString() {
+		return this.messages.toString();
+	}
+
+}
@@ -75,13 +75,15 @@ public class Message_HS extends Message {
     }
 
     /**
-     * Creates a HS message with the given infoHash and peerID and default values
+     * Creates a HS message with the given infoHash and peerID and default values.
+     * The reserved bytes announce the extension protocol (BEP 10) and 
+     * the fast extension (BEP 6).
      * @param infoHash byte[]
      * @param peerID byte[]
      */
     public Message_HS(byte[] infoHash, byte[] peerID){
         this(new byte[]{19}, "BitTorrent protocol".getBytes(),
-                new byte[]{0,0,0,0,0,0,0,0}, infoHash, peerID);
+                FastExtension.getReserved(ExtensionProtocol.getReserved()), infoHash, peerID);
     }
 
     /**
@@ -128,6 +128,14 @@ public class Message_PP extends Message implements Cloneable {
             this.length = new byte[] {0, 0, 0, 1};
             this.id[0] = 3;
             break;
+        case PeerProtocol.HAVE_ALL:
+            this.length = new byte[] {0, 0, 0, 1};
+            this.id[0] = 14;
+            break;
+        case PeerProtocol.HAVE_NONE:
+            this.length = new byte[] {0, 0, 0, 1};
+            this.id[0] = 15;
+            break;
         }
     }
 
@@ -174,6 +182,26 @@ public class Message_PP extends Message implements Cloneable {
             this.id[0] = 11;
             this.payload = payload;
             break;
+        case PeerProtocol.EXTENDED:
+            this.length = Utils.intToByteArray(1 + payload.length);
+            this.id[0] = 20;
+            this.payload = payload;
+            break;
+        case PeerProtocol.SUGGEST_PIECE:
+            this.length = new byte[] {0, 0, 0, 5};
+            this.id[0] = 13;
+            this.payload = payload;
+            break;
+        case PeerProtocol.REJECT_REQUEST:
+            this.length = new byte[] {0, 0, 0, 13};
+            this.id[0] = 16;
+            this.payload = payload;
+            break;
+        case PeerProtocol.ALLOWED_FAST:
+            this.length = new byte[] {0, 0, 0, 5};
+            this.id[0] = 17;
+            this.payload = payload;
+            break;
         }
     }
 
@@ -184,7 +212,7 @@ public class Message_PP extends Message implements Cloneable {
     }
 
     public byte[] generate() {
-        if (this.type > 4)
+        if (this.type > 4 && this.payload != null)
             return Utils.concat(Utils.concat(this.length, this.id),
                                 this.payload);
         else if (this.type > 0)
@@ -206,7 +234,7 @@ public class Message_PP extends Message implements Cloneable {
                     toString += "<index=" + Utils.byteArrayToInt(this.payload) + ">";
                     break;
                 case PeerProtocol.BITFIELD:
-                    toString += "<bitfield="+(new Bits(this.payload))+">";
+                    toString += "<bitfield="+Bitfield.toString(this.payload)+">";
                     break;
                 case PeerProtocol.REQUEST:
                     toString += "<index=" + Utils.byteArrayToInt(Utils.subArray(this.payload,0,4)) +">";
@@ -227,9 +255,18 @@ public class Message_PP extends Message implements Cloneable {
                     break;
                 case PeerProtocol.REFRESH_ENDGAME_STRATEGY:
                 	break;
-                case PeerProtocol.CAMCEL_PIECE_ENDGAME_STRATEGY:
+                case PeerProtocol.EXTENDED:
+                	toString += "<extended=" + this.payload[0] + "><" + (this.payload.length - 1) + "bytes>";
+                	break;
+                case PeerProtocol.SUGGEST_PIECE:
+                case PeerProtocol.ALLOWED_FAST:
                 	toString += "<index=" + Utils.byteArrayToInt(this.payload) + ">";
                 	break;
+                case PeerProtocol.REJECT_REQUEST:
+                    toString += "<index=" + Utils.byteArrayToInt(Utils.subArray(this.payload,0,4)) +">";
+                    toString += "<begin=" + Utils.byteArrayToInt(Utils.subArray(this.payload,4,4)) +">";
+                    toString += "<length=" + Utils.byteArrayToInt(Utils.subArray(this.payload,8,4)) +">";
+                    break;
                 	
                 }
                         // + ">";
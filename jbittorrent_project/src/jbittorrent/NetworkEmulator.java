@@ -0,0 +1,249 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+package jbittorrent;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Emulates a network path for the datagrams sent by one or more 
+ * {@link DatagramListener}s, to test the UDP protocols over the loopback 
+ * interface: each datagram goes through a bottleneck link of the given 
+ * bandwidth, with a queue that drops the datagrams that arrive when it is full, 
+ * and is then delivered after the propagation delay, with a random jitter, or 
+ * lost with the given probability. The listeners that share an emulator share 
+ * its bottleneck.
+ *
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ */
+public class NetworkEmulator extends Thread {
+	
+	private static Logger logger = Logger.getLogger(NetworkEmulator.class);
+	
+	/**
+	 * Datagram waiting for its delivery
+	 */
+	private static class DelayedDatagram implements Delayed {
+		DatagramListener listener;
+		byte[] data;
+		InetSocketAddress destination;
+		long delivery;
+		
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(this.delivery - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+		
+		public int compareTo(Delayed o) {
+			return Long.compare(this.delivery, ((DelayedDatagram) o).delivery);
+		}
+	}
+	
+	private final DelayQueue<DelayedDatagram> queue = new DelayQueue<DelayedDatagram>();
+	private final Random random;
+	
+	private long delay = 0;
+	private long jitter = 0;
+	private double loss = 0;
+	private long bandwidth = 0;
+	private long queueLimit = 0;
+	
+	/*
+	 * Time, in nanoseconds, at which the bottleneck link has sent the datagrams queued
+	 */
+	private long linkFree = 0;
+	
+	private long nbSent = 0;
+	private long nbLost = 0;
+	private long nbDropped = 0;
+	private long totalQueueDelay = 0;
+	private long maxQueueDelay = 0;
+	
+	/**
+	 * Creates the emulator, with a seed for the random losses and jitter so 
+	 * that the tests can be repeated
+	 * @param seed long
+	 */
+	public NetworkEmulator(long seed) {
+		super("NetworkEmulator");
+		this.random = new Random(seed);
+		this.setDaemon(true);
+	}
+	
+	/**
+	 * Sets the one-way propagation delay and its random variation
+	 * @param delay long in milliseconds
+	 * @param jitter long in milliseconds, the delay is uniform in delay +/- jitter
+	 */
+	public synchronized void setDelay(long delay, long jitter) {
+		this.delay = delay;
+		this.jitter = jitter;
+	}
+	
+	/**
+	 * Sets the probability that a datagram is lost
+	 * @param loss double between 0 and 1
+	 */
+	public synchronized void setLoss(double loss) {
+		this.loss = loss;
+	}
+	
+	/**
+	 * Sets the bandwidth of the bottleneck link and the size of its queue
+	 * @param bandwidth long in bytes per second, or 0 for no bottleneck
+	 * @param queueLimit long maximal time a datagram waits in the queue, in milliseconds
+	 */
+	public synchronized void setBandwidth(long bandwidth, long queueLimit) {
+		this.bandwidth = bandwidth;
+		this.queueLimit = queueLimit;
+	}
+	
+	/**
+	 * Called by the DatagramListener instead of sending the datagram
+	 * @param listener DatagramListener
+	 * @param data byte[]
+	 * @param destination InetSocketAddress
+	 */
+	void send(DatagramListener listener, byte[] data, InetSocketAddress destination) {
+		
+		long now = System.nanoTime();
+		DelayedDatagram d = new DelayedDatagram();
+		d.listener = listener;
+		d.data = data;
+		d.destination = destination;
+		
+		synchronized (this) {
+			long departure = now;
+			if(this.bandwidth > 0){
+				long queueDelay = Math.max(0, this.linkFree - now);
+				if(queueDelay > this.queueLimit * 1000000L){
+					this.nbDropped++;
+					return;
+				}
+				this.totalQueueDelay += queueDelay;
+				this.maxQueueDelay = Math.max(this.maxQueueDelay, queueDelay);
+				departure = Math.max(now, this.linkFree) + data.length * 1000000000L / this.bandwidth;
+				this.linkFree = departure;
+			}
+			this.nbSent++;
+			if(this.loss > 0 && this.random.nextDouble() < this.loss){
+				this.nbLost++;
+				return;
+			}
+			long propagation = this.delay;
+			if(this.jitter > 0){
+				propagation += (long) ((this.random.nextDouble() * 2 - 1) * this.jitter);
+			}
+			d.delivery = departure + Math.max(0, propagation) * 1000000L;
+		}
+		this.queue.add(d);
+	}
+	
+	public void run() {
+		while (true) {
+			DelayedDatagram d;
+			try {
+				d = this.queue.take();
+			} catch (InterruptedException ie) {
+				return;
+			}
+			try {
+				d.listener.sendNow(d.data, d.destination);
+			} catch (IOException ioe) {
+				logger.debug("Error sending emulated datagram to " + d.destination + ": " + ioe.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of datagrams sent through the link, lost or not
+	 * @return long
+	 */
+	public synchronized long getNbSent() {
+		return this.nbSent;
+	}
+	
+	public synchronized long getNbLost() {
+		return this.nbLost;
+	}
+	
+	/**
+	 * Returns the number of datagrams dropped because the queue was full
+	 * @return long
+	 */
+	public synchronized long getNbDropped() {
+		return this.nbDropped;
+	}
+	
+	/**
+	 * Returns the average time the datagrams waited in the queue of the bottleneck
+	 * @return long in milliseconds
+	 */
+	public synchronized long getAverageQueueDelay() {
+		return this.nbSent == 0 ? 0 : this.totalQueueDelay / this.nbSent / 1000000L;
+	}
+	
+	public synchronized long getMaxQueueDelay() {
+		return this.maxQueueDelay / 1000000L;
+	}
+	
+	/**
+	 * Resets the statistics
+	 */
+	public synchronized void resetStats() {
+		this.nbSent = 0;
+		this.nbLost = 0;
+		this.nbDropped = 0;
+		this.totalQueueDelay = 0;
+		this.maxQueueDelay = 0;
+	}
+
+}
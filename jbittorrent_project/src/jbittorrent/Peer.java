@@ -71,15 +71,46 @@ public class Peer {
     private boolean choking = true;
     private BitSet hasPiece;
     private int downloaded = 0;
-    private float dlrate = 0;
+    private final RateMeter dlrate = new RateMeter();
 	private long lastDL = 0;
-    private float ulrate = 0;
+    private final RateMeter ulrate = new RateMeter();
 	private long lastUL = 0;
     private int uploaded = 0;
     private boolean connected = false;
     
     private int numSendChoke = 0;
     
+    /**
+     * Speed classes of the peers, according to the measured download rate
+     */
+    public static final int SPEED_SLOW = 0;
+    public static final int SPEED_MEDIUM = 1;
+    public static final int SPEED_FAST = 2;
+    
+    private int speedClass = SPEED_MEDIUM;
+    private float measuredDLRate = 0;
+    
+    /*
+     * Extension protocol (BEP 10): whether the peer announced it in its handshake, 
+     * the extensions of its extended handshake, and the peers already sent to it 
+     * with the peer exchange (BEP 11)
+     */
+    private boolean extensionProtocol = false;
+    private Map<String, Integer> extensions = new HashMap<String, Integer>();
+    private Set<String> pexSent = new HashSet<String>();
+    
+    /*
+     * Fast extension (BEP 6): whether the peer announced it in its handshake, the 
+     * pieces that it allows to download while it chokes this client, the pieces 
+     * that this client allows it to download while choked, the pieces that it 
+     * suggested and the pieces already suggested to it
+     */
+    private boolean fastExtension = false;
+    private BitSet allowedFast = new BitSet();
+    private BitSet allowedFastSent = new BitSet();
+    private BitSet suggested = new BitSet();
+    private BitSet suggestSent = new BitSet();
+    
     //For logs
     private int numPiecesDownloadedByThis = 0;
     private int numPiecesSentToThis = 0;
@@ -108,42 +139,41 @@ public class Peer {
     }
 
     public void resetDL(){
-        this.dlrate = 0;
+        this.dlrate.reset();
         this.setLastDL(System.currentTimeMillis());
     }
 
     public void resetUL(){
-        this.ulrate = 0;
+        this.ulrate.reset();
         this.setLastUL(System.currentTimeMillis());
     }
 
     /**
-     * Returns the number of bytes downloaded since the last reset
+     * Returns the download rate, in bytes per second, over the sliding window 
+     * of the rate meter
      * @param reset true if the download rate should be reset
      * @return float
      */
     public float getDLRate(boolean reset){
+        float rate = this.dlrate.getRate();
         if(reset){
-            float tmp = this.dlrate;
-            this.dlrate = 0;
-            return tmp;
-        }else
-            return this.dlrate;
-
+            this.resetDL();
+        }
+        return rate;
     }
 
     /**
-     * Returns the number of bytes uploaded since the last reset.
-     * @param reset true if the download rate should be reset
+     * Returns the upload rate, in bytes per second, over the sliding window 
+     * of the rate meter
+     * @param reset true if the upload rate should be reset
      * @return float
      */
     public float getULRate(boolean reset){
+        float rate = this.ulrate.getRate();
         if(reset){
-            float tmp = this.ulrate;
-            this.ulrate = 0;
-            return tmp;
-        }else
-            return this.ulrate;
+            this.resetUL();
+        }
+        return rate;
     }
 
     /**
@@ -167,16 +197,46 @@ public class Peer {
      * @param dl int
      */
     public void setDLRate(int dl){
-        this.dlrate += dl;
+        this.dlrate.add(dl);
         this.downloaded += dl;
     }
 
+    /**
+     * Takes a snapshot of the download rate, in bytes per second, so that 
+     * all the peers are classified with the rates of the same instant.
+     * @return float
+     */
+    public float measureDLRate(){
+        this.measuredDLRate = this.dlrate.getRate();
+        return this.measuredDLRate;
+    }
+
+    /**
+     * Returns the last measured download rate, in bytes per second
+     * @return float
+     */
+    public float getMeasuredDLRate(){
+        return this.measuredDLRate;
+    }
+
+    /**
+     * Returns the speed class of the peer: SPEED_SLOW, SPEED_MEDIUM or SPEED_FAST
+     * @return int
+     */
+    public int getSpeedClass(){
+        return this.speedClass;
+    }
+
+    public void setSpeedClass(int speedClass){
+        this.speedClass = speedClass;
+    }
+
     /**
      * Updates the uploaded values
      * @param ul int
      */
     public void setULRate(int ul){
-        this.ulrate += ul;
+        this.ulrate.add(ul);
         this.uploaded += ul;
     }
 
@@ -305,12 +365,16 @@ public class Peer {
      * @param bitfield byte[]
      */
     public void setHasPiece(byte[] bitfield){
-        boolean[] b = Utils.byteArray2BitArray(bitfield);
-        for(int i = 0; i < b.length; i++){
-        	//System.out.println("hasPiece set: "+i+","+b[i]);
-            this.hasPiece.set(i,b[i]);
-        }
-        //System.out.println("numPiece:"+ b.length);
+        this.hasPiece.clear();
+        this.hasPiece.or(Bitfield.fromWire(bitfield));
+    }
+
+    /**
+     * Updates this peer availability with all the pieces (Have All message)
+     * @param nbPieces int
+     */
+    public void setHasAll(int nbPieces){
+        this.hasPiece.set(0, nbPieces);
     }
 
     /**
@@ -413,5 +477,133 @@ public class Peer {
 		this.lastUL = lastUL;
 	}
 
+	/**
+	 * Checks whether the peer announced the extension protocol in its handshake
+	 * @return boolean
+	 */
+	public boolean isExtensionProtocol() {
+		return extensionProtocol;
+	}
+
+	public void setExtensionProtocol(boolean extensionProtocol) {
+		this.extensionProtocol = extensionProtocol;
+	}
+
+	/**
+	 * Sets the extensions of the extended handshake of the peer
+	 * @param extensions Map of extension names and extended message ids
+	 */
+	public synchronized void setExtensions(Map<String, Integer> extensions) {
+		this.extensions = extensions;
+	}
+
+	/**
+	 * Returns the extended message id with which the peer receives the messages 
+	 * of an extension
+	 * @param name String
+	 * @return int, 0 if the peer does not support the extension
+	 */
+	public synchronized int getExtensionID(String name) {
+		Integer id = this.extensions.get(name);
+		return id == null ? 0 : id.intValue();
+	}
+
+	/**
+	 * Returns the peers ("ip:port") already sent to this peer with the peer exchange
+	 * @return Set
+	 */
+	public Set<String> getPexSent() {
+		return pexSent;
+	}
+
+	/**
+	 * Checks whether the peer announced the fast extension in its handshake
+	 * @return boolean
+	 */
+	public boolean isFastExtension() {
+		return fastExtension;
+	}
+
+	public void setFastExtension(boolean fastExtension) {
+		this.fastExtension = fastExtension;
+	}
+
+	/**
+	 * Adds a piece that the peer allows to download while it chokes this client
+	 * @param piece int
+	 */
+	public synchronized void addAllowedFast(int piece) {
+		this.allowedFast.set(piece);
+	}
+
+	public synchronized void removeAllowedFast(int piece) {
+		this.allowedFast.clear(piece);
+	}
+
+	public synchronized boolean isAllowedFast(int piece) {
+		return this.allowedFast.get(piece);
+	}
+
+	public synchronized boolean hasAllowedFast() {
+		return !this.allowedFast.isEmpty();
+	}
+
+	/**
+	 * Returns a copy of the pieces that the peer allows to download while it chokes this client
+	 * @return BitSet
+	 */
+	public synchronized BitSet getAllowedFast() {
+		return (BitSet) this.allowedFast.clone();
+	}
+
+	/**
+	 * Adds a piece that this client allows the peer to download while it is choked
+	 * @param piece int
+	 */
+	public synchronized void setAllowedFastSent(int piece) {
+		this.allowedFastSent.set(piece);
+	}
+
+	public synchronized boolean isAllowedFastSent(int piece) {
+		return this.allowedFastSent.get(piece);
+	}
+
+	public synchronized boolean hasAllowedFastSent() {
+		return !this.allowedFastSent.isEmpty();
+	}
+
+	/**
+	 * Adds a piece suggested by the peer
+	 * @param piece int
+	 */
+	public synchronized void addSuggested(int piece) {
+		this.suggested.set(piece);
+	}
+
+	public synchronized void removeSuggested(int piece) {
+		this.suggested.clear(piece);
+	}
+
+	/**
+	 * Returns a copy of the pieces suggested by the peer
+	 * @return BitSet
+	 */
+	public synchronized BitSet getSuggested() {
+		return (BitSet) this.suggested.clone();
+	}
+
+	/**
+	 * Marks a piece as suggested to the peer
+	 * @param piece int
+	 * @return boolean true if the piece was not suggested yet
+	 */
+	public synchronized boolean setSuggestSent(int piece) {
+		if(this.suggestSent.get(piece)){
+			return false;
+		}
+		this.suggestSent.set(piece);
+		return true;
+	}
+
 	
 }
@@ -70,18 +70,30 @@ public class PeerProtocol {
     public static final int PORT = 10;
     
     /*
-     * Are a type of internal messages that doesnt belong to the bittorrent protocol.  
-     * They are used in the End Game mode.  Advise of the currently selected piece has 
-     * already been downloaded by another task.  It is necessary to send the messages 
-     * of cancelation of blocks and to restart the process of selection of pieces.
+     * Internal message that doesn't belong to the bittorrent protocol. The task 
+     * has left its piece, or blocks that it was waiting for have been received 
+     * from other peers and cancelled: it restarts the process of selection of pieces.
      */
     public static final int REFRESH_ENDGAME_STRATEGY = 11;
-    public static final int CAMCEL_PIECE_ENDGAME_STRATEGY = 12;
+    
+    /*
+     * Extended message of the extension protocol (BEP 10), id 20 in the wire. 
+     * As for the other messages, the type is the id in the wire plus one.
+     */
+    public static final int EXTENDED = 21;
+    /*
+     * Messages of the fast extension (BEP 6), ids 13 to 17 in the wire.
+     */
+    public static final int SUGGEST_PIECE = 14;
+    public static final int HAVE_ALL = 15;
+    public static final int HAVE_NONE = 16;
+    public static final int REJECT_REQUEST = 17;
+    public static final int ALLOWED_FAST = 18;
     
     public static final String[] TYPE = {"Keep_Alive", "Choke", "Unchoke",
                                         "Interested", "Not_Interested", "Have",
                                         "Bitfield", "Request", "Piece",
-                                        "Cancel", "Port", "Refresh_EndGame_Strategy", "Cancel_Piece_EndGame_Strategy"};
+                                        "Cancel", "Port", "Refresh_EndGame_Strategy"};
 
     public static int BLOCK_SIZE =16384;
     public static final byte[] BLOCK_SIZE_BYTES = Utils.intToByteArray(16384);
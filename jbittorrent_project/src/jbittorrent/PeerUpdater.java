@@ -46,6 +46,8 @@
 package jbittorrent;
 
 import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.event.EventListenerList;
 
@@ -56,6 +58,7 @@ import java.io.InputStream;
 import java.io.IOException;
 import java.io.BufferedInputStream;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
 
@@ -68,7 +71,7 @@ import java.net.URLConnection;
  * @version 0.1
  */
 public class PeerUpdater extends Thread {
-    private LinkedHashMap<String, Peer> peerList;
+    private volatile LinkedHashMap<String, Peer> peerList;
     private byte[] id;
     private TorrentFile torrent;
 
@@ -81,13 +84,29 @@ public class PeerUpdater extends Thread {
     
     private int interval = 10;
     private int minInterval = 0;
-    private boolean first = true;
-    private boolean end = false;
+    private volatile boolean end = false;
     private boolean complete = false;
     
+    /**
+     * Maximum time, in milliseconds, end() waits for the trackers to 
+     * receive the stopped event, and completed() for the completed event 
+     * when the tiers are not announcing yet
+     */
+    public static final long EVENT_TIMEOUT = 2000;
+    
+    /**
+     * Time, in milliseconds, before announcing again to a tier that has not answered
+     */
+    private static final long RETRY_INTERVAL = 2000;
+    
     private static Logger logger = Logger.getLogger(DownloadManager.class);
     
     private String ipAddress = null;
+    
+    private List<List<TrackerStatus>> tiers;
+    private List<TierAnnouncer> announcers = null;
+    private Map<String, UDPTrackerClient> udpTrackers = new HashMap<String, UDPTrackerClient>();
+    private int httpTimeout = 15000;
 
 
     private final EventListenerList listeners = new EventListenerList();
@@ -99,6 +118,13 @@ public class PeerUpdater extends Thread {
         this.left = torrent.total_length;
         this.setDaemon(true);
         this.interval = intervalUpdateListPeers;
+        this.tiers = new ArrayList<List<TrackerStatus>>();
+        for (List<String> urls : torrent.getTrackerTiers()) {
+            List<TrackerStatus> tier = new ArrayList<TrackerStatus>();
+            for (String url : urls)
+                tier.add(new TrackerStatus(url));
+            this.tiers.add(tier);
+        }
         //this.start();
     }
     
@@ -240,51 +266,102 @@ public class PeerUpdater extends Thread {
     }
 
     /**
-     * Thread method that regularly contact the tracker and process its response
+     * Thread method that starts the announces of each tier of trackers, 
+     * and regularly scrapes the tracker
      */
     public void run() {
-        //int tryNB = 0;
 		byte[] b = new byte[0];
+		
+		List<TierAnnouncer> l = new ArrayList<TierAnnouncer>();
+		for (int i = 0; i < this.tiers.size(); i++) {
+			l.add(new TierAnnouncer(i, this.tiers.get(i)));
+		}
+		synchronized (this) {
+			if (this.end)
+				return;
+			this.announcers = l;
+		}
+		for (TierAnnouncer a : l) {
+			a.start();
+		}
+		
         while (!this.end) {
-            //tryNB++;
-            
-            logger.info("ContactTracker ...................");
-            
-            this.peerList = this.processResponse(this.contactTracker(id,
-                    torrent, this.downloaded,
-                    this.uploaded,
-                    this.left, this.event));
+            try {
+                synchronized (b) {
+                    b.wait(this.interval * 1000);
+                }
+            } catch (InterruptedException ie) {}
             
-            if(torrent.scrapeURL != null){
+            if(torrent.scrapeURL != null && !this.end){
             	Map<String, Integer> mapScrape = this.contactTrackerScrapeGetInfoPeers(torrent);
             	if(mapScrape != null){
             		this.fireUpdatePeerListState(mapScrape);
             	}
-            }	
-            
-            if (peerList != null) {
-                if (first) {
-                    this.event = "";
-                    first = false;
-                }
-                //tryNB = 0;
-                this.fireUpdatePeerList(this.peerList);
-                try {
-                	Thread.sleep(this.interval * 1000);
-                    synchronized (b) {
-                        b.wait(interval * 1000);
-                    }
-                } catch (InterruptedException ie) {}
-            } else {
-                try {
-                	Thread.sleep(2000);
-                    synchronized (b) {
-                        b.wait(2000);
-                    }
-                } catch (InterruptedException ie) {}
             }
         }
     }
+    
+    /**
+     * Announces to one tier of trackers on its own schedule: every interval 
+     * after an answer, or after RETRY_INTERVAL when no tracker of the tier 
+     * answered, so a slow or dead tier does not delay the others. The peers 
+     * of each answer are delivered to the listeners as soon as it arrives.
+     */
+    private class TierAnnouncer extends Thread {
+    	
+    	private final List<TrackerStatus> tier;
+    	private String event = "&event=started";
+    	private boolean pending = false;
+    	
+    	TierAnnouncer(int i, List<TrackerStatus> tier) {
+    		super("Announce tier " + i);
+    		this.tier = tier;
+    		this.setDaemon(true);
+    	}
+    	
+    	public void run() {
+    		while (!end) {
+    			String sent;
+    			synchronized (this) {
+    				sent = this.event;
+    				this.pending = false;
+    			}
+    			logger.info("ContactTracker " + this.getName() + " ...................");
+    			
+    			LinkedHashMap<String, Peer> l = announceTier(this.tier, sent, downloaded, uploaded, left);
+    			long wait = RETRY_INTERVAL;
+    			if (l != null) {
+    				peerList = l;
+    				if (!end && l.size() > 0)
+    					fireUpdatePeerList(l);
+    				wait = interval * 1000L;
+    			}
+    			
+    			synchronized (this) {
+    				if (l != null && !this.pending)
+    					this.event = "";
+    				try {
+    					if (!end && !this.pending)
+    						this.wait(wait);
+    				} catch (InterruptedException ie) {}
+    			}
+    		}
+    	}
+    	
+    	/**
+    	 * Announces the event to the tier now
+    	 * @param event String
+    	 */
+    	synchronized void announceEvent(String event) {
+    		this.event = event;
+    		this.pending = true;
+    		this.notifyAll();
+    	}
+    	
+    	synchronized void wakeUp() {
+    		this.notifyAll();
+    	}
+    }
 
     /**
      * Process the map representing the tracker response, which should contain
@@ -293,7 +370,7 @@ public class PeerUpdater extends Thread {
      * @param m The tracker response as a Map
      * @return LinkedHashMap A HashMap containing the peers and their ID as keys
      */
-    public synchronized LinkedHashMap<String, Peer> processResponse(Map m) {
+    public synchronized LinkedHashMap<String, Peer> processResponse(Map<String, Object> m) {
         LinkedHashMap<String, Peer> l = null;
         
         
@@ -313,10 +390,10 @@ public class PeerUpdater extends Thread {
                     this.interval *= 2;*/
 
                 Object peers = m.get("peers");
-                ArrayList peerList = new ArrayList();
+                ArrayList<Object> peerList = new ArrayList<Object>();
                 l = new LinkedHashMap<String, Peer>();
                 if (peers instanceof List) {
-                    peerList.addAll((List) peers);
+                    peerList.addAll((List<?>) peers);
                     if (peerList != null && peerList.size() > 0) {
                         for (int i = 0; i < peerList.size(); i++) {
                             String peerID = new String((byte[]) ((Map) (
@@ -372,6 +449,131 @@ public class PeerUpdater extends Thread {
             return null;
     }
 
+    /**
+     * Announces to all the tiers of trackers of the torrent (BEP 12) in parallel. 
+     * Within a tier, the trackers are contacted in order, skipping those that 
+     * are failing, until one answers, and the one that answers is moved to the 
+     * front of the tier. The peers of each response are delivered to the 
+     * listeners as soon as it arrives, leaving out the peers already delivered 
+     * by the other tiers, so the slowest tracker does not delay the others.
+     * @param event String
+     * @return LinkedHashMap The merged peers of all the responses, or null if no tracker answered
+     */
+    public LinkedHashMap<String, Peer> announce(final String event) {
+        return this.announce(event, 0);
+    }
+    
+    /**
+     * Announces to all the tiers of trackers of the torrent in parallel, as 
+     * announce(event), but waits at most the given time for the answers. 
+     * The tiers that have not answered by then keep announcing in the background.
+     * @param event String
+     * @param timeout long in milliseconds, 0 to wait for all the tiers
+     * @return LinkedHashMap The merged peers of the responses received in time, or null if no tracker answered
+     */
+    public LinkedHashMap<String, Peer> announce(final String event, long timeout) {
+        final long dl = this.downloaded;
+        final long ul = this.uploaded;
+        final long left = this.left;
+        final boolean deliver = !event.equals("&event=stopped");
+        final LinkedHashMap<String, Peer> failed = new LinkedHashMap<String, Peer>();
+        final LinkedBlockingQueue<LinkedHashMap<String, Peer>> responses = new LinkedBlockingQueue<LinkedHashMap<String, Peer>>();
+        
+        for (int i = 0; i < this.tiers.size(); i++) {
+            final List<TrackerStatus> tier = this.tiers.get(i);
+            Thread t = new Thread("Announce tier " + i) {
+                public void run() {
+                    LinkedHashMap<String, Peer> l = null;
+                    try {
+                        l = announceTier(tier, event, dl, ul, left);
+                    } finally {
+                        responses.add(l != null ? l : failed);
+                    }
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        }
+        
+        LinkedHashMap<String, Peer> merged = null;
+        long deadline = System.currentTimeMillis() + timeout;
+        for (int i = 0; i < this.tiers.size(); i++) {
+            LinkedHashMap<String, Peer> l;
+            try {
+                if (timeout > 0) {
+                    l = responses.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                    if (l == null) {
+                        logger.info("Announce " + event + ": " + (this.tiers.size() - i) + " tier(s) did not answer in " + timeout + " ms");
+                        break;
+                    }
+                } else {
+                    l = responses.take();
+                }
+            } catch (InterruptedException ie) {
+                break;
+            }
+            if (l == failed)
+                continue;
+            if (merged == null)
+                merged = new LinkedHashMap<String, Peer>();
+            LinkedHashMap<String, Peer> newPeers = new LinkedHashMap<String, Peer>();
+            for (Map.Entry<String, Peer> e : l.entrySet()) {
+                if (!merged.containsKey(e.getKey())) {
+                    merged.put(e.getKey(), e.getValue());
+                    newPeers.put(e.getKey(), e.getValue());
+                }
+            }
+            if (deliver && newPeers.size() > 0)
+                this.fireUpdatePeerList(newPeers);
+        }
+        return merged;
+    }
+
+    /**
+     * Announces to the first tracker of the tier that answers, in the order 
+     * of the tier. The trackers that are failing are only tried when all the 
+     * trackers of the tier are failing.
+     * @param tier List of TrackerStatus
+     * @param event String
+     * @param dl long
+     * @param ul long
+     * @param left long
+     * @return LinkedHashMap The peers of the response, or null if no tracker of the tier answered
+     */
+    private LinkedHashMap<String, Peer> announceTier(List<TrackerStatus> tier, String event,
+                                                     long dl, long ul, long left) {
+        List<TrackerStatus> candidates = new ArrayList<TrackerStatus>();
+        List<TrackerStatus> order;
+        synchronized (tier) {
+            order = new ArrayList<TrackerStatus>(tier);
+        }
+        long now = System.currentTimeMillis();
+        for (TrackerStatus ts : order) {
+            if (ts.isAvailable(now))
+                candidates.add(ts);
+        }
+        if (candidates.isEmpty())
+            candidates = order;
+        
+        for (TrackerStatus ts : candidates) {
+            long start = System.currentTimeMillis();
+            Map<String, Object> m = this.contactTracker(ts.getURL(), this.id, this.torrent, dl, ul, left, event);
+            LinkedHashMap<String, Peer> l = this.processResponse(m);
+            if (l != null) {
+                ts.success(System.currentTimeMillis() - start, l.size());
+                synchronized (tier) {
+                    tier.remove(ts);
+                    tier.add(0, ts);
+                }
+                return l;
+            }
+            ts.failure(m != null && m.containsKey("failure reason") ? 
+                       new String((byte[]) m.get("failure reason")) : "No response");
+            logger.info("Tracker failed: " + ts);
+        }
+        return null;
+    }
+
     /**
      * Contact the tracker according to the HTTP/HTTPS tracker protocol and using
      * the information in the TorrentFile.
@@ -383,11 +585,32 @@ public class PeerUpdater extends Thread {
      * @param event String
      * @return A Map containing the decoded tracker response
      */
-    public synchronized Map contactTracker(byte[] id,
-                                           TorrentFile t, long dl, long ul,
-                                           long left, String event) {
+    public Map<String, Object> contactTracker(byte[] id,
+                              TorrentFile t, long dl, long ul,
+                              long left, String event) {
+        return this.contactTracker(t.announceURL, id, t, dl, ul, left, event);
+    }
+
+    /**
+     * Contact the given tracker of the torrent, according to the UDP tracker 
+     * protocol for the udp:// URLs and the HTTP/HTTPS tracker protocol otherwise.
+     * @param url String
+     * @param id byte[]
+     * @param t TorrentFile
+     * @param dl long
+     * @param ul long
+     * @param left long
+     * @param event String
+     * @return A Map containing the decoded tracker response
+     */
+    public Map<String, Object> contactTracker(String url, byte[] id,
+                              TorrentFile t, long dl, long ul,
+                              long left, String event) {
+        if (UDPTrackerClient.isUDP(url)) {
+            return this.contactUDPTracker(url, id, t, dl, ul, left, event);
+        }
         try {
-            URL source = new URL(t.announceURL + "?info_hash=" +
+            URL source = new URL(url + (url.indexOf('?') == -1 ? "?" : "&") + "info_hash=" +
                                  t.info_hash_as_url + "&peer_id=" +
                                  Utils.byteArrayToURLString(id) + "&port="+
                                 this.listeningPort +
@@ -398,12 +621,14 @@ public class PeerUpdater extends Thread {
            // System.out.println("Contact Tracker. URL source = " + source);
             
             URLConnection uc = source.openConnection();
+            uc.setConnectTimeout(this.httpTimeout);
+            uc.setReadTimeout(this.httpTimeout);
             InputStream is = uc.getInputStream();
 
             BufferedInputStream bis = new BufferedInputStream(is);
 
             // Decode the tracker bencoded response
-            Map m = BDecoder.decode(bis);
+            Map<String, Object> m = BDecoder.decode(bis);
             //System.out.println("contactTracker"+m);
             bis.close();
             is.close();
@@ -422,6 +647,90 @@ public class PeerUpdater extends Thread {
         return null;
     }
 
+    /**
+     * Contact the tracker according to the UDP tracker protocol (BEP 15), used
+     * for the udp:// announce URLs. The response has the same keys as the
+     * decoded HTTP responses, with the peers in the compact format.
+     * @param url String
+     * @param id byte[]
+     * @param t TorrentFile
+     * @param dl long
+     * @param ul long
+     * @param left long
+     * @param event String
+     * @return A Map containing the tracker response
+     */
+    private Map<String, Object> contactUDPTracker(String url, byte[] id, TorrentFile t, long dl, long ul,
+                                  long left, String event) {
+        try {
+            UDPTrackerClient client = this.getUDPTrackerClient(url);
+            return client.announce(t.info_hash_as_binary, id, this.listeningPort,
+                                   dl, left, ul, UDPTrackerClient.getEvent(event), 100);
+        } catch (URISyntaxException use) {
+            this.fireUpdateFailed(2,
+                                  "Tracker URL is not valid... Check if your data is correct and try again");
+        } catch (UnknownHostException uhe) {
+            this.fireUpdateFailed(3, "Tracker not available... Retrying...");
+        } catch (IOException ioe) {
+            this.fireUpdateFailed(4, "Tracker unreachable... Retrying");
+        } catch (Exception e) {
+            this.fireUpdateFailed(5, "Internal error");
+        }
+        return null;
+    }
+
+    /**
+     * Returns the UDP tracker client for the announce URL of the torrent
+     * @param t TorrentFile
+     * @return UDPTrackerClient
+     * @throws URISyntaxException if the announce URL is not valid
+     */
+    public UDPTrackerClient getUDPTrackerClient(TorrentFile t) throws URISyntaxException {
+        return this.getUDPTrackerClient(t.announceURL);
+    }
+
+    /**
+     * Returns the UDP tracker client for the given udp:// tracker URL
+     * @param url String
+     * @return UDPTrackerClient
+     * @throws URISyntaxException if the URL is not valid
+     */
+    public synchronized UDPTrackerClient getUDPTrackerClient(String url) throws URISyntaxException {
+        UDPTrackerClient client = this.udpTrackers.get(url);
+        if (client == null) {
+            client = new UDPTrackerClient(url);
+            this.udpTrackers.put(url, client);
+        }
+        return client;
+    }
+
+    /**
+     * Returns the tiers of trackers with their health, each tier in the order 
+     * in which its trackers are contacted
+     * @return List of tiers
+     */
+    public List<List<TrackerStatus>> getTrackerTiers() {
+        List<List<TrackerStatus>> l = new ArrayList<List<TrackerStatus>>();
+        for (List<TrackerStatus> tier : this.tiers) {
+            synchronized (tier) {
+                l.add(new ArrayList<TrackerStatus>(tier));
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Sets the connect and read timeouts of the HTTP announces, in ms (15 s by default)
+     * @param timeout int
+     */
+    public void setHttpTimeout(int timeout) {
+        this.httpTimeout = timeout;
+    }
+
+    public int getHttpTimeout() {
+        return this.httpTimeout;
+    }
+
 
     /**
      * Contact the tracker according to the HTTP/HTTPS tracker protocol and using
@@ -433,6 +742,23 @@ public class PeerUpdater extends Thread {
     	
     	Map<String, Integer> mFileInfoPeers = null;
     	
+    	if(UDPTrackerClient.isUDP(t.announceURL)){
+    		try {
+    			Map<String, Object> m = this.getUDPTrackerClient(t).scrape(t.info_hash_as_binary);
+    			if(!m.containsKey("failure reason")){
+    				mFileInfoPeers = new HashMap<String, Integer>();
+    				for (Map.Entry<String, Object> e : m.entrySet()) {
+    					mFileInfoPeers.put(e.getKey(), ((Long) e.getValue()).intValue());
+    				}
+    			}
+    		} catch (URISyntaxException use) {
+    			this.fireUpdateFailed(2, "Tracker URL is not valid... Check if your data is correct and try again");
+    		} catch (IOException ioe) {
+    			this.fireUpdateFailed(4, "Tracker unreachable... Retrying");
+    		}
+    		return mFileInfoPeers;
+    	}
+    	
     	if(t.scrapeURL == null){
     		if(t.announceURL.indexOf("/announce") != -1){
     			t.scrapeURL = t.announceURL.replaceAll("/announce","/scrape");
@@ -500,24 +826,47 @@ public class PeerUpdater extends Thread {
     /**
      * Stops the update process. This methods sends one last message to
      * the tracker saying this client stops sharing the file and it also exits
-     * the run method
+     * the run method. It waits at most EVENT_TIMEOUT for the trackers.
      */
     public void end() {
     	logger.info("contactTracker STOPPED PeerUpdater");
         this.event = "&event=stopped";
-        this.end = true;
-        this.contactTracker(this.id, this.torrent, this.downloaded, this.uploaded, this.left, "&event=stopped");
+        List<TierAnnouncer> l;
+        synchronized (this) {
+        	this.end = true;
+        	l = this.announcers;
+        }
+        if (l != null) {
+        	for (TierAnnouncer a : l)
+        		a.wakeUp();
+        }
+        this.announce("&event=stopped", EVENT_TIMEOUT);
+        synchronized (this) {
+            for (UDPTrackerClient client : this.udpTrackers.values())
+                client.close();
+        }
     }
     
     /**
      * This method sends one message to the tracker saying 
-     * this client stops downloading the file and  sharing the file now.
+     * this client stops downloading the file and  sharing the file now. 
+     * Each tier announces the event on its own; if the tiers are not 
+     * announcing yet, it waits at most EVENT_TIMEOUT for the trackers.
      */
     public void completed() {
-    	if(!this.complete){
-    		this.event = "&event=completed";
-        	this.complete = true;
-            this.contactTracker(this.id, this.torrent, this.downloaded, this.uploaded, this.left, "&event=completed");
+    	List<TierAnnouncer> l;
+    	synchronized (this) {
+    		if (this.complete)
+    			return;
+    		this.complete = true;
+    		l = this.announcers;
+    	}
+    	this.event = "&event=completed";
+    	if (l != null) {
+    		for (TierAnnouncer a : l)
+    			a.announceEvent("&event=completed");
+    	} else {
+    		this.announce("&event=completed", EVENT_TIMEOUT);
     	}
     }
 
@@ -46,6 +46,7 @@
 package jbittorrent;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class representing a piece according to bittorrent definition.
@@ -69,6 +70,27 @@ public class Piece {
      * Map containing the piece data
      */
     private TreeMap<Integer, byte[]> pieceBlock;
+    /**
+     * Size of the blocks requested to the peers, blocks already received and
+     * blocks requested to a peer and not received yet. Several tasks can
+     * download different blocks of the piece at the same time.
+     */
+    private int blockSize;
+    private BitSet received;
+    private BitSet requested;
+    /**
+     * Number of blocks neither received nor requested, kept up to date by the 
+     * methods that change the two sets, so that it is not computed on every choice
+     */
+    private int nbUnrequested;
+    /**
+     * Counter of the manager where the unrequested blocks of the piece are added 
+     * while the piece is wanted and not complete, or null
+     */
+    private AtomicInteger unrequestedCounter = null;
+    private int nbDownloaders = 0;
+    private boolean verifying = false;
+    private int receivedBytes = 0;
     /**
      * SHA1 hash of the piece contained in the torrent file. At the end of the download
      * this value must correspond to the SHA1 hash of the pieceBlock map concatenated
@@ -91,6 +113,10 @@ public class Piece {
         this.index = index;
         this.length = length;
         this.pieceBlock = new TreeMap<Integer, byte[]>();
+        this.blockSize = (blockSize > 0) ? blockSize : PeerProtocol.BLOCK_SIZE;
+        this.received = new BitSet(this.getNbBlocks());
+        this.requested = new BitSet(this.getNbBlocks());
+        this.nbUnrequested = this.getNbBlocks();
         this.sha1 = sha1;
         if(m != null)
             this.filesAndoffset = m;
@@ -98,8 +124,13 @@ public class Piece {
             this.filesAndoffset = new TreeMap<Integer, Integer>();
     }
 
-    public void clearData(){
+    public synchronized void clearData(){
         this.pieceBlock.clear();
+        this.received.clear();
+        this.requested.clear();
+        this.addUnrequested(this.getNbBlocks() - this.nbUnrequested);
+        this.verifying = false;
+        this.receivedBytes = 0;
     }
 
     public void setFileAndOffset(int file, int offset){
@@ -132,7 +163,204 @@ public class Piece {
      * @param data Data to be set at the given offset
      */
     public synchronized void setBlock(int offset, byte[] data){
-        this.pieceBlock.put(offset, data);
+        byte[] old = this.pieceBlock.put(offset, data);
+        if(old != null)
+            this.receivedBytes -= old.length;
+        this.receivedBytes += data.length;
+        if(data.length > 0){
+            int from = offset / this.blockSize;
+            int to = (offset + data.length + this.blockSize - 1) / this.blockSize;
+            for(int i = from; i < Math.min(to, this.getNbBlocks()); i++){
+                if(!this.received.get(i) && !this.requested.get(i))
+                    this.addUnrequested(-1);
+            }
+            this.received.set(from, to);
+            this.requested.clear(from, to);
+        }
+    }
+
+    /**
+     * Returns the offset of the next block to request, the first block that
+     * is not received nor requested, and marks it as requested. In End Game mode,
+     * if all the blocks are requested, returns the first block not received
+     * that is not in the given pending requests.
+     * @param pending The offsets already requested by the caller
+     * @param endGame True if the blocks requested to other peers can be requested again
+     * @return int the offset of the block, or -1 if there is no block to request
+     */
+    public synchronized int nextBlock(Collection<Integer> pending, boolean endGame){
+        int nbBlocks = this.getNbBlocks();
+        for(int i = this.received.nextClearBit(0); this.nbUnrequested > 0 && i < nbBlocks; i = this.received.nextClearBit(i + 1)){
+            if(!this.requested.get(i)){
+                this.requested.set(i);
+                this.addUnrequested(-1);
+                return i * this.blockSize;
+            }
+        }
+        if(endGame){
+            for(int i = this.received.nextClearBit(0); i < nbBlocks; i = this.received.nextClearBit(i + 1)){
+                if(!pending.contains(Integer.valueOf(i * this.blockSize)))
+                    return i * this.blockSize;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Marks the block at the given offset as requested if it is not received nor
+     * requested. In End Game mode, a block requested to other peer is also returned.
+     * @param offset Offset of the block within the current piece
+     * @param endGame True if the blocks requested to other peers can be requested again
+     * @return boolean true if the block can be requested
+     */
+    public synchronized boolean claimBlock(int offset, boolean endGame){
+        int i = offset / this.blockSize;
+        if(i >= this.getNbBlocks() || this.received.get(i))
+            return false;
+        if(!this.requested.get(i)){
+            this.requested.set(i);
+            this.addUnrequested(-1);
+            return true;
+        }
+        return endGame;
+    }
+
+    /**
+     * The block requested at the given offset will not be received
+     * (the peer has choked or has been disconnected), so it can be requested
+     * to other peer
+     * @param offset Offset of the block within the current piece
+     */
+    public synchronized void releaseBlock(int offset){
+        int i = offset / this.blockSize;
+        if(this.requested.get(i)){
+            this.requested.clear(i);
+            this.addUnrequested(1);
+        }
+    }
+
+    /**
+     * Returns true if some block is not received nor requested
+     * @return boolean
+     */
+    public synchronized boolean hasUnrequestedBlocks(){
+        return this.nbUnrequested > 0;
+    }
+
+    private void addUnrequested(int n){
+        this.nbUnrequested += n;
+        if(this.unrequestedCounter != null)
+            this.unrequestedCounter.addAndGet(n);
+    }
+
+    /**
+     * Adds the blocks neither received nor requested to the counter, which is 
+     * kept up to date afterwards, or removes them from the current counter 
+     * if the given counter is null
+     * @param counter AtomicInteger
+     * @return boolean True if the blocks were added to a counter
+     */
+    public synchronized boolean setUnrequestedCounter(AtomicInteger counter){
+        boolean counted = this.unrequestedCounter != null;
+        if(counted)
+            this.unrequestedCounter.addAndGet(-this.nbUnrequested);
+        this.unrequestedCounter = counter;
+        if(counter != null)
+            counter.addAndGet(this.nbUnrequested);
+        return counted;
+    }
+
+    /**
+     * Returns true if all the blocks have been received
+     * @return boolean
+     */
+    public synchronized boolean isFull(){
+        return this.received.cardinality() == this.getNbBlocks();
+    }
+
+    /**
+     * Claims the verification of the piece. Only one of the tasks that download
+     * the piece obtains it, when all the blocks have been received.
+     * @return boolean True if the caller has to verify the piece
+     */
+    public synchronized boolean claimVerification(){
+        if(this.verifying || !this.isFull())
+            return false;
+        this.verifying = true;
+        return true;
+    }
+
+    /**
+     * Returns true if a task has claimed the verification of the piece
+     * @return boolean
+     */
+    public synchronized boolean isVerifying(){
+        return this.verifying;
+    }
+
+    /**
+     * A task starts downloading blocks of the piece
+     */
+    public synchronized void addDownloader(){
+        this.nbDownloaders++;
+    }
+
+    /**
+     * A task stops downloading blocks of the piece
+     */
+    public synchronized void removeDownloader(){
+        if(this.nbDownloaders > 0)
+            this.nbDownloaders--;
+    }
+
+    /**
+     * Returns the number of tasks that are downloading blocks of the piece
+     * @return int
+     */
+    public synchronized int getNbDownloaders(){
+        return this.nbDownloaders;
+    }
+
+    /**
+     * Returns true if the data of the block that begins at the given offset
+     * has already been received
+     * @param offset Offset of the block within the current piece
+     * @return boolean
+     */
+    public synchronized boolean hasBlock(int offset){
+        return this.received.get(offset / this.blockSize);
+    }
+
+    /**
+     * Returns the number of blocks of the piece
+     * @return int
+     */
+    public synchronized int getNbBlocks(){
+        return (this.length + this.blockSize - 1) / this.blockSize;
+    }
+
+    /**
+     * Returns the number of blocks of the piece not received yet
+     * @return int
+     */
+    public synchronized int getNbMissingBlocks(){
+        return this.getNbBlocks() - this.received.cardinality();
+    }
+
+    /**
+     * Returns the number of bytes of the piece kept in memory
+     * @return int
+     */
+    public synchronized int getReceivedBytes(){
+        return this.receivedBytes;
+    }
+
+    /**
+     * Returns the size of the blocks of the piece
+     * @return int
+     */
+    public synchronized int getBlockSize(){
+        return this.blockSize;
     }
 
     /**
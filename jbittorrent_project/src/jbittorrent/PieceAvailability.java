@@ -0,0 +1,269 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Keeps, for each piece, the number of connected peers that have it.
+ * The counters are updated incrementally when a peer sends its bitfield, 
+ * announces a new piece with a HAVE message or disconnects, so that the 
+ * availability of a piece can be read in constant time.
+ * <p>
+ * Peers that have all the pieces (seeds) are not added to the counters, 
+ * they are only counted once in the number of seeds, which is added 
+ * to the availability of every piece.
+ * <p>
+ * There is no lock for the whole set: the pieces of each peer are updated 
+ * under the lock of the peer, and each counter, with the notification of 
+ * the pickers, under the lock of its stripe, so that the last notification 
+ * of a piece always carries its last availability.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class PieceAvailability {
+
+	/**
+	 * Number of locks shared by the counters, a power of two
+	 */
+	private static final int STRIPES = 64;
+	
+	private int nbPieces;
+	
+	/**
+	 * Number of peers, which are not seeds, that have each piece.
+	 */
+	private AtomicIntegerArray availability;
+	
+	private Object[] locks;
+	
+	/**
+	 * Pieces that are known for every peer that is not a seed.
+	 */
+	private ConcurrentHashMap<String, PeerPieces> peerPieces;
+	
+	private Set<String> seeds;
+	
+	private List<PiecePicker> piecePickers;
+	
+	public PieceAvailability(int nbPieces){
+		
+		this.nbPieces = nbPieces;
+		this.availability = new AtomicIntegerArray(nbPieces);
+		this.locks = new Object[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			this.locks[i] = new Object();
+		}
+		this.peerPieces = new ConcurrentHashMap<String, PeerPieces>();
+		this.seeds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		this.piecePickers = new CopyOnWriteArrayList<PiecePicker>();
+	}
+	
+	/**
+	 * Adds a picker that will be informed of every change in the counters. 
+	 * The picker receives the current availability of all the pieces.
+	 * @param picker {@link PiecePicker}
+	 */
+	public void addPiecePicker(PiecePicker picker){
+		
+		this.piecePickers.add(picker);
+		for (int i = 0; i < this.nbPieces; i++) {
+			synchronized (this.locks[i & (STRIPES - 1)]) {
+				picker.availabilityChanged(i, this.availability.get(i));
+			}
+		}
+	}
+	
+	/**
+	 * Removes a picker from the list of pickers informed of the changes.
+	 * @param picker {@link PiecePicker}
+	 */
+	public void removePiecePicker(PiecePicker picker){
+		this.piecePickers.remove(picker);
+	}
+	
+	private void changeAvailability(int piece, int delta){
+		
+		synchronized (this.locks[piece & (STRIPES - 1)]) {
+			int availability = this.availability.addAndGet(piece, delta);
+			for (PiecePicker picker: this.piecePickers) {
+				picker.availabilityChanged(piece, availability);
+			}
+		}
+	}
+	
+	/**
+	 * Updates the counters with the complete bitfield of a peer. 
+	 * If the peer was already known its previous pieces are discounted first.
+	 * @param peerID String
+	 * @param has BitSet
+	 */
+	public void peerBitfield(String peerID, BitSet has){
+		
+		this.peerRemoved(peerID);
+		
+		int nbHas = has.cardinality();
+		if(nbHas >= this.nbPieces){
+			this.seeds.add(peerID);
+			return;
+		}
+		
+		PeerPieces pp = new PeerPieces((BitSet) has.clone(), nbHas);
+		synchronized (pp) {
+			this.peerPieces.put(peerID, pp);
+			for (int i = pp.has.nextSetBit(0); i >= 0 && i < this.nbPieces; i = pp.has.nextSetBit(i + 1)) {
+				this.changeAvailability(i, 1);
+			}
+		}
+	}
+	
+	/**
+	 * Updates the counters with a new piece announced by a peer (HAVE message).
+	 * When the peer gets all the pieces, it becomes a seed.
+	 * @param peerID String
+	 * @param piece int
+	 */
+	public void peerHave(String peerID, int piece){
+		
+		if(piece < 0 || piece >= this.nbPieces || this.seeds.contains(peerID)){
+			return;
+		}
+		
+		PeerPieces pp = this.peerPieces.get(peerID);
+		if(pp == null){
+			PeerPieces added = new PeerPieces(new BitSet(this.nbPieces), 0);
+			pp = this.peerPieces.putIfAbsent(peerID, added);
+			if(pp == null){
+				pp = added;
+			}
+		}
+		
+		synchronized (pp) {
+			if(pp.removed || pp.has.get(piece)){
+				return;
+			}
+			pp.has.set(piece);
+			pp.nbHas++;
+			this.changeAvailability(piece, 1);
+			
+			if(pp.nbHas >= this.nbPieces){
+				this.peerRemoved(peerID);
+				this.seeds.add(peerID);
+			}
+		}
+	}
+	
+	/**
+	 * Discounts the pieces of a peer that is no longer connected.
+	 * @param peerID String
+	 */
+	public void peerRemoved(String peerID){
+		
+		if(this.seeds.remove(peerID)){
+			return;
+		}
+		
+		PeerPieces pp = this.peerPieces.remove(peerID);
+		if(pp != null){
+			synchronized (pp) {
+				pp.removed = true;
+				for (int i = pp.has.nextSetBit(0); i >= 0; i = pp.has.nextSetBit(i + 1)) {
+					this.changeAvailability(i, -1);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of connected peers that have the piece with this index.
+	 * @param piece int Index of the piece
+	 * @return int
+	 */
+	public int getAvailability(int piece){
+		return this.availability.get(piece) + this.seeds.size();
+	}
+	
+	/**
+	 * Returns the number of connected peers that have all the pieces.
+	 * @return int
+	 */
+	public int getNbSeeds(){
+		return this.seeds.size();
+	}
+	
+	/**
+	 * Returns the number of connected peers whose pieces are counted.
+	 * @return int
+	 */
+	public int getNbPeers(){
+		return this.seeds.size() + this.peerPieces.size();
+	}
+	
+	/**
+	 * Pieces known for a peer and their number, updated under the lock of 
+	 * the object. The pieces of a peer that is removed are not counted any more.
+	 */
+	private static class PeerPieces {
+		
+		private BitSet has;
+		private int nbHas;
+		private boolean removed = false;
+		
+		private PeerPieces(BitSet has, int nbHas){
+			this.has = has;
+			this.nbHas = nbHas;
+		}
+	}
+	
+}
@@ -0,0 +1,333 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Set of pieces grouped in buckets according to their availability. 
+ * The piece of the lowest (or highest) bucket that a peer has is found 
+ * without sorting, and is chosen uniformly between the pieces of the 
+ * bucket that the peer has, so that pieces with the same availability 
+ * are distributed randomly between the peers.
+ * <p>
+ * A few pieces of the bucket are tried at random first, which finds a piece 
+ * in O(1) when the peer has a good part of the bucket. Otherwise a random rank 
+ * is chosen between the pieces of the bucket that the peer has: each bucket 
+ * also keeps a bitmap of its pieces, so a large bucket is counted 64 pieces at 
+ * a time, and a pick costs at most O(P/64) per non-empty bucket.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class PieceBuckets {
+	
+	private int[][] buckets;
+	private int[] bucketSize;
+	private long[][] bucketBits;
+	private final int nbWords;
+	
+	/**
+	 * Bucket of each piece, -1 if the piece is not in the set.
+	 */
+	private int[] bucketOf;
+	private int[] positionOf;
+	private int[] availability;
+	private int size = 0;
+	
+	/**
+	 * Number of random pieces of a bucket tried before counting the pieces of 
+	 * the bucket that the peer has
+	 */
+	private static final int PROBES = 4;
+	
+	private Random random = new Random();
+	
+	public PieceBuckets(int nbPieces){
+		
+		this.buckets = new int[4][];
+		this.bucketSize = new int[4];
+		this.bucketBits = new long[4][];
+		this.nbWords = (nbPieces + 63) >> 6;
+		this.bucketOf = new int[nbPieces];
+		this.positionOf = new int[nbPieces];
+		this.availability = new int[nbPieces];
+		for (int i = 0; i < nbPieces; i++) {
+			this.bucketOf[i] = -1;
+		}
+	}
+	
+	/**
+	 * Returns true if the piece is in the set.
+	 * @param piece int
+	 * @return boolean
+	 */
+	public boolean contains(int piece){
+		return this.bucketOf[piece] != -1;
+	}
+	
+	/**
+	 * Returns the number of pieces in the set.
+	 * @return int
+	 */
+	public int size(){
+		return this.size;
+	}
+	
+	/**
+	 * Adds the piece to the bucket of its availability.
+	 * @param piece int
+	 */
+	public void add(int piece){
+		
+		if(this.bucketOf[piece] != -1){
+			return;
+		}
+		
+		int b = this.availability[piece];
+		if(b >= this.buckets.length){
+			int l = Math.max(b + 1, this.buckets.length * 2);
+			int[][] nb = new int[l][];
+			int[] ns = new int[l];
+			long[][] nbits = new long[l][];
+			System.arraycopy(this.buckets, 0, nb, 0, this.buckets.length);
+			System.arraycopy(this.bucketSize, 0, ns, 0, this.bucketSize.length);
+			System.arraycopy(this.bucketBits, 0, nbits, 0, this.bucketBits.length);
+			this.buckets = nb;
+			this.bucketSize = ns;
+			this.bucketBits = nbits;
+		}
+		
+		if(this.buckets[b] == null){
+			this.buckets[b] = new int[16];
+			this.bucketBits[b] = new long[this.nbWords];
+		}else if(this.bucketSize[b] == this.buckets[b].length){
+			int[] nb = new int[this.buckets[b].length * 2];
+			System.arraycopy(this.buckets[b], 0, nb, 0, this.buckets[b].length);
+			this.buckets[b] = nb;
+		}
+		
+		int pos = this.bucketSize[b]++;
+		this.buckets[b][pos] = piece;
+		this.positionOf[piece] = pos;
+		this.bucketOf[piece] = b;
+		this.bucketBits[b][piece >> 6] |= 1L << piece;
+		this.size++;
+	}
+	
+	/**
+	 * Removes the piece from the set.
+	 * @param piece int
+	 */
+	public void remove(int piece){
+		
+		int b = this.bucketOf[piece];
+		if(b == -1){
+			return;
+		}
+		
+		int[] bucket = this.buckets[b];
+		int pos = this.positionOf[piece];
+		int last = --this.bucketSize[b];
+		
+		bucket[pos] = bucket[last];
+		this.positionOf[bucket[pos]] = pos;
+		this.bucketOf[piece] = -1;
+		this.bucketBits[b][piece >> 6] &= ~(1L << piece);
+		this.size--;
+	}
+	
+	/**
+	 * Changes the availability of the piece, moving it to its new bucket 
+	 * if the piece is in the set.
+	 * @param piece int
+	 * @param availability int
+	 */
+	public void setAvailability(int piece, int availability){
+		
+		if(availability < 0){
+			availability = 0;
+		}
+		if(this.availability[piece] == availability){
+			return;
+		}
+		
+		boolean in = this.contains(piece);
+		this.remove(piece);
+		this.availability[piece] = availability;
+		if(in){
+			this.add(piece);
+		}
+	}
+	
+	/**
+	 * Returns a random piece that the peer has, of the first bucket, 
+	 * beginning with the bucket of less available pieces, where the 
+	 * peer has some piece.
+	 * @param peerHas BitSet
+	 * @return int the index of the piece or -1
+	 */
+	public int firstRarest(BitSet peerHas){
+		return this.size == 0 ? -1 : this.firstRarest(peerHas, peerHas.toLongArray());
+	}
+	
+	/**
+	 * Same as firstRarest(BitSet), with the words of the bitfield of the peer 
+	 * already computed, so that they are shared by several sets.
+	 * @param peerHas BitSet
+	 * @param words long[] peerHas.toLongArray()
+	 * @return int the index of the piece or -1
+	 */
+	public int firstRarest(BitSet peerHas, long[] words){
+		
+		for (int b = 0; b < this.buckets.length; b++) {
+			int piece = this.first(b, peerHas, words);
+			if(piece != -1){
+				return piece;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns a random piece that the peer has, of the first bucket, 
+	 * beginning with the bucket of more available pieces, where the 
+	 * peer has some piece.
+	 * @param peerHas BitSet
+	 * @return int the index of the piece or -1
+	 */
+	public int firstPopular(BitSet peerHas){
+		return this.size == 0 ? -1 : this.firstPopular(peerHas, peerHas.toLongArray());
+	}
+	
+	/**
+	 * Same as firstPopular(BitSet), with the words of the bitfield of the peer 
+	 * already computed.
+	 * @param peerHas BitSet
+	 * @param words long[] peerHas.toLongArray()
+	 * @return int the index of the piece or -1
+	 */
+	public int firstPopular(BitSet peerHas, long[] words){
+		
+		for (int b = this.buckets.length - 1; b >= 0; b--) {
+			int piece = this.first(b, peerHas, words);
+			if(piece != -1){
+				return piece;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns a piece of the bucket that the peer has, chosen uniformly 
+	 * between them: PROBES random pieces of the bucket are tried, then a 
+	 * random rank is chosen between the pieces the peer has, counted one 
+	 * by one in a small bucket and word by word in a large bucket.
+	 * @param b int the bucket
+	 * @param peerHas BitSet
+	 * @param words long[] the words of peerHas
+	 * @return int the index of the piece or -1
+	 */
+	private int first(int b, BitSet peerHas, long[] words){
+		
+		int size = this.bucketSize[b];
+		if(size == 0){
+			return -1;
+		}
+		int[] bucket = this.buckets[b];
+		for (int k = 0; k < PROBES; k++) {
+			int piece = bucket[this.random.nextInt(size)];
+			if(peerHas.get(piece)){
+				return piece;
+			}
+		}
+		
+		if(size <= this.nbWords){
+			int count = 0;
+			for (int i = 0; i < size; i++) {
+				if(peerHas.get(bucket[i])){
+					count++;
+				}
+			}
+			if(count == 0){
+				return -1;
+			}
+			int rank = this.random.nextInt(count);
+			for (int i = 0; i < size; i++) {
+				if(peerHas.get(bucket[i]) && rank-- == 0){
+					return bucket[i];
+				}
+			}
+			return -1;
+		}
+		
+		long[] bits = this.bucketBits[b];
+		int n = Math.min(words.length, this.nbWords);
+		int count = 0;
+		for (int w = 0; w < n; w++) {
+			count += Long.bitCount(bits[w] & words[w]);
+		}
+		if(count == 0){
+			return -1;
+		}
+		int rank = this.random.nextInt(count);
+		for (int w = 0; w < n; w++) {
+			long common = bits[w] & words[w];
+			int c = Long.bitCount(common);
+			if(rank < c){
+				for (; rank > 0; rank--) {
+					common &= common - 1;
+				}
+				return (w << 6) + Long.numberOfTrailingZeros(common);
+			}
+			rank -= c;
+		}
+		return -1;
+	}
+	
+}
@@ -0,0 +1,102 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.util.BitSet;
+
+/**
+ * Strategy used by the {@link DownloadManager} to choose the next piece 
+ * to request to a peer. The manager informs the picker of every change 
+ * in the availability and in the state of the pieces, so that the picker 
+ * can keep its own structures up to date and choose a piece without 
+ * scanning all of them.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public interface PiecePicker {
+	
+	/**
+	 * Initializes the picker for a torrent with the given number of pieces. 
+	 * All the pieces start with availability 0, not complete, not requested 
+	 * and with priority {@link DownloadManager#PRIORITY_NORMAL}.
+	 * @param nbPieces int
+	 */
+	public void init(int nbPieces);
+	
+	/**
+	 * The number of peers, without counting the seeds, that have the piece has changed.
+	 * @param piece int Index of the piece
+	 * @param availability int
+	 */
+	public void availabilityChanged(int piece, int availability);
+	
+	/**
+	 * The state of the piece has changed.
+	 * @param piece int Index of the piece
+	 * @param complete boolean True if the piece is downloaded and verified
+	 * @param active boolean True if the piece is being requested to a peer
+	 */
+	public void pieceStateChanged(int piece, boolean complete, boolean active);
+	
+	/**
+	 * The priority of the piece, the highest priority of the files that 
+	 * contain part of the piece, has changed. The pieces with priority 
+	 * {@link DownloadManager#PRIORITY_SKIP} must not be chosen.
+	 * @param piece int Index of the piece
+	 * @param priority int
+	 */
+	public void piecePriorityChanged(int piece, int priority);
+	
+	/**
+	 * Returns the index of the piece to request between the pieces of the peer.
+	 * @param peerHas BitSet the pieces of the peer
+	 * @return int the index of the piece, or -1 if no piece can be requested.
+	 */
+	public int pickPiece(BitSet peerHas);
+
+}
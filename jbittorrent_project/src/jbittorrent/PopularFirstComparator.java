@@ -59,12 +59,23 @@ import java.util.LinkedHashMap;
 public class PopularFirstComparator implements Comparator<Integer> {
 
 	private LinkedHashMap<String, BitSet> peerAvailabilies;
+	private PieceAvailability availability = null;
 	
 	public PopularFirstComparator(LinkedHashMap<String, BitSet> peerAvailabilies){
 		
 		this.peerAvailabilies = peerAvailabilies;
 	}
 	
+	/**
+	 * Creates a comparator that reads the number of peers of each piece 
+	 * from the availability counters, instead of iterating the bitfields of all peers.
+	 * @param availability {@link PieceAvailability}
+	 */
+	public PopularFirstComparator(PieceAvailability availability){
+		
+		this.availability = availability;
+	}
+	
 	/**
 	 * Gets the number of peers that have the piece with this index.
 	 * @param indexPiece int Index of the piece
@@ -72,6 +83,10 @@ public class PopularFirstComparator implements Comparator<Integer> {
 	 */
 	public int getNumFriendPeers(int indexPiece){
 		
+		if(this.availability != null){
+			return this.availability.getAvailability(indexPiece);
+		}
+		
 		int n_friendPeers = 0;
 		
 		for(BitSet b:this.peerAvailabilies.values()){
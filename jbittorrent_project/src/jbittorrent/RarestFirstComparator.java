@@ -60,12 +60,23 @@ import java.util.LinkedHashMap;
 public class RarestFirstComparator implements Comparator<Integer> {
 
 	private LinkedHashMap<String, BitSet> peerAvailabilies;
+	private PieceAvailability availability = null;
 	
 	public RarestFirstComparator(LinkedHashMap<String, BitSet> peerAvailabilies){
 		
 		this.peerAvailabilies = peerAvailabilies;
 	}
 	
+	/**
+	 * Creates a comparator that reads the number of peers of each piece 
+	 * from the availability counters, instead of iterating the bitfields of all peers.
+	 * @param availability {@link PieceAvailability}
+	 */
+	public RarestFirstComparator(PieceAvailability availability){
+		
+		this.availability = availability;
+	}
+	
 	/**
 	 * Gets the number of peers that have the piece with this index.
 	 * @param indexPiece int Index of the piece
@@ -73,6 +84,10 @@ public class RarestFirstComparator implements Comparator<Integer> {
 	 */
 	public int getNumFriendPeers(int indexPiece){
 		
+		if(this.availability != null){
+			return this.availability.getAvailability(indexPiece);
+		}
+		
 		int n_friendPeers = 0;
 		
 		for(BitSet b:this.peerAvailabilies.values()){
@@ -0,0 +1,149 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Rarest First Strategy: chooses, between the pieces that are not 
+ * complete and are not being requested, the piece that the lower number 
+ * of peers have. Between pieces with the same availability the piece 
+ * is chosen randomly.
+ * <p>
+ * The pieces are grouped by priority. On every choice, one of the priorities 
+ * for which the peer has pieces is chosen randomly with a weight of 1, 2 or 4 
+ * (low, normal or high), so the bandwidth is split between the priorities 
+ * in this proportion. The skipped pieces are never chosen.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class RarestFirstPiecePicker implements PiecePicker {
+	
+	/**
+	 * Candidates of each priority, indexed by the priority.
+	 */
+	private PieceBuckets[] levels;
+	private int[] priority;
+	private BitSet excluded;
+	private int[] picks;
+	private Random random = new Random();
+
+	public synchronized void init(int nbPieces) {
+		this.levels = new PieceBuckets[DownloadManager.PRIORITY_HIGH + 1];
+		for (int p = DownloadManager.PRIORITY_LOW; p <= DownloadManager.PRIORITY_HIGH; p++) {
+			this.levels[p] = new PieceBuckets(nbPieces);
+		}
+		this.priority = new int[nbPieces];
+		this.excluded = new BitSet(nbPieces);
+		this.picks = new int[this.levels.length];
+		for (int i = 0; i < nbPieces; i++) {
+			this.priority[i] = DownloadManager.PRIORITY_NORMAL;
+			this.levels[DownloadManager.PRIORITY_NORMAL].add(i);
+		}
+	}
+
+	public synchronized void availabilityChanged(int piece, int availability) {
+		for (int p = DownloadManager.PRIORITY_LOW; p < this.levels.length; p++) {
+			this.levels[p].setAvailability(piece, availability);
+		}
+	}
+
+	public synchronized void pieceStateChanged(int piece, boolean complete, boolean active) {
+		this.excluded.set(piece, complete || active);
+		this.update(piece);
+	}
+	
+	public synchronized void piecePriorityChanged(int piece, int priority) {
+		if(this.priority[piece] != DownloadManager.PRIORITY_SKIP){
+			this.levels[this.priority[piece]].remove(piece);
+		}
+		this.priority[piece] = priority;
+		this.update(piece);
+	}
+	
+	private void update(int piece) {
+		
+		int p = this.priority[piece];
+		if(p == DownloadManager.PRIORITY_SKIP){
+			return;
+		}
+		if(!this.excluded.get(piece)){
+			this.levels[p].add(piece);
+		}else{
+			this.levels[p].remove(piece);
+		}
+	}
+
+	public synchronized int pickPiece(BitSet peerHas) {
+		
+		int total = 0;
+		long[] words = peerHas.toLongArray();
+		for (int p = DownloadManager.PRIORITY_LOW; p < this.levels.length; p++) {
+			this.picks[p] = this.levels[p].size() == 0 ? -1 : this.levels[p].firstRarest(peerHas, words);
+			if(this.picks[p] != -1){
+				total += 1 << (p - DownloadManager.PRIORITY_LOW);
+			}
+		}
+		if(total == 0){
+			return -1;
+		}
+		
+		int r = this.random.nextInt(total);
+		for (int p = this.levels.length - 1; p >= DownloadManager.PRIORITY_LOW; p--) {
+			if(this.picks[p] != -1){
+				r -= 1 << (p - DownloadManager.PRIORITY_LOW);
+				if(r < 0){
+					return this.picks[p];
+				}
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,148 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures a transfer rate over a sliding window of time. The window is divided 
+ * in buckets of one second, and each bucket keeps the number of bytes transferred 
+ * during its second. The buckets older than the window are not taken into account, 
+ * so the rate reflects the current throughput and not the accumulated bytes.
+ * <p>
+ * The meter is updated without locks, so it can be called for every block 
+ * received or sent without blocking the threads of the other peers.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ */
+public class RateMeter {
+	
+	/**
+	 * Default size of the window, in seconds
+	 */
+	public static final int DEFAULT_WINDOW = 20;
+	
+	private static final long BUCKET_LENGTH = 1000;
+	
+	private final int window;
+	private final AtomicLongArray bytes;
+	private final AtomicLongArray stamps;
+	private final AtomicLong total = new AtomicLong();
+	private volatile long start;
+	
+	public RateMeter(){
+		this(DEFAULT_WINDOW);
+	}
+	
+	/**
+	 * Creates a rate meter
+	 * @param window int the size of the window, in seconds
+	 */
+	public RateMeter(int window){
+		this.window = window;
+		this.bytes = new AtomicLongArray(window);
+		this.stamps = new AtomicLongArray(window);
+		this.start = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Adds the given number of bytes to the bucket of the current second
+	 * @param n int
+	 */
+	public void add(int n){
+		long second = System.currentTimeMillis() / BUCKET_LENGTH;
+		int i = (int) (second % this.window);
+		long stamp = this.stamps.get(i);
+		if(stamp != second && this.stamps.compareAndSet(i, stamp, second)){
+			this.bytes.set(i, 0);
+		}
+		this.bytes.addAndGet(i, n);
+		this.total.addAndGet(n);
+	}
+	
+	/**
+	 * Returns the rate, in bytes per second, over the window. If the meter 
+	 * is younger than the window, the rate is computed over its age.
+	 * @return float
+	 */
+	public float getRate(){
+		long now = System.currentTimeMillis();
+		long second = now / BUCKET_LENGTH;
+		long sum = 0;
+		for(int i = 0; i < this.window; i++){
+			if(second - this.stamps.get(i) < this.window){
+				sum += this.bytes.get(i);
+			}
+		}
+		long elapsed = Math.min(this.window * BUCKET_LENGTH, Math.max(BUCKET_LENGTH, now - this.start));
+		return ((float) sum) * 1000 / elapsed;
+	}
+	
+	/**
+	 * Returns the total number of bytes added since the creation or the last reset
+	 * @return long
+	 */
+	public long getTotal(){
+		return this.total.get();
+	}
+	
+	/**
+	 * Empties the window
+	 */
+	public void reset(){
+		for(int i = 0; i < this.window; i++){
+			this.bytes.set(i, 0);
+		}
+		this.total.set(0);
+		this.start = System.currentTimeMillis();
+	}
+	
+	public int getWindow(){
+		return this.window;
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * {@link Choker} that, while downloading, allocates the upload slots to the 
+ * peers that give the most download per unit of upload, as BitTyrant does.
+ * For each peer it keeps two estimates:
+ * <ul>
+ * <li>the download rate received from the peer when it unchokes this client. 
+ * It is the measured rate while the peer unchokes this client, or, when it 
+ * does not, the rate at which the peer announces new pieces divided between 
+ * the peers it probably uploads to.</li>
+ * <li>the upload rate needed to be reciprocated. It starts as an equal share 
+ * of the upload capacity, it is decreased when the peer keeps unchoking this 
+ * client during several rechokes and it is increased when the peer chokes 
+ * this client although this client unchokes it.</li>
+ * </ul>
+ * The peers are sorted by the ratio between both estimates and unchoked 
+ * in that order until the sum of the needed upload rates reaches the upload 
+ * capacity. While seeding, the peers are chosen as in the {@link CapacityChoker}.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class ReciprocationChoker implements Choker {
+	
+	/**
+	 * Decrease of the needed upload rate when the peer reciprocates
+	 */
+	private static final float GAMMA = 0.1f;
+	
+	/**
+	 * Increase of the needed upload rate when the peer does not reciprocate
+	 */
+	private static final float DELTA = 0.2f;
+	
+	/**
+	 * Number of rechokes the peer must reciprocate before decreasing the needed upload rate
+	 */
+	private static final int RECIPROCATION_ROUNDS = 3;
+	
+	/**
+	 * Number of peers that a peer is supposed to upload to, used to estimate 
+	 * the download rate of the peers that choke this client
+	 */
+	private static final int PEER_ACTIVE_SET = 4;
+	
+	private final CapacityChoker capacity;
+	private final int pieceLength;
+	private HashMap<String, Estimate> estimates = new HashMap<String, Estimate>();
+	
+	/**
+	 * Creates a choker for a torrent
+	 * @param pieceLength int the length of the pieces of the torrent
+	 */
+	public ReciprocationChoker(int pieceLength){
+		this(pieceLength, new CapacityChoker());
+	}
+	
+	/**
+	 * Creates a choker for a torrent
+	 * @param pieceLength int the length of the pieces of the torrent
+	 * @param capacity {@link CapacityChoker} used to measure the upload capacity, 
+	 * to unchoke optimistically and to choose the peers while seeding
+	 */
+	public ReciprocationChoker(int pieceLength, CapacityChoker capacity){
+		this.pieceLength = pieceLength;
+		this.capacity = capacity;
+	}
+	
+	public synchronized void sort(List<Peer> peers, boolean seeding) {
+		
+		if(seeding){
+			this.capacity.sort(peers, seeding);
+			return;
+		}
+		
+		long now = System.currentTimeMillis();
+		float defaultUpload = this.getDefaultUpload();
+		HashMap<String, Estimate> updated = new HashMap<String, Estimate>();
+		
+		for(Peer p: peers){
+			Estimate e = this.estimates.get(p.toString());
+			if(e == null){
+				e = new Estimate();
+				e.upload = defaultUpload;
+				e.pieces = p.getHasPiece().cardinality();
+				e.time = now;
+			}
+			
+			int pieces = p.getHasPiece().cardinality();
+			if(!p.isChoking()){
+				e.download = p.getDLRate(false);
+				if(++e.rounds >= RECIPROCATION_ROUNDS){
+					e.upload = e.upload * (1 - GAMMA);
+					e.rounds = 0;
+				}
+			}else{
+				if(now > e.time){
+					float announced = ((float) (pieces - e.pieces)) * this.pieceLength * 1000 / (now - e.time);
+					e.download = Math.max(0, announced) / PEER_ACTIVE_SET;
+				}
+				if(!p.isChoked()){
+					e.upload = e.upload * (1 + DELTA);
+				}
+				e.rounds = 0;
+			}
+			e.pieces = pieces;
+			e.time = now;
+			updated.put(p.toString(), e);
+		}
+		this.estimates = updated;
+		
+		Collections.sort(peers, new Comparator<Peer>() {
+			public int compare(Peer a, Peer b) {
+				float ra = ReciprocationChoker.this.getRatio(a);
+				float rb = ReciprocationChoker.this.getRatio(b);
+				if(ra > rb)
+					return -1;
+				else if(ra < rb)
+					return 1;
+				return 0;
+			}
+		});
+	}
+	
+	public synchronized int getUploadSlots(List<Peer> peers, boolean seeding) {
+		
+		int slots = this.capacity.getUploadSlots(peers, seeding);
+		float budget = this.capacity.getUploadCapacity();
+		if(seeding || budget == 0){
+			return slots;
+		}
+		
+		int n = 0;
+		float used = 0;
+		for(Peer p: peers){
+			if(!p.isInterested()){
+				continue;
+			}
+			Estimate e = this.estimates.get(p.toString());
+			float upload = (e == null) ? 0 : e.upload;
+			if(n > 0 && used + upload > budget){
+				break;
+			}
+			used += upload;
+			n++;
+		}
+		return Math.max(1, n);
+	}
+	
+	/**
+	 * Returns the ratio between the estimated download rate received from 
+	 * the peer and the estimated upload rate needed to be reciprocated.
+	 * @param p {@link Peer}
+	 * @return float
+	 */
+	public synchronized float getRatio(Peer p){
+		Estimate e = this.estimates.get(p.toString());
+		if(e == null || e.upload <= 0){
+			return 0;
+		}
+		return e.download / e.upload;
+	}
+	
+	/**
+	 * Returns the estimated upload rate, in bytes per second, needed to be 
+	 * reciprocated by the peer, or 0 if the peer is not known.
+	 * @param p {@link Peer}
+	 * @return float
+	 */
+	public synchronized float getNeededUpload(Peer p){
+		Estimate e = this.estimates.get(p.toString());
+		return (e == null) ? 0 : e.upload;
+	}
+	
+	private float getDefaultUpload(){
+		float c = this.capacity.getUploadCapacity();
+		if(c == 0){
+			return 1;
+		}
+		return c / CapacityChoker.slotsForCapacity(c / 1024);
+	}
+	
+	public Peer chooseOptimistic(List<Peer> candidates) {
+		return this.capacity.chooseOptimistic(candidates);
+	}
+	
+	public float getUploadCapacity() {
+		return this.capacity.getUploadCapacity();
+	}
+	
+	public long getRechokeInterval() {
+		return this.capacity.getRechokeInterval();
+	}
+	
+	public long getOptimisticInterval() {
+		return this.capacity.getOptimisticInterval();
+	}
+	
+	private static class Estimate {
+		float download = 0;
+		float upload = 0;
+		int rounds = 0;
+		int pieces = 0;
+		long time = 0;
+	}
+
+}
@@ -0,0 +1,239 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * {@link Choker} used while seeding that gives the upload slots in turns to 
+ * all the interested peers, instead of to the peers with the highest rates. 
+ * A peer keeps its slot until it has received a quota of bytes or has been 
+ * unchoked during the maximum turn time, and then it does not get a slot 
+ * again until all the other interested peers have had their turn.
+ * <p>
+ * Between the peers waiting for their turn, the choker prefers the peers 
+ * that lack more pieces not sent yet to any peer, and then the peers with 
+ * the fewest pieces, so that each byte uploaded adds as many distinct pieces 
+ * to the swarm as possible.
+ * <p>
+ * While downloading, the peers are chosen as in the {@link CapacityChoker}.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class RoundRobinSeedingChoker implements Choker {
+	
+	private final DownloadManager dm;
+	private final CapacityChoker capacity;
+	private final int nbPieces;
+	private long quota;
+	private long maxTurnTime = 60000;
+	private HashMap<String, Turn> turns = new HashMap<String, Turn>();
+	
+	/**
+	 * Creates a choker for the torrent of the manager, with a quota of 
+	 * 20 pieces per turn
+	 * @param dm {@link DownloadManager}
+	 */
+	public RoundRobinSeedingChoker(DownloadManager dm){
+		this(dm, new CapacityChoker());
+	}
+	
+	/**
+	 * Creates a choker for the torrent of the manager, with a quota of 
+	 * 20 pieces per turn
+	 * @param dm {@link DownloadManager}
+	 * @param capacity {@link CapacityChoker} used to compute the number of slots, 
+	 * to unchoke optimistically and to choose the peers while downloading
+	 */
+	public RoundRobinSeedingChoker(DownloadManager dm, CapacityChoker capacity){
+		this.dm = dm;
+		this.capacity = capacity;
+		this.quota = 20L * dm.getTorrentFile().pieceLength;
+		this.nbPieces = dm.getTorrentFile().piece_hash_values_as_binary.size();
+	}
+	
+	public synchronized void sort(List<Peer> peers, boolean seeding) {
+		
+		if(!seeding){
+			this.capacity.sort(peers, seeding);
+			return;
+		}
+		
+		long now = System.currentTimeMillis();
+		HashMap<String, Turn> updated = new HashMap<String, Turn>();
+		boolean waiting = false;
+		
+		for(Peer p: peers){
+			Turn t = this.turns.get(p.toString());
+			if(t == null){
+				t = new Turn();
+			}
+			if(p.isInterested() && !p.isChoked()){
+				if(!t.active){
+					t.active = true;
+					t.start = now;
+					t.startUploaded = p.getUL();
+				}else if(p.getUL() - t.startUploaded >= this.quota || now - t.start >= this.maxTurnTime){
+					t.active = false;
+					t.served = true;
+				}
+			}else{
+				if(t.active){
+					t.served = true;
+				}
+				t.active = false;
+			}
+			if(p.isInterested() && !t.active && !t.served){
+				waiting = true;
+			}
+			updated.put(p.toString(), t);
+		}
+		
+		/*
+		 * All the interested peers have had their turn: a new round starts
+		 */
+		if(!waiting){
+			for(Turn t: updated.values()){
+				t.served = false;
+			}
+		}
+		this.turns = updated;
+		
+		final BitSet sent = this.dm.getSentPieces();
+		final HashMap<String, Integer> novel = new HashMap<String, Integer>();
+		for(Peer p: peers){
+			BitSet lacks = (BitSet) sent.clone();
+			lacks.flip(0, this.nbPieces);
+			lacks.andNot(p.getHasPiece());
+			novel.put(p.toString(), lacks.cardinality());
+		}
+		
+		Collections.sort(peers, new Comparator<Peer>() {
+			public int compare(Peer a, Peer b) {
+				int ra = RoundRobinSeedingChoker.this.getRank(a);
+				int rb = RoundRobinSeedingChoker.this.getRank(b);
+				if(ra != rb)
+					return ra - rb;
+				Turn ta = RoundRobinSeedingChoker.this.turns.get(a.toString());
+				Turn tb = RoundRobinSeedingChoker.this.turns.get(b.toString());
+				if(ta.active && tb.active)
+					return (ta.start < tb.start) ? -1 : ((ta.start > tb.start) ? 1 : 0);
+				int na = novel.get(a.toString());
+				int nb = novel.get(b.toString());
+				if(na != nb)
+					return nb - na;
+				return a.getHasPiece().cardinality() - b.getHasPiece().cardinality();
+			}
+		});
+	}
+	
+	/**
+	 * Returns 0 for the interested peers in their turn, 1 for the interested 
+	 * peers waiting for their turn, 2 for the interested peers already served 
+	 * in this round and 3 for the peers not interested.
+	 */
+	private int getRank(Peer p){
+		Turn t = this.turns.get(p.toString());
+		if(!p.isInterested()){
+			return 3;
+		}else if(t.active){
+			return 0;
+		}else if(!t.served){
+			return 1;
+		}
+		return 2;
+	}
+	
+	public int getUploadSlots(List<Peer> peers, boolean seeding) {
+		return this.capacity.getUploadSlots(peers, seeding);
+	}
+	
+	public Peer chooseOptimistic(List<Peer> candidates) {
+		return this.capacity.chooseOptimistic(candidates);
+	}
+	
+	public float getUploadCapacity() {
+		return this.capacity.getUploadCapacity();
+	}
+	
+	public long getRechokeInterval() {
+		return this.capacity.getRechokeInterval();
+	}
+	
+	public long getOptimisticInterval() {
+		return this.capacity.getOptimisticInterval();
+	}
+	
+	/**
+	 * Sets the number of bytes a peer receives in its turn
+	 * @param quota long
+	 */
+	public synchronized void setQuota(long quota){
+		this.quota = quota;
+	}
+	
+	/**
+	 * Sets the maximum time, in milliseconds, of the turn of a peer
+	 * @param time long
+	 */
+	public synchronized void setMaxTurnTime(long time){
+		this.maxTurnTime = time;
+	}
+	
+	private static class Turn {
+		boolean active = false;
+		boolean served = false;
+		long start = 0;
+		long startUploaded = 0;
+	}
+
+}
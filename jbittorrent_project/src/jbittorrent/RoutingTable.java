@@ -0,0 +1,247 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Routing table of the DHT (BEP 5). The contacts are kept in 160 buckets of 
+ * at most K contacts, the bucket of a contact being the length of the prefix 
+ * its id shares with the id of this node, so the table knows many nodes close 
+ * to itself and a few far away.
+ * <p>
+ * Within a bucket, the contacts are ordered from the least to the most 
+ * recently seen. A new contact only enters a full bucket in place of a 
+ * contact that failed to answer several queries or has not been seen for 
+ * 15 minutes, as the nodes that have been up longer are more likely to stay up.
+ *
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ */
+public class RoutingTable {
+	
+	public static final int K = 8;
+	
+	/**
+	 * Number of consecutive unanswered queries after which a contact is bad
+	 */
+	public static final int MAX_FAILURES = 2;
+	
+	/**
+	 * Time after which a contact that has not been seen is questionable, in ms
+	 */
+	public static final long QUESTIONABLE_TIME = 15 * 60000;
+	
+	private byte[] id;
+	private List<LinkedList<DHTContact>> buckets;
+	
+	public RoutingTable(byte[] id) {
+		this.id = id;
+		this.buckets = new ArrayList<LinkedList<DHTContact>>(161);
+		for (int i = 0; i < 161; i++) {
+			this.buckets.add(new LinkedList<DHTContact>());
+		}
+	}
+	
+	public byte[] getID() {
+		return this.id;
+	}
+	
+	/**
+	 * Records a message received from a node, adding it to the table if its 
+	 * bucket has room for it
+	 * @param contact DHTContact
+	 * @return The contact of the table, or null if it was not added
+	 */
+	public synchronized DHTContact seen(DHTContact contact) {
+		if(Utils.bytesCompare(contact.getID(), this.id)){
+			return null;
+		}
+		LinkedList<DHTContact> bucket = this.buckets.get(prefixLength(this.id, contact.getID()));
+		for (DHTContact c : bucket) {
+			if(Utils.bytesCompare(c.getID(), contact.getID())){
+				if(!c.getKey().equals(contact.getKey())){
+					// The same id from another address is ignored
+					return null;
+				}
+				bucket.remove(c);
+				bucket.addLast(c);
+				c.seen();
+				return c;
+			}
+		}
+		if(bucket.size() >= K){
+			long now = System.currentTimeMillis();
+			DHTContact replaced = null;
+			for (DHTContact c : bucket) {
+				if(c.getNbFailures() >= MAX_FAILURES || now - c.getLastSeen() > QUESTIONABLE_TIME){
+					replaced = c;
+					break;
+				}
+			}
+			if(replaced == null){
+				return null;
+			}
+			bucket.remove(replaced);
+		}
+		contact.seen();
+		bucket.addLast(contact);
+		return contact;
+	}
+	
+	/**
+	 * Records a query to the node that was not answered, removing it from 
+	 * the table once it is bad and there are other contacts in its bucket
+	 * @param nodeID byte[]
+	 */
+	public synchronized void failed(byte[] nodeID) {
+		if(nodeID == null){
+			return;
+		}
+		LinkedList<DHTContact> bucket = this.buckets.get(prefixLength(this.id, nodeID));
+		for (DHTContact c : bucket) {
+			if(Utils.bytesCompare(c.getID(), nodeID)){
+				c.failed();
+				if(c.getNbFailures() > MAX_FAILURES){
+					bucket.remove(c);
+				}
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the n contacts closest to the target that are not bad
+	 * @param target byte[]
+	 * @param n int
+	 * @return List of DHTContact, from the closest
+	 */
+	public synchronized List<DHTContact> closest(byte[] target, int n) {
+		List<DHTContact> l = new ArrayList<DHTContact>();
+		for (LinkedList<DHTContact> bucket : this.buckets) {
+			for (DHTContact c : bucket) {
+				if(c.getNbFailures() < MAX_FAILURES){
+					l.add(c);
+				}
+			}
+		}
+		Collections.sort(l, distanceComparator(target));
+		return l.size() > n ? new ArrayList<DHTContact>(l.subList(0, n)) : l;
+	}
+	
+	/**
+	 * Returns the number of contacts in the table
+	 * @return int
+	 */
+	public synchronized int size() {
+		int size = 0;
+		for (LinkedList<DHTContact> bucket : this.buckets) {
+			size += bucket.size();
+		}
+		return size;
+	}
+	
+	/**
+	 * Returns the number of buckets with at least one contact
+	 * @return int
+	 */
+	public synchronized int getNbBuckets() {
+		int nb = 0;
+		for (LinkedList<DHTContact> bucket : this.buckets) {
+			if(bucket.size() > 0){
+				nb++;
+			}
+		}
+		return nb;
+	}
+	
+	/**
+	 * Returns the length of the common prefix of two ids, in bits
+	 * @param a byte[]
+	 * @param b byte[]
+	 * @return int between 0 and 160
+	 */
+	public static int prefixLength(byte[] a, byte[] b) {
+		for (int i = 0; i < a.length; i++) {
+			int x = (a[i] ^ b[i]) & 0xFF;
+			if(x != 0){
+				return i * 8 + Integer.numberOfLeadingZeros(x) - 24;
+			}
+		}
+		return a.length * 8;
+	}
+	
+	/**
+	 * Compares the XOR distances of two ids to a target
+	 * @param target byte[]
+	 * @param a byte[]
+	 * @param b byte[]
+	 * @return negative if a is closer than b, 0 if they are the same, positive otherwise
+	 */
+	public static int compareDistance(byte[] target, byte[] a, byte[] b) {
+		for (int i = 0; i < target.length; i++) {
+			int da = (a[i] ^ target[i]) & 0xFF;
+			int db = (b[i] ^ target[i]) & 0xFF;
+			if(da != db){
+				return da - db;
+			}
+		}
+		return 0;
+	}
+	
+	public static Comparator<DHTContact> distanceComparator(final byte[] target) {
+		return new Comparator<DHTContact>() {
+			public int compare(DHTContact a, DHTContact b) {
+				return compareDistance(target, a.getID(), b.getID());
+			}
+		};
+	}
+
+}
@@ -0,0 +1,294 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.util.BitSet;
+
+/**
+ * Sliding window of pieces ahead of a playback cursor, used in the streaming 
+ * mode of the {@link DownloadManager}. Every piece of the window has a deadline, 
+ * computed from the position of the cursor and the bitrate of the media, 
+ * and the pieces are requested in order to the fastest peers. When the deadline 
+ * of a piece that is being requested is close, the piece can be requested 
+ * to a second peer.
+ * <p>
+ * It also keeps the metrics of the playback: the time to first byte 
+ * (from the activation of the streaming mode until the first piece of 
+ * the cursor is available) and the stalls (the cursor is moved to a piece 
+ * that is not available yet).
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class StreamingWindow {
+	
+	private int nbPieces;
+	private int pieceLength;
+	
+	private int cursor = 0;
+	private long cursorTime;
+	private int windowSize = 8;
+	private int bitrate = 128 * 1024;
+	private long duplicateThreshold = 2000;
+	
+	//Metrics
+	private long startTime;
+	private long timeToFirstByte = -1;
+	private int nbStalls = 0;
+	private long stalledSince = -1;
+	private long stallTime = 0;
+	
+	private BitSet mask;
+	
+	public StreamingWindow(int nbPieces, int pieceLength){
+		
+		this.nbPieces = nbPieces;
+		this.pieceLength = pieceLength;
+		this.startTime = System.currentTimeMillis();
+		this.cursorTime = this.startTime;
+		this.mask = new BitSet(nbPieces);
+	}
+	
+	/**
+	 * Moves the playback cursor to the piece that contains the given byte 
+	 * of the torrent. If this piece is not available, a stall begins.
+	 * @param offset long
+	 * @param complete AtomicBitSet the pieces that are complete
+	 */
+	public synchronized void setCursor(long offset, AtomicBitSet complete){
+		
+		int piece = (int) Math.min(offset / this.pieceLength, this.nbPieces - 1);
+		long now = System.currentTimeMillis();
+		
+		this.cursor = piece;
+		this.cursorTime = now;
+		
+		if(!complete.get(piece) && this.stalledSince == -1 && this.timeToFirstByte != -1){
+			this.nbStalls++;
+			this.stalledSince = now;
+		}else if(complete.get(piece)){
+			this.pieceCompleted(piece);
+		}
+	}
+	
+	/**
+	 * Informs the window that a piece has been downloaded and verified.
+	 * @param piece int
+	 */
+	public synchronized void pieceCompleted(int piece){
+		
+		if(piece != this.cursor){
+			return;
+		}
+		
+		long now = System.currentTimeMillis();
+		if(this.timeToFirstByte == -1){
+			this.timeToFirstByte = now - this.startTime;
+		}
+		if(this.stalledSince != -1){
+			this.stallTime += now - this.stalledSince;
+			this.stalledSince = -1;
+		}
+	}
+	
+	/**
+	 * Returns the moment when the piece has to be available to continue 
+	 * the playback without stalls.
+	 * @param piece int
+	 * @return long
+	 */
+	public synchronized long getDeadline(int piece){
+		
+		long pieceDuration = ((long) this.pieceLength) * 1000 / Math.max(1, this.bitrate);
+		return this.cursorTime + (piece - this.cursor) * pieceDuration;
+	}
+	
+	/**
+	 * Returns true if the piece is inside the window.
+	 * @param piece int
+	 * @return boolean
+	 */
+	public synchronized boolean isInWindow(int piece){
+		return piece >= this.cursor && piece < this.cursor + this.windowSize;
+	}
+	
+	/**
+	 * Chooses the first piece of the window, in playback order, that the peer has 
+	 * and that is not complete. Only the fast peers receive the pieces of the window. 
+	 * A piece that is already requested to another peer is only chosen if its 
+	 * deadline is close.
+	 * @param peerHas BitSet the pieces of the peer
+	 * @param complete AtomicBitSet the pieces that are complete
+	 * @param active AtomicBitSet the pieces that are being requested
+	 * @param fastPeer boolean
+	 * @return int the index of the piece or -1
+	 */
+	public synchronized int pickPiece(BitSet peerHas, AtomicBitSet complete, AtomicBitSet active, boolean fastPeer){
+		
+		if(!fastPeer){
+			return -1;
+		}
+		
+		long now = System.currentTimeMillis();
+		int end = Math.min(this.cursor + this.windowSize, this.nbPieces);
+		int duplicate = -1;
+		
+		for (int i = this.cursor; i < end; i++) {
+			if(peerHas.get(i) && !complete.get(i)){
+				if(!active.get(i)){
+					return i;
+				}else if(duplicate == -1 && this.getDeadline(i) - now < this.duplicateThreshold){
+					duplicate = i;
+				}
+			}
+		}
+		return duplicate;
+	}
+	
+	/**
+	 * Returns the pieces of the peer that are outside the window. Slow peers 
+	 * only receive pieces of this set. The returned BitSet is reused in 
+	 * the next call.
+	 * @param peerHas BitSet the pieces of the peer
+	 * @return BitSet
+	 */
+	public synchronized BitSet outsideWindow(BitSet peerHas){
+		
+		this.mask.clear();
+		this.mask.or(peerHas);
+		this.mask.clear(this.cursor, Math.min(this.cursor + this.windowSize, this.nbPieces));
+		return this.mask;
+	}
+	
+	public synchronized int getCursor() {
+		return this.cursor;
+	}
+
+	public synchronized int getWindowSize() {
+		return this.windowSize;
+	}
+
+	/**
+	 * Sets the number of pieces of the window.
+	 * @param windowSize int
+	 */
+	public synchronized void setWindowSize(int windowSize) {
+		this.windowSize = Math.max(1, windowSize);
+	}
+
+	public synchronized int getBitrate() {
+		return this.bitrate;
+	}
+
+	/**
+	 * Sets the bitrate of the media, in bytes per second, 
+	 * used to compute the deadlines of the pieces.
+	 * @param bitrate int
+	 */
+	public synchronized void setBitrate(int bitrate) {
+		this.bitrate = bitrate;
+	}
+
+	public synchronized long getDuplicateThreshold() {
+		return this.duplicateThreshold;
+	}
+
+	/**
+	 * Sets the time, in milliseconds, before the deadline of a piece 
+	 * from which the piece can be requested to a second peer.
+	 * @param duplicateThreshold long
+	 */
+	public synchronized void setDuplicateThreshold(long duplicateThreshold) {
+		this.duplicateThreshold = duplicateThreshold;
+	}
+	
+	/**
+	 * Returns the time, in milliseconds, from the activation of the streaming mode 
+	 * until the first piece of the cursor was available, or -1 if it is not available yet.
+	 * @return long
+	 */
+	public synchronized long getTimeToFirstByte() {
+		return this.timeToFirstByte;
+	}
+	
+	/**
+	 * Returns the number of times that the cursor has been moved to a piece 
+	 * that was not available.
+	 * @return int
+	 */
+	public synchronized int getNbStalls() {
+		return this.nbStalls;
+	}
+	
+	/**
+	 * Returns the total time, in milliseconds, that the playback has been stalled.
+	 * @return long
+	 */
+	public synchronized long getStallTime() {
+		long t = this.stallTime;
+		if(this.stalledSince != -1){
+			t += System.currentTimeMillis() - this.stalledSince;
+		}
+		return t;
+	}
+	
+	/**
+	 * Returns the fraction of the playback time that the playback has been stalled.
+	 * @return float
+	 */
+	public synchronized float getStallRate() {
+		if(this.timeToFirstByte == -1){
+			return 0.00f;
+		}
+		long playback = System.currentTimeMillis() - this.startTime - this.timeToFirstByte;
+		if(playback <= 0){
+			return 0.00f;
+		}
+		return ((float) this.getStallTime()) / ((float) playback);
+	}
+
+}
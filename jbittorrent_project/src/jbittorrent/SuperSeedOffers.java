@@ -0,0 +1,239 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Offers of the super-seeding mode: the piece offered to each peer, the 
+ * pieces advertised to each peer, and the queue of the pieces to offer.
+ * <p>
+ * The queue keeps the pieces ordered by the number of peers that have seen 
+ * them, that is, to which the piece has been offered or that have announced 
+ * it, and the pieces with a pending offer are kept at the end. A new offer 
+ * takes the first piece of the queue that the peer neither has nor has been 
+ * offered, so it does not have to look at all the pieces.
+ * <p>
+ * The offers have their own lock, so they are not made under the lock 
+ * of the {@link DownloadManager} nor of its tasks.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class SuperSeedOffers {
+	
+	/**
+	 * Number of peers that have seen each piece
+	 */
+	private final int[] seen;
+	
+	/**
+	 * Number of peers to which each piece is offered, the values of offers
+	 */
+	private final int[] offerCount;
+	
+	private final TreeSet<Integer> queue;
+	
+	private final Map<String, Integer> offers = new HashMap<String, Integer>();
+	
+	private final Map<String, BitSet> advertised = new HashMap<String, BitSet>();
+	
+	private final int nbPieces;
+	
+	public SuperSeedOffers(int nbPieces){
+		
+		this.nbPieces = nbPieces;
+		this.seen = new int[nbPieces];
+		this.offerCount = new int[nbPieces];
+		this.queue = new TreeSet<Integer>(new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int i = a.intValue();
+				int j = b.intValue();
+				boolean offeredI = SuperSeedOffers.this.offerCount[i] > 0;
+				boolean offeredJ = SuperSeedOffers.this.offerCount[j] > 0;
+				if(offeredI != offeredJ){
+					return offeredI ? 1 : -1;
+				}
+				if(SuperSeedOffers.this.seen[i] != SuperSeedOffers.this.seen[j]){
+					return SuperSeedOffers.this.seen[i] < SuperSeedOffers.this.seen[j] ? -1 : 1;
+				}
+				return i < j ? -1 : (i == j ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < nbPieces; i++) {
+			this.queue.add(i);
+		}
+	}
+	
+	/**
+	 * Sets the number of peers that have already seen the piece, before 
+	 * the first offer.
+	 * @param piece int
+	 * @param seen int
+	 */
+	public synchronized void setSeen(int piece, int seen){
+		
+		this.queue.remove(piece);
+		this.seen[piece] = seen;
+		this.queue.add(piece);
+	}
+	
+	/**
+	 * Offers a piece to the peer if it has not a pending offer: the first 
+	 * piece of the queue that the peer neither has nor has been offered.
+	 * @param peerID String
+	 * @param peerHas BitSet the pieces of the peer
+	 * @return int the piece offered or -1
+	 */
+	public synchronized int offer(String peerID, BitSet peerHas){
+		
+		if(this.offers.containsKey(peerID)){
+			return -1;
+		}
+		BitSet adv = this.advertised.get(peerID);
+		if(adv == null){
+			adv = new BitSet(this.nbPieces);
+			this.advertised.put(peerID, adv);
+		}
+		for (Iterator<Integer> it = this.queue.iterator(); it.hasNext();) {
+			int piece = it.next().intValue();
+			if(!peerHas.get(piece) && !adv.get(piece)){
+				it.remove();
+				this.seen[piece]++;
+				this.offerCount[piece]++;
+				this.queue.add(piece);
+				this.offers.put(peerID, piece);
+				adv.set(piece);
+				return piece;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * A peer has announced the piece: the peers to which the piece was offered 
+	 * lose their offer, as the piece has propagated, and are returned to be 
+	 * offered a new piece.
+	 * @param peerID String the peer that announces the piece
+	 * @param piece int
+	 * @return List<String> the peers that can receive a new offer
+	 */
+	public synchronized List<String> pieceAnnounced(String peerID, int piece){
+		
+		List<String> propagated = new LinkedList<String>();
+		this.queue.remove(piece);
+		this.seen[piece]++;
+		if(this.offerCount[piece] > 0){
+			for(Map.Entry<String, Integer> e: this.offers.entrySet()){
+				if(e.getValue().intValue() == piece && !e.getKey().equals(peerID)){
+					propagated.add(e.getKey());
+				}
+			}
+			for(String id: propagated){
+				this.offers.remove(id);
+				this.offerCount[piece]--;
+			}
+		}
+		this.queue.add(piece);
+		return propagated;
+	}
+	
+	/**
+	 * The peer does not wait for the piece offered any more.
+	 * @param peerID String
+	 */
+	public synchronized void removeOffer(String peerID){
+		
+		Integer piece = this.offers.remove(peerID);
+		if(piece != null){
+			this.queue.remove(piece);
+			this.offerCount[piece.intValue()]--;
+			this.queue.add(piece);
+		}
+	}
+	
+	/**
+	 * Removes the offer and the pieces advertised to the peer.
+	 * @param peerID String
+	 */
+	public synchronized void removePeer(String peerID){
+		
+		this.removeOffer(peerID);
+		this.advertised.remove(peerID);
+	}
+	
+	/**
+	 * Returns true if the piece has been advertised to the peer.
+	 * @param peerID String
+	 * @param piece int
+	 * @return boolean
+	 */
+	public synchronized boolean isAdvertised(String peerID, int piece){
+		
+		BitSet adv = this.advertised.get(peerID);
+		return adv != null && adv.get(piece);
+	}
+	
+	/**
+	 * Returns a copy of the pieces advertised to the peer.
+	 * @param peerID String
+	 * @return BitSet
+	 */
+	public synchronized BitSet getAdvertised(String peerID){
+		
+		BitSet adv = this.advertised.get(peerID);
+		return adv == null ? new BitSet(this.nbPieces) : (BitSet) adv.clone();
+	}
+	
+}
@@ -47,6 +47,7 @@ package jbittorrent;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Representation of a torrent file
@@ -58,6 +59,13 @@ import java.util.Date;
 public class TorrentFile {
 
     public String announceURL;
+    /* Tiers of tracker URLs of the announce-list (BEP 12), empty if the
+     * torrent only has the announce URL
+     */
+    public ArrayList<ArrayList<String>> announceList;
+    /* URLs of the HTTP web seeds of the url-list (BEP 19)
+     */
+    public ArrayList<String> urlList;
     public String scrapeURL;
     public String comment;
     public String createdBy;
@@ -75,6 +83,10 @@ public class TorrentFile {
      */
     public ArrayList<String> name;
     public ArrayList<Long> length;
+    /* Components of the path of each file, as in the info dictionary, to
+     * build the URLs of the files on the web seeds
+     */
+    public ArrayList<ArrayList<String>> filePaths;
 
     public byte[] info_hash_as_binary;
     public String info_hash_as_hex;
@@ -91,6 +103,8 @@ public class TorrentFile {
     public TorrentFile() {
         super();
         announceURL = new String();
+        announceList = new ArrayList<ArrayList<String>>();
+        urlList = new ArrayList<String>();
         scrapeURL = null;
         comment = new String();
         createdBy = new String();
@@ -105,6 +119,7 @@ public class TorrentFile {
         
         name = new ArrayList<String>();
         length = new ArrayList<Long>();
+        filePaths = new ArrayList<ArrayList<String>>();
 
         piece_hash_values_as_binary = new ArrayList<byte[]>();
         piece_hash_values_as_url = new ArrayList<String>();
@@ -114,6 +129,25 @@ public class TorrentFile {
         info_hash_as_hex = new String();
     }
 
+    /**
+     * Returns the tiers of trackers of the torrent: the tiers of the announce-list
+     * if it is present, or a single tier with the announce URL otherwise
+     * @return List of tiers, each one a list of tracker URLs
+     */
+    public List<List<String>> getTrackerTiers() {
+        List<List<String>> tiers = new ArrayList<List<String>>();
+        for (List<String> tier : this.announceList) {
+            if (tier.size() > 0)
+                tiers.add(new ArrayList<String>(tier));
+        }
+        if (tiers.isEmpty() && this.announceURL != null && this.announceURL.length() > 0) {
+            List<String> tier = new ArrayList<String>();
+            tier.add(this.announceURL);
+            tiers.add(tier);
+        }
+        return tiers;
+    }
+
     /**
      * Print the torrent information in a readable manner.
      * @param detailed Choose if we want a detailed output or not. Detailed
@@ -123,6 +157,10 @@ public class TorrentFile {
      */
     public void printData(boolean detailed) {
         System.out.println("Tracker AnnounceURL: " + this.announceURL);
+        for (int i = 0; i < this.announceList.size(); i++)
+            System.out.println("Tracker tier " + i + ": " + this.announceList.get(i));
+        for (String url : this.urlList)
+            System.out.println("Web seed: " + url);
         if(this.scrapeURL!=null)
             System.out.println("Tracker ScrapeURL: " + this.scrapeURL);
         else
@@ -0,0 +1,208 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read-only {@link SeekableByteChannel} over a file of a torrent that is 
+ * being downloaded by a {@link DownloadManager}. A read blocks until the piece 
+ * that contains the data at the current position is downloaded and verified, 
+ * and raises the priority of this piece and of the next pieces (read-ahead), 
+ * so the data can be processed while the download goes on.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class TorrentFileChannel implements SeekableByteChannel {
+	
+	private DownloadManager dm;
+	private int file;
+	private long fileOffset;
+	private long size;
+	private int pieceLength;
+	private int readAhead = 4;
+	
+	private long position = 0;
+	private boolean open = true;
+	
+	/**
+	 * Creates a channel over a file of the torrent
+	 * @param dm {@link DownloadManager} the manager that downloads the torrent
+	 * @param file int the index of the file in the torrent
+	 */
+	public TorrentFileChannel(DownloadManager dm, int file) {
+		
+		TorrentFile torrent = dm.getTorrentFile();
+		
+		this.dm = dm;
+		this.file = file;
+		this.size = torrent.length.get(file).longValue();
+		this.pieceLength = torrent.pieceLength;
+		this.fileOffset = 0;
+		for (int i = 0; i < file; i++) {
+			this.fileOffset += torrent.length.get(i).longValue();
+		}
+	}
+	
+	/**
+	 * Reads data until the end of the piece at the current position, blocking 
+	 * until this piece is complete.
+	 */
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		
+		this.checkOpen();
+		if(this.position >= this.size){
+			return -1;
+		}
+		if(!dst.hasRemaining()){
+			return 0;
+		}
+		
+		long absolute = this.fileOffset + this.position;
+		int piece = (int) (absolute / this.pieceLength);
+		long pieceEnd = ((long) (piece + 1)) * this.pieceLength;
+		
+		this.dm.prioritizePieces(piece, piece + this.readAhead);
+		try {
+			this.dm.waitForPiece(piece);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for piece " + piece);
+		}
+		
+		int len = (int) Math.min(dst.remaining(), Math.min(pieceEnd - absolute, this.size - this.position));
+		byte[] b = new byte[len];
+		int read = this.dm.readFile(this.file, this.position, b, 0, len);
+		if(read > 0){
+			dst.put(b, 0, read);
+			this.position += read;
+		}
+		return read;
+	}
+	
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+	
+	public synchronized long position() throws IOException {
+		this.checkOpen();
+		return this.position;
+	}
+	
+	public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+		
+		this.checkOpen();
+		if(newPosition < 0){
+			throw new IllegalArgumentException("Negative position: " + newPosition);
+		}
+		this.position = newPosition;
+		return this;
+	}
+	
+	public long size() throws IOException {
+		this.checkOpen();
+		return this.size;
+	}
+	
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+	
+	public synchronized boolean isOpen() {
+		return this.open;
+	}
+	
+	public synchronized void close() throws IOException {
+		this.open = false;
+	}
+	
+	/**
+	 * Returns the number of bytes after the current position that can be 
+	 * read without blocking, that is to say, until the first piece 
+	 * that is not complete.
+	 * @return long
+	 * @throws IOException
+	 */
+	public synchronized long available() throws IOException {
+		
+		this.checkOpen();
+		long end = this.fileOffset + this.size;
+		long absolute = this.fileOffset + this.position;
+		int piece = (int) (absolute / this.pieceLength);
+		while(absolute < end && this.dm.isPieceComplete(piece)){
+			piece++;
+			absolute = ((long) piece) * this.pieceLength;
+		}
+		return Math.max(0, Math.min(absolute, end) - this.fileOffset - this.position);
+	}
+	
+	/**
+	 * Sets the number of pieces after the current one whose priority 
+	 * is raised on every read.
+	 * @param readAhead int
+	 */
+	public synchronized void setReadAhead(int readAhead) {
+		this.readAhead = Math.max(0, readAhead);
+	}
+	
+	public synchronized int getReadAhead() {
+		return this.readAhead;
+	}
+	
+	private void checkOpen() throws ClosedChannelException {
+		if(!this.open){
+			throw new ClosedChannelException();
+		}
+	}
+
+}
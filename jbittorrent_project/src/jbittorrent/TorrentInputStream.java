@@ -0,0 +1,127 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link InputStream} over a file of a torrent that is being downloaded, 
+ * based on a {@link TorrentFileChannel}. The reads block until the data is 
+ * downloaded and verified.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class TorrentInputStream extends InputStream {
+	
+	private TorrentFileChannel channel;
+	
+	/**
+	 * Creates a stream over a file of the torrent
+	 * @param dm {@link DownloadManager} the manager that downloads the torrent
+	 * @param file int the index of the file in the torrent
+	 */
+	public TorrentInputStream(DownloadManager dm, int file) {
+		this(new TorrentFileChannel(dm, file));
+	}
+	
+	public TorrentInputStream(TorrentFileChannel channel) {
+		this.channel = channel;
+	}
+	
+	public int read() throws IOException {
+		
+		byte[] b = new byte[1];
+		int n;
+		do {
+			n = this.read(b, 0, 1);
+		} while (n == 0);
+		
+		if(n == -1){
+			return -1;
+		}
+		return b[0] & 0xFF;
+	}
+	
+	public int read(byte[] b, int off, int len) throws IOException {
+		
+		if(len == 0){
+			return 0;
+		}
+		return this.channel.read(ByteBuffer.wrap(b, off, len));
+	}
+	
+	public long skip(long n) throws IOException {
+		
+		if(n <= 0){
+			return 0;
+		}
+		long position = this.channel.position();
+		long skipped = Math.min(n, Math.max(0, this.channel.size() - position));
+		this.channel.position(position + skipped);
+		return skipped;
+	}
+	
+	/**
+	 * Returns the number of bytes that are already downloaded after 
+	 * the current position.
+	 */
+	public int available() throws IOException {
+		return (int) Math.min(Integer.MAX_VALUE, this.channel.available());
+	}
+	
+	public void close() throws IOException {
+		this.channel.close();
+	}
+	
+	public TorrentFileChannel getChannel() {
+		return this.channel;
+	}
+
+}
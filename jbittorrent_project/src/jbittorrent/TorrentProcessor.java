@@ -56,6 +56,7 @@ import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
@@ -125,10 +126,34 @@ public class TorrentProcessor {
 	public TorrentFile getTorrentFile(Map<String,Object> m){
         if(m == null)
             return null;
-        if(m.containsKey("announce")) // mandatory key
+        if(m.containsKey("announce-list")){ // optional key (BEP 12)
+            // The trackers of each tier are shuffled, as the order within a tier is random
+            for (Object tier : (List<Object>) m.get("announce-list")) {
+                ArrayList<String> urls = new ArrayList<String>();
+                for (Object url : (List<Object>) tier)
+                    urls.add(new String((byte[]) url));
+                if (urls.size() > 0) {
+                    Collections.shuffle(urls);
+                    this.torrent.announceList.add(urls);
+                }
+            }
+        }
+        if(m.containsKey("announce")) // mandatory key, unless there is an announce-list
             this.torrent.announceURL = new String((byte[]) m.get("announce"));
+        else if(this.torrent.announceList.size() > 0)
+            this.torrent.announceURL = this.torrent.announceList.get(0).get(0);
         else
             return null;
+        if(m.containsKey("url-list")){ // optional key (BEP 19), a URL or a list of URLs
+            Object urls = m.get("url-list");
+            if(urls instanceof byte[]){
+                this.torrent.urlList.add(new String((byte[]) urls));
+            }else if(urls instanceof List){
+                for (Object url : (List<Object>) urls)
+                    if(url instanceof byte[])
+                        this.torrent.urlList.add(new String((byte[]) url));
+            }
+        }
         if(m.containsKey("scrape"))
         	this.torrent.scrapeURL = new String((byte[]) m.get("scrape"));
         if(m.containsKey("comment")) // optional key
@@ -193,15 +218,21 @@ public class TorrentProcessor {
 
                     List<Object> path = (List<Object>) ((Map<Object, Object>) multFiles.get(i)).get("path");
                     String filePath = "";
+                    ArrayList<String> components = new ArrayList<String>();
                     for (int j = 0; j < path.size(); j++) {
                         filePath += new String((byte[]) path.get(j));
+                        components.add(new String((byte[]) path.get(j)));
                     }
                     this.torrent.name.add(filePath);
+                    this.torrent.filePaths.add(components);
                 }
             } else {
                 this.torrent.length.add((long) ((Long) info.get("length")).intValue());
                 this.torrent.total_length = ((Long) info.get("length")).intValue();
                 this.torrent.name.add(new String((byte[]) info.get("name")));
+                ArrayList<String> components = new ArrayList<String>();
+                components.add(new String((byte[]) info.get("name")));
+                this.torrent.filePaths.add(components);
             }
         }else
             return null;
@@ -286,6 +317,25 @@ public class TorrentProcessor {
         this.torrent.announceURL = url;
     }
 
+    /**
+     * Adds a tier of trackers to the announce-list of the torrent (BEP 12). 
+     * The tiers are contacted in parallel, and the trackers of a tier in order.
+     * @param urls List of tracker URLs
+     */
+    public void addAnnounceTier(List<String> urls) {
+        this.torrent.announceList.add(new ArrayList<String>(urls));
+    }
+
+    /**
+     * Adds an HTTP web seed to the url-list of the torrent (BEP 19): the URL of 
+     * the file for a single file torrent, or of the directory that contains the 
+     * directory of the torrent, ending with '/', for a multiple files torrent.
+     * @param url String
+     */
+    public void addWebSeed(String url) {
+        this.torrent.urlList.add(url);
+    }
+
     /**
      * Sets the scrape url of the torrent
      * @param url String
@@ -522,6 +572,10 @@ public class TorrentProcessor {
     public byte[] generateTorrent(TorrentFile torr) {
         SortedMap<String, Object> map = new TreeMap<String, Object>();
         map.put("announce", torr.announceURL);
+        if(torr.announceList.size() > 0)
+        	map.put("announce-list", torr.announceList);
+        if(torr.urlList.size() > 0)
+        	map.put("url-list", torr.urlList);
         if(torr.scrapeURL != null)
         	map.put("scrape", torr.scrapeURL);
         if(torr.comment.length() > 0)
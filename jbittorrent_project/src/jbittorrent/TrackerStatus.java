@@ -0,0 +1,166 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+/**
+ * Health of one of the trackers of a torrent, used by the {@link PeerUpdater} to 
+ * order the trackers of a tier of the announce-list (BEP 12).
+ * <p>
+ * A tracker that fails is not contacted again until its backoff expires, 15 
+ * seconds after the first failure and doubling with each consecutive failure 
+ * up to 30 minutes, unless all the trackers of its tier are failing.
+ *
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ */
+public class TrackerStatus {
+	
+	public static final long MIN_BACKOFF = 15000;
+	public static final long MAX_BACKOFF = 30 * 60000;
+	
+	private String url;
+	private int nbFailures = 0;
+	private int nbAnnounces = 0;
+	private int nbSuccesses = 0;
+	private long lastSuccess = -1;
+	private long nextRetry = 0;
+	private long lastLatency = -1;
+	private int lastNbPeers = 0;
+	private String lastError = null;
+	
+	public TrackerStatus(String url) {
+		this.url = url;
+	}
+	
+	public String getURL() {
+		return this.url;
+	}
+	
+	/**
+	 * Checks whether the tracker can be contacted, that is, it has not failed 
+	 * or its backoff has expired
+	 * @param now long
+	 * @return boolean
+	 */
+	public synchronized boolean isAvailable(long now) {
+		return now >= this.nextRetry;
+	}
+	
+	/**
+	 * Records a response of the tracker
+	 * @param latency long time since the request was sent, in ms
+	 * @param nbPeers int number of peers in the response
+	 */
+	public synchronized void success(long latency, int nbPeers) {
+		this.nbAnnounces++;
+		this.nbSuccesses++;
+		this.nbFailures = 0;
+		this.nextRetry = 0;
+		this.lastSuccess = System.currentTimeMillis();
+		this.lastLatency = latency;
+		this.lastNbPeers = nbPeers;
+		this.lastError = null;
+	}
+	
+	/**
+	 * Records a failed request to the tracker and doubles its backoff
+	 * @param error String
+	 */
+	public synchronized void failure(String error) {
+		this.nbAnnounces++;
+		this.nbFailures++;
+		long backoff = Math.min(MAX_BACKOFF, MIN_BACKOFF << Math.min(this.nbFailures - 1, 20));
+		this.nextRetry = System.currentTimeMillis() + backoff;
+		this.lastError = error;
+	}
+	
+	/**
+	 * Returns the number of consecutive failures of the tracker
+	 * @return int
+	 */
+	public synchronized int getNbFailures() {
+		return this.nbFailures;
+	}
+	
+	public synchronized int getNbAnnounces() {
+		return this.nbAnnounces;
+	}
+	
+	public synchronized int getNbSuccesses() {
+		return this.nbSuccesses;
+	}
+	
+	public synchronized long getLastSuccess() {
+		return this.lastSuccess;
+	}
+	
+	public synchronized long getNextRetry() {
+		return this.nextRetry;
+	}
+	
+	/**
+	 * Returns the time the last response took, in ms, or -1 if it never answered
+	 * @return long
+	 */
+	public synchronized long getLastLatency() {
+		return this.lastLatency;
+	}
+	
+	public synchronized int getLastNbPeers() {
+		return this.lastNbPeers;
+	}
+	
+	public synchronized String getLastError() {
+		return this.lastError;
+	}
+	
+	public synchronized String toString() {
+		return this.url + " (announces: " + this.nbAnnounces + ", failures: " + this.nbFailures 
+				+ (this.lastLatency >= 0 ? ", latency: " + this.lastLatency + " ms" : "") 
+				+ (this.lastError != null ? ", error: " + this.lastError : "") + ")";
+	}
+
+}
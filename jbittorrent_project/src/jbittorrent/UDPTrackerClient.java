@@ -0,0 +1,425 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package jbittorrent;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Client of the UDP tracker protocol (BEP 15), used by the {@link PeerUpdater} 
+ * for the announce URLs with the scheme udp://.
+ * <p>
+ * An announce costs two datagrams each way instead of a TCP connection, an HTTP 
+ * request and a bencoded response. The connection id obtained with the connect 
+ * request is cached for one minute per tracker address, and shared by all the 
+ * torrents announced to the same tracker, so most of the announces only need 
+ * the announce request. A request that gets no answer is retransmitted after 
+ * 15 * 2^n seconds, n being the number of tries, and the connection id is 
+ * requested again if it expired in the meantime.
+ * <p>
+ * The responses are returned as a Map with the same keys as the decoded HTTP 
+ * responses (interval, complete, incomplete and the compact peers list, or the 
+ * failure reason), so they are processed in the same way.
+ *
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ */
+public class UDPTrackerClient {
+	
+	public static final long PROTOCOL_ID = 0x41727101980L;
+	
+	public static final int ACTION_CONNECT = 0;
+	public static final int ACTION_ANNOUNCE = 1;
+	public static final int ACTION_SCRAPE = 2;
+	public static final int ACTION_ERROR = 3;
+	
+	public static final int EVENT_NONE = 0;
+	public static final int EVENT_COMPLETED = 1;
+	public static final int EVENT_STARTED = 2;
+	public static final int EVENT_STOPPED = 3;
+	
+	/**
+	 * Time a connection id can be used since it was received, in ms
+	 */
+	public static final long CONNECTION_ID_TTL = 60000;
+	
+	/**
+	 * Largest n of the retransmission timeout 15 * 2^n given by the protocol
+	 */
+	public static final int MAX_RETRIES = 8;
+	
+	private static final int MAX_PACKET_SIZE = 65507;
+	
+	/**
+	 * Connection ids by tracker address, with the time they were received
+	 */
+	private static final Map<InetSocketAddress, long[]> connectionIds = new ConcurrentHashMap<InetSocketAddress, long[]>();
+	
+	private static Logger logger = Logger.getLogger(UDPTrackerClient.class);
+	
+	private InetSocketAddress tracker;
+	private volatile DatagramSocket socket = null;
+	private Random random = new Random();
+	private int key;
+	private int tries = 0;
+	
+	private long timeout = 15000;
+	private int maxRetries = MAX_RETRIES;
+	
+	private int nbConnects = 0;
+	private int nbRetransmits = 0;
+	
+	/**
+	 * Creates a client for the tracker of the given udp:// announce URL
+	 * @param announceURL String
+	 * @throws URISyntaxException if the URL is not valid or has no port
+	 */
+	public UDPTrackerClient(String announceURL) throws URISyntaxException {
+		URI uri = new URI(announceURL);
+		if(uri.getHost() == null || uri.getPort() == -1){
+			throw new URISyntaxException(announceURL, "The tracker host and port are required");
+		}
+		this.tracker = new InetSocketAddress(uri.getHost(), uri.getPort());
+		this.key = this.random.nextInt();
+	}
+	
+	/**
+	 * Checks whether the given announce URL must be contacted with the UDP tracker protocol
+	 * @param announceURL String
+	 * @return boolean
+	 */
+	public static boolean isUDP(String announceURL) {
+		return announceURL != null && announceURL.regionMatches(true, 0, "udp://", 0, 6);
+	}
+	
+	/**
+	 * Returns the announce event for the event parameter used in the HTTP 
+	 * announces (&event=started, &event=completed, &event=stopped or none)
+	 * @param event String
+	 * @return int
+	 */
+	public static int getEvent(String event) {
+		if(event == null){
+			return EVENT_NONE;
+		} else if(event.endsWith("started")){
+			return EVENT_STARTED;
+		} else if(event.endsWith("completed")){
+			return EVENT_COMPLETED;
+		} else if(event.endsWith("stopped")){
+			return EVENT_STOPPED;
+		}
+		return EVENT_NONE;
+	}
+	
+	/**
+	 * Sends an announce to the tracker
+	 * @param infoHash byte[] 
+	 * @param peerID byte[] 
+	 * @param port int the listening port of the client
+	 * @param downloaded long
+	 * @param left long
+	 * @param uploaded long
+	 * @param event int one of the EVENT_ values
+	 * @param numWant int
+	 * @return A Map with the keys interval, complete, incomplete and peers (compact), or failure reason
+	 * @throws IOException if the tracker does not answer after all the retransmissions
+	 */
+	public synchronized Map<String, Object> announce(byte[] infoHash, byte[] peerID, int port, 
+			long downloaded, long left, long uploaded, int event, int numWant) throws IOException {
+		this.tries = 0;
+		while(true){
+			long connectionId = this.connect();
+			int transactionId = this.random.nextInt();
+			ByteBuffer request = ByteBuffer.allocate(98);
+			request.putLong(connectionId);
+			request.putInt(ACTION_ANNOUNCE);
+			request.putInt(transactionId);
+			request.put(infoHash, 0, 20);
+			request.put(peerID, 0, 20);
+			request.putLong(downloaded);
+			request.putLong(left);
+			request.putLong(uploaded);
+			request.putInt(event);
+			request.putInt(0);
+			request.putInt(this.key);
+			request.putInt(numWant);
+			request.putShort((short) port);
+			
+			ByteBuffer response = this.send(request.array(), transactionId);
+			if(response == null){
+				continue;
+			}
+			Map<String, Object> m = new HashMap<String, Object>();
+			if(response.getInt(0) == ACTION_ERROR){
+				m.put("failure reason", this.getMessage(response));
+				connectionIds.remove(this.tracker);
+			} else if(response.getInt(0) == ACTION_ANNOUNCE && response.limit() >= 20){
+				m.put("interval", Long.valueOf(response.getInt(8) & 0xFFFFFFFFL));
+				m.put("incomplete", Long.valueOf(response.getInt(12) & 0xFFFFFFFFL));
+				m.put("complete", Long.valueOf(response.getInt(16) & 0xFFFFFFFFL));
+				int length = (response.limit() - 20) / 6 * 6;
+				byte[] peers = new byte[length];
+				response.position(20);
+				response.get(peers);
+				m.put("peers", peers);
+			} else {
+				throw new IOException("Invalid announce response from " + this.tracker);
+			}
+			return m;
+		}
+	}
+	
+	/**
+	 * Sends a scrape request for one torrent to the tracker
+	 * @param infoHash byte[]
+	 * @return A Map with the keys complete, downloaded and incomplete, or failure reason
+	 * @throws IOException if the tracker does not answer after all the retransmissions
+	 */
+	public synchronized Map<String, Object> scrape(byte[] infoHash) throws IOException {
+		this.tries = 0;
+		while(true){
+			long connectionId = this.connect();
+			int transactionId = this.random.nextInt();
+			ByteBuffer request = ByteBuffer.allocate(36);
+			request.putLong(connectionId);
+			request.putInt(ACTION_SCRAPE);
+			request.putInt(transactionId);
+			request.put(infoHash, 0, 20);
+			
+			ByteBuffer response = this.send(request.array(), transactionId);
+			if(response == null){
+				continue;
+			}
+			Map<String, Object> m = new HashMap<String, Object>();
+			if(response.getInt(0) == ACTION_ERROR){
+				m.put("failure reason", this.getMessage(response));
+				connectionIds.remove(this.tracker);
+			} else if(response.getInt(0) == ACTION_SCRAPE && response.limit() >= 20){
+				m.put("complete", Long.valueOf(response.getInt(8) & 0xFFFFFFFFL));
+				m.put("downloaded", Long.valueOf(response.getInt(12) & 0xFFFFFFFFL));
+				m.put("incomplete", Long.valueOf(response.getInt(16) & 0xFFFFFFFFL));
+			} else {
+				throw new IOException("Invalid scrape response from " + this.tracker);
+			}
+			return m;
+		}
+	}
+	
+	/**
+	 * Returns a valid connection id for the tracker, from the cache or sending 
+	 * a connect request. The unanswered tries of the connect request count as 
+	 * tries of the current request, so its retransmission timeouts keep growing.
+	 * @return long
+	 * @throws IOException if the tracker does not answer after all the retransmissions
+	 */
+	private long connect() throws IOException {
+		while(true){
+			long[] cached = connectionIds.get(this.tracker);
+			if(cached != null && System.currentTimeMillis() - cached[1] < CONNECTION_ID_TTL){
+				return cached[0];
+			}
+			int transactionId = this.random.nextInt();
+			ByteBuffer request = ByteBuffer.allocate(16);
+			request.putLong(PROTOCOL_ID);
+			request.putInt(ACTION_CONNECT);
+			request.putInt(transactionId);
+			
+			ByteBuffer response = this.send(request.array(), transactionId);
+			if(response == null){
+				continue;
+			}
+			if(response.getInt(0) == ACTION_CONNECT && response.limit() >= 16){
+				this.nbConnects++;
+				long connectionId = response.getLong(8);
+				connectionIds.put(this.tracker, new long[]{connectionId, System.currentTimeMillis()});
+				return connectionId;
+			} else if(response.getInt(0) == ACTION_ERROR){
+				throw new IOException("Tracker error: " + new String(this.getMessage(response)));
+			}
+			throw new IOException("Invalid connect response from " + this.tracker);
+		}
+	}
+	
+	/**
+	 * Sends a request as the next try n of the current request and waits 
+	 * 15 * 2^n seconds (with the default timeout) for the response with the 
+	 * same transaction id. n counts the tries since the last response received.
+	 * @param request byte[]
+	 * @param transactionId int
+	 * @return The response, or null if the timeout expired and the request must be sent again
+	 * @throws SocketTimeoutException if the timeout of the last try expired
+	 */
+	private ByteBuffer send(byte[] request, int transactionId) throws IOException {
+		int n = this.tries++;
+		if(n > this.maxRetries){
+			throw new SocketTimeoutException("Tracker " + this.tracker + " did not answer after " + n + " tries");
+		}
+		if(this.socket == null || this.socket.isClosed()){
+			this.socket = new DatagramSocket();
+		}
+		if(this.tracker.isUnresolved()){
+			this.tracker = new InetSocketAddress(this.tracker.getHostName(), this.tracker.getPort());
+			if(this.tracker.isUnresolved()){
+				throw new UnknownHostException(this.tracker.getHostName());
+			}
+		}
+		if(n > 0){
+			this.nbRetransmits++;
+			logger.debug("Retransmitting request to the tracker " + this.tracker + " (try " + n + ")");
+		}
+		this.socket.send(new DatagramPacket(request, request.length, this.tracker));
+		
+		long deadline = System.currentTimeMillis() + (this.timeout << n);
+		byte[] buffer = new byte[MAX_PACKET_SIZE];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while(true){
+			long wait = deadline - System.currentTimeMillis();
+			if(wait <= 0){
+				return null;
+			}
+			this.socket.setSoTimeout((int) Math.min(wait, Integer.MAX_VALUE));
+			try {
+				this.socket.receive(packet);
+			} catch (SocketTimeoutException ste) {
+				return null;
+			}
+			// Datagrams of earlier requests or from other hosts are ignored
+			if(packet.getLength() < 8 || !packet.getAddress().equals(this.tracker.getAddress()) 
+					|| packet.getPort() != this.tracker.getPort()){
+				continue;
+			}
+			ByteBuffer response = ByteBuffer.wrap(buffer, 0, packet.getLength()).slice();
+			if(response.getInt(4) == transactionId){
+				this.tries = 0;
+				return response;
+			}
+		}
+	}
+	
+	private byte[] getMessage(ByteBuffer response) {
+		byte[] message = new byte[response.limit() - 8];
+		response.position(8);
+		response.get(message);
+		return message;
+	}
+	
+	/**
+	 * Closes the socket of the client. It will be opened again by the next request. 
+	 * It does not wait for the request in progress, which fails with the socket closed.
+	 */
+	public void close() {
+		DatagramSocket s = this.socket;
+		if(s != null){
+			s.close();
+		}
+	}
+	
+	/**
+	 * Sets the timeout of the first try of a request, in ms (15 s by default). 
+	 * The timeout of the try n is timeout * 2^n. 
+	 * @param timeout long
+	 */
+	public synchronized void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+	
+	public synchronized long getTimeout() {
+		return this.timeout;
+	}
+	
+	/**
+	 * Sets the number of retransmissions of a request before giving up (8 by default)
+	 * @param maxRetries int
+	 */
+	public synchronized void setMaxRetries(int maxRetries) {
+		this.maxRetries = Math.max(0, Math.min(maxRetries, MAX_RETRIES));
+	}
+	
+	public synchronized int getMaxRetries() {
+		return this.maxRetries;
+	}
+	
+	/**
+	 * Returns the number of connect requests answered to this client
+	 * @return int
+	 */
+	public synchronized int getNbConnects() {
+		return this.nbConnects;
+	}
+	
+	/**
+	 * Returns the number of requests of this client sent again after a timeout
+	 * @return int
+	 */
+	public synchronized int getNbRetransmits() {
+		return this.nbRetransmits;
+	}
+	
+	public InetSocketAddress getTracker() {
+		return this.tracker;
+	}
+	
+	/**
+	 * Forgets the cached connection ids of all the trackers
+	 */
+	public static void clearConnectionIds() {
+		connectionIds.clear();
+	}
+
+}
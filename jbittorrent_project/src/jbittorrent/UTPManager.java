@@ -0,0 +1,305 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+package jbittorrent;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.event.EventListenerList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Endpoint of the uTP connections (BEP 29) of the client. It receives the 
+ * packets of the protocol from the UDP socket shared through a 
+ * {@link DatagramListener}, hands them to the {@link UTPSocket} of their 
+ * connection, accepts the new connections like the {@link ConnectionListener} 
+ * does for TCP, and runs the timer of the retransmissions.
+ *
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ */
+public class UTPManager extends Thread implements DatagramHandler {
+	
+	/**
+	 * Interval of the timer of the connections, in milliseconds
+	 */
+	public static final long TICK_INTERVAL = 50;
+	
+	private static Logger logger = Logger.getLogger(UTPManager.class);
+	
+	private final DatagramListener listener;
+	private boolean ownListener = false;
+	private final ConcurrentHashMap<String, UTPSocket> connections = new ConcurrentHashMap<String, UTPSocket>();
+	private final LinkedBlockingQueue<UTPSocket> accepted = new LinkedBlockingQueue<UTPSocket>();
+	private final EventListenerList listeners = new EventListenerList();
+	private final Random random = new Random();
+	private volatile boolean acceptConnection = true;
+	private volatile boolean run = true;
+	
+	private long nbConnectionsOpened = 0;
+	private long nbConnectionsAccepted = 0;
+	private long nbResetsSent = 0;
+	
+	/**
+	 * Creates the manager on the UDP socket of the client
+	 * @param listener DatagramListener
+	 */
+	public UTPManager(DatagramListener listener) {
+		super("UTPManager " + listener.getLocalPort());
+		this.listener = listener;
+		this.setDaemon(true);
+		this.listener.addDatagramHandler(this);
+	}
+	
+	/**
+	 * Creates the manager with its own UDP socket bound to the given port
+	 * @param port int, or 0 for any free port
+	 * @throws SocketException if the port cannot be bound
+	 */
+	public UTPManager(int port) throws SocketException {
+		this(new DatagramListener(port));
+		this.ownListener = true;
+		this.listener.start();
+	}
+	
+	/**
+	 * Returns true if the datagram has the header of a uTP packet
+	 * @param data byte[]
+	 * @return boolean
+	 */
+	public static boolean isUTP(byte[] data) {
+		return data.length >= UTPSocket.HEADER_SIZE && (data[0] & 0x0F) == UTPSocket.VERSION 
+				&& (data[0] & 0xFF) >> 4 <= UTPSocket.ST_SYN;
+	}
+	
+	private static String key(InetSocketAddress address, int connectionID) {
+		return address.getAddress().getHostAddress() + ":" + address.getPort() + "/" + connectionID;
+	}
+	
+	public boolean datagramReceived(byte[] data, InetSocketAddress source) {
+		if(!isUTP(data)){
+			return false;
+		}
+		int type = (data[0] & 0xFF) >> 4;
+		int connectionID = UTPSocket.getShort(data, 2);
+		UTPSocket socket = this.connections.get(key(source, connectionID));
+		if(socket != null){
+			socket.packetReceived(data);
+		}else if(type == UTPSocket.ST_SYN){
+			// The peer sends with connectionID + 1 and receives with connectionID
+			String k = key(source, (connectionID + 1) & 0xFFFF);
+			if(this.connections.containsKey(k)){
+				this.connections.get(k).packetReceived(data);
+			}else if(this.acceptConnection){
+				socket = new UTPSocket(this, source, (connectionID + 1) & 0xFFFF, connectionID, UTPSocket.getShort(data, 16));
+				this.connections.put(k, socket);
+				synchronized (this) {
+					this.nbConnectionsAccepted++;
+				}
+				socket.packetReceived(data);
+				this.accepted.add(socket);
+			}
+		}else if(type != UTPSocket.ST_RESET){
+			// The peer receives with the id of its packets less one if it initiated 
+			// the connection, plus one if it accepted it
+			int ack = UTPSocket.getShort(data, 16);
+			this.sendReset(source, (connectionID - 1) & 0xFFFF, ack);
+			this.sendReset(source, (connectionID + 1) & 0xFFFF, ack);
+		}
+		return true;
+	}
+	
+	private void sendReset(InetSocketAddress destination, int connectionID, int ack) {
+		byte[] packet = new byte[UTPSocket.HEADER_SIZE];
+		packet[0] = (byte) ((UTPSocket.ST_RESET << 4) | UTPSocket.VERSION);
+		UTPSocket.putShort(packet, 2, connectionID);
+		UTPSocket.putShort(packet, 18, ack);
+		this.send(packet, destination);
+		synchronized (this) {
+			this.nbResetsSent++;
+		}
+	}
+	
+	/**
+	 * Opens a uTP connection with the peer
+	 * @param address InetSocketAddress
+	 * @param timeout int in milliseconds
+	 * @return UTPSocket connected
+	 * @throws IOException if the peer does not answer or refuses the connection
+	 */
+	public UTPSocket connect(InetSocketAddress address, int timeout) throws IOException {
+		UTPSocket socket;
+		synchronized (this.connections) {
+			int id;
+			do {
+				id = this.random.nextInt(0xFFFF);
+			} while (this.connections.containsKey(key(address, id)));
+			socket = new UTPSocket(this, address, id, (id + 1) & 0xFFFF, -1);
+			this.connections.put(key(address, id), socket);
+		}
+		socket.connect(timeout);
+		synchronized (this) {
+			this.nbConnectionsOpened++;
+		}
+		return socket;
+	}
+	
+	/**
+	 * Sends a packet of a connection
+	 * @param packet byte[]
+	 * @param destination InetSocketAddress
+	 */
+	void send(byte[] packet, InetSocketAddress destination) {
+		try {
+			this.listener.send(packet, destination);
+		} catch (IOException ioe) {
+			logger.debug("Error sending uTP packet to " + destination + ": " + ioe.getMessage());
+		}
+	}
+	
+	/**
+	 * Removes a connection closed or reset
+	 * @param socket UTPSocket
+	 */
+	void remove(UTPSocket socket) {
+		this.connections.remove(key(socket.getAddress(), socket.getRecvID()));
+	}
+	
+	public void run() {
+		long lastTick = System.currentTimeMillis();
+		while (this.run) {
+			try {
+				UTPSocket socket = this.accepted.poll(TICK_INTERVAL, TimeUnit.MILLISECONDS);
+				if(socket != null){
+					this.fireConnectionAccepted(socket);
+				}
+			} catch (InterruptedException ie) {
+				break;
+			}
+			long now = System.currentTimeMillis();
+			if(now - lastTick >= TICK_INTERVAL){
+				lastTick = now;
+				for (UTPSocket socket : this.connections.values()) {
+					socket.tick(now);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Stops accepting connections and the timer, and closes the UDP socket if 
+	 * it was created by the manager
+	 */
+	public void close() {
+		this.run = false;
+		this.listener.removeDatagramHandler(this);
+		for (UTPSocket socket : this.connections.values()) {
+			socket.close();
+		}
+		this.connections.clear();
+		if(this.ownListener){
+			this.listener.close();
+		}
+	}
+	
+	public void setAcceptConnection(boolean accept) {
+		this.acceptConnection = accept;
+	}
+	
+	public void addConListenerInterface(ConListenerInterface listener) {
+		this.listeners.add(ConListenerInterface.class, listener);
+	}
+	
+	public void removeConListenerInterface(ConListenerInterface listener) {
+		this.listeners.remove(ConListenerInterface.class, listener);
+	}
+	
+	public ConListenerInterface[] getConListenerInterfaces() {
+		return this.listeners.getListeners(ConListenerInterface.class);
+	}
+	
+	/**
+	 * Hands the connection accepted to the listeners, from the thread of the 
+	 * manager so that the DatagramListener is not blocked
+	 * @param s Socket
+	 */
+	protected void fireConnectionAccepted(Socket s) {
+		for (ConListenerInterface listener : this.getConListenerInterfaces()) {
+			listener.connectionAccepted(s);
+		}
+	}
+	
+	public DatagramListener getDatagramListener() {
+		return this.listener;
+	}
+	
+	public int getLocalPort() {
+		return this.listener.getLocalPort();
+	}
+	
+	public int getNbConnections() {
+		return this.connections.size();
+	}
+	
+	public synchronized long getNbConnectionsOpened() {
+		return this.nbConnectionsOpened;
+	}
+	
+	public synchronized long getNbConnectionsAccepted() {
+		return this.nbConnectionsAccepted;
+	}
+	
+	public synchronized long getNbResetsSent() {
+		return this.nbResetsSent;
+	}
+
+}
@@ -0,0 +1,833 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+package jbittorrent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Connection of the Micro Transport Protocol (uTP, BEP 29), a reliable and 
+ * ordered byte stream over UDP whose congestion control, LEDBAT, measures the 
+ * one-way queuing delay of the path and backs off when it reaches the target 
+ * delay (100 ms). The bulk transfers of BitTorrent then yield the bandwidth 
+ * to the interactive traffic of the same link, that TCP would delay behind a 
+ * full queue.
+ * <p>
+ * Each packet has a header of 20 bytes with the connection id, the time at 
+ * which it was sent and the one-way delay of the last packet received, the 
+ * free space of the receive buffer, and the sequence numbers of the packet and 
+ * of the last packet received in order. The packets lost are retransmitted 
+ * after the timeout computed from the round trip time, or after three 
+ * duplicate acknowledgements; the optional selective acknowledgements are not used.
+ * <p>
+ * The connection extends {@link Socket} so that a {@link DownloadTask} can use 
+ * it as a TCP connection. It is created by {@link UTPManager#connect} or 
+ * accepted by the {@link UTPManager}, which receives its packets and calls 
+ * {@link #tick} regularly for the retransmissions.
+ *
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ */
+public class UTPSocket extends Socket {
+	
+	public static final int ST_DATA = 0;
+	public static final int ST_FIN = 1;
+	public static final int ST_STATE = 2;
+	public static final int ST_RESET = 3;
+	public static final int ST_SYN = 4;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 20;
+	
+	/**
+	 * Maximal payload of a packet, so that the datagram is not fragmented
+	 */
+	public static final int MSS = 1400;
+	
+	/**
+	 * Target queuing delay of LEDBAT, in microseconds
+	 */
+	public static final long TARGET_DELAY = 100000;
+	
+	/**
+	 * Maximal growth of the congestion window, in bytes per round trip
+	 */
+	public static final int MAX_CWND_INCREASE = 3000;
+	public static final int MIN_WINDOW = 2 * MSS;
+	public static final int MAX_WINDOW = 1024 * 1024;
+	public static final int RECEIVE_BUFFER = 1024 * 1024;
+	public static final int SEND_BUFFER = 256 * 1024;
+	
+	public static final long MIN_TIMEOUT = 500;
+	public static final long MAX_TIMEOUT = 30000;
+	public static final int MAX_SYN_RETRIES = 4;
+	public static final int MAX_TIMEOUTS = 8;
+	
+	private static final int CS_SYN_SENT = 0;
+	private static final int CS_CONNECTED = 1;
+	private static final int CS_FIN_SENT = 2;
+	private static final int CS_CLOSED = 3;
+	private static final int CS_RESET = 4;
+	
+	private static Logger logger = Logger.getLogger(UTPSocket.class);
+	
+	/**
+	 * Packet sent and not acknowledged yet
+	 */
+	private static class Packet {
+		int type;
+		int seq;
+		byte[] payload;
+		int transmissions = 0;
+		long sent = 0;
+		boolean resend = false;
+	}
+	
+	private final UTPManager manager;
+	private final InetSocketAddress address;
+	private final int recvID;
+	private final int sendID;
+	private int state;
+	private boolean closed = false;
+	
+	private int seqNr;
+	private int ackNr;
+	private int eofSeq = -1;
+	private boolean eof = false;
+	
+	private LinkedList<Packet> outgoing = new LinkedList<Packet>();
+	private int outgoingBytes = 0;
+	private int curWindow = 0;
+	private int maxWindow = MIN_WINDOW;
+	private int peerWindow = RECEIVE_BUFFER;
+	private int lastAck = -1;
+	private int duplicateAcks = 0;
+	private long lastWindowDecay = 0;
+	
+	private TreeMap<Integer, byte[]> reorder = new TreeMap<Integer, byte[]>();
+	private LinkedList<byte[]> received = new LinkedList<byte[]>();
+	private int receivedOffset = 0;
+	private int receivedBytes = 0;
+	
+	private long replyMicro = 0;
+	private long rtt = 0;
+	private long rttVar = 0;
+	private long timeout = 1000;
+	private int nbTimeouts = 0;
+	private long synSent = 0;
+	private long lastReceived = System.currentTimeMillis();
+	private int synRetries = 0;
+	
+	/*
+	 * LEDBAT: minimum of the delays measured in the current and in the last 
+	 * minute (base delay), and the last delays measured
+	 */
+	private long targetDelay = TARGET_DELAY;
+	private long[] baseDelays = {Long.MAX_VALUE, Long.MAX_VALUE};
+	private long baseDelayMinute = 0;
+	private long[] currentDelays = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+	private int currentDelayIndex = 0;
+	private long queuingDelay = 0;
+	
+	private int soTimeout = 0;
+	
+	private long nbPacketsSent = 0;
+	private long nbRetransmits = 0;
+	private long nbPacketsReceived = 0;
+	
+	private final InputStream in = new InputStream() {
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+		public int read(byte[] b, int off, int len) throws IOException {
+			return UTPSocket.this.read(b, off, len);
+		}
+		public int available() {
+			return UTPSocket.this.available();
+		}
+	};
+	
+	private final OutputStream out = new OutputStream() {
+		public void write(int b) throws IOException {
+			this.write(new byte[]{(byte) b}, 0, 1);
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			UTPSocket.this.write(b, off, len);
+		}
+	};
+	
+	/**
+	 * Creates a connection with the remote peer, in the SYN_SENT state if it is 
+	 * initiated by this client (the SYN is sent by {@link #connect()}), or 
+	 * connected if it is accepted, after the SYN with the given sequence number.
+	 * @param manager UTPManager
+	 * @param address InetSocketAddress the address of the peer
+	 * @param recvID int the connection id of the packets received
+	 * @param sendID int the connection id of the packets sent
+	 * @param synSeq int the sequence number of the SYN received, or -1 if this client initiates the connection
+	 */
+	UTPSocket(UTPManager manager, InetSocketAddress address, int recvID, int sendID, int synSeq) {
+		this.manager = manager;
+		this.address = address;
+		this.recvID = recvID;
+		this.sendID = sendID;
+		if(synSeq == -1){
+			this.state = CS_SYN_SENT;
+			this.seqNr = 1;
+			this.ackNr = 0;
+		}else{
+			this.state = CS_CONNECTED;
+			this.seqNr = (int) (Math.random() * 0xFFFF) + 1;
+			this.ackNr = synSeq;
+		}
+	}
+	
+	/**
+	 * Sends the SYN and waits for the answer of the peer
+	 * @param timeout int in milliseconds
+	 * @throws IOException if the peer does not answer or resets the connection
+	 */
+	synchronized void connect(int timeout) throws IOException {
+		this.sendSyn();
+		long deadline = System.currentTimeMillis() + timeout;
+		while(this.state == CS_SYN_SENT){
+			long wait = deadline - System.currentTimeMillis();
+			if(wait <= 0){
+				this.state = CS_CLOSED;
+				this.manager.remove(this);
+				throw new SocketTimeoutException("uTP connection to " + this.address + " timed out");
+			}
+			try {
+				this.wait(wait);
+			} catch (InterruptedException ie) {
+				throw new SocketException("Interrupted");
+			}
+		}
+		if(this.state != CS_CONNECTED){
+			throw new SocketException("uTP connection to " + this.address + " refused");
+		}
+	}
+	
+	private void sendSyn() {
+		this.synSent = System.currentTimeMillis();
+		this.sendPacket(ST_SYN, 1, this.recvID, null);
+	}
+	
+	/**
+	 * Returns the current time in microseconds, truncated to 32 bits
+	 * @return long
+	 */
+	private static long micros() {
+		return (System.nanoTime() / 1000) & 0xFFFFFFFFL;
+	}
+	
+	/**
+	 * Creates and sends a packet
+	 * @param type int
+	 * @param seq int
+	 * @param connectionID int
+	 * @param payload byte[] or null
+	 */
+	private void sendPacket(int type, int seq, int connectionID, byte[] payload) {
+		byte[] packet = new byte[HEADER_SIZE + (payload == null ? 0 : payload.length)];
+		packet[0] = (byte) ((type << 4) | VERSION);
+		packet[1] = 0;
+		putShort(packet, 2, connectionID);
+		putInt(packet, 4, micros());
+		putInt(packet, 8, this.replyMicro);
+		putInt(packet, 12, Math.max(0, RECEIVE_BUFFER - this.receivedBytes - this.reorderBytes()));
+		putShort(packet, 16, seq);
+		putShort(packet, 18, this.ackNr);
+		if(payload != null){
+			System.arraycopy(payload, 0, packet, HEADER_SIZE, payload.length);
+		}
+		this.nbPacketsSent++;
+		this.manager.send(packet, this.address);
+	}
+	
+	private int reorderBytes() {
+		int bytes = 0;
+		for (byte[] b : this.reorder.values()) {
+			bytes += b.length;
+		}
+		return bytes;
+	}
+	
+	static void putShort(byte[] b, int offset, int value) {
+		b[offset] = (byte) (value >> 8);
+		b[offset + 1] = (byte) value;
+	}
+	
+	static void putInt(byte[] b, int offset, long value) {
+		b[offset] = (byte) (value >> 24);
+		b[offset + 1] = (byte) (value >> 16);
+		b[offset + 2] = (byte) (value >> 8);
+		b[offset + 3] = (byte) value;
+	}
+	
+	static int getShort(byte[] b, int offset) {
+		return ((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF);
+	}
+	
+	static long getInt(byte[] b, int offset) {
+		return ((long) (b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16) 
+				| ((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+	}
+	
+	/**
+	 * Compares two sequence numbers of 16 bits, that wrap around
+	 * @return a negative value if a is before b, 0 if equal, positive if after
+	 */
+	private static int compareSeq(int a, int b) {
+		return (short) (a - b);
+	}
+	
+	/**
+	 * Received from the {@link UTPManager} for each packet of this connection
+	 * @param data byte[] the packet, with its header
+	 */
+	synchronized void packetReceived(byte[] data) {
+		
+		int type = (data[0] & 0xFF) >> 4;
+		long timestamp = getInt(data, 4);
+		long timestampDiff = getInt(data, 8);
+		int seq = getShort(data, 16);
+		int ack = getShort(data, 18);
+		this.nbPacketsReceived++;
+		this.lastReceived = System.currentTimeMillis();
+		
+		if(type == ST_RESET){
+			this.state = CS_RESET;
+			this.manager.remove(this);
+			this.notifyAll();
+			return;
+		}
+		if(type == ST_SYN){
+			// The SYN was retransmitted, our answer was lost
+			if(seq == this.ackNr){
+				this.sendPacket(ST_STATE, this.seqNr, this.sendID, null);
+			}
+			return;
+		}
+		
+		this.replyMicro = (micros() - timestamp) & 0xFFFFFFFFL;
+		this.peerWindow = (int) Math.min(getInt(data, 12), Integer.MAX_VALUE);
+		
+		if(this.state == CS_SYN_SENT){
+			if(type != ST_STATE){
+				return;
+			}
+			this.state = CS_CONNECTED;
+			this.seqNr = 2;
+			this.ackNr = (seq - 1) & 0xFFFF;
+			this.lastAck = ack;
+			this.updateRTT(System.currentTimeMillis() - this.synSent);
+			this.notifyAll();
+			return;
+		}
+		
+		this.processAck(ack, type == ST_STATE, timestampDiff);
+		
+		if(type == ST_DATA || type == ST_FIN){
+			int payload = data.length - HEADER_SIZE;
+			if(type == ST_FIN){
+				this.eofSeq = seq;
+			}
+			if(compareSeq(seq, this.ackNr) > 0 && compareSeq(seq, this.ackNr) < 0x4000){
+				this.reorder.put(seq, Utils.subArray(data, HEADER_SIZE, payload));
+				// Deliver the packets received in order
+				byte[] next;
+				while((next = this.reorder.remove((this.ackNr + 1) & 0xFFFF)) != null){
+					this.ackNr = (this.ackNr + 1) & 0xFFFF;
+					if(next.length > 0){
+						this.received.add(next);
+						this.receivedBytes += next.length;
+					}
+					if(this.ackNr == this.eofSeq){
+						this.eof = true;
+					}
+				}
+			}
+			this.sendPacket(ST_STATE, this.seqNr, this.sendID, null);
+			this.notifyAll();
+			this.checkClosed();
+		}
+		this.flushPackets();
+	}
+	
+	/**
+	 * Removes the packets acknowledged, updates the congestion window with the 
+	 * delay measured by the peer (LEDBAT), and retransmits the first packet 
+	 * after three duplicate acknowledgements.
+	 * @param ack int the sequence number of the last packet received in order by the peer
+	 * @param stateOnly boolean true if the packet only acknowledges
+	 * @param timestampDiff long the delay of our last packet measured by the peer
+	 */
+	private void processAck(int ack, boolean stateOnly, long timestampDiff) {
+		
+		long now = System.currentTimeMillis();
+		int acked = 0;
+		for (Iterator<Packet> it = this.outgoing.iterator(); it.hasNext(); ) {
+			Packet p = it.next();
+			if(p.transmissions == 0 || compareSeq(p.seq, ack) > 0){
+				break;
+			}
+			it.remove();
+			this.outgoingBytes -= p.payload.length;
+			if(!p.resend){
+				this.curWindow -= p.payload.length;
+			}
+			acked += p.payload.length;
+			if(p.transmissions == 1){
+				this.updateRTT(now - p.sent);
+			}
+		}
+		
+		if(acked > 0){
+			this.duplicateAcks = 0;
+			this.nbTimeouts = 0;
+			if(timestampDiff != 0){
+				this.updateDelay(timestampDiff, now);
+			}
+			this.updateWindow(acked);
+			this.notifyAll();
+			this.checkClosed();
+		}else if(stateOnly && ack == this.lastAck && !this.outgoing.isEmpty() && this.outgoing.getFirst().transmissions > 0){
+			if(++this.duplicateAcks == 3){
+				Packet first = this.outgoing.getFirst();
+				this.transmit(first);
+				this.nbRetransmits++;
+				if(now - this.lastWindowDecay > this.rtt){
+					this.maxWindow = Math.max(MIN_WINDOW, this.maxWindow / 2);
+					this.lastWindowDecay = now;
+				}
+			}
+		}
+		this.lastAck = ack;
+	}
+	
+	/**
+	 * The connection is removed from the manager when the FIN of both peers 
+	 * are acknowledged
+	 */
+	private void checkClosed() {
+		if(this.state == CS_FIN_SENT && this.outgoing.isEmpty() && this.eof){
+			this.state = CS_CLOSED;
+			this.manager.remove(this);
+		}
+	}
+	
+	private void updateRTT(long sample) {
+		if(this.rtt == 0){
+			this.rtt = sample;
+			this.rttVar = sample / 2;
+		}else{
+			this.rttVar += (Math.abs(this.rtt - sample) - this.rttVar) / 4;
+			this.rtt += (sample - this.rtt) / 8;
+		}
+		this.timeout = Math.max(MIN_TIMEOUT, this.rtt + 4 * this.rttVar);
+	}
+	
+	/**
+	 * Keeps the one-way delay measured by the peer. The base delay is the minimum 
+	 * of the last two minutes, so that the difference of the clocks of the two 
+	 * peers cancels out; the queuing delay is the minimum of the last three 
+	 * delays less the base delay.
+	 * @param delay long in microseconds
+	 * @param now long
+	 */
+	private void updateDelay(long delay, long now) {
+		long minute = now / 60000;
+		if(minute != this.baseDelayMinute){
+			this.baseDelayMinute = minute;
+			this.baseDelays[0] = this.baseDelays[1];
+			this.baseDelays[1] = Long.MAX_VALUE;
+		}
+		this.baseDelays[1] = Math.min(this.baseDelays[1], delay);
+		this.currentDelays[this.currentDelayIndex] = delay;
+		this.currentDelayIndex = (this.currentDelayIndex + 1) % this.currentDelays.length;
+		
+		long base = Math.min(this.baseDelays[0], this.baseDelays[1]);
+		long current = Long.MAX_VALUE;
+		for (long d : this.currentDelays) {
+			current = Math.min(current, d);
+		}
+		this.queuingDelay = Math.max(0, current - base);
+	}
+	
+	/**
+	 * LEDBAT: the window grows, by at most MAX_CWND_INCREASE bytes per round trip, 
+	 * while the queuing delay is below the target, and shrinks in proportion 
+	 * when it is above.
+	 * @param acked int the bytes acknowledged
+	 */
+	private void updateWindow(int acked) {
+		double offTarget = (double) (this.targetDelay - this.queuingDelay) / this.targetDelay;
+		double windowFactor = (double) acked / Math.max(this.maxWindow, acked);
+		double gain = MAX_CWND_INCREASE * offTarget * windowFactor;
+		this.maxWindow = (int) Math.max(MIN_WINDOW, Math.min(MAX_WINDOW, this.maxWindow + gain));
+	}
+	
+	/**
+	 * Sends the packets that fit in the congestion window and in the receive 
+	 * window of the peer; a packet is always allowed if nothing is in flight.
+	 */
+	private void flushPackets() {
+		if(this.state != CS_CONNECTED && this.state != CS_FIN_SENT){
+			return;
+		}
+		int window = Math.min(this.maxWindow, this.peerWindow);
+		for (Packet p : this.outgoing) {
+			if(p.transmissions > 0 && !p.resend){
+				continue;
+			}
+			if(this.curWindow > 0 && this.curWindow + p.payload.length > window){
+				break;
+			}
+			if(p.resend){
+				this.nbRetransmits++;
+			}
+			this.transmit(p);
+		}
+	}
+	
+	private void transmit(Packet p) {
+		if(p.transmissions == 0 || p.resend){
+			this.curWindow += p.payload.length;
+		}
+		p.transmissions++;
+		p.resend = false;
+		p.sent = System.currentTimeMillis();
+		this.sendPacket(p.type, p.seq, this.sendID, p.payload);
+	}
+	
+	/**
+	 * Called regularly by the {@link UTPManager}: retransmits the SYN, and all 
+	 * the packets in flight when the first one times out, with the window reduced 
+	 * to its minimum. The connection is reset after too many timeouts.
+	 * @param now long
+	 */
+	synchronized void tick(long now) {
+		
+		if(this.state == CS_SYN_SENT){
+			if(now - this.synSent > this.timeout){
+				if(++this.synRetries > MAX_SYN_RETRIES){
+					this.state = CS_RESET;
+					this.manager.remove(this);
+					this.notifyAll();
+					return;
+				}
+				this.timeout = Math.min(MAX_TIMEOUT, this.timeout * 2);
+				this.sendSyn();
+			}
+			return;
+		}
+		if(this.state != CS_CONNECTED && this.state != CS_FIN_SENT){
+			return;
+		}
+		if(this.state == CS_FIN_SENT && this.outgoing.isEmpty() && now - this.lastReceived > MAX_TIMEOUT){
+			// The peer did not close its side
+			this.state = CS_CLOSED;
+			this.manager.remove(this);
+			return;
+		}
+		
+		Packet first = this.outgoing.isEmpty() ? null : this.outgoing.getFirst();
+		if(first != null && first.transmissions > 0 && !first.resend && now - first.sent > this.timeout){
+			if(++this.nbTimeouts > MAX_TIMEOUTS){
+				logger.warn("uTP connection to " + this.address + " timed out");
+				this.sendPacket(ST_RESET, this.seqNr, this.sendID, null);
+				this.state = CS_RESET;
+				this.manager.remove(this);
+				this.notifyAll();
+				return;
+			}
+			for (Packet p : this.outgoing) {
+				if(p.transmissions > 0){
+					p.resend = true;
+				}
+			}
+			this.curWindow = 0;
+			this.maxWindow = MIN_WINDOW;
+			this.timeout = Math.min(MAX_TIMEOUT, this.timeout * 2);
+			this.flushPackets();
+		}
+	}
+	
+	/**
+	 * Queues data to send, in packets of at most MSS bytes. The data is added to 
+	 * the last packet if it has not been sent yet. Blocks while the send buffer is full.
+	 */
+	private synchronized void write(byte[] b, int off, int len) throws IOException {
+		
+		while(len > 0){
+			this.checkOpen();
+			if(this.closed || this.state == CS_FIN_SENT){
+				throw new SocketException("Socket closed");
+			}
+			if(this.outgoingBytes >= SEND_BUFFER){
+				try {
+					this.wait(1000);
+				} catch (InterruptedException ie) {
+					throw new SocketException("Interrupted");
+				}
+				continue;
+			}
+			Packet last = this.outgoing.isEmpty() ? null : this.outgoing.getLast();
+			int n;
+			if(last != null && last.type == ST_DATA && last.transmissions == 0 && last.payload.length < MSS){
+				n = Math.min(len, MSS - last.payload.length);
+				byte[] payload = new byte[last.payload.length + n];
+				System.arraycopy(last.payload, 0, payload, 0, last.payload.length);
+				System.arraycopy(b, off, payload, last.payload.length, n);
+				last.payload = payload;
+			}else{
+				n = Math.min(len, MSS);
+				Packet p = new Packet();
+				p.type = ST_DATA;
+				p.seq = this.seqNr;
+				this.seqNr = (this.seqNr + 1) & 0xFFFF;
+				p.payload = Utils.subArray(b, off, n);
+				this.outgoing.add(p);
+			}
+			this.outgoingBytes += n;
+			off += n;
+			len -= n;
+		}
+		this.flushPackets();
+	}
+	
+	private synchronized int read(byte[] b, int off, int len) throws IOException {
+		
+		long deadline = this.soTimeout > 0 ? System.currentTimeMillis() + this.soTimeout : 0;
+		while(this.received.isEmpty()){
+			if(this.eof){
+				return -1;
+			}
+			this.checkOpen();
+			if(this.closed){
+				throw new SocketException("Socket closed");
+			}
+			long wait = deadline == 0 ? 1000 : deadline - System.currentTimeMillis();
+			if(wait <= 0){
+				throw new SocketTimeoutException("Read timed out");
+			}
+			try {
+				this.wait(wait);
+			} catch (InterruptedException ie) {
+				throw new SocketException("Interrupted");
+			}
+		}
+		int n = 0;
+		while(n < len && !this.received.isEmpty()){
+			byte[] first = this.received.getFirst();
+			int c = Math.min(len - n, first.length - this.receivedOffset);
+			System.arraycopy(first, this.receivedOffset, b, off + n, c);
+			n += c;
+			this.receivedOffset += c;
+			if(this.receivedOffset == first.length){
+				this.received.removeFirst();
+				this.receivedOffset = 0;
+			}
+		}
+		boolean wasFull = this.receivedBytes >= RECEIVE_BUFFER / 2;
+		this.receivedBytes -= n;
+		if(wasFull && this.receivedBytes < RECEIVE_BUFFER / 2){
+			// The receive window was small, the peer is told that it opened
+			this.sendPacket(ST_STATE, this.seqNr, this.sendID, null);
+		}
+		return n;
+	}
+	
+	private synchronized int available() {
+		return this.receivedBytes;
+	}
+	
+	private void checkOpen() throws SocketException {
+		if(this.state == CS_RESET){
+			throw new SocketException("Connection reset");
+		}
+	}
+	
+	/**
+	 * Closes the connection: the FIN is sent after the data queued, and the 
+	 * connection is removed from the manager when it is acknowledged and the 
+	 * peer has closed its side too.
+	 */
+	public synchronized void close() {
+		if(this.closed){
+			return;
+		}
+		this.closed = true;
+		if(this.state == CS_CONNECTED){
+			Packet fin = new Packet();
+			fin.type = ST_FIN;
+			fin.seq = this.seqNr;
+			fin.payload = new byte[0];
+			this.seqNr = (this.seqNr + 1) & 0xFFFF;
+			this.outgoing.add(fin);
+			this.state = CS_FIN_SENT;
+			this.flushPackets();
+		}else if(this.state == CS_SYN_SENT){
+			this.state = CS_CLOSED;
+			this.manager.remove(this);
+		}
+		this.notifyAll();
+	}
+	
+	/**
+	 * Sets the target queuing delay of LEDBAT, by default 100 ms. A larger 
+	 * target lets the connection fill the queues, as TCP does.
+	 * @param micros long in microseconds
+	 */
+	public synchronized void setTargetDelay(long micros) {
+		this.targetDelay = micros;
+	}
+	
+	public synchronized long getTargetDelay() {
+		return this.targetDelay;
+	}
+	
+	/**
+	 * Returns the last queuing delay measured, in microseconds
+	 * @return long
+	 */
+	public synchronized long getQueuingDelay() {
+		return this.queuingDelay;
+	}
+	
+	/**
+	 * Returns the congestion window, in bytes
+	 * @return int
+	 */
+	public synchronized int getWindow() {
+		return this.maxWindow;
+	}
+	
+	/**
+	 * Returns the smoothed round trip time, in milliseconds
+	 * @return long
+	 */
+	public synchronized long getRTT() {
+		return this.rtt;
+	}
+	
+	public synchronized long getNbPacketsSent() {
+		return this.nbPacketsSent;
+	}
+	
+	public synchronized long getNbPacketsReceived() {
+		return this.nbPacketsReceived;
+	}
+	
+	public synchronized long getNbRetransmits() {
+		return this.nbRetransmits;
+	}
+	
+	int getRecvID() {
+		return this.recvID;
+	}
+	
+	InetSocketAddress getAddress() {
+		return this.address;
+	}
+	
+	public InputStream getInputStream() {
+		return this.in;
+	}
+	
+	public OutputStream getOutputStream() {
+		return this.out;
+	}
+	
+	public InetAddress getInetAddress() {
+		return this.address.getAddress();
+	}
+	
+	public int getPort() {
+		return this.address.getPort();
+	}
+	
+	public SocketAddress getRemoteSocketAddress() {
+		return this.address;
+	}
+	
+	public int getLocalPort() {
+		return this.manager.getLocalPort();
+	}
+	
+	public synchronized boolean isConnected() {
+		return this.state == CS_CONNECTED || this.state == CS_FIN_SENT;
+	}
+	
+	public synchronized boolean isClosed() {
+		return this.closed || this.state == CS_CLOSED || this.state == CS_RESET;
+	}
+	
+	public synchronized void setSoTimeout(int timeout) {
+		this.soTimeout = timeout;
+	}
+	
+	public synchronized int getSoTimeout() {
+		return this.soTimeout;
+	}
+	
+	public String toString() {
+		return "UTPSocket[" + this.address + ", id " + this.recvID + "]";
+	}
+
+}
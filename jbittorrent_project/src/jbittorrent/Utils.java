@@ -412,6 +412,19 @@ public class Utils {
                 return false;
         return true;
     }
+    
+    /**
+     * Compare 2 byte arrays byte to byte, as unsigned values
+     * @param a byte[]
+     * @param b byte[]
+     * @return int negative, zero or positive if a is lower, equal or greater than b
+     */
+    public static int bytesCompareTo(byte[] a, byte[] b){
+        for(int i = 0; i < a.length && i < b.length; i++)
+            if(a[i] != b[i])
+                return (a[i] & 0xFF) - (b[i] & 0xFF);
+        return a.length - b.length;
+    }
 
     /**
      * Copy the input byte array to the output byte array
@@ -0,0 +1,692 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+package jbittorrent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Downloads pieces of the torrent from an HTTP web seed of its url-list 
+ * (BEP 19). The web seed is a virtual peer that has all the pieces: the 
+ * pieces are chosen by the {@link DownloadManager} like for the other peers, 
+ * End Game mode included, and the contiguous blocks of a piece that are not 
+ * requested yet are requested with one HTTP range request of the part of the 
+ * file(s) they cover. The response is split into blocks as it is received. 
+ * The requests are pipelined on a persistent connection.
+ * <p>
+ * When the server fails, the blocks requested are released for the other 
+ * peers and the web seed is retried later, waiting twice as long each time. 
+ * A server that ignores the ranges, and answers with the whole file, is only 
+ * used for the blocks of its first response: the web seed is stopped.
+ *
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ */
+public class WebSeed extends Thread {
+	
+	/**
+	 * Number of blocks requested and not received yet, and the largest number 
+	 * of blocks requested with one range request
+	 */
+	public static final int PIPELINE_DEPTH = 32;
+	
+	/**
+	 * Number of pieces downloaded at the same time
+	 */
+	public static final int MAX_PIECES = 4;
+	
+	public static final long MIN_RETRY = 5000;
+	public static final long MAX_RETRY = 5 * 60000;
+	public static final int CONNECT_TIMEOUT = 10000;
+	public static final int READ_TIMEOUT = 30000;
+	
+	private static Logger logger = Logger.getLogger(WebSeed.class);
+	
+	/**
+	 * Part of a span that is in a single file
+	 */
+	private static class Range {
+		int file;
+		long offset;
+		int length;
+		int dest;
+	}
+	
+	/**
+	 * Contiguous blocks of a piece requested with one range request for each 
+	 * file they cover
+	 */
+	private static class SpanRequest {
+		Piece piece;
+		int begin;
+		int blockSize;
+		int nbBlocks;
+		byte[] data;
+		int delivered = 0;
+		List<Range> ranges = new ArrayList<Range>();
+	}
+	
+	/**
+	 * Piece being downloaded from the web seed
+	 */
+	private static class ActivePiece {
+		Piece piece;
+		boolean endGame;
+		boolean moreBlocks = true;
+		LinkedList<Integer> pending = new LinkedList<Integer>();
+	}
+	
+	private final DownloadManager downloadManager;
+	private final TorrentFile torrent;
+	private final String url;
+	private final String id;
+	private final long[] fileOffsets;
+	
+	private URL server;
+	private Socket socket = null;
+	private InputStream is;
+	private OutputStream os;
+	
+	private LinkedHashMap<Integer, ActivePiece> active = new LinkedHashMap<Integer, ActivePiece>();
+	private LinkedList<SpanRequest> inFlight = new LinkedList<SpanRequest>();
+	private int nbBlocksInFlight = 0;
+	private volatile boolean run = true;
+	private volatile boolean rangeSupported = true;
+	private long retry = MIN_RETRY;
+	
+	private long nbBytes = 0;
+	private long nbRequests = 0;
+	private long nbConnections = 0;
+	private long nbErrors = 0;
+	
+	/**
+	 * Creates the web seed of the torrent with the given URL of the url-list
+	 * @param downloadManager DownloadManager
+	 * @param torrent TorrentFile
+	 * @param url String
+	 */
+	public WebSeed(DownloadManager downloadManager, TorrentFile torrent, String url) {
+		super("WebSeed " + url);
+		this.downloadManager = downloadManager;
+		this.torrent = torrent;
+		this.url = url;
+		this.id = "webseed:" + url;
+		this.setDaemon(true);
+		this.fileOffsets = new long[torrent.length.size()];
+		for (int i = 1; i < this.fileOffsets.length; i++) {
+			this.fileOffsets[i] = this.fileOffsets[i - 1] + torrent.length.get(i - 1).longValue();
+		}
+	}
+	
+	/**
+	 * Returns the identifier of the web seed in the DownloadManager
+	 * @return String
+	 */
+	public String getID() {
+		return this.id;
+	}
+	
+	public String getURL() {
+		return this.url;
+	}
+	
+	/**
+	 * Returns false if the server has ignored the range requests, the web seed 
+	 * is then stopped
+	 * @return boolean
+	 */
+	public boolean isRangeSupported() {
+		return this.rangeSupported;
+	}
+	
+	private static String encode(String s) throws UnsupportedEncodingException {
+		return URLEncoder.encode(s, "UTF-8").replace("+", "%20");
+	}
+	
+	/**
+	 * Returns the URL of the file: the URL of the web seed for a single file 
+	 * torrent, unless it ends with '/', and the URL of the web seed followed by 
+	 * the name of the torrent and the path of the file for a multiple files torrent.
+	 * @param file int
+	 * @return URL
+	 */
+	private URL getFileURL(int file) throws IOException {
+		String u = this.url;
+		if (this.torrent.name.size() == 1 && this.torrent.filePaths.size() <= 1) {
+			if (u.endsWith("/")) {
+				u += encode(this.torrent.saveAs);
+			}
+		} else {
+			if (!u.endsWith("/")) {
+				u += "/";
+			}
+			u += encode(this.torrent.saveAs);
+			for (String component : this.torrent.filePaths.get(file)) {
+				u += "/" + encode(component);
+			}
+		}
+		try {
+			URL fileURL = new URL(u);
+			if (!"http".equals(fileURL.getProtocol())) {
+				throw new IOException("Unsupported protocol: " + u);
+			}
+			return fileURL;
+		} catch (MalformedURLException mue) {
+			throw new IOException("Malformed URL: " + u);
+		}
+	}
+	
+	public void run() {
+		
+		while (this.run) {
+			boolean idle = true;
+			try {
+				idle = this.download();
+				this.retry = MIN_RETRY;
+			} catch (IOException ioe) {
+				if (!this.run) {
+					break;
+				}
+				logger.warn(this.id + " failed, retry in " + (this.retry / 1000) + " s: " + ioe.getMessage());
+				synchronized (this) {
+					this.nbErrors++;
+				}
+				this.abort();
+				this.pause(this.retry);
+				this.retry = Math.min(MAX_RETRY, this.retry * 2);
+				continue;
+			}
+			if (idle) {
+				this.pause(1000);
+			}
+		}
+		this.abort();
+	}
+	
+	private void pause(long time) {
+		try {
+			Thread.sleep(time);
+		} catch (InterruptedException ie) {
+		}
+	}
+	
+	/**
+	 * Requests the blocks of the pieces chosen by the manager, keeping at least 
+	 * PIPELINE_DEPTH blocks requested, until there are not more pieces to download
+	 * @return true if no piece could be downloaded
+	 * @throws IOException if the server fails
+	 */
+	private boolean download() throws IOException {
+		
+		boolean idle = true;
+		while (this.run) {
+			
+			while (this.nbBlocksInFlight < PIPELINE_DEPTH) {
+				SpanRequest r = this.nextSpan();
+				if (r == null) {
+					break;
+				}
+				this.connect();
+				for (Range range : r.ranges) {
+					this.sendRequest(range);
+				}
+				this.inFlight.add(r);
+				this.nbBlocksInFlight += r.nbBlocks;
+			}
+			if (this.inFlight.isEmpty()) {
+				return idle;
+			}
+			idle = false;
+			this.os.flush();
+			
+			// The span stays in flight until all its blocks are received, so that the others are released on failure
+			SpanRequest r = this.inFlight.getFirst();
+			boolean keepAlive = true;
+			for (Range range : r.ranges) {
+				keepAlive &= this.readResponse(r, range);
+			}
+			this.inFlight.removeFirst();
+			if (!this.rangeSupported) {
+				logger.warn(this.id + " ignores the range requests, stopped");
+				this.run = false;
+				return false;
+			}
+			if (!keepAlive) {
+				// The requests sent after the last response will not be answered
+				this.releaseInFlight();
+				this.close();
+			}
+		}
+		return idle;
+	}
+	
+	/**
+	 * Returns the next span to request, of the pieces being downloaded or of a 
+	 * new piece chosen by the manager, or null if there is not any
+	 * @return SpanRequest
+	 */
+	private SpanRequest nextSpan() {
+		
+		for (ActivePiece a : this.active.values()) {
+			if (!a.moreBlocks) {
+				continue;
+			}
+			int offset = this.downloadManager.nextBlock(a.piece, a.pending, a.endGame);
+			if (offset != -1) {
+				return this.createRequest(a, offset);
+			}
+			a.moreBlocks = false;
+		}
+		
+		while (this.active.size() < MAX_PIECES) {
+			int index = this.downloadManager.webSeedReady(this.id);
+			if (index == -1 || this.active.containsKey(index)) {
+				// In End Game mode the piece chosen can be one that is already downloaded
+				return null;
+			}
+			ActivePiece a = new ActivePiece();
+			a.piece = this.downloadManager.getPiece(index);
+			// In End Game mode all the blocks of the piece are requested to other peers
+			a.endGame = !a.piece.hasUnrequestedBlocks();
+			a.piece.addDownloader();
+			this.active.put(index, a);
+			int offset = this.downloadManager.nextBlock(a.piece, a.pending, a.endGame);
+			if (offset != -1) {
+				return this.createRequest(a, offset);
+			}
+			a.moreBlocks = false;
+			this.checkPiece(a);
+		}
+		return null;
+	}
+	
+	/**
+	 * Extends the block to the blocks that follow it and that are not requested 
+	 * yet, up to PIPELINE_DEPTH blocks, and maps the span to the ranges of the 
+	 * files it covers
+	 * @param a ActivePiece
+	 * @param offset int the first block, already requested
+	 * @return SpanRequest
+	 */
+	private SpanRequest createRequest(ActivePiece a, int offset) {
+		
+		SpanRequest r = new SpanRequest();
+		r.piece = a.piece;
+		r.begin = offset;
+		r.blockSize = a.piece.getBlockSize();
+		int index = a.piece.getIndex();
+		int length = 0;
+		do {
+			int blockLength = Math.min(r.blockSize, a.piece.getLength() - offset);
+			a.pending.add(Integer.valueOf(offset));
+			this.downloadManager.blockRequested(this.id, index, offset, blockLength);
+			r.nbBlocks++;
+			length += blockLength;
+			offset += blockLength;
+		} while (r.nbBlocks < PIPELINE_DEPTH && offset < a.piece.getLength() 
+				&& !a.pending.contains(Integer.valueOf(offset)) && a.piece.claimBlock(offset, a.endGame));
+		r.data = new byte[length];
+		
+		long position = (long) index * this.torrent.pieceLength + r.begin;
+		int dest = 0;
+		for (int file = 0; file < this.fileOffsets.length && dest < length; file++) {
+			long fileLength = this.torrent.length.get(file).longValue();
+			if (position >= this.fileOffsets[file] + fileLength) {
+				continue;
+			}
+			Range range = new Range();
+			range.file = file;
+			range.offset = position - this.fileOffsets[file];
+			range.length = (int) Math.min(length - dest, fileLength - range.offset);
+			range.dest = dest;
+			r.ranges.add(range);
+			dest += range.length;
+			position += range.length;
+		}
+		return r;
+	}
+	
+	/**
+	 * Opens the persistent connection with the server, if it is not open
+	 */
+	private void connect() throws IOException {
+		
+		if (this.socket != null) {
+			return;
+		}
+		this.server = this.getFileURL(0);
+		Socket s = new Socket();
+		int port = this.server.getPort() != -1 ? this.server.getPort() : this.server.getDefaultPort();
+		s.connect(new InetSocketAddress(this.server.getHost(), port), CONNECT_TIMEOUT);
+		s.setSoTimeout(READ_TIMEOUT);
+		this.socket = s;
+		this.is = new BufferedInputStream(s.getInputStream());
+		this.os = new BufferedOutputStream(s.getOutputStream());
+		synchronized (this) {
+			this.nbConnections++;
+		}
+	}
+	
+	private void close() {
+		if (this.socket != null) {
+			try {
+				this.socket.close();
+			} catch (IOException ioe) {
+			}
+			this.socket = null;
+		}
+	}
+	
+	private void sendRequest(Range range) throws IOException {
+		
+		URL file = this.getFileURL(range.file);
+		String host = file.getHost() + (file.getPort() != -1 ? ":" + file.getPort() : "");
+		String request = "GET " + file.getFile() + " HTTP/1.1\r\n" 
+				+ "Host: " + host + "\r\n" 
+				+ "Range: bytes=" + range.offset + "-" + (range.offset + range.length - 1) + "\r\n" 
+				+ "User-Agent: jbittorrent\r\n" 
+				+ "\r\n";
+		this.os.write(request.getBytes("ISO-8859-1"));
+		synchronized (this) {
+			this.nbRequests++;
+		}
+	}
+	
+	private String readLine() throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = this.is.read()) != '\n') {
+			if (c == -1) {
+				throw new EOFException("Connection closed by the server");
+			}
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
+	
+	private void readFully(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = this.is.read(b, off, len);
+			if (n == -1) {
+				throw new EOFException("Connection closed by the server");
+			}
+			off += n;
+			len -= n;
+		}
+	}
+	
+	private void skip(long len) throws IOException {
+		byte[] b = new byte[8192];
+		while (len > 0) {
+			int n = (int) Math.min(b.length, len);
+			this.readFully(b, 0, n);
+			len -= n;
+		}
+	}
+	
+	/**
+	 * Reads the response of a range request into the span. A server that does 
+	 * not support the ranges answers with the whole file, of which the range is 
+	 * kept, and the web seed is stopped after the span.
+	 * @param r SpanRequest
+	 * @param range Range
+	 * @return false if the server closes the connection after the response
+	 * @throws IOException if the response is an error or is malformed
+	 */
+	private boolean readResponse(SpanRequest r, Range range) throws IOException {
+		
+		String status = this.readLine();
+		String[] parts = status.split(" ");
+		if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+			throw new IOException("Malformed response: " + status);
+		}
+		int code;
+		try {
+			code = Integer.parseInt(parts[1]);
+		} catch (NumberFormatException nfe) {
+			throw new IOException("Malformed response: " + status);
+		}
+		
+		long contentLength = -1;
+		long rangeStart = -1;
+		boolean keepAlive = !parts[0].equals("HTTP/1.0");
+		String line;
+		while ((line = this.readLine()).length() > 0) {
+			int colon = line.indexOf(':');
+			if (colon == -1) {
+				continue;
+			}
+			String name = line.substring(0, colon).trim().toLowerCase();
+			String value = line.substring(colon + 1).trim();
+			if (name.equals("content-length")) {
+				contentLength = Long.parseLong(value);
+			} else if (name.equals("content-range") && value.startsWith("bytes ")) {
+				rangeStart = Long.parseLong(value.substring(6, value.indexOf('-')).trim());
+			} else if (name.equals("connection")) {
+				keepAlive = !value.equalsIgnoreCase("close");
+			} else if (name.equals("transfer-encoding") && !value.equalsIgnoreCase("identity")) {
+				throw new IOException("Unsupported transfer encoding: " + value);
+			}
+		}
+		
+		if (code == 206) {
+			if (rangeStart != range.offset || contentLength != range.length) {
+				throw new IOException("Unexpected range " + rangeStart + " (" + contentLength + " bytes), expected " 
+						+ range.offset + " (" + range.length + " bytes)");
+			}
+			this.readBody(r, range);
+		} else if (code == 200 && contentLength >= range.offset + range.length) {
+			// Reading the whole file for each span would download it again and again
+			this.rangeSupported = false;
+			this.skip(range.offset);
+			this.readBody(r, range);
+			this.skip(contentLength - range.offset - range.length);
+		} else {
+			throw new IOException("HTTP error: " + status);
+		}
+		return keepAlive;
+	}
+	
+	/**
+	 * Reads the range into the span, a block at a time, and sets each block 
+	 * in its piece as soon as it is received
+	 * @param r SpanRequest
+	 * @param range Range
+	 */
+	private void readBody(SpanRequest r, Range range) throws IOException {
+		
+		int position = range.dest;
+		int end = range.dest + range.length;
+		while (position < end) {
+			int blockEnd = Math.min(end, (position / r.blockSize + 1) * r.blockSize);
+			this.readFully(r.data, position, blockEnd - position);
+			position = blockEnd;
+			while (r.delivered < position && r.delivered + Math.min(r.blockSize, r.data.length - r.delivered) <= position) {
+				int length = Math.min(r.blockSize, r.data.length - r.delivered);
+				byte[] block = new byte[length];
+				System.arraycopy(r.data, r.delivered, block, 0, length);
+				this.blockReceived(r.piece, r.begin + r.delivered, block);
+				r.delivered += length;
+				this.nbBlocksInFlight--;
+			}
+		}
+	}
+	
+	/**
+	 * Sets the block received in its piece, and completes the piece if it was 
+	 * the last block
+	 * @param piece Piece
+	 * @param begin int
+	 * @param data byte[]
+	 */
+	private void blockReceived(Piece piece, int begin, byte[] data) {
+		
+		int index = piece.getIndex();
+		ActivePiece a = this.active.get(index);
+		a.pending.remove(Integer.valueOf(begin));
+		if (!piece.hasBlock(begin) && !this.downloadManager.isPieceComplete(index)) {
+			piece.setBlock(begin, data);
+			this.downloadManager.blockReceived(this.id, index, begin, data.length);
+		}
+		synchronized (this) {
+			this.nbBytes += data.length;
+		}
+		this.checkPiece(a);
+	}
+	
+	/**
+	 * Leaves the piece when all the blocks requested have been received. If all 
+	 * the blocks of the piece are received, the piece is verified, unless a task 
+	 * already did.
+	 * @param a ActivePiece
+	 */
+	private void checkPiece(ActivePiece a) {
+		
+		if (a.moreBlocks || !a.pending.isEmpty()) {
+			return;
+		}
+		int index = a.piece.getIndex();
+		if (a.piece.claimVerification()) {
+			if (a.piece.verify()) {
+				this.downloadManager.pieceCompleted(this.id, index, true, null);
+			} else {
+				logger.warn(this.id + " piece " + index + " failed the hash check");
+				a.piece.clearData();
+				this.downloadManager.pieceCompleted(this.id, index, false, null);
+			}
+		}
+		this.active.remove(index);
+		a.piece.removeDownloader();
+		this.downloadManager.pieceRequestActive(index, false);
+	}
+	
+	/**
+	 * Releases the blocks requested and not received, so that they are 
+	 * requested again
+	 */
+	private void releaseInFlight() {
+		for (SpanRequest r : this.inFlight) {
+			ActivePiece a = this.active.get(r.piece.getIndex());
+			for (int offset = r.delivered; offset < r.data.length; offset += r.blockSize) {
+				a.pending.remove(Integer.valueOf(r.begin + offset));
+				a.piece.releaseBlock(r.begin + offset);
+			}
+			a.moreBlocks = true;
+		}
+		this.inFlight.clear();
+		this.nbBlocksInFlight = 0;
+	}
+	
+	/**
+	 * Closes the connection and leaves the pieces being downloaded, so that the 
+	 * other peers download their blocks
+	 */
+	private void abort() {
+		this.close();
+		this.releaseInFlight();
+		for (Iterator<ActivePiece> it = this.active.values().iterator(); it.hasNext(); ) {
+			ActivePiece a = it.next();
+			it.remove();
+			a.piece.removeDownloader();
+			this.downloadManager.pieceRequestActive(a.piece.getIndex(), false);
+		}
+		this.downloadManager.webSeedReleased(this.id);
+	}
+	
+	/**
+	 * Stops the web seed
+	 */
+	public void end() {
+		this.run = false;
+		this.interrupt();
+		Socket s = this.socket;
+		if (s != null) {
+			try {
+				s.close();
+			} catch (IOException ioe) {
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes downloaded from the web seed
+	 * @return long
+	 */
+	public synchronized long getNbBytes() {
+		return this.nbBytes;
+	}
+	
+	public synchronized long getNbRequests() {
+		return this.nbRequests;
+	}
+	
+	public synchronized long getNbConnections() {
+		return this.nbConnections;
+	}
+	
+	public synchronized long getNbErrors() {
+		return this.nbErrors;
+	}
+
+}
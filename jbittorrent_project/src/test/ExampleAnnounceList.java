@@ -0,0 +1,161 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jbittorrent.Peer;
+import jbittorrent.PeerUpdateListener;
+import jbittorrent.PeerUpdater;
+import jbittorrent.TorrentFile;
+import jbittorrent.TrackerStatus;
+import jbittorrent.Utils;
+
+/**
+ * Announces a torrent with an announce-list (BEP 12) of two tiers to local 
+ * stand-in UDP trackers (see {@link ExampleUDPTracker}): the first tier has 
+ * a tracker that never answers followed by a working one, and the second tier 
+ * a slow tracker.
+ * <p>
+ * The peers of the working tracker are delivered without waiting for the slow 
+ * tracker, the working tracker is moved to the front of its tier, and the 
+ * tracker that does not answer is skipped in the next announce. Then the 
+ * updater runs on its own: each tier announces on its own schedule, so the 
+ * first tier is not held back by the slow one, and the stopped event does 
+ * not wait for the slow tracker longer than {@link PeerUpdater#EVENT_TIMEOUT}.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class ExampleAnnounceList {
+
+	/**
+	 * ExampleAnnounceList [slowTrackerDelay]
+	 * 
+	 * 3000
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		long delay = args.length > 0 ? Long.parseLong(args[0]) : 3000;
+		
+		ExampleUDPTracker.StandInTracker dead = new ExampleUDPTracker.StandInTracker(Integer.MAX_VALUE);
+		ExampleUDPTracker.StandInTracker live = new ExampleUDPTracker.StandInTracker(0);
+		ExampleUDPTracker.StandInTracker slow = new ExampleUDPTracker.StandInTracker(0);
+		slow.setDelay(delay);
+		dead.start();
+		live.start();
+		slow.start();
+		
+		TorrentFile torrent = new TorrentFile();
+		torrent.info_hash_as_binary = Utils.generateID();
+		torrent.total_length = 1 << 20;
+		ArrayList<String> tier0 = new ArrayList<String>();
+		tier0.add("udp://127.0.0.1:" + dead.getPort() + "/announce");
+		tier0.add("udp://127.0.0.1:" + live.getPort() + "/announce");
+		ArrayList<String> tier1 = new ArrayList<String>();
+		tier1.add("udp://127.0.0.1:" + slow.getPort() + "/announce");
+		torrent.announceList.add(tier0);
+		torrent.announceList.add(tier1);
+		torrent.announceURL = tier0.get(0);
+		
+		// Peers known by only one tracker, and one peer known by both
+		for (int i = 1; i <= 3; i++) {
+			live.addPeer(torrent.info_hash_as_binary, new byte[]{10, 0, 0, (byte) i}, 6881);
+			slow.addPeer(torrent.info_hash_as_binary, new byte[]{10, 0, 1, (byte) i}, 6881);
+		}
+		slow.addPeer(torrent.info_hash_as_binary, new byte[]{10, 0, 0, 1}, 6881);
+		
+		PeerUpdater updater = new PeerUpdater(Utils.generateID(), torrent, 1800);
+		for (String url : tier0) {
+			updater.getUDPTrackerClient(url).setTimeout(200);
+			updater.getUDPTrackerClient(url).setMaxRetries(1);
+		}
+		final long[] start = new long[1];
+		updater.addPeerUpdateListener(new PeerUpdateListener() {
+			public void updatePeerList(LinkedHashMap<String, Peer> list) {
+				System.out.println("  + " + (System.currentTimeMillis() - start[0]) + " ms: " + list.keySet());
+			}
+			public void updateFailed(int error, String message) {
+			}
+			public void updatePeerListState(Map<String, Integer> mapState) {
+			}
+		});
+		
+		for (int round = 0; round < 2; round++) {
+			System.out.println("Announce " + round + ":");
+			start[0] = System.currentTimeMillis();
+			LinkedHashMap<String, Peer> peers = updater.announce(round == 0 ? "&event=started" : "");
+			System.out.println("  All the tiers answered in " + (System.currentTimeMillis() - start[0]) 
+					+ " ms - " + (peers == null ? 0 : peers.size()) + " peers");
+			List<List<TrackerStatus>> tiers = updater.getTrackerTiers();
+			for (int i = 0; i < tiers.size(); i++) {
+				System.out.println("  Tier " + i + ": " + tiers.get(i));
+			}
+		}
+		
+		System.out.println("Each tier on its own schedule, every second:");
+		updater.setInterval(1);
+		start[0] = System.currentTimeMillis();
+		updater.start();
+		Thread.sleep(5000);
+		List<List<TrackerStatus>> tiers = updater.getTrackerTiers();
+		for (int i = 0; i < tiers.size(); i++) {
+			System.out.println("  Tier " + i + ": " + tiers.get(i));
+		}
+		
+		long stop = System.currentTimeMillis();
+		updater.end();
+		System.out.println("Stopped event sent in " + (System.currentTimeMillis() - stop) + " ms (slow tracker delay " + delay + " ms)");
+		System.exit(0);
+	}
+
+}
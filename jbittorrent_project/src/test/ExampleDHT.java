@@ -0,0 +1,142 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import jbittorrent.DHTNode;
+
+/**
+ * Runs a DHT (BEP 5) of many nodes on localhost: the nodes join it through 
+ * the first node and a few other nodes, some of them announce themselves as 
+ * peers of several torrents, and other nodes look up the peers of those 
+ * torrents. Reports the size of the routing tables and the latency of the 
+ * lookups.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class ExampleDHT {
+
+	/**
+	 * ExampleDHT [nbNodes] [nbTorrents] [peersPerTorrent]
+	 * 
+	 * 200 10 5
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		int nbNodes = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int nbTorrents = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int peersPerTorrent = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		
+		InetAddress localhost = InetAddress.getByName("127.0.0.1");
+		Random r = new Random(1);
+		List<DHTNode> nodes = new ArrayList<DHTNode>();
+		
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < nbNodes; i++) {
+			DHTNode node = new DHTNode(0);
+			node.setQueryTimeout(500);
+			List<InetSocketAddress> bootstrap = new ArrayList<InetSocketAddress>();
+			for (int j = 0; j < Math.min(i, 3); j++) {
+				DHTNode known = j == 0 ? nodes.get(0) : nodes.get(r.nextInt(i));
+				bootstrap.add(known.getAddress(localhost));
+			}
+			node.bootstrap(bootstrap);
+			nodes.add(node);
+		}
+		System.out.println(nbNodes + " nodes joined in " + (System.currentTimeMillis() - start) + " ms");
+		
+		int total = 0;
+		int min = Integer.MAX_VALUE;
+		int max = 0;
+		for (DHTNode node : nodes) {
+			int size = node.getRoutingTableSize();
+			total += size;
+			min = Math.min(min, size);
+			max = Math.max(max, size);
+		}
+		System.out.println("Routing table size: average " + (total / nbNodes) + ", min " + min + ", max " + max);
+		
+		List<byte[]> torrents = new ArrayList<byte[]>();
+		for (int t = 0; t < nbTorrents; t++) {
+			byte[] infoHash = new byte[20];
+			r.nextBytes(infoHash);
+			torrents.add(infoHash);
+			for (int p = 0; p < peersPerTorrent; p++) {
+				nodes.get(r.nextInt(nbNodes)).announce(infoHash, 7000 + p);
+			}
+		}
+		
+		int found = 0;
+		long lookups = 0;
+		long totalLatency = 0;
+		long maxLatency = 0;
+		for (byte[] infoHash : torrents) {
+			DHTNode node = nodes.get(r.nextInt(nbNodes));
+			List<InetSocketAddress> peers = node.getPeers(infoHash);
+			found += Math.min(peers.size(), peersPerTorrent);
+			lookups++;
+			totalLatency += node.getLastLookupLatency();
+			maxLatency = Math.max(maxLatency, node.getLastLookupLatency());
+		}
+		System.out.println("Lookups: " + lookups + " - peers found: " + found + " of " + (nbTorrents * peersPerTorrent) 
+				+ " - latency: average " + (totalLatency / Math.max(1, lookups)) + " ms, max " + maxLatency + " ms");
+		System.out.println("First node: " + nodes.get(0).getStats());
+		
+		for (DHTNode node : nodes) {
+			node.close();
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+package test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import jbittorrent.DownloadManager;
+import jbittorrent.EventLoop;
+import jbittorrent.TorrentFile;
+import jbittorrent.TorrentProcessor;
+import jbittorrent.Utils;
+
+/**
+ * Downloads a torrent with the {@link EventLoop} of the leechers enabled: the 
+ * callbacks of their tasks, the piece selection included, are run by the 
+ * thread of the loop instead of the threads of the peers.
+ * <p>
+ * A seed and several leechers share a torrent over the loopback interface, 
+ * announced to a stand-in UDP tracker. The example checks that every leecher 
+ * completes the file intact, and prints the number of events delivered by 
+ * its loop and the time they waited in the queue.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class ExampleEventLoop {
+
+	/**
+	 * ExampleEventLoop [nbLeechers] [fileSizeKB]
+	 * 
+	 * 3 4000
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		int nbLeechers = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		int fileSize = (args.length > 1 ? Integer.parseInt(args[1]) : 4000) * 1024;
+		
+		File dir = new File(System.getProperty("java.io.tmpdir"), "jbittorrent-eventloop");
+		File seedDir = new File(dir, "seed");
+		seedDir.mkdirs();
+		File file = new File(seedDir, "eventloop.bin");
+		byte[] data = new byte[fileSize];
+		new Random(1).nextBytes(data);
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(data);
+		fos.close();
+		
+		ExampleUDPTracker.StandInTracker tracker = new ExampleUDPTracker.StandInTracker(0);
+		tracker.start();
+		
+		TorrentProcessor tp = new TorrentProcessor();
+		tp.setAnnounceURL("udp://127.0.0.1:" + tracker.getPort() + "/announce");
+		tp.setPieceLength(256);
+		tp.addFile(file);
+		tp.generatePieceHashes();
+		byte[] torrentData = tp.generateTorrent();
+		
+		DownloadManager[] clients = new DownloadManager[nbLeechers + 1];
+		for (int i = 0; i <= nbLeechers; i++) {
+			File clientDir = i == 0 ? seedDir : new File(dir, "leecher" + i);
+			clientDir.mkdirs();
+			if(i > 0){
+				new File(clientDir, "eventloop.bin").delete();
+			}
+			TorrentProcessor parser = new TorrentProcessor();
+			TorrentFile torrent = parser.getTorrentFile(parser.parseTorrent(torrentData));
+			DownloadManager dm = new DownloadManager(torrent, Utils.generateID(), clientDir.getAbsolutePath() + File.separator, 2, 16, -1);
+			if(i > 0){
+				dm.setEventLoop(true);
+			}
+			dm.startListening(6881, 6999);
+			dm.startTrackerUpdate();
+			dm.start();
+			clients[i] = dm;
+		}
+		
+		long start = System.currentTimeMillis();
+		boolean complete = false;
+		while(!complete && System.currentTimeMillis() - start < 120000){
+			Thread.sleep(500);
+			complete = true;
+			for (DownloadManager dm : clients) {
+				complete &= dm.isComplete();
+			}
+		}
+		System.out.println("Swarm with the event loop: " + (complete ? "all the leechers completed" : "not completed") + " in " 
+				+ (System.currentTimeMillis() - start) + " ms");
+		
+		for (int i = 1; i <= nbLeechers; i++) {
+			byte[] received = new byte[data.length];
+			File leecherFile = new File(new File(dir, "leecher" + i), "eventloop.bin");
+			if(leecherFile.length() == data.length){
+				RandomAccessFile raf = new RandomAccessFile(leecherFile, "r");
+				raf.readFully(received);
+				raf.close();
+			}
+			EventLoop loop = clients[i].getEventLoop();
+			System.out.println("Leecher " + i + ": " + clients[i].getCompleted() + "%" 
+					+ (Arrays.equals(data, received) ? " (file intact)" : " (FILE CORRUPTED)") 
+					+ " - events " + loop.getNbEvents() + " - queue latency: average " + loop.getAverageLatency() 
+					+ " us, max " + loop.getMaxLatency() + " us");
+		}
+		System.exit(0);
+	}
+
+}
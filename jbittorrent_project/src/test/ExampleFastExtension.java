@@ -0,0 +1,152 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+package test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import jbittorrent.DownloadManager;
+import jbittorrent.TorrentFile;
+import jbittorrent.TorrentProcessor;
+import jbittorrent.Utils;
+
+/**
+ * Runs a swarm of one seed and several leechers on localhost, with a local 
+ * stand-in UDP tracker (see {@link ExampleUDPTracker}), and prints for each 
+ * leecher the time to its first complete piece and the messages of the fast 
+ * extension (BEP 6). The leechers that the seed does not unchoke start with 
+ * the pieces of their allowed fast set; with an allowed fast set size of 0 
+ * they wait for an unchoke.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class ExampleFastExtension {
+
+	/**
+	 * ExampleFastExtension [nbLeechers] [fileSizeKB] [allowedFastSetSize]
+	 * 
+	 * 6 8000 10
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		int nbLeechers = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+		int fileSize = (args.length > 1 ? Integer.parseInt(args[1]) : 8000) * 1024;
+		int allowedFast = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		
+		ExampleUDPTracker.StandInTracker tracker = new ExampleUDPTracker.StandInTracker(0);
+		tracker.start();
+		
+		File dir = new File(System.getProperty("java.io.tmpdir"), "jbittorrent-fast");
+		File seedDir = new File(dir, "seed");
+		seedDir.mkdirs();
+		File file = new File(seedDir, "fast.bin");
+		byte[] data = new byte[fileSize];
+		new Random(1).nextBytes(data);
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(data);
+		fos.close();
+		
+		TorrentProcessor tp = new TorrentProcessor();
+		tp.setAnnounceURL("udp://127.0.0.1:" + tracker.getPort() + "/announce");
+		tp.setPieceLength(256);
+		tp.addFile(file);
+		tp.generatePieceHashes();
+		byte[] torrentData = tp.generateTorrent();
+		
+		DownloadManager[] clients = new DownloadManager[nbLeechers + 1];
+		long[] started = new long[nbLeechers + 1];
+		long[] firstPiece = new long[nbLeechers + 1];
+		for (int i = 0; i <= nbLeechers; i++) {
+			File clientDir = i == 0 ? seedDir : new File(dir, "leecher" + i);
+			clientDir.mkdirs();
+			if(i > 0){
+				new File(clientDir, "fast.bin").delete();
+			}
+			TorrentProcessor parser = new TorrentProcessor();
+			TorrentFile torrent = parser.getTorrentFile(parser.parseTorrent(torrentData));
+			DownloadManager dm = new DownloadManager(torrent, Utils.generateID(), clientDir.getAbsolutePath() + File.separator, 2, 16, -1);
+			dm.setAllowedFastSetSize(allowedFast);
+			dm.startListening(7881, 7999);
+			dm.startTrackerUpdate();
+			dm.start();
+			clients[i] = dm;
+			started[i] = System.currentTimeMillis();
+			Thread.sleep(200);
+		}
+		
+		long start = System.currentTimeMillis();
+		boolean complete = false;
+		while(!complete && System.currentTimeMillis() - start < 60000){
+			Thread.sleep(50);
+			complete = true;
+			for (int i = 1; i <= nbLeechers; i++) {
+				if(firstPiece[i] == 0 && clients[i].getCompleted() > 0){
+					firstPiece[i] = System.currentTimeMillis() - started[i];
+				}
+				complete &= clients[i].isComplete();
+			}
+		}
+		System.out.println((complete ? "All the leechers completed" : "Not completed") + " in " 
+				+ (System.currentTimeMillis() - start) + " ms, allowed fast set size " + allowedFast);
+		long total = 0;
+		for (int i = 0; i <= nbLeechers; i++) {
+			DownloadManager dm = clients[i];
+			total += firstPiece[i];
+			System.out.println((i == 0 ? "Seed" : "Leecher " + i + ": first piece in " + firstPiece[i] + " ms") 
+					+ " - " + dm.getCompleted() + "% - rejects sent " + dm.getNbRejectsSent() + ", received " + dm.getNbRejectsReceived() 
+					+ " - allowed fast blocks served " + dm.getNbAllowedFastServed() + " - suggests sent " + dm.getNbSuggestsSent() 
+					+ ", followed " + dm.getNbSuggestedPieces() + " - read cache hits " + dm.getNbReadCacheHits() 
+					+ ", misses " + dm.getNbReadCacheMisses());
+		}
+		System.out.println("Average time to the first piece: " + (total / Math.max(1, nbLeechers)) + " ms");
+		System.exit(0);
+	}
+
+}
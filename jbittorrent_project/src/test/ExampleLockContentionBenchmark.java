@@ -0,0 +1,206 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.BitSet;
+import java.util.Random;
+
+import jbittorrent.DTListener;
+import jbittorrent.DownloadManager;
+import jbittorrent.DownloadTask;
+import jbittorrent.EventLoop;
+import jbittorrent.Peer;
+import jbittorrent.TorrentFile;
+
+/**
+ * Benchmark that drives many simulated peers against a single {@link DownloadManager}, 
+ * each one from its own thread as the {@link jbittorrent.DownloadTask}s do, and reports 
+ * the time the threads spent blocked waiting for the locks of the manager.
+ * <p>
+ * Every simulated peer announces its bitfield and then announces pieces with 
+ * HAVE messages, while checking the state of the pieces and the progress of 
+ * the download, which are the most frequent callbacks of the tasks. Each peer 
+ * also has an active task, for which it asks the manager for a piece to 
+ * download (peerReady) and reports the pieces it downloads (pieceCompleted). 
+ * With the option loop, the announces are posted to the {@link jbittorrent.EventLoop} 
+ * of the manager, and the time they wait in its queue is reported.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class ExampleLockContentionBenchmark {
+
+	/**
+	 * ExampleLockContentionBenchmark [nbPeers] [operations] [nbPieces] [loop]
+	 * 
+	 * 64 20000 4096 loop
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		final int nbPeers = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		final int operations = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		final int nbPieces = args.length > 2 ? Integer.parseInt(args[2]) : 4096;
+		final boolean loop = args.length > 3 && args[3].equals("loop");
+		final int pieceLength = 16384;
+		
+		File dir = new File(System.getProperty("java.io.tmpdir"), "jbittorrent-benchmark");
+		dir.mkdirs();
+		
+		TorrentFile torrent = new TorrentFile();
+		Random r = new Random(1);
+		for (int i = 0; i < nbPieces; i++) {
+			byte[] hash = new byte[20];
+			r.nextBytes(hash);
+			torrent.piece_hash_values_as_binary.add(hash);
+		}
+		torrent.pieceLength = pieceLength;
+		torrent.total_length = (long) (nbPieces - 1) * pieceLength + pieceLength / 2;
+		torrent.saveAs = "benchmark.bin";
+		torrent.name.add("benchmark.bin");
+		torrent.length.add(torrent.total_length);
+		
+		final DownloadManager dm = new DownloadManager(torrent, "-BENCHMARK-000000000".getBytes(), dir.getAbsolutePath() + File.separator);
+		dm.setEventLoop(loop);
+		final DTListener listener = loop ? dm.getEventLoop() : dm;
+		dm.start();
+		
+		final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if(mx.isThreadContentionMonitoringSupported()){
+			mx.setThreadContentionMonitoringEnabled(true);
+		}
+		
+		final long[] blockedTime = new long[nbPeers];
+		final long[] blockedCount = new long[nbPeers];
+		Thread[] peers = new Thread[nbPeers];
+		for (int p = 0; p < nbPeers; p++) {
+			final int index = p;
+			final String id = "10.0." + (p / 250) + "." + (p % 250 + 1) + ":6881";
+			final long seed = p;
+			Peer peer = new Peer(null, "10.0." + (p / 250) + "." + (p % 250 + 1), 6881);
+			peer.setChoking(false);
+			final DownloadTask dt = new DownloadTask(peer, torrent.info_hash_as_binary, "-BENCHMARK-000000000".getBytes(), true, null);
+			dm.addActiveTask(id, dt);
+			peers[p] = new Thread(new Runnable() {
+				public void run() {
+					Random r = new Random(seed);
+					BitSet has = new BitSet(nbPieces);
+					for (int i = 0; i < nbPieces; i++) {
+						if(r.nextBoolean()){
+							has.set(i);
+						}
+					}
+					listener.peerAvailability(id, has);
+					for (int op = 0; op < operations; op++) {
+						int piece = r.nextInt(nbPieces);
+						switch (op % 6) {
+						case 0:
+							has.set(piece);
+							listener.peerHave(id, piece);
+							break;
+						case 1:
+							dm.isPieceComplete(piece);
+							break;
+						case 2:
+							dm.isPieceRequested(piece);
+							break;
+						case 3:
+							dm.peerReady(id);
+							break;
+						case 4:
+							dm.pieceCompleted(id, piece, r.nextInt(8) == 0, dt);
+							break;
+						default:
+							dm.getCompleted();
+						}
+					}
+					ThreadInfo info = mx.getThreadInfo(Thread.currentThread().getId());
+					blockedTime[index] = info.getBlockedTime();
+					blockedCount[index] = info.getBlockedCount();
+				}
+			});
+		}
+		
+		long start = System.nanoTime();
+		for (Thread t: peers) {
+			t.start();
+		}
+		for (Thread t: peers) {
+			t.join();
+		}
+		EventLoop eventLoop = dm.getEventLoop();
+		while(eventLoop != null && eventLoop.getNbPending() > 0){
+			Thread.sleep(1);
+		}
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		
+		long totalBlockedTime = 0;
+		long totalBlockedCount = 0;
+		for (int p = 0; p < nbPeers; p++) {
+			totalBlockedTime += blockedTime[p];
+			totalBlockedCount += blockedCount[p];
+		}
+		
+		System.out.println("Peers: " + nbPeers + " - Operations per peer: " + operations + " - Pieces: " + nbPieces);
+		System.out.println("Elapsed: " + elapsed + " ms (" + ((long) nbPeers * operations * 1000 / Math.max(1, elapsed)) + " ops/s)");
+		System.out.println("Lock waits: " + totalBlockedCount + " - Total time blocked: " + totalBlockedTime + " ms (" 
+				+ ((float) totalBlockedTime / nbPeers) + " ms per peer)");
+		if(eventLoop != null){
+			System.out.println("Event loop: " + eventLoop.getNbEvents() + " events - Queue latency: average " 
+					+ eventLoop.getAverageLatency() + " us, max " + eventLoop.getMaxLatency() + " us - Max queued events: " + eventLoop.getMaxPending());
+		}
+		
+		new File(dir, "benchmark.bin").delete();
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,150 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import jbittorrent.DownloadManager;
+import jbittorrent.TorrentFile;
+import jbittorrent.TorrentProcessor;
+import jbittorrent.Utils;
+
+/**
+ * Runs a swarm of one seed and several leechers on localhost, with a local 
+ * stand-in UDP tracker (see {@link ExampleUDPTracker}) that only returns the 
+ * seed to each announce. The leechers only learn about each other through 
+ * the peer exchange (BEP 11) of the extension protocol (BEP 10).
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class ExamplePeerExchange {
+
+	/**
+	 * ExamplePeerExchange [nbLeechers] [fileSizeKB] [pexIntervalMs]
+	 * 
+	 * 4 4000 1000
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		int nbLeechers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int fileSize = (args.length > 1 ? Integer.parseInt(args[1]) : 4000) * 1024;
+		long pexInterval = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+		
+		ExampleUDPTracker.StandInTracker tracker = new ExampleUDPTracker.StandInTracker(0);
+		tracker.setMaxPeers(1);
+		tracker.start();
+		
+		File dir = new File(System.getProperty("java.io.tmpdir"), "jbittorrent-pex");
+		File seedDir = new File(dir, "seed");
+		seedDir.mkdirs();
+		File file = new File(seedDir, "pex.bin");
+		byte[] data = new byte[fileSize];
+		new Random(1).nextBytes(data);
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(data);
+		fos.close();
+		
+		TorrentProcessor tp = new TorrentProcessor();
+		tp.setAnnounceURL("udp://127.0.0.1:" + tracker.getPort() + "/announce");
+		tp.setPieceLength(256);
+		tp.addFile(file);
+		tp.generatePieceHashes();
+		byte[] torrentData = tp.generateTorrent();
+		
+		DownloadManager[] clients = new DownloadManager[nbLeechers + 1];
+		for (int i = 0; i <= nbLeechers; i++) {
+			File clientDir = i == 0 ? seedDir : new File(dir, "leecher" + i);
+			clientDir.mkdirs();
+			new File(clientDir, "pex.bin").delete();
+			if(i == 0){
+				fos = new FileOutputStream(file);
+				fos.write(data);
+				fos.close();
+			}
+			TorrentProcessor parser = new TorrentProcessor();
+			TorrentFile torrent = parser.getTorrentFile(parser.parseTorrent(torrentData));
+			DownloadManager dm = new DownloadManager(torrent, Utils.generateID(), clientDir.getAbsolutePath() + File.separator, 2, 16, -1);
+			dm.setPeerExchangeInterval(pexInterval);
+			dm.startListening(7881, 7999);
+			dm.startTrackerUpdate();
+			dm.start();
+			clients[i] = dm;
+			// The tracker returns the oldest peer, the seed
+			Thread.sleep(200);
+		}
+		
+		long start = System.currentTimeMillis();
+		boolean complete = false;
+		while(!complete && System.currentTimeMillis() - start < 60000){
+			Thread.sleep(500);
+			complete = true;
+			for (DownloadManager dm : clients) {
+				complete &= dm.isComplete();
+			}
+		}
+		System.out.println((complete ? "All the leechers completed" : "Not completed") + " in " 
+				+ (System.currentTimeMillis() - start) + " ms");
+		int discovered = 0;
+		for (int i = 0; i <= nbLeechers; i++) {
+			DownloadManager dm = clients[i];
+			if(i > 0 && dm.getNbPexPeers() > 0){
+				discovered++;
+			}
+			System.out.println((i == 0 ? "Seed" : "Leecher " + i) + ": " + dm.getCompleted() + "% - PEX sent: " + dm.getNbPexSent() 
+					+ ", received: " + dm.getNbPexReceived() + ", new peers: " + dm.getNbPexPeers());
+		}
+		// Without PEX the leechers would only know the seed
+		System.out.println("Leechers that learned other peers through PEX: " + discovered + "/" + nbLeechers);
+		System.exit(0);
+	}
+
+}
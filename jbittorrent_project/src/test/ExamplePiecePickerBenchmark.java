@@ -0,0 +1,169 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+import jbittorrent.PieceAvailability;
+import jbittorrent.RarestFirstComparator;
+import jbittorrent.RarestFirstPiecePicker;
+
+/**
+ * Micro benchmark that compares the time needed to choose a piece with 
+ * the comparator based selection (shuffle and sort of all the possible pieces 
+ * with the {@link RarestFirstComparator}) and with the {@link RarestFirstPiecePicker}.
+ * <p>
+ * The picker is measured with a uniform availability (every peer has each piece 
+ * with probability 1/2) and with a skewed one, its worst case: half of the pieces 
+ * are rare, each one held by a single peer, and the picks are for peers that only 
+ * have the common pieces, so the buckets of the rare pieces have to be skipped.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class ExamplePiecePickerBenchmark {
+
+	/**
+	 * ExamplePiecePickerBenchmark [nbPieces] [nbPeers] [iterations]
+	 * 
+	 * 50000 200 1000
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		
+		int nbPieces = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		int nbPeers = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		
+		Random r = new Random(1);
+		LinkedHashMap<String, BitSet> peerAvailabilies = new LinkedHashMap<String, BitSet>();
+		PieceAvailability availability = new PieceAvailability(nbPieces);
+		RarestFirstPiecePicker picker = new RarestFirstPiecePicker();
+		picker.init(nbPieces);
+		availability.addPiecePicker(picker);
+		
+		for (int p = 0; p < nbPeers; p++) {
+			BitSet has = new BitSet(nbPieces);
+			for (int i = 0; i < nbPieces; i++) {
+				if(r.nextInt(100) < 50){
+					has.set(i);
+				}
+			}
+			peerAvailabilies.put("peer" + p, has);
+			availability.peerBitfield("peer" + p, has);
+		}
+		
+		BitSet[] peers = peerAvailabilies.values().toArray(new BitSet[0]);
+		
+		// Comparator based selection, as long as only a few iterations are needed to see the cost
+		int comparatorIterations = Math.max(1, Math.min(iterations, 5));
+		long start = System.nanoTime();
+		for (int it = 0; it < comparatorIterations; it++) {
+			BitSet has = peers[it % peers.length];
+			ArrayList<Integer> possible = new ArrayList<Integer>(nbPieces);
+			for (int i = has.nextSetBit(0); i >= 0; i = has.nextSetBit(i + 1)) {
+				possible.add(i);
+			}
+			Collections.shuffle(possible);
+			Collections.sort(possible, new RarestFirstComparator(peerAvailabilies));
+		}
+		long comparator = (System.nanoTime() - start) / comparatorIterations;
+		
+		// Warm up of the picker
+		measure(picker, peers, iterations);
+		
+		long bucket = measure(picker, peers, iterations);
+		
+		// Skewed availability: the rare pieces are held by the last peers only
+		int nbRare = nbPieces / 2;
+		int nbRareHolders = Math.max(1, nbPeers / 10);
+		RarestFirstPiecePicker skewedPicker = new RarestFirstPiecePicker();
+		skewedPicker.init(nbPieces);
+		PieceAvailability skewedAvailability = new PieceAvailability(nbPieces);
+		skewedAvailability.addPiecePicker(skewedPicker);
+		BitSet[] commonPeers = new BitSet[nbPeers - nbRareHolders];
+		for (int p = 0; p < nbPeers; p++) {
+			BitSet has = new BitSet(nbPieces);
+			has.set(nbRare, nbPieces);
+			if(p < commonPeers.length){
+				commonPeers[p] = has;
+			}else{
+				for (int i = p - commonPeers.length; i < nbRare; i += nbRareHolders) {
+					has.set(i);
+				}
+			}
+			skewedAvailability.peerBitfield("peer" + p, has);
+		}
+		measure(skewedPicker, commonPeers, iterations);
+		long skewed = measure(skewedPicker, commonPeers, iterations);
+		
+		System.out.println("Pieces: " + nbPieces + " - Peers: " + nbPeers);
+		System.out.println("RarestFirstComparator (shuffle + sort): " + comparator / 1000 + " us/piece (" + comparatorIterations + " iterations)");
+		System.out.println("RarestFirstPiecePicker (buckets): " + bucket / 1000.0 + " us/piece (" + iterations + " iterations)");
+		System.out.println("RarestFirstPiecePicker, skewed availability (" + nbRare + " rare pieces the peer does not have): " 
+				+ skewed / 1000.0 + " us/piece (" + iterations + " iterations)");
+	}
+	
+	/**
+	 * Returns the average time, in ns, to pick a piece for the given peers
+	 */
+	private static long measure(RarestFirstPiecePicker picker, BitSet[] peers, int iterations) {
+		long start = System.nanoTime();
+		for (int it = 0; it < iterations; it++) {
+			int piece = picker.pickPiece(peers[it % peers.length]);
+			picker.pieceStateChanged(piece, false, true);
+			picker.pieceStateChanged(piece, false, false);
+		}
+		return (System.nanoTime() - start) / iterations;
+	}
+
+}
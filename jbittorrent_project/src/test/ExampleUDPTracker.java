@@ -0,0 +1,300 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+
+package test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import jbittorrent.Peer;
+import jbittorrent.PeerUpdater;
+import jbittorrent.TorrentFile;
+import jbittorrent.UDPTrackerClient;
+import jbittorrent.Utils;
+
+/**
+ * Runs a local stand-in UDP tracker and announces to it several torrents with 
+ * the {@link UDPTrackerClient}, through the {@link PeerUpdater} that chooses 
+ * it for the udp:// announce URLs.
+ * <p>
+ * The stand-in tracker answers the connect, announce and scrape requests of the 
+ * BEP 15, returns the peers that announced the same torrent in the compact 
+ * format, and drops the first datagrams it receives to show the retransmissions. 
+ * The number of connect requests shows that the connection id is reused by the 
+ * announces of all the torrents.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class ExampleUDPTracker {
+	
+	/**
+	 * Minimal UDP tracker that keeps the peers of every torrent in memory
+	 */
+	static class StandInTracker extends Thread {
+		
+		private DatagramSocket socket;
+		private Map<String, Map<String, byte[]>> swarms = new LinkedHashMap<String, Map<String, byte[]>>();
+		private Map<Long, Long> connectionIds = new LinkedHashMap<Long, Long>();
+		private Random random = new Random();
+		private int drop;
+		private long delay = 0;
+		private int maxPeers = Integer.MAX_VALUE;
+		private int nbRequests = 0;
+		private int nbConnects = 0;
+		private int nbDropped = 0;
+		
+		StandInTracker(int drop) throws Exception {
+			this.socket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+			this.drop = drop;
+			this.setDaemon(true);
+		}
+		
+		int getPort() {
+			return this.socket.getLocalPort();
+		}
+		
+		/**
+		 * Delays every response, to stand in for a slow tracker
+		 * @param delay long in ms
+		 */
+		synchronized void setDelay(long delay) {
+			this.delay = delay;
+		}
+		
+		/**
+		 * Limits the number of peers returned to each announce, the oldest ones first
+		 * @param maxPeers int
+		 */
+		synchronized void setMaxPeers(int maxPeers) {
+			this.maxPeers = maxPeers;
+		}
+		
+		/**
+		 * Registers a peer in the swarm of a torrent
+		 * @param infoHash byte[]
+		 * @param ip byte[]
+		 * @param port int
+		 */
+		synchronized void addPeer(byte[] infoHash, byte[] ip, int port) {
+			byte[] p = ByteBuffer.allocate(7).put(ip).putShort((short) port).put((byte) 0).array();
+			this.getSwarm(infoHash).put(Utils.bytesToHex(ip) + ":" + port, p);
+		}
+		
+		public void run() {
+			byte[] buffer = new byte[2048];
+			while(true){
+				try {
+					DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+					this.socket.receive(packet);
+					synchronized (this) {
+						this.nbRequests++;
+						if(this.nbDropped < this.drop){
+							this.nbDropped++;
+							continue;
+						}
+					}
+					ByteBuffer request = ByteBuffer.wrap(buffer, 0, packet.getLength());
+					ByteBuffer response = this.answer(request, packet);
+					long delay;
+					synchronized (this) {
+						delay = this.delay;
+					}
+					if(delay > 0){
+						Thread.sleep(delay);
+					}
+					this.socket.send(new DatagramPacket(response.array(), response.position(), packet.getSocketAddress()));
+				} catch (Exception e) {
+					return;
+				}
+			}
+		}
+		
+		private synchronized ByteBuffer answer(ByteBuffer request, DatagramPacket packet) {
+			long connectionId = request.getLong(0);
+			int action = request.getInt(8);
+			int transactionId = request.getInt(12);
+			ByteBuffer response = ByteBuffer.allocate(1024);
+			if(action == UDPTrackerClient.ACTION_CONNECT && connectionId == UDPTrackerClient.PROTOCOL_ID){
+				long id = this.random.nextLong();
+				this.connectionIds.put(id, System.currentTimeMillis());
+				this.nbConnects++;
+				response.putInt(UDPTrackerClient.ACTION_CONNECT).putInt(transactionId).putLong(id);
+			} else if(!this.connectionIds.containsKey(connectionId)){
+				response.putInt(UDPTrackerClient.ACTION_ERROR).putInt(transactionId).put("Connection ID missmatch".getBytes());
+			} else if(action == UDPTrackerClient.ACTION_ANNOUNCE){
+				byte[] infoHash = new byte[20];
+				request.position(16);
+				request.get(infoHash);
+				long left = request.getLong(64);
+				int event = request.getInt(80);
+				int port = request.getShort(96) & 0xFFFF;
+				Map<String, byte[]> swarm = this.getSwarm(infoHash);
+				int seeders = 0;
+				for (byte[] p : swarm.values()) {
+					seeders += p[6];
+				}
+				response.putInt(UDPTrackerClient.ACTION_ANNOUNCE).putInt(transactionId).putInt(1800)
+						.putInt(swarm.size() - seeders).putInt(seeders);
+				int n = 0;
+				for (byte[] p : swarm.values()) {
+					if(n++ < this.maxPeers){
+						response.put(p, 0, 6);
+					}
+				}
+				String key = packet.getAddress().getHostAddress() + ":" + port;
+				if(event == UDPTrackerClient.EVENT_STOPPED){
+					swarm.remove(key);
+				} else {
+					byte[] p = ByteBuffer.allocate(7).put(packet.getAddress().getAddress()).putShort((short) port)
+							.put((byte) (left == 0 ? 1 : 0)).array();
+					swarm.put(key, p);
+				}
+			} else if(action == UDPTrackerClient.ACTION_SCRAPE){
+				byte[] infoHash = new byte[20];
+				request.position(16);
+				request.get(infoHash);
+				Map<String, byte[]> swarm = this.getSwarm(infoHash);
+				int seeders = 0;
+				for (byte[] p : swarm.values()) {
+					seeders += p[6];
+				}
+				response.putInt(UDPTrackerClient.ACTION_SCRAPE).putInt(transactionId).putInt(seeders)
+						.putInt(seeders).putInt(swarm.size() - seeders);
+			} else {
+				response.putInt(UDPTrackerClient.ACTION_ERROR).putInt(transactionId).put("Unknown action".getBytes());
+			}
+			return response;
+		}
+		
+		private Map<String, byte[]> getSwarm(byte[] infoHash) {
+			String hash = Utils.bytesToHex(infoHash);
+			Map<String, byte[]> swarm = this.swarms.get(hash);
+			if(swarm == null){
+				swarm = new LinkedHashMap<String, byte[]>();
+				this.swarms.put(hash, swarm);
+			}
+			return swarm;
+		}
+		
+		synchronized int getNbRequests() {
+			return this.nbRequests;
+		}
+		
+		synchronized int getNbConnects() {
+			return this.nbConnects;
+		}
+		
+	}
+
+	/**
+	 * ExampleUDPTracker [nbTorrents] [nbPeers] [droppedDatagrams]
+	 * 
+	 * 100 5 2
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		int nbTorrents = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int nbPeers = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int drop = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+		
+		StandInTracker tracker = new StandInTracker(drop);
+		tracker.start();
+		String announceURL = "udp://127.0.0.1:" + tracker.getPort() + "/announce";
+		System.out.println("Stand-in tracker: " + announceURL);
+		
+		Random r = new Random(1);
+		PeerUpdater[] updaters = new PeerUpdater[nbTorrents * nbPeers];
+		TorrentFile[] torrents = new TorrentFile[nbTorrents];
+		long start = System.nanoTime();
+		LinkedHashMap<String, Peer> lastPeers = null;
+		for (int t = 0; t < nbTorrents; t++) {
+			TorrentFile torrent = new TorrentFile();
+			torrent.announceURL = announceURL;
+			torrent.info_hash_as_binary = new byte[20];
+			r.nextBytes(torrent.info_hash_as_binary);
+			torrent.total_length = 1 << 20;
+			torrents[t] = torrent;
+			for (int p = 0; p < nbPeers; p++) {
+				PeerUpdater updater = new PeerUpdater(Utils.generateID(), torrent, 1800);
+				updater.setListeningPort(6881 + p);
+				// A short first timeout shows the retransmissions without waiting 15 s
+				updater.getUDPTrackerClient(torrent).setTimeout(200);
+				long left = p == 0 ? 0 : torrent.total_length;
+				Map<String, Object> m = updater.contactTracker(Utils.generateID(), torrent, 0, 0, left, "&event=started");
+				lastPeers = updater.processResponse(m);
+				if(lastPeers == null){
+					System.out.println("Announce failed for torrent " + t);
+				}
+				updaters[t * nbPeers + p] = updater;
+			}
+		}
+		long elapsed = (System.nanoTime() - start) / 1000;
+		
+		int nbRetransmits = 0;
+		for (PeerUpdater updater : updaters) {
+			nbRetransmits += updater.getUDPTrackerClient(announceURL).getNbRetransmits();
+		}
+		System.out.println("Announces: " + updaters.length + " in " + elapsed / 1000 + " ms (" 
+				+ (elapsed / Math.max(1, updaters.length)) + " us per announce)");
+		System.out.println("Datagrams received by the tracker: " + tracker.getNbRequests() 
+				+ " - Connect requests: " + tracker.getNbConnects() + " - Retransmissions: " + nbRetransmits);
+		System.out.println("Peers returned to the last announce: " + (lastPeers == null ? null : lastPeers.keySet()));
+		System.out.println("Scrape of the last torrent: " + updaters[updaters.length - 1].contactTrackerScrapeGetInfoPeers(torrents[nbTorrents - 1]));
+		
+		for (PeerUpdater updater : updaters) {
+			updater.getUDPTrackerClient(announceURL).close();
+		}
+	}
+
+}
@@ -0,0 +1,230 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+package test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+
+import jbittorrent.ConListenerInterface;
+import jbittorrent.DownloadManager;
+import jbittorrent.NetworkEmulator;
+import jbittorrent.TorrentFile;
+import jbittorrent.TorrentProcessor;
+import jbittorrent.UTPManager;
+import jbittorrent.UTPSocket;
+import jbittorrent.Utils;
+
+/**
+ * Tests the uTP transport (BEP 29) over the loopback interface, with the 
+ * datagrams going through an emulated bottleneck link.
+ * <p>
+ * First a stream is sent over a single uTP connection, with the target delay 
+ * of LEDBAT and then with a target so large that only the losses of the full 
+ * queue slow it down, as TCP does: both fill the link, but LEDBAT keeps the 
+ * queuing delay near its target, while the other one fills the queue until it 
+ * drops datagrams. Then a swarm of one seed and several leechers 
+ * with uTP enabled downloads a torrent through the emulated network.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class ExampleUTP {
+	
+	/**
+	 * Sends the data over a uTP connection through the emulator and prints the 
+	 * throughput and the queuing delay of the bottleneck
+	 */
+	private static void transfer(String name, final byte[] data, NetworkEmulator emulator, long targetDelay) throws Exception {
+		
+		UTPManager sender = new UTPManager(0);
+		UTPManager receiver = new UTPManager(0);
+		sender.getDatagramListener().setNetworkEmulator(emulator);
+		receiver.getDatagramListener().setNetworkEmulator(emulator);
+		final byte[] received = new byte[data.length];
+		final int[] length = {0};
+		receiver.addConListenerInterface(new ConListenerInterface() {
+			public void connectionAccepted(final Socket s) {
+				new Thread() {
+					public void run() {
+						try {
+							InputStream is = s.getInputStream();
+							int n;
+							while(length[0] < received.length && (n = is.read(received, length[0], received.length - length[0])) != -1){
+								length[0] += n;
+							}
+							s.close();
+						} catch (Exception e) {
+							System.out.println("Receive error: " + e);
+						}
+						synchronized (length) {
+							length.notifyAll();
+						}
+					}
+				}.start();
+			}
+		});
+		sender.start();
+		receiver.start();
+		
+		UTPSocket socket = sender.connect(new InetSocketAddress("127.0.0.1", receiver.getLocalPort()), 5000);
+		socket.setTargetDelay(targetDelay);
+		emulator.resetStats();
+		long start = System.currentTimeMillis();
+		OutputStream os = socket.getOutputStream();
+		for (int i = 0; i < data.length; i += 16384) {
+			os.write(data, i, Math.min(16384, data.length - i));
+		}
+		synchronized (length) {
+			while(length[0] < data.length && System.currentTimeMillis() - start < 120000){
+				length.wait(1000);
+			}
+		}
+		long time = System.currentTimeMillis() - start;
+		socket.close();
+		
+		System.out.println(name + ": " + length[0] + " bytes in " + time + " ms (" + (length[0] / Math.max(1, time)) + " KB/s)" 
+				+ (Arrays.equals(data, received) ? ", data intact" : ", DATA CORRUPTED"));
+		System.out.println("  queuing delay average " + emulator.getAverageQueueDelay() + " ms - max " + emulator.getMaxQueueDelay() 
+				+ " ms - datagrams dropped by the queue " + emulator.getNbDropped() + " - lost " + emulator.getNbLost() 
+				+ " - retransmits " + socket.getNbRetransmits() + " - window " + socket.getWindow() + " bytes - RTT " + socket.getRTT() + " ms");
+		sender.close();
+		receiver.close();
+	}
+
+	/**
+	 * ExampleUTP [bandwidthKBs] [delayMs] [lossPercent] [nbLeechers] [fileSizeKB]
+	 * 
+	 * 500 20 0.5 3 4000
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		long bandwidth = (args.length > 0 ? Long.parseLong(args[0]) : 500) * 1024;
+		long delay = args.length > 1 ? Long.parseLong(args[1]) : 20;
+		double loss = (args.length > 2 ? Double.parseDouble(args[2]) : 0.5) / 100;
+		int nbLeechers = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+		int fileSize = (args.length > 4 ? Integer.parseInt(args[4]) : 4000) * 1024;
+		
+		NetworkEmulator emulator = new NetworkEmulator(1);
+		emulator.setDelay(delay, delay / 10);
+		emulator.setBandwidth(bandwidth, 300);
+		emulator.start();
+		
+		byte[] stream = new byte[(int) bandwidth * 20];
+		new Random(2).nextBytes(stream);
+		transfer("LEDBAT (target 100 ms)", stream, emulator, UTPSocket.TARGET_DELAY);
+		transfer("Loss based (target 10 s)", stream, emulator, 10000000);
+		
+		// The swarm, with random losses and without bottleneck
+		emulator.setBandwidth(0, 0);
+		emulator.setLoss(loss);
+		
+		File dir = new File(System.getProperty("java.io.tmpdir"), "jbittorrent-utp");
+		File seedDir = new File(dir, "seed");
+		seedDir.mkdirs();
+		File file = new File(seedDir, "utp.bin");
+		byte[] data = new byte[fileSize];
+		new Random(1).nextBytes(data);
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(data);
+		fos.close();
+		
+		ExampleUDPTracker.StandInTracker tracker = new ExampleUDPTracker.StandInTracker(0);
+		tracker.start();
+		
+		TorrentProcessor tp = new TorrentProcessor();
+		tp.setAnnounceURL("udp://127.0.0.1:" + tracker.getPort() + "/announce");
+		tp.setPieceLength(256);
+		tp.addFile(file);
+		tp.generatePieceHashes();
+		byte[] torrentData = tp.generateTorrent();
+		
+		DownloadManager[] clients = new DownloadManager[nbLeechers + 1];
+		for (int i = 0; i <= nbLeechers; i++) {
+			File clientDir = i == 0 ? seedDir : new File(dir, "leecher" + i);
+			clientDir.mkdirs();
+			if(i > 0){
+				new File(clientDir, "utp.bin").delete();
+			}
+			TorrentProcessor parser = new TorrentProcessor();
+			TorrentFile torrent = parser.getTorrentFile(parser.parseTorrent(torrentData));
+			DownloadManager dm = new DownloadManager(torrent, Utils.generateID(), clientDir.getAbsolutePath() + File.separator, 2, 16, -1);
+			dm.startListening(7881, 7999);
+			dm.startUTP();
+			dm.getDatagramListener().setNetworkEmulator(emulator);
+			dm.startTrackerUpdate();
+			dm.start();
+			clients[i] = dm;
+		}
+		
+		long start = System.currentTimeMillis();
+		boolean complete = false;
+		while(!complete && System.currentTimeMillis() - start < 120000){
+			Thread.sleep(500);
+			complete = true;
+			for (DownloadManager dm : clients) {
+				complete &= dm.isComplete();
+			}
+		}
+		System.out.println("Swarm with " + (loss * 100) + "% loss: " + (complete ? "all the leechers completed" : "not completed") + " in " 
+				+ (System.currentTimeMillis() - start) + " ms");
+		for (int i = 0; i <= nbLeechers; i++) {
+			UTPManager utp = clients[i].getUTPManager();
+			System.out.println((i == 0 ? "Seed" : "Leecher " + i) + ": " + clients[i].getCompleted() + "% - uTP connections opened " 
+					+ utp.getNbConnectionsOpened() + ", accepted " + utp.getNbConnectionsAccepted());
+		}
+		System.out.println("Datagrams sent " + emulator.getNbSent() + " - lost " + emulator.getNbLost());
+		System.exit(0);
+	}
+
+}
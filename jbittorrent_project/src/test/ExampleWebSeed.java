@@ -0,0 +1,321 @@
+/*
+ * jbittorrent library is an implementation in Java language of BiTorrent protocol.
+ *
+ * It is based on the Java Bittorrent API of Baptiste Dubuis, Artificial Inteligency Laboratory, EPFL.
+ * @version 1.0
+ * @author Baptiste Dubuis
+ * To contact the author:
+ * email: baptiste.dubuis@gmail.com
+ *
+ * More information about Java Bittorrent API:
+ * http://sourceforge.net/projects/bitext/
+ *
+ * New contribution are:
+ * 1. Optimization of process establishement of conecctions betwen the peers of the swarm.
+ * 2. Improvements in the Choking Algorithm.
+ * 3. Improvements in the Optimistic Unchoking implementation.
+ * 4. Implementation of Rarest First algorithm .
+ * 5. Implementation of End Game Strategy.
+ *
+ * This project contains three packs:
+ * 1. jbittorrent is the "client" part, i.e. it implements all classes needed to publish files, share them and download them.
+ * 2. trackerBT is the "tracker" part, i.e. it implements all classes needed to run a Bittorrent tracker that coordinates peers exchanges.
+ * 3. test contains example classes on how a developer could create new applications and new .torrent file.
+ *
+ * Copyright (C) 2013 Sandra Ferrer, AST Research Group
+ *
+ * jbittorrent is free software; you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published 
+ * by the Free Software Foundation; either version 2 of the License, 
+ * or (at your option) any later version.
+ *
+ * jbittorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ * 
+ *  @version 1.0
+ *  @author Sandra Ferrer Celma <sandra.ferrer@urv.cat>
+ * 
+ */
+package test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.Random;
+
+import jbittorrent.DownloadManager;
+import jbittorrent.TorrentFile;
+import jbittorrent.TorrentProcessor;
+import jbittorrent.Utils;
+import jbittorrent.WebSeed;
+
+/**
+ * Downloads a torrent without any seed: the only source of the pieces is an 
+ * HTTP web seed (BEP 19), served by a minimal local HTTP server that supports 
+ * range requests and persistent connections. The first leecher does not use 
+ * any tracker, all its pieces come from the web seed. The other leechers also 
+ * exchange the pieces they have downloaded, found through a stand-in UDP 
+ * tracker (see {@link ExampleUDPTracker}). At last, a leecher downloads from 
+ * a server that ignores the ranges: its web seed keeps the blocks of the 
+ * first response and stops.
+ * 
+ * @author Sandra Ferrer Celma
+ * @version 0.1
+ * 
+ */
+public class ExampleWebSeed {
+	
+	/**
+	 * Minimal HTTP/1.1 server of the files of a directory, with range requests 
+	 * and persistent connections
+	 */
+	static class StandInWebServer extends Thread {
+		
+		private ServerSocket ss;
+		private File root;
+		private boolean ranges;
+		private int nbConnections = 0;
+		private int nbRequests = 0;
+		private int maxPipelined = 0;
+		
+		StandInWebServer(File root, boolean ranges) throws IOException {
+			this.ss = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+			this.root = root;
+			this.ranges = ranges;
+			this.setDaemon(true);
+		}
+		
+		int getPort() {
+			return this.ss.getLocalPort();
+		}
+		
+		synchronized int getNbConnections() {
+			return this.nbConnections;
+		}
+		
+		synchronized int getNbRequests() {
+			return this.nbRequests;
+		}
+		
+		/**
+		 * Returns the largest number of requests received on a connection before 
+		 * their responses were sent
+		 * @return int
+		 */
+		synchronized int getMaxPipelined() {
+			return this.maxPipelined;
+		}
+		
+		public void run() {
+			while(true){
+				final Socket s;
+				try {
+					s = this.ss.accept();
+				} catch (IOException ioe) {
+					return;
+				}
+				synchronized (this) {
+					this.nbConnections++;
+				}
+				new Thread() {
+					public void run() {
+						try {
+							serve(s);
+						} catch (IOException ioe) {
+						}
+						try {
+							s.close();
+						} catch (IOException ioe) {
+						}
+					}
+				}.start();
+			}
+		}
+		
+		private static String readLine(InputStream is) throws IOException {
+			StringBuilder line = new StringBuilder();
+			int c;
+			while((c = is.read()) != '\n'){
+				if(c == -1){
+					return null;
+				}
+				if(c != '\r'){
+					line.append((char) c);
+				}
+			}
+			return line.toString();
+		}
+		
+		private void serve(Socket s) throws IOException {
+			InputStream is = new BufferedInputStream(s.getInputStream());
+			OutputStream os = new BufferedOutputStream(s.getOutputStream());
+			String request;
+			while((request = readLine(is)) != null){
+				String range = null;
+				int length = request.length() + 2;
+				String line;
+				while((line = readLine(is)) != null && line.length() > 0){
+					length += line.length() + 2;
+					if(line.toLowerCase().startsWith("range:")){
+						range = line.substring(6).trim();
+					}
+				}
+				// The bytes already received belong to the requests that follow, of about the same length
+				int pipelined = 1 + is.available() / (length + 2);
+				synchronized (this) {
+					this.nbRequests++;
+					this.maxPipelined = Math.max(this.maxPipelined, pipelined);
+				}
+				File file = new File(this.root, URLDecoder.decode(request.split(" ")[1], "UTF-8"));
+				if(!file.isFile()){
+					os.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n".getBytes("ISO-8859-1"));
+					os.flush();
+					continue;
+				}
+				long start = 0;
+				long end = file.length() - 1;
+				String status = "200 OK";
+				String contentRange = "";
+				if(this.ranges && range != null && range.startsWith("bytes=")){
+					String[] r = range.substring(6).split("-");
+					start = Long.parseLong(r[0]);
+					if(r.length > 1){
+						end = Math.min(end, Long.parseLong(r[1]));
+					}
+					status = "206 Partial Content";
+					contentRange = "Content-Range: bytes " + start + "-" + end + "/" + file.length() + "\r\n";
+				}
+				byte[] data = new byte[(int) (end - start + 1)];
+				RandomAccessFile raf = new RandomAccessFile(file, "r");
+				raf.seek(start);
+				raf.readFully(data);
+				raf.close();
+				os.write(("HTTP/1.1 " + status + "\r\n" + contentRange + "Content-Length: " + data.length + "\r\n\r\n").getBytes("ISO-8859-1"));
+				os.write(data);
+				if(is.available() == 0){
+					os.flush();
+				}
+			}
+		}
+	}
+
+	/**
+	 * ExampleWebSeed [nbLeechers] [fileSizeKB]
+	 * 
+	 * 2 8000
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		int nbLeechers = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+		int fileSize = (args.length > 1 ? Integer.parseInt(args[1]) : 8000) * 1024;
+		
+		File dir = new File(System.getProperty("java.io.tmpdir"), "jbittorrent-webseed");
+		File serverDir = new File(dir, "www");
+		serverDir.mkdirs();
+		File file = new File(serverDir, "webseed.bin");
+		byte[] data = new byte[fileSize];
+		new Random(1).nextBytes(data);
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(data);
+		fos.close();
+		
+		StandInWebServer server = new StandInWebServer(serverDir, true);
+		server.start();
+		ExampleUDPTracker.StandInTracker tracker = new ExampleUDPTracker.StandInTracker(0);
+		tracker.start();
+		
+		TorrentProcessor tp = new TorrentProcessor();
+		tp.setAnnounceURL("udp://127.0.0.1:" + tracker.getPort() + "/announce");
+		tp.addWebSeed("http://127.0.0.1:" + server.getPort() + "/");
+		tp.setPieceLength(256);
+		tp.addFile(file);
+		tp.generatePieceHashes();
+		byte[] torrentData = tp.generateTorrent();
+		
+		DownloadManager[] clients = new DownloadManager[nbLeechers];
+		for (int i = 0; i < nbLeechers; i++) {
+			File clientDir = new File(dir, "leecher" + (i + 1));
+			clientDir.mkdirs();
+			new File(clientDir, file.getName()).delete();
+			TorrentProcessor parser = new TorrentProcessor();
+			TorrentFile torrent = parser.getTorrentFile(parser.parseTorrent(torrentData));
+			DownloadManager dm = new DownloadManager(torrent, Utils.generateID(), clientDir.getAbsolutePath() + File.separator, 2, 16, -1);
+			dm.startListening(7881, 7999);
+			if(i > 0){
+				dm.startTrackerUpdate();
+			}
+			dm.start();
+			dm.startWebSeeds();
+			clients[i] = dm;
+		}
+		
+		long start = System.currentTimeMillis();
+		boolean complete = false;
+		while(!complete && System.currentTimeMillis() - start < 60000){
+			Thread.sleep(500);
+			complete = true;
+			for (DownloadManager dm : clients) {
+				complete &= dm.isComplete();
+			}
+		}
+		System.out.println((complete ? "All the leechers completed" : "Not completed") + " in " 
+				+ (System.currentTimeMillis() - start) + " ms, without any seed");
+		for (int i = 0; i < nbLeechers; i++) {
+			DownloadManager dm = clients[i];
+			WebSeed ws = dm.getWebSeeds().get(0);
+			File downloaded = new File(dir, "leecher" + (i + 1) + File.separator + file.getName());
+			byte[] content = new byte[(int) downloaded.length()];
+			RandomAccessFile raf = new RandomAccessFile(downloaded, "r");
+			raf.readFully(content);
+			raf.close();
+			System.out.println("Leecher " + (i + 1) + (i == 0 ? " (no tracker)" : "") + ": " + dm.getCompleted() + "% " + (Arrays.equals(data, content) ? "(file intact)" : "(FILE DIFFERS)") 
+					+ " - from the web seed: " + (ws.getNbBytes() / 1024) + " KB, " + ws.getNbRequests() + " range requests on " 
+					+ ws.getNbConnections() + " connection(s), errors " + ws.getNbErrors());
+		}
+		System.out.println("Web server: " + server.getNbRequests() + " requests on " + server.getNbConnections() 
+				+ " connections, up to " + server.getMaxPipelined() + " requests pipelined");
+		
+		StandInWebServer noRanges = new StandInWebServer(serverDir, false);
+		noRanges.start();
+		TorrentProcessor tp2 = new TorrentProcessor();
+		tp2.setAnnounceURL("udp://127.0.0.1:" + tracker.getPort() + "/announce");
+		tp2.addWebSeed("http://127.0.0.1:" + noRanges.getPort() + "/");
+		tp2.setPieceLength(256);
+		tp2.addFile(file);
+		tp2.generatePieceHashes();
+		TorrentProcessor parser = new TorrentProcessor();
+		TorrentFile torrent = parser.getTorrentFile(parser.parseTorrent(tp2.generateTorrent()));
+		File clientDir = new File(dir, "leecher-noranges");
+		clientDir.mkdirs();
+		new File(clientDir, file.getName()).delete();
+		DownloadManager dm = new DownloadManager(torrent, Utils.generateID(), clientDir.getAbsolutePath() + File.separator, 2, 16, -1);
+		dm.startListening(7881, 7999);
+		dm.start();
+		dm.startWebSeeds();
+		WebSeed ws = dm.getWebSeeds().get(0);
+		ws.join(30000);
+		System.out.println("Server ignoring the ranges: web seed " + (ws.isAlive() ? "still running" : "stopped") 
+				+ (ws.isRangeSupported() ? "" : " (ranges ignored)") + " after " + noRanges.getNbRequests() + " requests answered with the whole file - " 
+				+ (ws.getNbBytes() / 1024) + " KB kept, leecher at " + dm.getCompleted() + "%");
+		System.exit(0);
+	}
+
+}